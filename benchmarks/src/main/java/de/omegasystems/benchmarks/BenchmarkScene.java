@@ -0,0 +1,138 @@
+package de.omegasystems.benchmarks;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import de.omegasystems.App;
+import de.omegasystems.core.Token;
+import de.omegasystems.dataobjects.TokenData;
+import de.omegasystems.renderer.MainRenderer;
+import de.omegasystems.renderer.TranslationHandler;
+import de.omegasystems.renderer.components.ImageComponent;
+import de.omegasystems.renderer.components.TokenRendererComponent;
+
+/**
+ * Sets up a renderer with a generated map and randomly placed tokens, like the
+ * application would after loading a scene, and draws into an offscreen image
+ * instead of a window.
+ */
+public class BenchmarkScene {
+
+    public static final Dimension SCREEN_SIZE = new Dimension(1920, 1080);
+
+    // Benchmarks have to be comparable between runs, so the scene is always the same
+    private static final long SEED = 42;
+
+    static {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    private final App app;
+    private final MainRenderer renderer;
+    private final TokenRendererComponent tokenRenderer;
+    private final ImageComponent map;
+    private final BufferedImage target;
+    private final Graphics2D graphics;
+    private final AffineTransform screenTransform;
+
+    public BenchmarkScene(int mapSize, int tokenCount) {
+        // The app has to exist, components read their settings from it
+        app = new App(false);
+
+        renderer = new MainRenderer();
+        renderer.setSize(SCREEN_SIZE);
+        // Benchmarks measure drawing itself, not blitting cached layers
+        renderer.setLayerCachingEnabled(false);
+
+        map = new ImageComponent(createMapImage(mapSize));
+        renderer.addWorldRenderComponent(map);
+
+        tokenRenderer = new TokenRendererComponent();
+        renderer.addWorldRenderComponent(tokenRenderer);
+
+        Random random = new Random(SEED);
+        for (int i = 0; i < tokenCount; i++) {
+            Token token = new Token(new TokenData(), tokenRenderer);
+            tokenRenderer.addToken(token);
+            token.setPosition(new Point2D.Double(random.nextInt(mapSize), random.nextInt(mapSize)));
+        }
+
+        target = new BufferedImage(SCREEN_SIZE.width, SCREEN_SIZE.height, BufferedImage.TYPE_INT_RGB);
+        graphics = target.createGraphics();
+        graphics.setClip(0, 0, SCREEN_SIZE.width, SCREEN_SIZE.height);
+        screenTransform = graphics.getTransform();
+    }
+
+    private static BufferedImage createMapImage(int mapSize) {
+        // Random blobs instead of a flat color, so image operations can't take shortcuts
+        BufferedImage image = new BufferedImage(mapSize, mapSize, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        Random random = new Random(SEED);
+        int blobSize = Math.max(8, mapSize / 32);
+        for (int i = 0; i < 2000; i++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g.fillOval(random.nextInt(mapSize), random.nextInt(mapSize), blobSize, blobSize);
+        }
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Zooms to the given scale, centered on the middle of the map.
+     */
+    public void setZoom(double scale) {
+        Dimension mapSize = renderer.getDrawingDimensions();
+        double offsetX = SCREEN_SIZE.width / 2.0 - mapSize.width / 2.0 * scale;
+        double offsetY = SCREEN_SIZE.height / 2.0 - mapSize.height / 2.0 * scale;
+        ((TranslationHandler) renderer.getTranslationhandler()).setView(scale, offsetX, offsetY);
+    }
+
+    /**
+     * Resets the graphics object and applies the world transform, the same way
+     * the renderer does before drawing world components.
+     */
+    public Graphics2D beginWorldFrame() {
+        Point2D.Double offset = renderer.getTranslationhandler().getOffset();
+        double scale = renderer.getTranslationhandler().getScale();
+
+        graphics.setTransform(screenTransform);
+        graphics.translate(offset.x, offset.y);
+        graphics.scale(scale, scale);
+        return graphics;
+    }
+
+    /**
+     * @return The part of the map that is visible at the current zoom
+     */
+    public Rectangle getVisibleWorldArea() {
+        return renderer.getTranslationhandler().getVisibleWorldArea(SCREEN_SIZE)
+                .intersection(new Rectangle(renderer.getDrawingDimensions()));
+    }
+
+    public void dispose() {
+        graphics.dispose();
+    }
+
+    public App getApp() {
+        return app;
+    }
+
+    public MainRenderer getRenderer() {
+        return renderer;
+    }
+
+    public TokenRendererComponent getTokenRenderer() {
+        return tokenRenderer;
+    }
+
+    public ImageComponent getMap() {
+        return map;
+    }
+
+}
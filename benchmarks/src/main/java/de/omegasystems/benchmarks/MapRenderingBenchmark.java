@@ -0,0 +1,74 @@
+package de.omegasystems.benchmarks;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.omegasystems.renderer.components.GridComponent;
+
+/**
+ * Draws the static layers, the map image and the grid, at different zoom
+ * levels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MapRenderingBenchmark {
+
+    @Param({ "2048", "8192" })
+    public int mapSize;
+
+    @Param({ "0.125", "0.5", "1.0", "2.0" })
+    public double zoom;
+
+    private BenchmarkScene scene;
+    private GridComponent grid;
+    private Dimension drawingSize;
+    private Rectangle visibleArea;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scene = new BenchmarkScene(mapSize, 0);
+
+        grid = new GridComponent();
+        scene.getRenderer().addWorldRenderComponent(grid);
+        scene.getApp().getToolbarAttributes().VIEW_GRID_ENABLED.setValue(true);
+
+        scene.setZoom(zoom);
+        drawingSize = scene.getRenderer().getDrawingDimensions();
+        visibleArea = scene.getVisibleWorldArea();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scene.dispose();
+    }
+
+    @Benchmark
+    public void drawMap() {
+        scene.getMap().draw(scene.beginWorldFrame(), drawingSize, visibleArea);
+    }
+
+    @Benchmark
+    public void drawGrid() {
+        grid.draw(scene.beginWorldFrame(), drawingSize, visibleArea);
+    }
+
+}
@@ -0,0 +1,53 @@
+package de.omegasystems.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.omegasystems.utility.Observerhandler;
+
+/**
+ * Notifies observers, which every property change and token update goes
+ * through.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObserverBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int observerCount;
+
+    private Observerhandler<Integer> handler;
+    private Integer value = 42;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) {
+        handler = new Observerhandler<>();
+        for (int i = 0; i < observerCount; i++) {
+            // Distinct instances, the handler ignores observers it already knows
+            handler.addObserver(newVal -> blackhole.consume(newVal));
+        }
+    }
+
+    @Benchmark
+    public void notifyObservers() {
+        handler.notifyObservers(value);
+    }
+
+}
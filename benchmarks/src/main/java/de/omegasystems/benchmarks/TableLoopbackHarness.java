@@ -0,0 +1,220 @@
+package de.omegasystems.benchmarks;
+
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.swing.SwingUtilities;
+
+import de.omegasystems.core.MapTileSource;
+import de.omegasystems.core.Token;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.dataobjects.TokenData;
+import de.omegasystems.network.TableClient;
+import de.omegasystems.network.TableServer;
+import de.omegasystems.renderer.OffscreenRenderer;
+import de.omegasystems.renderer.components.ImageComponent;
+import de.omegasystems.renderer.components.TokenRendererComponent;
+import de.omegasystems.renderer.map.TilePyramid;
+
+/**
+ * Shares a table over the loopback interface with a number of headless
+ * clients, drags a token at 60 Hz on the host and prints the traffic per client
+ * and how long a few edits take to reach all of them. Whether the clients end
+ * up with the same scene as the host is checked by the TableLoopbackTest of
+ * the application.<br>
+ * <br>
+ * Not a JMH benchmark, as it measures the traffic of the whole session rather
+ * than a single operation. Run it from the benchmark jar:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar de.omegasystems.benchmarks.TableLoopbackHarness [clients] [seconds]
+ * </pre>
+ */
+public class TableLoopbackHarness {
+
+    private static final int DEFAULT_CLIENT_COUNT = 20;
+    private static final int DEFAULT_SECONDS = 3;
+    private static final int TOKEN_COUNT = 300;
+    private static final int MAP_SIZE = 4000;
+    private static final long FRAME_MILLIS = 16;
+    // Mouse events arrive faster than frames, several of them move the token per frame
+    private static final int MOVES_PER_FRAME = 3;
+    private static final long CONVERGENCE_TIMEOUT_MILLIS = 5000;
+
+    static {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    // A table without a window, either the one of the host or of a client
+    private record Table(MenubarAttributeHolder settings, TokenRendererComponent tokens) {
+    }
+
+    private final MapTileSource map = new TilePyramid(new BufferedImage(MAP_SIZE, MAP_SIZE,
+            BufferedImage.TYPE_INT_RGB));
+    private Table host;
+    private TableServer server;
+    private final List<Table> clientTables = new ArrayList<>();
+    private final List<TableClient> clients = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CLIENT_COUNT;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+
+        TableLoopbackHarness harness = new TableLoopbackHarness();
+        try {
+            harness.start(clientCount);
+            harness.run(seconds);
+        } finally {
+            harness.close();
+        }
+        System.exit(0);
+    }
+
+    private Table createTable() {
+        OffscreenRenderer renderer = new OffscreenRenderer(100, 100);
+        // The map defines the size of the world, which token positions are clamped to
+        renderer.addWorldRenderComponent(new ImageComponent(map));
+        MenubarAttributeHolder settings = new MenubarAttributeHolder();
+        TokenRendererComponent tokens = new TokenRendererComponent();
+        tokens.bindSettings(settings);
+        renderer.addWorldRenderComponent(tokens);
+        return new Table(settings, tokens);
+    }
+
+    private void start(int clientCount) throws Exception {
+        onEdt(() -> {
+            host = createTable();
+            for (int i = 0; i < TOKEN_COUNT; i++) {
+                TokenData data = new TokenData();
+                data.getName().setValue("Token " + i);
+                Token token = new Token(data, host.tokens());
+                host.tokens().addToken(token);
+                token.setPosition(new Point2D.Double(i * 10, i * 10));
+            }
+
+            // Port 0 picks any free port
+            server = new TableServer(0, host.settings(), host.tokens());
+            try {
+                server.start();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        InetSocketAddress address = new InetSocketAddress("localhost", server.getPort());
+        for (int i = 0; i < clientCount; i++) {
+            Table[] table = new Table[1];
+            onEdt(() -> table[0] = createTable());
+            TableClient client = new TableClient(address, table[0].settings(), table[0].tokens());
+            client.connect();
+            clientTables.add(table[0]);
+            clients.add(client);
+        }
+    }
+
+    /**
+     * Drags the first token around for the given time, then edits, removes and
+     * changes a few things at once and waits for the clients to catch up.
+     */
+    private void run(int seconds) throws Exception {
+        // Let every client receive the full state before measuring
+        if (!awaitConsistency())
+            System.out.println("Clients didn't receive the initial state in time");
+        long bytesBefore = server.getSentBytes();
+        long start = System.nanoTime();
+
+        int frames = (int) (seconds * 1000 / FRAME_MILLIS);
+        for (int frame = 0; frame < frames; frame++) {
+            for (int move = 0; move < MOVES_PER_FRAME; move++) {
+                Point2D.Double position = new Point2D.Double((frame * MOVES_PER_FRAME + move) % MAP_SIZE,
+                        frame % MAP_SIZE);
+                onEdt(() -> host.tokens().getAllTokens().get(0).setPosition(position));
+            }
+            Thread.sleep(FRAME_MILLIS);
+        }
+        double dragSeconds = (System.nanoTime() - start) / 1e9;
+        long dragBytes = server.getSentBytes() - bytesBefore;
+
+        onEdt(() -> {
+            Token edited = host.tokens().getAllTokens().get(1);
+            TokenData data = edited.createDataObject();
+            data.getName().setValue("Edited");
+            edited.updateAllValues(data);
+
+            host.tokens().beginBatch();
+            for (int i = 0; i < 50; i++)
+                host.tokens().removeToken(host.tokens().getAllTokens().get(2));
+            host.tokens().commitBatch();
+            host.settings().VIEW_GRID_SCALE.setValue(42.0);
+        });
+
+        long convergenceStart = System.nanoTime();
+        boolean isConsistent = awaitConsistency();
+        double convergenceMillis = (System.nanoTime() - convergenceStart) / 1e6;
+
+        System.out.printf("Clients: %d, tokens: %d%n", clients.size(), TOKEN_COUNT);
+        System.out.printf("Drag: %d bytes in %.2f s, %.0f bytes/s per client%n", dragBytes, dragSeconds,
+                dragBytes / dragSeconds / Math.max(1, clients.size()));
+        if (isConsistent)
+            System.out.printf("Edits reached all clients after %.1f ms%n", convergenceMillis);
+        else
+            System.out.printf("Edits didn't reach all clients within %d ms%n", CONVERGENCE_TIMEOUT_MILLIS);
+    }
+
+    private boolean awaitConsistency() throws Exception {
+        long deadline = System.currentTimeMillis() + CONVERGENCE_TIMEOUT_MILLIS;
+        while (countMismatches() > 0) {
+            if (System.currentTimeMillis() > deadline)
+                return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of clients and tokens that differ from the host
+     */
+    private int countMismatches() throws Exception {
+        int[] mismatches = { 0 };
+        onEdt(() -> {
+            Map<UUID, Token> hostTokens = new HashMap<>();
+            for (Token token : host.tokens().getAllTokens())
+                hostTokens.put(token.getUUId(), token);
+
+            for (Table client : clientTables) {
+                if (client.tokens().getTokenCount() != hostTokens.size()
+                        || !client.settings().VIEW_GRID_SCALE.getValue()
+                                .equals(host.settings().VIEW_GRID_SCALE.getValue()))
+                    mismatches[0]++;
+
+                for (Token token : client.tokens().getAllTokens()) {
+                    Token hostToken = hostTokens.get(token.getUUId());
+                    if (hostToken == null || !hostToken.getPosition().equals(token.getPosition())
+                            || !hostToken.getName().equals(token.getName())
+                            || hostToken.getSize() != token.getSize())
+                        mismatches[0]++;
+                }
+            }
+        });
+        return mismatches[0];
+    }
+
+    private void close() throws Exception {
+        for (TableClient client : clients)
+            client.close();
+        if (server != null)
+            onEdt(server::close);
+    }
+
+    private static void onEdt(Runnable runnable) throws InterruptedException, InvocationTargetException {
+        SwingUtilities.invokeAndWait(runnable);
+    }
+
+}
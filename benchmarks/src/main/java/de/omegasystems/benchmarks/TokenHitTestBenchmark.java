@@ -0,0 +1,86 @@
+package de.omegasystems.benchmarks;
+
+import java.awt.Rectangle;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.omegasystems.core.Token;
+
+/**
+ * Finds tokens under the cursor and inside selection boxes, which happens on
+ * every mouse move and drag.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TokenHitTestBenchmark {
+
+    // Cycling through a fixed set of positions keeps branch prediction honest
+    private static final int POSITION_COUNT = 1024;
+
+    @Param({ "100", "1000", "10000" })
+    public int tokenCount;
+
+    @Param({ "2048", "8192" })
+    public int mapSize;
+
+    private BenchmarkScene scene;
+    private MouseEvent[] mouseEvents;
+    private Rectangle[] selectionBoxes;
+    private int nextIndex = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scene = new BenchmarkScene(mapSize, tokenCount);
+        scene.setZoom(1.0);
+
+        Random random = new Random(7);
+        mouseEvents = new MouseEvent[POSITION_COUNT];
+        selectionBoxes = new Rectangle[POSITION_COUNT];
+        for (int i = 0; i < POSITION_COUNT; i++) {
+            mouseEvents[i] = new MouseEvent(scene.getRenderer(), MouseEvent.MOUSE_MOVED, 0, 0,
+                    random.nextInt(BenchmarkScene.SCREEN_SIZE.width), random.nextInt(BenchmarkScene.SCREEN_SIZE.height),
+                    0, false);
+
+            int boxSize = 64 + random.nextInt(512);
+            selectionBoxes[i] = new Rectangle(random.nextInt(mapSize), random.nextInt(mapSize), boxSize, boxSize);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scene.dispose();
+    }
+
+    @Benchmark
+    public Token getTokenFromPosition() {
+        nextIndex = (nextIndex + 1) % POSITION_COUNT;
+        return scene.getTokenRenderer().getTokenFromPosition(mouseEvents[nextIndex]);
+    }
+
+    @Benchmark
+    public List<Token> getTokensInArea() {
+        nextIndex = (nextIndex + 1) % POSITION_COUNT;
+        return scene.getTokenRenderer().getTokensInArea(selectionBoxes[nextIndex]);
+    }
+
+}
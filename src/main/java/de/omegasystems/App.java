@@ -2,30 +2,56 @@ package de.omegasystems;
 
 import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
 
 import javax.imageio.ImageIO;
+import javax.swing.JCheckBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
+import de.omegasystems.core.MapTileSource;
 import de.omegasystems.core.Renderer;
+import de.omegasystems.dataobjects.FogOfWar;
 import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.dataobjects.SceneData;
+import de.omegasystems.network.TableClient;
+import de.omegasystems.network.TableServer;
+import de.omegasystems.persistence.SceneFile;
+import de.omegasystems.persistence.SceneJournal;
+import de.omegasystems.renderer.LightingEngine;
 import de.omegasystems.renderer.MainRenderer;
 import de.omegasystems.renderer.MenubarComponent;
+import de.omegasystems.renderer.PlayerView;
+import de.omegasystems.renderer.SceneManager;
 import de.omegasystems.renderer.components.DebugOverlayComponent;
 import de.omegasystems.renderer.components.DragHandlingComponent;
+import de.omegasystems.renderer.components.FogOfWarComponent;
 import de.omegasystems.renderer.components.GridComponent;
 import de.omegasystems.renderer.components.ImageComponent;
+import de.omegasystems.renderer.components.LightingComponent;
 import de.omegasystems.renderer.components.TokenRendererComponent;
 import de.omegasystems.renderer.components.TokenTooltipComponent;
 import de.omegasystems.renderer.dialog.ChangeValueDialog;
+import de.omegasystems.renderer.map.StreamingTileSource;
+import de.omegasystems.utility.AbstractAttributeHolder.Action;
 
 public class App {
 
@@ -46,12 +72,32 @@ public class App {
 
     private static App instance;
     private static File debugRessourceFile = new File(System.getProperty("user.dir") + "\\src\\main\\resources");
+    private static Path autosaveDirectory = Path.of(System.getProperty("user.home"), ".ttrpg-manager", "autosave");
 
     private boolean isDevEnv;
 
     private JFrame frame;
+    private MainRenderer renderer;
     private MenubarAttributeHolder toolbarAttributes = new MenubarAttributeHolder();
 
+    private ImageComponent mapComponent;
+    private FogOfWarComponent fogComponent;
+    private LightingComponent lightingComponent;
+    private DragHandlingComponent dragHandlingComponent;
+    private LightingEngine lightingEngine;
+    private TokenRendererComponent tokenHandler;
+    private SceneManager sceneManager;
+    // The file of the map last chosen by the user, null for maps from the resources
+    private File requestedMapFile;
+    private SceneJournal autosave;
+    // Created the first time the players get their own window
+    private PlayerView playerView;
+    // At most one of them is set, depending on whether this app hosts or joined a table
+    private TableServer tableServer;
+    private TableClient tableClient;
+    // What the user had open before joining, shown again after leaving
+    private SceneData sceneBeforeJoin;
+
     public App(boolean isDevEnv) {
         instance = this;
         this.isDevEnv = isDevEnv;
@@ -68,18 +114,53 @@ public class App {
         frame.setBackground(Color.WHITE);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        var img = requestImageFromUser();
-        if (img == null)
+        SceneData recoveredScene = requestAutosaveRecovery();
+        MapTileSource map = null;
+        if (recoveredScene != null && recoveredScene.getMapFile() != null) {
+            try {
+                map = new StreamingTileSource(recoveredScene.getMapFile());
+                requestedMapFile = recoveredScene.getMapFile();
+            } catch (IOException e) {
+                System.err.println("[App] Couldn't open the autosaved map '"
+                        + recoveredScene.getMapFile().getAbsolutePath() + "'");
+                e.printStackTrace();
+            }
+        }
+        if (map == null)
+            map = requestMapFromUser();
+        if (map == null)
             System.exit(0);
 
-        var renderer = new MainRenderer();
+        renderer = new MainRenderer();
         frame.add(renderer);
         frame.setJMenuBar(new MenubarComponent(toolbarAttributes));
 
-        registerRendererComponents(img, renderer);
+        registerRendererComponents(map, renderer);
+        sceneManager = new SceneManager(renderer, mapComponent, tokenHandler, toolbarAttributes,
+                getSceneName(requestedMapFile), requestedMapFile);
+        sceneManager.addFogView(fogComponent);
+        sceneManager.setLightingEngine(lightingEngine);
+        toolbarAttributes.VIEW_IMMEDIATE_RENDERING.addObserver(renderer::setImmediateRenderingEnabled);
+        renderer.setImmediateRenderingEnabled(toolbarAttributes.VIEW_IMMEDIATE_RENDERING.getValue());
 
         addMenubarActions();
 
+        if (recoveredScene != null)
+            recoveredScene.apply(toolbarAttributes, tokenHandler, sceneManager.getActiveScene().getWalls(),
+                    sceneManager.getActiveScene().getFog());
+        autosave = new SceneJournal(autosaveDirectory, toolbarAttributes, tokenHandler,
+                () -> sceneManager.getActiveScene().getMapFile(),
+                () -> sceneManager.getActiveScene().getWalls(),
+                () -> sceneManager.getActiveScene().getFog());
+        autosave.start();
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                leaveTable();
+                autosave.close();
+            }
+        });
+
         frame.setMaximumSize(new Dimension(800, 600));
         frame.setPreferredSize(new Dimension(800, 600));
         frame.pack();
@@ -89,17 +170,26 @@ public class App {
 
     }
 
-    private void registerRendererComponents(Image requestedImage, Renderer renderer) {
-        renderer.addWorldRenderComponent(new ImageComponent(requestedImage));
+    private void registerRendererComponents(MapTileSource requestedMap, Renderer renderer) {
+        mapComponent = new ImageComponent(requestedMap);
+        renderer.addWorldRenderComponent(mapComponent);
         renderer.addWorldRenderComponent(new GridComponent());
 
-        TokenRendererComponent tokenHandler = new TokenRendererComponent();
+        tokenHandler = new TokenRendererComponent();
         renderer.addWorldRenderComponent(tokenHandler);
         tokenHandler.registerUIBindings();
 
+        lightingEngine = new LightingEngine(tokenHandler, toolbarAttributes);
+        lightingComponent = new LightingComponent(toolbarAttributes, lightingEngine, true);
+        renderer.addWorldRenderComponent(lightingComponent);
+
+        fogComponent = new FogOfWarComponent(toolbarAttributes, true);
+        renderer.addWorldRenderComponent(fogComponent);
+
         renderer.addWorldRenderComponent(new TokenTooltipComponent(tokenHandler));
 
-        renderer.addUIRenderComponent(new DragHandlingComponent());
+        dragHandlingComponent = new DragHandlingComponent();
+        renderer.addUIRenderComponent(dragHandlingComponent);
 
         if (isDevEnv())
             renderer.addUIRenderComponent(new DebugOverlayComponent());
@@ -121,16 +211,411 @@ public class App {
         getToolbarAttributes().VIEW_GRID_OPEN_OFFSET_Y_DIALOG
                 .addObserver(
                         abs -> new ChangeValueDialog.DoubleDialog(frame, getToolbarAttributes().VIEW_GRID_OFFSET_Y));
+
+        getToolbarAttributes().MAP_SAVE.addObserver(abs -> saveSceneToUserFile());
+        getToolbarAttributes().MAP_IMPORT.addObserver(abs -> loadSceneFromUserFile());
+        getToolbarAttributes().MAP_SWAP.addObserver(abs -> requestSceneSwap());
+        getToolbarAttributes().VIEW_PLAYER_WINDOW.addObserver(this::setPlayerViewVisible);
+        getToolbarAttributes().VIEW_FOG_REVEAL_ALL
+                .addObserver(abs -> sceneManager.getActiveScene().getFog().setAllRevealed(true));
+        getToolbarAttributes().VIEW_FOG_HIDE_ALL
+                .addObserver(abs -> sceneManager.getActiveScene().getFog().setAllRevealed(false));
+        getToolbarAttributes().VIEW_WALLS_CLEAR
+                .addObserver(abs -> sceneManager.getActiveScene().getWalls().clear());
+
+        getToolbarAttributes().TABLE_HOST.addObserver(abs -> hostTable());
+        getToolbarAttributes().TABLE_JOIN.addObserver(abs -> joinTable());
+        getToolbarAttributes().TABLE_LEAVE.addObserver(abs -> leaveTable());
+        setTableActive(false);
+    }
+
+    /**
+     * Shares the tokens and settings with everyone joining on the given port.
+     */
+    private void hostTable() {
+        Object input = JOptionPane.showInputDialog(frame, "Port", "Host table", JOptionPane.PLAIN_MESSAGE, null,
+                null, TableServer.DEFAULT_PORT);
+        if (input == null)
+            return;
+
+        try {
+            tableServer = new TableServer(Integer.parseInt(input.toString().trim()), toolbarAttributes,
+                    tokenHandler);
+            tableServer.start();
+            tableServer.setMapFile(sceneManager.getActiveScene().getMapFile());
+            tableServer.setWalls(sceneManager.getActiveScene().getWalls());
+            tableServer.setFog(sceneManager.getActiveScene().getFog());
+            setTableActive(true);
+        } catch (NumberFormatException e) {
+            tableServer = null;
+            openErrorDialog("'" + input + "' is not a valid port");
+        } catch (IOException e) {
+            tableServer = null;
+            System.err.println("[App] Couldn't host a table on port " + input);
+            e.printStackTrace();
+            openErrorDialog("Couldn't host a table on port " + input);
+        }
+    }
+
+    /**
+     * Replaces the local tokens with the ones of a hosted table and follows its
+     * changes.
+     */
+    private void joinTable() {
+        Object input = JOptionPane.showInputDialog(frame, "Address of the host", "Join table",
+                JOptionPane.PLAIN_MESSAGE, null, null, "localhost:" + TableServer.DEFAULT_PORT);
+        if (input == null)
+            return;
+
+        String address = input.toString().trim();
+        int separator = address.lastIndexOf(':');
+        InetSocketAddress socketAddress;
+        try {
+            socketAddress = separator < 0 ? new InetSocketAddress(address, TableServer.DEFAULT_PORT)
+                    : new InetSocketAddress(address.substring(0, separator),
+                            Integer.parseInt(address.substring(separator + 1)));
+        } catch (IllegalArgumentException e) {
+            openErrorDialog("'" + address + "' is not a valid address");
+            return;
+        }
+        if (JOptionPane.showConfirmDialog(frame,
+                "The table replaces the map and tokens of this scene until you leave it. Join anyway?", "Join table",
+                JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION)
+            return;
+        sceneBeforeJoin = captureActiveScene();
+
+        TableClient client = new TableClient(socketAddress, toolbarAttributes, tokenHandler);
+        client.setOnDisconnect(() -> {
+            if (tableClient != client)
+                return;
+            leaveTable();
+            openErrorDialog("The connection to the table was lost");
+        });
+        client.setOnMap((map, mapFile) -> {
+            sceneManager.setActiveMap(map, mapFile);
+            // A map of another size comes with a new fog, which the journal has to follow
+            autosave.snapshot();
+        });
+        client.setOnWalls(walls -> sceneManager.getActiveScene().getWalls().setAll(walls));
+        client.setOnFog(fog -> {
+            FogOfWar activeFog = sceneManager.getActiveScene().getFog();
+            // The host doesn't use fog, so there is nothing to hide
+            if (fog == null)
+                activeFog.setAllRevealed(true);
+            else
+                activeFog.setRevealed(fog);
+        });
+        // Only the part of the map on screen, so pictures there are transferred first
+        client.setViewport(() -> renderer.getTranslationhandler().getVisibleWorldArea(renderer.getScreenSize())
+                .intersection(new Rectangle(renderer.getDrawingDimensions())));
+        tableClient = client;
+        setTableActive(true);
+        setEditingLocked(true);
+        // Connecting may take a while if the host doesn't answer
+        CompletableFuture.runAsync(() -> {
+            try {
+                client.connect();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((v, e) -> SwingUtilities.invokeLater(() -> {
+            if (e == null || tableClient != client)
+                return;
+            tableClient = null;
+            setTableActive(false);
+            setEditingLocked(false);
+            restoreSceneBeforeJoin();
+            System.err.println("[App] Couldn't join the table at '" + address + "'");
+            e.printStackTrace();
+            openErrorDialog("Couldn't join the table at '" + address + "'");
+        }));
+    }
+
+    private void leaveTable() {
+        if (tableServer != null)
+            tableServer.close();
+        if (tableClient != null) {
+            tableClient.close();
+            setEditingLocked(false);
+            restoreSceneBeforeJoin();
+        }
+        tableServer = null;
+        tableClient = null;
+        setTableActive(false);
+    }
+
+    private void setTableActive(boolean isActive) {
+        toolbarAttributes.TABLE_HOST.canTriggerAction().setValue(!isActive);
+        toolbarAttributes.TABLE_JOIN.canTriggerAction().setValue(!isActive);
+        toolbarAttributes.TABLE_LEAVE.canTriggerAction().setValue(isActive);
+    }
+
+    /**
+     * Players at a table shared by someone else only see what the host revealed
+     * and can't change the tokens, walls or fog while there. The client doesn't
+     * send any changes, so they would only drift apart from the host.
+     */
+    private void setEditingLocked(boolean isLocked) {
+        tokenHandler.setLocked(isLocked);
+        lightingComponent.setLocked(isLocked);
+        dragHandlingComponent.setLocked(isLocked);
+        fogComponent.setLocked(isLocked);
+        if (playerView != null)
+            playerView.getFogComponent().setLocked(isLocked);
+        for (Action<Void> action : List.of(toolbarAttributes.TOKEN_CREATE, toolbarAttributes.TOKEN_CREATE_MULTIPLE,
+                toolbarAttributes.TOKEN_EDIT, toolbarAttributes.MAP_IMPORT, toolbarAttributes.MAP_SWAP,
+                toolbarAttributes.VIEW_WALLS_CLEAR, toolbarAttributes.VIEW_FOG_REVEAL_ALL,
+                toolbarAttributes.VIEW_FOG_HIDE_ALL))
+            action.canTriggerAction().setValue(!isLocked);
+        // Nothing is revealed until the fog of the host arrives
+        if (isLocked)
+            sceneManager.getActiveScene().getFog().setAllRevealed(false);
+    }
+
+    /**
+     * Brings back the scene that was shown before joining a table.
+     */
+    private void restoreSceneBeforeJoin() {
+        if (sceneBeforeJoin == null)
+            return;
+        SceneData scene = sceneBeforeJoin;
+        sceneBeforeJoin = null;
+        applyScene(scene);
+    }
+
+    private void setPlayerViewVisible(boolean isVisible) {
+        if (playerView == null) {
+            if (!isVisible)
+                return;
+
+            playerView = new PlayerView(sceneManager.getActiveScene().getMap(), toolbarAttributes, tokenHandler,
+                    lightingEngine);
+            sceneManager.addMapView(playerView.getMapComponent());
+            sceneManager.addFogView(playerView.getFogComponent());
+            playerView.getFogComponent().setLocked(tableClient != null);
+            MainRenderer playerRenderer = playerView.getRenderer();
+            toolbarAttributes.VIEW_IMMEDIATE_RENDERING.addObserver(playerRenderer::setImmediateRenderingEnabled);
+            playerRenderer.setImmediateRenderingEnabled(toolbarAttributes.VIEW_IMMEDIATE_RENDERING.getValue());
+            playerView.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent e) {
+                    toolbarAttributes.VIEW_PLAYER_WINDOW.setValue(false);
+                }
+            });
+        }
+        playerView.setVisible(isVisible);
+    }
+
+    /**
+     * Lets the user switch to another open scene or open a new one next to the
+     * current one.
+     */
+    private void requestSceneSwap() {
+        final String newMap = "New map...";
+        final String sceneFromFile = "Scene from file...";
+
+        List<Object> options = new ArrayList<>(sceneManager.getScenes());
+        options.add(newMap);
+        options.add(sceneFromFile);
+        Object selected = JOptionPane.showInputDialog(frame, "Switch to", "Swap map", JOptionPane.PLAIN_MESSAGE, null,
+                options.toArray(), sceneManager.getActiveScene());
+
+        if (selected instanceof SceneManager.Scene scene) {
+            swapToScene(scene);
+        } else if (newMap.equals(selected)) {
+            MapTileSource map = requestMapFromUser();
+            if (map != null)
+                swapToScene(sceneManager.openScene(getSceneName(requestedMapFile), map, requestedMapFile, null));
+        } else if (sceneFromFile.equals(selected)) {
+            readSceneFromUserFile(this::openScene);
+        }
+    }
+
+    /**
+     * Opens the given scene next to the current ones and switches to it.
+     */
+    private void openScene(SceneData scene, File sceneFile) {
+        File sceneMapFile = scene.getMapFile();
+        if (sceneMapFile == null) {
+            openErrorDialog("The scene '" + sceneFile.getName() + "' has no map");
+            return;
+        }
+
+        try {
+            MapTileSource map = new StreamingTileSource(sceneMapFile);
+            swapToScene(sceneManager.openScene(getSceneName(sceneFile), map, sceneMapFile, scene));
+        } catch (IOException e) {
+            System.err.println("[App] Couldn't open the map '" + sceneMapFile.getAbsolutePath() + "'");
+            e.printStackTrace();
+            openErrorDialog("Couldn't open the map '" + sceneMapFile.getName() + "'");
+        }
+    }
+
+    private void swapToScene(SceneManager.Scene scene) {
+        sceneManager.swapTo(scene);
+        if (tableServer != null) {
+            tableServer.setMapFile(scene.getMapFile());
+            tableServer.setWalls(scene.getWalls());
+            tableServer.setFog(scene.getFog());
+        }
+        // The journal would otherwise replay the whole swap as single changes
+        autosave.snapshot();
+    }
+
+    private static String getSceneName(File file) {
+        if (file == null)
+            return "Default map";
+
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Lets the user choose where to save the current scene and whether to embed
+     * the images into it.
+     */
+    private void saveSceneToUserFile() {
+        JFileChooser fileChooser = createSceneFileChooser("Save scene");
+        JCheckBox embedImages = new JCheckBox("Embed images");
+        embedImages.setToolTipText("Store the map and token images inside the scene file");
+        fileChooser.setAccessory(embedImages);
+        if (fileChooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION)
+            return;
+
+        File selectedFile = fileChooser.getSelectedFile();
+        if (!selectedFile.getName().contains("."))
+            selectedFile = new File(selectedFile.getPath() + "." + SceneFile.FILE_EXTENSION);
+
+        final File targetFile = selectedFile;
+        SceneData scene = captureActiveScene();
+        // Hashing and copying embedded images may take a moment, keep the UI going
+        CompletableFuture.runAsync(() -> {
+            try {
+                SceneFile.write(scene, targetFile, embedImages.isSelected());
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((v, e) -> {
+            if (e == null)
+                return;
+            System.err.println("[App] Couldn't save the scene to '" + targetFile.getAbsolutePath() + "'");
+            e.printStackTrace();
+            SwingUtilities.invokeLater(() -> openErrorDialog("Couldn't save the scene '" + targetFile.getName() + "'"));
+        });
+    }
+
+    /**
+     * Lets the user choose a scene and replaces the current one with it.
+     */
+    private void loadSceneFromUserFile() {
+        readSceneFromUserFile((scene, file) -> applyScene(scene));
+    }
+
+    /**
+     * Lets the user choose a scene file and hands the scene to the consumer on
+     * the EDT once it is read.
+     */
+    private void readSceneFromUserFile(BiConsumer<SceneData, File> onRead) {
+        JFileChooser fileChooser = createSceneFileChooser("Open scene");
+        if (fileChooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION)
+            return;
+
+        File selectedFile = fileChooser.getSelectedFile();
+        // Reading is quick, but extracting embedded images may not be
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return SceneFile.read(selectedFile);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((scene, e) -> SwingUtilities.invokeLater(() -> {
+            if (e != null) {
+                System.err.println("[App] Couldn't load the scene '" + selectedFile.getAbsolutePath() + "'");
+                e.printStackTrace();
+                openErrorDialog("Couldn't load the scene '" + selectedFile.getName() + "'");
+                return;
+            }
+            onRead.accept(scene, selectedFile);
+        }));
+    }
+
+    private JFileChooser createSceneFileChooser(String title) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setCurrentDirectory(new File(System.getProperty("user.dir")));
+        fileChooser.setDialogTitle(title);
+        fileChooser.setFileFilter(new FileNameExtensionFilter("Scenes", SceneFile.FILE_EXTENSION));
+        return fileChooser;
+    }
+
+    private SceneData captureActiveScene() {
+        SceneManager.Scene active = sceneManager.getActiveScene();
+        return SceneData.capture(active.getMapFile(), toolbarAttributes, tokenHandler, active.getWalls(),
+                active.getFog());
+    }
+
+    /**
+     * Replaces the current scene with the given one. Keeps the current map if the
+     * scene has none or its map cannot be opened.
+     */
+    public void applyScene(SceneData scene) {
+        File sceneMapFile = scene.getMapFile();
+        if (sceneMapFile != null && !sceneMapFile.equals(sceneManager.getActiveScene().getMapFile())) {
+            try {
+                sceneManager.setActiveMap(new StreamingTileSource(sceneMapFile), sceneMapFile);
+            } catch (IOException e) {
+                System.err.println("[App] Couldn't open the map '" + sceneMapFile.getAbsolutePath() + "'");
+                e.printStackTrace();
+                openErrorDialog("Couldn't open the map '" + sceneMapFile.getName() + "', keeping the current one");
+            }
+        }
+        scene.apply(toolbarAttributes, tokenHandler, sceneManager.getActiveScene().getWalls(),
+                sceneManager.getActiveScene().getFog());
+        if (tableServer != null) {
+            tableServer.setMapFile(sceneManager.getActiveScene().getMapFile());
+            tableServer.setWalls(sceneManager.getActiveScene().getWalls());
+            tableServer.setFog(sceneManager.getActiveScene().getFog());
+        }
+        // The journal would otherwise replay the whole swap as single changes
+        if (autosave != null)
+            autosave.snapshot();
+    }
+
+    /**
+     * Offers to restore the autosaved scene of the last session, if there is
+     * one.
+     * 
+     * @return The scene to restore or null
+     */
+    private SceneData requestAutosaveRecovery() {
+        SceneData scene;
+        try {
+            scene = SceneJournal.recover(autosaveDirectory);
+        } catch (IOException e) {
+            System.err.println("[App] Couldn't read the autosave in '" + autosaveDirectory + "'");
+            e.printStackTrace();
+            return null;
+        }
+        if (scene == null || scene.getTokens().isEmpty())
+            return null;
+
+        int result = JOptionPane.showConfirmDialog(frame,
+                "Restore the last session with " + scene.getTokens().size() + " tokens?", "Autosave",
+                JOptionPane.YES_NO_OPTION);
+        return result == JOptionPane.YES_OPTION ? scene : null;
     }
 
     /**
+     * Lets the user choose a map. Only the header of the image is read here, the
+     * actual map gets decoded on demand while it is displayed.
      * 
-     * @return An image if successfull or null otherwise
+     * @return A map if successfull or null otherwise
      */
-    public Image requestImageFromUser() {
+    public MapTileSource requestMapFromUser() {
         if (isDevEnv)
             try {
-                return ImageIO.read(loadResourceFile("/img/Tavern_Battlemap.jpg"));
+                requestedMapFile = null;
+                return new StreamingTileSource(loadResourceFile("/img/Tavern_Battlemap.jpg"));
             } catch (Exception e) {
             }
 
@@ -143,8 +628,11 @@ public class App {
         if (result == JFileChooser.APPROVE_OPTION) {
             File selectedFile = fileChooser.getSelectedFile();
             try {
-                return ImageIO.read(selectedFile);
+                var map = new StreamingTileSource(selectedFile);
+                requestedMapFile = selectedFile;
+                return map;
             } catch (Exception e) {
+                openErrorDialog("Couldn't open the map '" + selectedFile.getName() + "'");
             }
         }
 
@@ -0,0 +1,18 @@
+package de.omegasystems.core;
+
+/**
+ * A single animation that gets advanced by a {@link FrameScheduler} once per
+ * frame, as long as it is running.
+ */
+public interface Animation {
+
+    /**
+     * Advances the animation by one frame.
+     * 
+     * @param deltaMillis The time in milliseconds that passed since the last frame
+     * @return true if the animation needs more frames, false once it reached its
+     *         final state
+     */
+    public boolean animate(double deltaMillis);
+
+}
@@ -0,0 +1,28 @@
+package de.omegasystems.core;
+
+/**
+ * A shared clock for all animations of a renderer.<br>
+ * <br>
+ * The scheduler only ticks while at least one animation is running and sleeps
+ * otherwise, so an idle map does not cost any cpu time.
+ */
+public interface FrameScheduler {
+
+    /**
+     * Starts advancing the given animation every frame until it reports that it
+     * is done. Requesting an already running animation has no effect.
+     * 
+     * @param animation the animation to run
+     */
+    public void requestFrames(Animation animation);
+
+    /**
+     * Stops the given animation before it finished on its own.
+     * 
+     * @param animation the animation to stop
+     */
+    public void cancel(Animation animation);
+
+    public boolean isRunning(Animation animation);
+
+}
@@ -0,0 +1,99 @@
+package de.omegasystems.core;
+
+import java.awt.Dimension;
+import java.awt.Image;
+import java.awt.Rectangle;
+
+import de.omegasystems.utility.Observer;
+
+/**
+ * Provides a map image split into square tiles at multiple levels of
+ * detail.<br>
+ * <br>
+ * Level 0 is the full resolution, every following level halves the resolution
+ * of the previous one. A tile always covers {@link #getTileSize()} pixels of
+ * its own level (less at the right and bottom edge), meaning a tile of level n
+ * covers <code>getTileSize() * 2^n</code> pixels in world space.
+ */
+public interface MapTileSource {
+
+    /**
+     * @return The size of the full resolution map in world space
+     */
+    public Dimension getSize();
+
+    public int getTileSize();
+
+    public int getLevelCount();
+
+    /**
+     * Returns a single tile of the map.
+     * 
+     * @param level  the level of detail, 0 being the full resolution
+     * @param column the horizontal index of the tile within its level
+     * @param row    the vertical index of the tile within its level
+     * @return The tile or null if it doesn't exist or isn't available yet
+     */
+    public Image getTile(int level, int column, int row);
+
+    /**
+     * Same as {@link #getTile(int, int, int)}, but never triggers loading a tile
+     * that isn't available yet.
+     */
+    public default Image getCachedTile(int level, int column, int row) {
+        return getTile(level, column, row);
+    }
+
+    /**
+     * Picks the level of detail whose resolution is closest to (but not below)
+     * the resolution needed for the given zoom.
+     */
+    public default int selectLevel(double scale) {
+        if (scale >= 1)
+            return 0;
+
+        int level = (int) Math.floor(Math.log(1 / scale) / Math.log(2));
+        return Math.max(0, Math.min(level, getLevelCount() - 1));
+    }
+
+    /**
+     * Requests all tiles of the given level covering the area, so that they are
+     * available once the area gets displayed. Sources that decode tiles on demand
+     * start doing so in the background.
+     * 
+     * @param level     the level of detail to load
+     * @param worldArea the area in world space
+     */
+    public default void preload(int level, Rectangle worldArea) {
+        int tileWorldSize = getTileSize() << level;
+        Dimension size = getSize();
+        Rectangle area = worldArea.intersection(new Rectangle(size));
+        if (area.isEmpty())
+            return;
+
+        for (int column = area.x / tileWorldSize; column <= (area.x + area.width - 1) / tileWorldSize; column++)
+            for (int row = area.y / tileWorldSize; row <= (area.y + area.height - 1) / tileWorldSize; row++)
+                getTile(level, column, row);
+    }
+
+    /**
+     * Registers an observer that gets called on the EDT with the area in world
+     * space of every tile that became available after
+     * {@link #getTile(int, int, int)} returned null for it. Sources that drop
+     * requests which weren't repeated notify about their area as well, so that
+     * views still showing it request it again.<br>
+     * Sources that always have all tiles available never notify anyone.
+     */
+    public default void addTileObserver(Observer<Rectangle> obs) {
+    }
+
+    public default void removeTileObserver(Observer<Rectangle> obs) {
+    }
+
+    /**
+     * Releases all resources held by this source. It must not be used afterwards.
+     */
+    public default void dispose() {
+    }
+
+}
@@ -0,0 +1,31 @@
+package de.omegasystems.core;
+
+/**
+ * Describes how often the output of a rendering component changes, which lets
+ * the renderer decide what it can cache.<br>
+ * <br>
+ * World components are drawn ordered by their layer, starting with the static
+ * ones.
+ */
+public enum RenderLayer {
+
+    /**
+     * Only changes when the component itself reports it, like the map or the
+     * grid. Renderers may keep the output of these layers in offscreen buffers
+     * and reuse it while panning.
+     */
+    STATIC,
+
+    /**
+     * Changes on user interaction, like tokens being moved. Drawn on every
+     * repaint of the area they are in.
+     */
+    SEMI_STATIC,
+
+    /**
+     * Changes all the time, like selection boxes or tooltips. Drawn on every
+     * repaint on top of everything else.
+     */
+    DYNAMIC
+
+}
@@ -6,6 +6,7 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelListener;
+import java.awt.geom.Rectangle2D;
 
 import javax.swing.JFrame;
 import javax.swing.TransferHandler;
@@ -45,8 +46,39 @@ public interface Renderer {
 
     public void addComponentListener(ComponentListener l);
 
+    /**
+     * Schedules a redraw of the whole screen. Use this for changes that affect
+     * everything, like zooming or changing the map.
+     */
     public void scheduleRedraw();
 
+    /**
+     * Schedules a redraw of the given area in world space.<br>
+     * All areas reported during one frame are coalesced and only the affected
+     * part of the screen gets repainted.
+     * 
+     * @param worldArea the invalidated area in world space coordinates
+     */
+    public void scheduleRedraw(Rectangle2D worldArea);
+
+    /**
+     * Schedules a redraw of everything the given component drew. Renderers
+     * caching the layer of the component also throw away the cached content.
+     * 
+     * @param source the component whose output changed
+     */
+    public void scheduleRedraw(RenderingComponent source);
+
+    /**
+     * Schedules a redraw of the part of the given component inside the area.
+     * Renderers caching the layer of the component only re-render the
+     * affected part of it.
+     * 
+     * @param source    the component whose output changed
+     * @param worldArea the invalidated area in world space coordinates
+     */
+    public void scheduleRedraw(RenderingComponent source, Rectangle2D worldArea);
+
     public JFrame getFrame();
 
     public Dimension getDrawingDimensions();
@@ -55,6 +87,11 @@ public interface Renderer {
 
     public WorldTranslationHandler getTranslationhandler();
 
+    /**
+     * @return The clock all animations of this renderer should be run on
+     */
+    public FrameScheduler getFrameScheduler();
+
     public <T> T getComponentImplementing(Class<T> interfaceClass);
 
     public void setTransferHandler(TransferHandler handler);
@@ -13,4 +13,13 @@ public interface RenderingComponent {
      * @param renderer The renderer this object is registered to.
      */
     public void setRenderer(Renderer renderer);
+
+    /**
+     * @return How often the output of this component changes. Components in a
+     *         cached layer have to report every change with
+     *         {@link Renderer#scheduleRedraw(RenderingComponent)}
+     */
+    public default RenderLayer getRenderLayer() {
+        return RenderLayer.DYNAMIC;
+    }
 }
@@ -1,25 +1,41 @@
 package de.omegasystems.core;
 
+import java.awt.GraphicsEnvironment;
 import java.awt.Image;
 import java.awt.geom.Point2D;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumSet;
+import java.util.Objects;
 import java.util.UUID;
 
 import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
 
 import de.omegasystems.App;
+import de.omegasystems.core.TokenChange.Field;
 import de.omegasystems.dataobjects.Friendlieness;
 import de.omegasystems.dataobjects.TokenData;
 import de.omegasystems.dataobjects.TokenSize;
+import de.omegasystems.utility.ImageLoader;
 
 public class Token {
 
+    private static final String PLACEHOLDER_IMAGE_PATH = "img/Liron.jpg";
     private static final Image placeholderImage;
     static {
-        try {
-            placeholderImage = ImageIO.read(App.getInstance().loadResourceFile("img/Liron.jpg"));
+        // Tokens are also used without a running app, for example when rendering
+        // headless, so only go through the app (and its dialogs) if there is one
+        App app = App.getInstance();
+        try (InputStream in = app != null ? app.loadResourceFile(PLACEHOLDER_IMAGE_PATH)
+                : Token.class.getClassLoader().getResourceAsStream(PLACEHOLDER_IMAGE_PATH)) {
+            placeholderImage = ImageIO.read(in);
+            if (placeholderImage == null)
+                throw new IOException("No image reader found for '" + PLACEHOLDER_IMAGE_PATH + "'");
         } catch (Exception e) {
-            App.getInstance().openErrorDialog("Couldn't load the placeholder image for Tokens!");
+            if (app != null && !GraphicsEnvironment.isHeadless())
+                app.openErrorDialog("Couldn't load the placeholder image for Tokens!");
             throw new IllegalStateException("Couldn't load Backup Token Image", e);
         }
     }
@@ -37,42 +53,108 @@ public class Token {
     private Integer initiative = 0;
     private String movement = "0";
     private Friendlieness friendStatus = Friendlieness.Neutral;
+    private double visionRadius = 0;
 
     private Point2D.Double position = new Point2D.Double();
 
     private TokenHandler tokenHandler;
 
     public Token(TokenData tokenData, TokenHandler tokenHandler) {
-        this.id = UUID.randomUUID();
+        this(UUID.randomUUID(), tokenData, tokenHandler);
+    }
+
+    /**
+     * Recreates a token with a known id, for example when loading a saved scene.
+     */
+    public Token(UUID id, TokenData tokenData, TokenHandler tokenHandler) {
+        if (id == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Id was null during initialization");
+        this.id = id;
         this.tokenHandler = tokenHandler;
         updateAllValues(tokenData);
     }
 
     public void updateAllValues(TokenData tokenData) {
-        this.pictureFile = tokenData.getPictureFile().getValue();
+        File newPictureFile = tokenData.getPictureFile().getValue();
+        boolean hasPictureChanged = image == null || !Objects.equals(pictureFile, newPictureFile);
+
+        EnumSet<Field> changedFields = EnumSet.noneOf(Field.class);
+        if (!Objects.equals(pictureFile, newPictureFile))
+            changedFields.add(Field.PICTURE);
+        if (!Objects.equals(name, tokenData.getName().getValue()))
+            changedFields.add(Field.NAME);
+        if (!Objects.equals(description, tokenData.getDescription().getValue()))
+            changedFields.add(Field.DESCRIPTION);
+        if (size != tokenData.getSize().getValue())
+            changedFields.add(Field.SIZE);
+        if (!Objects.equals(initiative, tokenData.getInitiative().getValue()))
+            changedFields.add(Field.INITIATIVE);
+        if (!Objects.equals(movement, tokenData.getMovement().getValue()))
+            changedFields.add(Field.MOVEMENT);
+        if (friendStatus != tokenData.getFriendStatus().getValue())
+            changedFields.add(Field.FRIEND_STATUS);
+        if (visionRadius != tokenData.getVisionRadius().getValue())
+            changedFields.add(Field.VISION);
+
+        this.pictureFile = newPictureFile;
         this.name = tokenData.getName().getValue();
         this.description = tokenData.getDescription().getValue();
         this.size = tokenData.getSize().getValue();
         this.initiative = tokenData.getInitiative().getValue();
         this.movement = tokenData.getMovement().getValue();
         this.friendStatus = tokenData.getFriendStatus().getValue();
-        loadImage();
-        tokenHandler.notifyChange();
+        this.visionRadius = Math.max(0, tokenData.getVisionRadius().getValue());
+        if (hasPictureChanged)
+            loadImage();
+        tokenHandler.notifyChange(this, changedFields);
     }
 
+    /**
+     * Starts loading the image of this token in the background. Until it is done,
+     * {@link #getImage()} returns the placeholder image.
+     */
     private void loadImage() {
         if (pictureFile == null) {
             this.image = getPlaceholderImage();
             return;
         }
 
+        this.image = null;
+        final File requestedFile = pictureFile;
+        ImageLoader.loadAsync(requestedFile).whenComplete((loadedImage, e) -> SwingUtilities.invokeLater(() -> {
+            // The picture might have been changed again while loading
+            if (!Objects.equals(requestedFile, pictureFile))
+                return;
+
+            if (e != null) {
+                System.err.println(
+                        "[Token] An error occcured while trying to load image '" + requestedFile.getAbsolutePath()
+                                + "'");
+                e.printStackTrace();
+                return;
+            }
+
+            this.image = loadedImage;
+            tokenHandler.notifyChange(this, EnumSet.of(Field.IMAGE));
+        }));
+    }
+
+    /**
+     * Loads the image of this token on the calling thread if it is still loading
+     * in the background. Useful when rendering a single frame that has to show
+     * the actual images, like exporting the map.
+     */
+    public void awaitImage() {
+        if (image != null || pictureFile == null)
+            return;
+
         try {
-            image = ImageIO.read(pictureFile);
-        } catch (Exception e) {
+            this.image = ImageLoader.load(pictureFile);
+        } catch (IOException e) {
             System.err.println(
                     "[Token] An error occcured while trying to load image '" + pictureFile.getAbsolutePath() + "'");
             e.printStackTrace();
-
         }
     }
 
@@ -85,6 +167,7 @@ public class Token {
         data.getInitiative().setValue(initiative);
         data.getMovement().setValue(movement);
         data.getFriendStatus().setValue(friendStatus);
+        data.getVisionRadius().setValue(visionRadius);
         return data;
     }
 
@@ -120,6 +203,14 @@ public class Token {
         return size;
     }
 
+    /**
+     * @return How far this token sees (and lights the map around it) in grid
+     *         cells, 0 if it doesn't
+     */
+    public double getVisionRadius() {
+        return visionRadius;
+    }
+
     // A double indicating the position of the current token between 0 and mapsize
     public Point2D.Double getPosition() {
         return (Point2D.Double) position;
@@ -129,7 +220,7 @@ public class Token {
         if (pos == null || pos.x < 0 || pos.y < 0)
             return;
         this.position = pos;
-        tokenHandler.notifyChange();
+        tokenHandler.notifyChange(this, EnumSet.of(Field.POSITION));
     }
 
     /**
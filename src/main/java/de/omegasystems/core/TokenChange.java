@@ -0,0 +1,77 @@
+package de.omegasystems.core;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Describes what happened to a token, as delivered to the change listeners of
+ * a {@link TokenHandler}.<br>
+ * A change without a token may concern every token at once, for example after
+ * the token size setting changed.
+ *
+ * @param type   what happened to the token
+ * @param token  the token or null if the change concerns all tokens
+ * @param fields what changed, only meaningful for {@link Type#CHANGED}
+ */
+public record TokenChange(Type type, Token token, Set<Field> fields) {
+
+    public enum Type {
+        ADDED, REMOVED, CHANGED
+    }
+
+    public enum Field {
+        POSITION, NAME, DESCRIPTION, SIZE, INITIATIVE, MOVEMENT, FRIEND_STATUS, PICTURE,
+        // How far the token sees, see Token#getVisionRadius()
+        VISION,
+        // The image finished loading
+        IMAGE,
+        // Highlighting or drawing order, nothing about the token itself
+        SELECTION
+    }
+
+    public TokenChange {
+        fields = Collections.unmodifiableSet(fields.isEmpty() ? EnumSet.noneOf(Field.class) : EnumSet.copyOf(fields));
+    }
+
+    public static TokenChange added(Token token) {
+        return new TokenChange(Type.ADDED, token, EnumSet.allOf(Field.class));
+    }
+
+    public static TokenChange removed(Token token) {
+        return new TokenChange(Type.REMOVED, token, EnumSet.allOf(Field.class));
+    }
+
+    public static TokenChange changed(Token token, Set<Field> fields) {
+        return new TokenChange(Type.CHANGED, token, fields);
+    }
+
+    /**
+     * @return Whether this change could affect something depending on the given
+     *         fields. Tokens that were added or removed affect everything.
+     */
+    public boolean affects(Set<Field> dependencies) {
+        return type != Type.CHANGED || !Collections.disjoint(fields, dependencies);
+    }
+
+    /**
+     * Merges two changes of the same token into one describing both, or null if
+     * they cancel each other out (added and removed again).
+     */
+    public static TokenChange merge(TokenChange earlier, TokenChange later) {
+        if (earlier.type == Type.ADDED)
+            return later.type == Type.REMOVED ? null : earlier;
+        if (later.type != Type.CHANGED)
+            // Removed and added again looks like any other change from the outside
+            return earlier.type == Type.REMOVED && later.type == Type.ADDED
+                    ? changed(later.token, EnumSet.allOf(Field.class))
+                    : later;
+        if (earlier.type == Type.REMOVED)
+            return earlier;
+
+        EnumSet<Field> fields = EnumSet.noneOf(Field.class);
+        fields.addAll(earlier.fields);
+        fields.addAll(later.fields);
+        return changed(later.token, fields);
+    }
+}
@@ -2,9 +2,12 @@ package de.omegasystems.core;
 
 import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import de.omegasystems.utility.Observable;
+import de.omegasystems.utility.Observer;
 
 public interface TokenHandler extends Observable<TokenHandler> {
 
@@ -16,6 +19,42 @@ public interface TokenHandler extends Observable<TokenHandler> {
 
     public void notifyChange();
 
+    /**
+     * Notifies about a change of a single token (moved, resized, edited...).<br>
+     * Unlike {@link #notifyChange()} this only invalidates the area the token
+     * covered before and covers now instead of the whole screen.
+     * 
+     * @param t The token that changed
+     */
+    public default void notifyChange(Token t) {
+        notifyChange(t, EnumSet.allOf(TokenChange.Field.class));
+    }
+
+    /**
+     * Same as {@link #notifyChange(Token)}, but tells the change listeners which
+     * values of the token changed.
+     */
+    public void notifyChange(Token t, Set<TokenChange.Field> fields);
+
+    /**
+     * Adds a listener that gets told which tokens changed and how.<br>
+     * Changes are delivered once per pass of the EDT, with all changes of the
+     * same token merged into one. Plain observers get notified once per delivery
+     * as well.
+     */
+    public void addChangeListener(Observer<List<TokenChange>> listener);
+
+    public void removeChangeListener(Observer<List<TokenChange>> listener);
+
+    /**
+     * Holds back all change notifications until {@link #commitBatch()}, so bulk
+     * operations reach the listeners as a single delivery. Every call has to be
+     * followed by a commit, batches can be nested.
+     */
+    public void beginBatch();
+
+    public void commitBatch();
+
     public boolean hasToken(Token t);
 
     /**
@@ -0,0 +1,30 @@
+package de.omegasystems.core;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+
+/**
+ * A rendering component that only draws what is actually visible.<br>
+ * <br>
+ * Renderers pass the part of the world that is currently on screen (and inside
+ * the area being repainted) to these components, which should skip everything
+ * outside of it. This way the time needed for a frame depends on what is
+ * visible and not on the size of the map.
+ */
+public interface ViewportRenderingComponent extends RenderingComponent {
+
+    /**
+     * @param g           The graphics object to draw with
+     * @param size        The size of the whole drawing area
+     * @param visibleArea The visible area in the coordinate space of this
+     *                    component (world space for world components)
+     */
+    public void draw(Graphics2D g, Dimension size, Rectangle visibleArea);
+
+    @Override
+    public default void draw(Graphics2D g, Dimension size) {
+        draw(g, size, new Rectangle(size));
+    }
+
+}
@@ -1,14 +1,38 @@
 package de.omegasystems.core;
 
+import java.awt.Dimension;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.geom.Point2D;
 
 public interface WorldTranslationHandler {
 
     public double getScale();
 
+    /**
+     * @return The offset of the world on screen in whole pixels, which is the
+     *         offset everything is drawn with
+     */
     public Point2D.Double getOffset();
 
     public Point getWorldCoordinateFormUISpace(Point uiPoint);
 
+    /**
+     * Calculates the area in world space that is visible on a screen of the given
+     * size, rounded outwards to whole world units.
+     * 
+     * @param screenSize The size of the screen in ui space
+     * @return The visible area in world space
+     */
+    public default Rectangle getVisibleWorldArea(Dimension screenSize) {
+        double scale = getScale();
+        Point2D.Double offset = getOffset();
+
+        int minX = (int) Math.floor(-offset.x / scale);
+        int minY = (int) Math.floor(-offset.y / scale);
+        int maxX = (int) Math.ceil((screenSize.width - offset.x) / scale);
+        int maxY = (int) Math.ceil((screenSize.height - offset.y) / scale);
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+
 }
@@ -0,0 +1,327 @@
+package de.omegasystems.dataobjects;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.BitSet;
+
+import de.omegasystems.utility.Observer;
+import de.omegasystems.utility.Observerhandler;
+
+/**
+ * The parts of a map the players are allowed to see.<br>
+ * <br>
+ * The map is split into cells aligned with the grid, every cell is either
+ * revealed or not and takes a single bit. A map of 400x400 cells needs 20 KB.
+ * On top of the cells, freehand shapes can be revealed independent of the
+ * grid.<br>
+ * <br>
+ * Observers get the changed cells (in cell coordinates) after every change, so
+ * views only have to update those. Has to be used on the EDT.
+ */
+public class FogOfWar {
+
+    private final Dimension mapSize;
+    private double cellSize;
+    // The world position of the top left cell, at or left/above of the map origin
+    private double originX;
+    private double originY;
+    private int columns;
+    private int rows;
+
+    private BitSet revealedCells;
+    private final Area revealedShapes = new Area();
+    private final Observerhandler<Rectangle> observers = new Observerhandler<>();
+
+    /**
+     * @param mapSize  the size of the map in world space
+     * @param cellSize the size of a grid cell
+     * @param offsetX  the horizontal offset of the grid
+     * @param offsetY  the vertical offset of the grid
+     */
+    public FogOfWar(Dimension mapSize, double cellSize, double offsetX, double offsetY) {
+        if (mapSize == null || mapSize.width <= 0 || mapSize.height <= 0 || !(cellSize > 0))
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Map size and cell size have to be positive");
+        this.mapSize = new Dimension(mapSize);
+        applyGrid(cellSize, offsetX, offsetY);
+        revealedCells = new BitSet(columns * rows);
+    }
+
+    /**
+     * Creates a copy of the given fog, for example to save it.
+     */
+    public FogOfWar(FogOfWar fog) {
+        mapSize = new Dimension(fog.mapSize);
+        cellSize = fog.cellSize;
+        originX = fog.originX;
+        originY = fog.originY;
+        columns = fog.columns;
+        rows = fog.rows;
+        revealedCells = (BitSet) fog.revealedCells.clone();
+        revealedShapes.add(fog.revealedShapes);
+    }
+
+    private void applyGrid(double cellSize, double offsetX, double offsetY) {
+        this.cellSize = cellSize;
+        originX = offsetX - Math.ceil(offsetX / cellSize) * cellSize;
+        originY = offsetY - Math.ceil(offsetY / cellSize) * cellSize;
+        columns = (int) Math.ceil((mapSize.width - originX) / cellSize);
+        rows = (int) Math.ceil((mapSize.height - originY) / cellSize);
+    }
+
+    /**
+     * Moves the cells onto a changed grid. A new cell is revealed if its center
+     * was revealed before, revealed shapes stay where they are.
+     */
+    public void setGrid(double cellSize, double offsetX, double offsetY) {
+        if (!(cellSize > 0))
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Cell size has to be positive");
+
+        double previousCellSize = this.cellSize;
+        double previousOriginX = originX;
+        double previousOriginY = originY;
+        int previousColumns = columns;
+        int previousRows = rows;
+        applyGrid(cellSize, offsetX, offsetY);
+        if (cellSize == previousCellSize && originX == previousOriginX && originY == previousOriginY)
+            return;
+
+        BitSet previousCells = revealedCells;
+        revealedCells = new BitSet(columns * rows);
+        copyCells(previousCells, previousCellSize, previousOriginX, previousOriginY, previousColumns, previousRows);
+        observers.notifyObservers(new Rectangle(columns, rows));
+    }
+
+    /**
+     * Takes over the revealed cells and shapes of another fog, for example one
+     * loaded with a scene. Its cells are moved onto the grid of this fog like
+     * for {@link #setGrid}.
+     */
+    public void setRevealed(FogOfWar fog) {
+        if (fog.cellSize == cellSize && fog.originX == originX && fog.originY == originY && fog.columns == columns
+                && fog.rows == rows) {
+            revealedCells = (BitSet) fog.revealedCells.clone();
+        } else {
+            revealedCells = new BitSet(columns * rows);
+            copyCells(fog.revealedCells, fog.cellSize, fog.originX, fog.originY, fog.columns, fog.rows);
+        }
+        revealedShapes.reset();
+        revealedShapes.add(fog.revealedShapes);
+        observers.notifyObservers(new Rectangle(columns, rows));
+    }
+
+    /**
+     * Reveals every cell whose center lies in a revealed cell of the given grid.
+     */
+    private void copyCells(BitSet sourceCells, double sourceCellSize, double sourceOriginX, double sourceOriginY,
+            int sourceColumns, int sourceRows) {
+        if (sourceCells.isEmpty())
+            return;
+        for (int row = 0; row < rows; row++) {
+            int sourceRow = (int) Math.floor((originY + (row + 0.5) * cellSize - sourceOriginY) / sourceCellSize);
+            if (sourceRow < 0 || sourceRow >= sourceRows)
+                continue;
+            for (int column = 0; column < columns; column++) {
+                int sourceColumn = (int) Math.floor((originX + (column + 0.5) * cellSize - sourceOriginX)
+                        / sourceCellSize);
+                if (sourceColumn >= 0 && sourceColumn < sourceColumns
+                        && sourceCells.get(sourceRow * sourceColumns + sourceColumn))
+                    revealedCells.set(row * columns + column);
+            }
+        }
+    }
+
+    /**
+     * Reveals or hides all cells touching the area. Hiding removes revealed
+     * shapes from these cells as well.
+     */
+    public void setRevealed(Rectangle2D worldArea, boolean isRevealed) {
+        Rectangle cells = getCellsIn(worldArea);
+        if (cells.isEmpty())
+            return;
+
+        boolean hasChanged = false;
+        for (int row = cells.y; row < cells.y + cells.height; row++) {
+            int from = row * columns + cells.x;
+            int to = from + cells.width;
+            if (isRevealed ? revealedCells.nextClearBit(from) < to : isSet(revealedCells.nextSetBit(from), to)) {
+                revealedCells.set(from, to, isRevealed);
+                hasChanged = true;
+            }
+        }
+
+        Rectangle2D cellArea = getCellBounds(cells);
+        if (!isRevealed && revealedShapes.intersects(cellArea)) {
+            revealedShapes.subtract(new Area(cellArea));
+            hasChanged = true;
+        }
+        if (hasChanged)
+            observers.notifyObservers(cells);
+    }
+
+    private static boolean isSet(int index, int to) {
+        return index >= 0 && index < to;
+    }
+
+    /**
+     * Reveals the shape in world space, independent of the cells.
+     */
+    public void reveal(Shape worldShape) {
+        Area area = new Area(worldShape);
+        if (area.isEmpty())
+            return;
+        revealedShapes.add(area);
+        observers.notifyObservers(getCellsIn(area.getBounds2D()));
+    }
+
+    /**
+     * Hides the shape in world space. Cells are only hidden if the shape covers
+     * them completely.
+     */
+    public void hide(Shape worldShape) {
+        Area area = new Area(worldShape);
+        if (area.isEmpty())
+            return;
+        revealedShapes.subtract(area);
+
+        Rectangle cells = getCellsIn(area.getBounds2D());
+        for (int row = cells.y; row < cells.y + cells.height; row++) {
+            for (int column = cells.x; column < cells.x + cells.width; column++) {
+                if (area.contains(getCellBounds(new Rectangle(column, row, 1, 1))))
+                    revealedCells.clear(row * columns + column);
+            }
+        }
+        observers.notifyObservers(cells);
+    }
+
+    public void setAllRevealed(boolean isRevealed) {
+        if (isRevealed)
+            revealedCells.set(0, columns * rows);
+        else
+            revealedCells.clear();
+        revealedShapes.reset();
+        observers.notifyObservers(new Rectangle(columns, rows));
+    }
+
+    public boolean isRevealed(int column, int row) {
+        if (column < 0 || row < 0 || column >= columns || row >= rows)
+            return false;
+        return revealedCells.get(row * columns + column);
+    }
+
+    public boolean isRevealed(Point2D worldPoint) {
+        int column = (int) Math.floor((worldPoint.getX() - originX) / cellSize);
+        int row = (int) Math.floor((worldPoint.getY() - originY) / cellSize);
+        return isRevealed(column, row) || revealedShapes.contains(worldPoint);
+    }
+
+    /**
+     * @return The first revealed column of the row at or after the given one, or
+     *         the column count if there is none. Lets views fill whole runs of
+     *         revealed cells at once
+     */
+    public int nextRevealedColumn(int row, int column) {
+        int index = revealedCells.nextSetBit(row * columns + column);
+        return isSet(index, (row + 1) * columns) ? index - row * columns : columns;
+    }
+
+    /**
+     * @return The first hidden column of the row at or after the given one, or
+     *         the column count if there is none
+     */
+    public int nextHiddenColumn(int row, int column) {
+        return Math.min(revealedCells.nextClearBit(row * columns + column) - row * columns, columns);
+    }
+
+    public boolean hasRevealedShapes() {
+        return !revealedShapes.isEmpty();
+    }
+
+    /**
+     * @return A copy of the shapes revealed independent of the cells
+     */
+    public Area getRevealedShapes() {
+        return new Area(revealedShapes);
+    }
+
+    /**
+     * @return The cells touching the area, clamped to the existing cells
+     */
+    public Rectangle getCellsIn(Rectangle2D worldArea) {
+        int firstColumn = Math.max(0, (int) Math.floor((worldArea.getMinX() - originX) / cellSize));
+        int firstRow = Math.max(0, (int) Math.floor((worldArea.getMinY() - originY) / cellSize));
+        // An area ending exactly on a cell border doesn't touch the next cell
+        int lastColumn = Math.min(columns - 1, Math.max(firstColumn,
+                (int) Math.ceil((worldArea.getMaxX() - originX) / cellSize) - 1));
+        int lastRow = Math.min(rows - 1, Math.max(firstRow,
+                (int) Math.ceil((worldArea.getMaxY() - originY) / cellSize) - 1));
+        if (firstColumn > lastColumn || firstRow > lastRow)
+            return new Rectangle();
+        return new Rectangle(firstColumn, firstRow, lastColumn - firstColumn + 1, lastRow - firstRow + 1);
+    }
+
+    /**
+     * @return The area in world space covered by the cells
+     */
+    public Rectangle2D getCellBounds(Rectangle cells) {
+        return new Rectangle2D.Double(originX + cells.x * cellSize, originY + cells.y * cellSize,
+                cells.width * cellSize, cells.height * cellSize);
+    }
+
+    public Dimension getMapSize() {
+        return new Dimension(mapSize);
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public double getOriginX() {
+        return originX;
+    }
+
+    public double getOriginY() {
+        return originY;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return A copy of the revealed cells, row by row
+     */
+    public BitSet getRevealedCells() {
+        return (BitSet) revealedCells.clone();
+    }
+
+    /**
+     * Replaces the revealed cells, row by row. Cells beyond the last one are
+     * ignored.
+     */
+    public void setRevealedCells(BitSet cells) {
+        revealedCells = cells.get(0, columns * rows);
+        observers.notifyObservers(new Rectangle(columns, rows));
+    }
+
+    public int getRevealedCellCount() {
+        return revealedCells.cardinality();
+    }
+
+    public void addObserver(Observer<Rectangle> obs) {
+        observers.addObserver(obs);
+    }
+
+    public void removeObserver(Observer<Rectangle> obs) {
+        observers.removeObserver(obs);
+    }
+}
@@ -1,5 +1,7 @@
 package de.omegasystems.dataobjects;
 
+import java.util.List;
+
 import de.omegasystems.utility.AbstractAttributeHolder;
 
 public class MenubarAttributeHolder extends AbstractAttributeHolder {
@@ -8,6 +10,10 @@ public class MenubarAttributeHolder extends AbstractAttributeHolder {
     public Action<Void> MAP_SAVE = new Action<>();
     public Action<Void> MAP_SWAP = new Action<>();
 
+    public Action<Void> TABLE_HOST = new Action<>();
+    public Action<Void> TABLE_JOIN = new Action<>();
+    public Action<Void> TABLE_LEAVE = new Action<>();
+
     public Action<Void> TOKEN_CREATE = new Action<>();
     public Action<Void> TOKEN_CREATE_MULTIPLE = new Action<>();
     public Action<Void> TOKEN_EDIT = new Action<>();
@@ -25,5 +31,22 @@ public class MenubarAttributeHolder extends AbstractAttributeHolder {
     public Action<Void> VIEW_GRID_OPEN_SCALE_DIALOG = new Action<>();
     public Action<Void> VIEW_GRID_OPEN_OFFSET_X_DIALOG = new Action<>();
     public Action<Void> VIEW_GRID_OPEN_OFFSET_Y_DIALOG = new Action<>();
+    public Property<Boolean> VIEW_IMMEDIATE_RENDERING = new Property<>(false);
+    public Property<Boolean> VIEW_PLAYER_WINDOW = new Property<>(false);
+    public Property<Boolean> VIEW_FOG_ENABLED = new Property<>(false);
+    public Action<Void> VIEW_FOG_REVEAL_ALL = new Action<>();
+    public Action<Void> VIEW_FOG_HIDE_ALL = new Action<>();
+    public Property<Boolean> VIEW_LIGHTING_ENABLED = new Property<>(false);
+    public Property<Boolean> VIEW_WALLS_EDITING = new Property<>(false);
+    public Action<Void> VIEW_WALLS_CLEAR = new Action<>();
+
+    /**
+     * @return The grid and token settings holding a number, for everyone who
+     *         has to follow all of them
+     */
+    public List<Property<Double>> getValueSettings() {
+        return List.of(VIEW_GRID_SCALE, VIEW_GRID_THICKNESS, VIEW_GRID_OFFSET_X, VIEW_GRID_OFFSET_Y, TOKEN_SIZE,
+                TOKEN_OUTLINE_THICKNESS);
+    }
 
 }
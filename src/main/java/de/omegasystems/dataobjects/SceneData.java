@@ -0,0 +1,228 @@
+package de.omegasystems.dataobjects;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import de.omegasystems.core.Token;
+import de.omegasystems.core.TokenHandler;
+
+/**
+ * Everything needed to restore a scene: the map, the grid and token settings,
+ * all tokens, the walls and the fog of war. It is a plain snapshot, changing it
+ * doesn't affect the scene it was taken from.
+ */
+public class SceneData {
+
+    public record TokenEntry(UUID id, TokenData data, Point2D.Double position) {
+    }
+
+    private File mapFile;
+
+    private boolean isGridEnabled;
+    private double gridScale;
+    private double gridThickness;
+    private double gridOffsetX;
+    private double gridOffsetY;
+
+    private double tokenSize;
+    private double tokenOutlineThickness;
+
+    private List<TokenEntry> tokens = new ArrayList<>();
+    private List<Line2D.Double> walls = new ArrayList<>();
+    // Null for scenes saved before the fog was saved with them
+    private FogOfWar fog;
+
+    /**
+     * Takes a snapshot of the given scene.
+     *
+     * @param mapFile      the file the map was loaded from, or null if it wasn't
+     *                     loaded from a file
+     * @param settings     the attributes holding grid and token settings
+     * @param tokenHandler the handler holding the tokens
+     * @param walls        the walls of the map
+     * @param fog          the fog of war of the map
+     */
+    public static SceneData capture(File mapFile, MenubarAttributeHolder settings, TokenHandler tokenHandler,
+            Walls walls, FogOfWar fog) {
+        SceneData scene = captureSettings(mapFile, settings);
+        for (Token token : tokenHandler.getAllTokens()) {
+            Point2D.Double position = token.getPosition();
+            scene.tokens.add(new TokenEntry(token.getUUId(), token.createDataObject(),
+                    new Point2D.Double(position.x, position.y)));
+        }
+        for (Line2D.Double wall : walls.getAll())
+            scene.walls.add(new Line2D.Double(wall.x1, wall.y1, wall.x2, wall.y2));
+        scene.fog = new FogOfWar(fog);
+        return scene;
+    }
+
+    /**
+     * Same as
+     * {@link #capture(File, MenubarAttributeHolder, TokenHandler, Walls, FogOfWar)},
+     * but only the map and the settings.
+     */
+    public static SceneData captureSettings(File mapFile, MenubarAttributeHolder settings) {
+        SceneData scene = new SceneData();
+        scene.mapFile = mapFile;
+
+        scene.isGridEnabled = settings.VIEW_GRID_ENABLED.getValue();
+        scene.gridScale = settings.VIEW_GRID_SCALE.getValue();
+        scene.gridThickness = settings.VIEW_GRID_THICKNESS.getValue();
+        scene.gridOffsetX = settings.VIEW_GRID_OFFSET_X.getValue();
+        scene.gridOffsetY = settings.VIEW_GRID_OFFSET_Y.getValue();
+        scene.tokenSize = settings.TOKEN_SIZE.getValue();
+        scene.tokenOutlineThickness = settings.TOKEN_OUTLINE_THICKNESS.getValue();
+        return scene;
+    }
+
+    /**
+     * Applies the grid and token settings of this scene and replaces all tokens,
+     * walls and the revealed fog with the ones of this scene. The map has to be
+     * applied by the caller, as only it knows how the map is displayed.<br>
+     * Token images are loaded in the background, just like for new tokens.
+     */
+    public void apply(MenubarAttributeHolder settings, TokenHandler tokenHandler, Walls walls, FogOfWar fog) {
+        // The fog follows the grid, so it goes after the settings
+        applySettings(settings);
+        applyFog(fog);
+        walls.setAll(this.walls);
+
+        // Listeners get told about the whole exchange at once
+        tokenHandler.beginBatch();
+        try {
+            for (Token token : tokenHandler.getAllTokens())
+                tokenHandler.removeToken(token);
+
+            for (Token token : createTokens(tokenHandler))
+                tokenHandler.addToken(token);
+        } finally {
+            tokenHandler.commitBatch();
+        }
+    }
+
+    /**
+     * Creates the tokens of this scene without adding them to the handler. Their
+     * images start loading right away.
+     */
+    public List<Token> createTokens(TokenHandler tokenHandler) {
+        List<Token> created = new ArrayList<>(tokens.size());
+        for (TokenEntry entry : tokens) {
+            Token token = new Token(entry.id(), entry.data(), tokenHandler);
+            token.setPosition(new Point2D.Double(entry.position().x, entry.position().y));
+            created.add(token);
+        }
+        return created;
+    }
+
+    /**
+     * Reveals what is revealed in this scene on the given fog. Scenes saved
+     * without fog start with everything hidden, like any new scene.
+     */
+    public void applyFog(FogOfWar fog) {
+        if (this.fog != null)
+            fog.setRevealed(this.fog);
+        else
+            fog.setAllRevealed(false);
+    }
+
+    /**
+     * Applies only the grid and token settings of this scene.
+     */
+    public void applySettings(MenubarAttributeHolder settings) {
+        settings.VIEW_GRID_ENABLED.setValue(isGridEnabled);
+        settings.VIEW_GRID_SCALE.setValue(gridScale);
+        settings.VIEW_GRID_THICKNESS.setValue(gridThickness);
+        settings.VIEW_GRID_OFFSET_X.setValue(gridOffsetX);
+        settings.VIEW_GRID_OFFSET_Y.setValue(gridOffsetY);
+        settings.TOKEN_SIZE.setValue(tokenSize);
+        settings.TOKEN_OUTLINE_THICKNESS.setValue(tokenOutlineThickness);
+    }
+
+    public File getMapFile() {
+        return mapFile;
+    }
+
+    public void setMapFile(File mapFile) {
+        this.mapFile = mapFile;
+    }
+
+    public boolean isGridEnabled() {
+        return isGridEnabled;
+    }
+
+    public void setGridEnabled(boolean isGridEnabled) {
+        this.isGridEnabled = isGridEnabled;
+    }
+
+    public double getGridScale() {
+        return gridScale;
+    }
+
+    public void setGridScale(double gridScale) {
+        this.gridScale = gridScale;
+    }
+
+    public double getGridThickness() {
+        return gridThickness;
+    }
+
+    public void setGridThickness(double gridThickness) {
+        this.gridThickness = gridThickness;
+    }
+
+    public double getGridOffsetX() {
+        return gridOffsetX;
+    }
+
+    public void setGridOffsetX(double gridOffsetX) {
+        this.gridOffsetX = gridOffsetX;
+    }
+
+    public double getGridOffsetY() {
+        return gridOffsetY;
+    }
+
+    public void setGridOffsetY(double gridOffsetY) {
+        this.gridOffsetY = gridOffsetY;
+    }
+
+    public double getTokenSize() {
+        return tokenSize;
+    }
+
+    public void setTokenSize(double tokenSize) {
+        this.tokenSize = tokenSize;
+    }
+
+    public double getTokenOutlineThickness() {
+        return tokenOutlineThickness;
+    }
+
+    public void setTokenOutlineThickness(double tokenOutlineThickness) {
+        this.tokenOutlineThickness = tokenOutlineThickness;
+    }
+
+    public List<TokenEntry> getTokens() {
+        return tokens;
+    }
+
+    public List<Line2D.Double> getWalls() {
+        return walls;
+    }
+
+    /**
+     * @return The fog of war of this scene or null if it was saved without
+     */
+    public FogOfWar getFog() {
+        return fog;
+    }
+
+    public void setFog(FogOfWar fog) {
+        this.fog = fog;
+    }
+
+}
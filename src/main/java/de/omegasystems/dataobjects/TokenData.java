@@ -15,6 +15,7 @@ public class TokenData implements Observable<TokenData> {
     private Property<Integer> initiative;
     private Property<String> movement;
     private Property<Friendlieness> friendStatus;
+    private Property<Double> visionRadius;
 
     private Observerhandler<TokenData> observerhandler = new Observerhandler<>();
 
@@ -27,6 +28,7 @@ public class TokenData implements Observable<TokenData> {
         initiative = new Property<Integer>(this, 0);
         movement = new Property<String>(this, "Movement");
         friendStatus = new Property<Friendlieness>(this, Friendlieness.Neutral);
+        visionRadius = new Property<Double>(this, 0.0);
     }
 
     public Property<String> getDescription() {
@@ -57,6 +59,14 @@ public class TokenData implements Observable<TokenData> {
         return size;
     }
 
+    /**
+     * @return The vision radius in grid cells, 0 if the token doesn't see or
+     *         light anything
+     */
+    public Property<Double> getVisionRadius() {
+        return visionRadius;
+    }
+
     @Override
     public void addObserver(Observer<TokenData> obs) {
         observerhandler.addObserver(obs);
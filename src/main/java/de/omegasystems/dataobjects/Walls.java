@@ -0,0 +1,180 @@
+package de.omegasystems.dataobjects;
+
+import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import de.omegasystems.utility.Observer;
+import de.omegasystems.utility.Observerhandler;
+import de.omegasystems.utility.SpatialHashGrid;
+
+/**
+ * The wall segments of a map, which block the vision of tokens.<br>
+ * <br>
+ * Walls are indexed by area, so finding the walls around a token only looks at
+ * the walls close to it, no matter how many the map has. Observers get the
+ * area in world space that changed. Has to be changed on the EDT, reading from
+ * other threads is fine while nothing changes.
+ */
+public class Walls {
+
+    // Roughly the size of a room, most walls only end up in one or two cells
+    private static final int INDEX_CELL_SIZE = 256;
+
+    private final List<Line2D.Double> walls = new ArrayList<>();
+    private final SpatialHashGrid<Line2D.Double> index = new SpatialHashGrid<>(INDEX_CELL_SIZE);
+    private final Observerhandler<Rectangle2D> observers = new Observerhandler<>();
+
+    /**
+     * Adds a wall from one point to another. Walls without a length are ignored.
+     */
+    public void add(Point2D from, Point2D to) {
+        if (from.equals(to))
+            return;
+        Line2D.Double wall = new Line2D.Double(from, to);
+        walls.add(wall);
+        index.put(wall, getIndexBounds(wall));
+        observers.notifyObservers(wall.getBounds2D());
+    }
+
+    public void remove(Line2D.Double wall) {
+        if (!index.contains(wall))
+            return;
+        walls.remove(wall);
+        index.remove(wall);
+        observers.notifyObservers(wall.getBounds2D());
+    }
+
+    public void clear() {
+        if (walls.isEmpty())
+            return;
+        Rectangle2D changedArea = walls.get(0).getBounds2D();
+        for (Line2D.Double wall : walls)
+            changedArea.add(wall.getBounds2D());
+        walls.clear();
+        index.clear();
+        observers.notifyObservers(changedArea);
+    }
+
+    /**
+     * Replaces all walls with the given ones, for example when loading a scene.
+     * Observers are only told once about everything that changed.
+     */
+    public void setAll(Collection<? extends Line2D> replacement) {
+        Rectangle2D changedArea = null;
+        for (Line2D.Double wall : walls)
+            changedArea = union(changedArea, wall.getBounds2D());
+        walls.clear();
+        index.clear();
+
+        for (Line2D line : replacement) {
+            if (line.getP1().equals(line.getP2()))
+                continue;
+            Line2D.Double wall = new Line2D.Double(line.getP1(), line.getP2());
+            walls.add(wall);
+            index.put(wall, getIndexBounds(wall));
+            changedArea = union(changedArea, wall.getBounds2D());
+        }
+        if (changedArea != null)
+            observers.notifyObservers(changedArea);
+    }
+
+    private static Rectangle2D union(Rectangle2D area, Rectangle2D added) {
+        if (area == null)
+            return added;
+        area.add(added);
+        return area;
+    }
+
+    /**
+     * Adds every wall touching the area to the result. The walls must not be
+     * modified.
+     */
+    public void getWallsIn(Rectangle2D area, Collection<Line2D.Double> result) {
+        // Walls spanning several cells are found more than once
+        Set<Line2D.Double> found = new HashSet<>();
+        index.queryArea(area.getBounds(), found);
+        for (Line2D.Double wall : found) {
+            if (wall.intersects(area))
+                result.add(wall);
+        }
+    }
+
+    /**
+     * @return The wall closest to the point within the distance or null if there
+     *         is none
+     */
+    public Line2D.Double getWallNear(Point2D point, double distance) {
+        List<Line2D.Double> candidates = new ArrayList<>();
+        getWallsIn(new Rectangle2D.Double(point.getX() - distance, point.getY() - distance, 2 * distance,
+                2 * distance), candidates);
+
+        Line2D.Double closest = null;
+        double closestDistance = distance * distance;
+        for (Line2D.Double wall : candidates) {
+            double wallDistance = wall.ptSegDistSq(point);
+            if (wallDistance <= closestDistance) {
+                closest = wall;
+                closestDistance = wallDistance;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * @return The end of a wall within the distance of the point or null if there
+     *         is none. Lets new walls connect to existing ones without a gap
+     */
+    public Point2D getEndpointNear(Point2D point, double distance) {
+        List<Line2D.Double> candidates = new ArrayList<>();
+        getWallsIn(new Rectangle2D.Double(point.getX() - distance, point.getY() - distance, 2 * distance,
+                2 * distance), candidates);
+
+        Point2D closest = null;
+        double closestDistance = distance;
+        for (Line2D.Double wall : candidates) {
+            for (Point2D end : new Point2D[] { wall.getP1(), wall.getP2() }) {
+                if (end.distance(point) <= closestDistance) {
+                    closest = end;
+                    closestDistance = end.distance(point);
+                }
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * @return All walls, which must not be modified
+     */
+    public List<Line2D.Double> getAll() {
+        return Collections.unmodifiableList(walls);
+    }
+
+    public int size() {
+        return walls.size();
+    }
+
+    private static Rectangle getIndexBounds(Line2D wall) {
+        Rectangle2D bounds = wall.getBounds2D();
+        int x = (int) Math.floor(bounds.getMinX());
+        int y = (int) Math.floor(bounds.getMinY());
+        // Horizontal and vertical walls still need an area to be found
+        return new Rectangle(x, y, Math.max(1, (int) Math.ceil(bounds.getMaxX()) - x),
+                Math.max(1, (int) Math.ceil(bounds.getMaxY()) - y));
+    }
+
+    public void addObserver(Observer<Rectangle2D> obs) {
+        observers.addObserver(obs);
+    }
+
+    public void removeObserver(Observer<Rectangle2D> obs) {
+        observers.removeObserver(obs);
+    }
+}
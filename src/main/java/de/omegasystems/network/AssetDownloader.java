@@ -0,0 +1,277 @@
+package de.omegasystems.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import javax.swing.SwingUtilities;
+
+import de.omegasystems.network.TableProtocol.MessageWriter;
+import de.omegasystems.persistence.SceneFile;
+
+/**
+ * Downloads the files a {@link TableServer} offers into a cache directory,
+ * where every file is named after the hash of its content. A file is only ever
+ * downloaded once, no matter how many sessions, scenes or tokens use it.<br>
+ * <br>
+ * Chunks are appended to a partial file as they arrive. Partial files survive
+ * disconnects, so the next request for the same file continues where the last
+ * one stopped. A complete file is only moved into the cache once its hash
+ * matches, otherwise the download starts over.<br>
+ * <br>
+ * Requests are made on the EDT, chunks are written on the network thread.
+ */
+class AssetDownloader {
+
+    // Lower values are sent first
+    static final int PRIORITY_MAP_PREVIEW = 0;
+    static final int PRIORITY_VISIBLE = 1;
+    static final int PRIORITY_MAP = 2;
+    static final int PRIORITY_BACKGROUND = 3;
+    private static final int CANCELLED = -1;
+
+    // Extensions come from the server and end up in file names
+    private static final Pattern EXTENSION = Pattern.compile("\\.[A-Za-z0-9]{1,10}");
+
+    private static class Download {
+        final byte[] hash;
+        final Path target;
+        final Path part;
+        final long length;
+        volatile int priority;
+
+        // Guarded by the download itself
+        FileChannel channel;
+        MessageDigest digest;
+        long received;
+        boolean isGapRequested = false;
+        boolean isCancelled = false;
+
+        Download(byte[] hash, Path target, long length, int priority) {
+            this.hash = hash;
+            this.target = target;
+            this.part = target.resolveSibling(target.getFileName() + ".part");
+            this.length = length;
+            this.priority = priority;
+        }
+    }
+
+    private final Path directory;
+    private final Consumer<ByteBuffer> sender;
+    private final BiConsumer<byte[], File> onDownloaded;
+    private final Map<String, Download> downloads = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory    the cache directory
+     * @param sender       sends a request to the server, from any thread
+     * @param onDownloaded called on the EDT with the hash and the cached file
+     *                     once a download completed
+     */
+    AssetDownloader(Path directory, Consumer<ByteBuffer> sender, BiConsumer<byte[], File> onDownloaded) {
+        this.directory = directory;
+        this.sender = sender;
+        this.onDownloaded = onDownloaded;
+    }
+
+    // Runs on the EDT
+
+    /**
+     * Returns the cached file or starts downloading it.
+     *
+     * @return The cached file or null if it is being downloaded
+     */
+    File request(byte[] hash, String extension, long length, int priority) {
+        String hex = HexFormat.of().formatHex(hash);
+        Path target = directory.resolve(hex + (EXTENSION.matcher(extension).matches() ? extension : ""));
+        File cached = target.toFile();
+        if (cached.isFile() && cached.length() == length)
+            return cached;
+        if (downloads.containsKey(hex))
+            return null;
+
+        Download download = new Download(hash, target, length, priority);
+        try {
+            Files.createDirectories(directory);
+            // Continue a previous download, unless it is somehow complete already
+            long partLength = Files.exists(download.part) ? Files.size(download.part) : 0;
+            if (partLength >= length)
+                Files.deleteIfExists(download.part);
+            download.received = partLength < length ? partLength : 0;
+        } catch (IOException e) {
+            System.err.println("[AssetDownloader] Couldn't prepare the download of '" + target + "'");
+            e.printStackTrace();
+            return null;
+        }
+
+        downloads.put(hex, download);
+        sendRequest(hash, download.received, priority);
+        return null;
+    }
+
+    boolean isDownloading(byte[] hash) {
+        return downloads.containsKey(HexFormat.of().formatHex(hash));
+    }
+
+    void setPriority(byte[] hash, int priority) {
+        Download download = downloads.get(HexFormat.of().formatHex(hash));
+        if (download == null || download.priority == priority)
+            return;
+        download.priority = priority;
+        sendRequest(hash, -1, priority);
+    }
+
+    /**
+     * Stops downloading the file. What arrived so far is kept for later.
+     */
+    void cancel(byte[] hash) {
+        Download download = downloads.remove(HexFormat.of().formatHex(hash));
+        if (download == null)
+            return;
+        sendRequest(hash, -1, CANCELLED);
+        synchronized (download) {
+            download.isCancelled = true;
+            closeChannel(download);
+        }
+    }
+
+    // Runs on the network thread
+
+    /**
+     * Writes a received chunk into the partial file, completing the download if
+     * it was the last one.
+     */
+    void onChunk(ByteBuffer in) throws IOException {
+        byte[] hash = TableProtocol.readHash(in);
+        long offset = in.getLong();
+        Download download = downloads.get(HexFormat.of().formatHex(hash));
+        // Chunks sent before a cancel may still arrive
+        if (download == null)
+            return;
+
+        synchronized (download) {
+            if (download.isCancelled)
+                return;
+            if (offset != download.received) {
+                // Chunks got lost, for example when the server dropped the backlog of this
+                // client. Ask for the rest again, once
+                if (offset > download.received && !download.isGapRequested) {
+                    download.isGapRequested = true;
+                    sendRequest(hash, download.received, download.priority);
+                }
+                return;
+            }
+            download.isGapRequested = false;
+
+            try {
+                if (download.channel == null)
+                    open(download);
+                if (download.received + in.remaining() > download.length)
+                    throw new IOException("More bytes than announced");
+                download.digest.update(in.duplicate());
+                while (in.hasRemaining())
+                    download.received += download.channel.write(in, download.received);
+                if (download.received == download.length)
+                    complete(download);
+            } catch (IOException e) {
+                System.err.println("[AssetDownloader] Couldn't write to '" + download.part + "'");
+                e.printStackTrace();
+                closeChannel(download);
+                downloads.remove(HexFormat.of().formatHex(hash));
+            }
+        }
+    }
+
+    /**
+     * Opens the partial file and catches the hash up with what it contains
+     * already.
+     */
+    private void open(Download download) throws IOException {
+        download.digest = SceneFile.newSha256();
+        download.channel = FileChannel.open(download.part, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        download.channel.truncate(download.received);
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long position = 0;
+        while (position < download.received) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), download.received - position));
+            int read = download.channel.read(buffer, position);
+            if (read < 0)
+                throw new IOException("'" + download.part + "' is shorter than expected");
+            buffer.flip();
+            download.digest.update(buffer);
+            position += read;
+        }
+    }
+
+    private void complete(Download download) throws IOException {
+        closeChannel(download);
+        if (!Arrays.equals(download.digest.digest(), download.hash)) {
+            // Start over, keeping the partial file would only fail again
+            System.err.println("[AssetDownloader] '" + download.target + "' didn't match its hash, retrying");
+            Files.deleteIfExists(download.part);
+            download.received = 0;
+            sendRequest(download.hash, 0, download.priority);
+            return;
+        }
+
+        try {
+            Files.move(download.part, download.target, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(download.part, download.target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        downloads.remove(HexFormat.of().formatHex(download.hash));
+        File file = download.target.toFile();
+        SwingUtilities.invokeLater(() -> onDownloaded.accept(download.hash, file));
+    }
+
+    private static void closeChannel(Download download) {
+        if (download.channel == null)
+            return;
+        try {
+            download.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        download.channel = null;
+    }
+
+    /**
+     * Closes all partial files, keeping them to continue later.
+     */
+    void close() {
+        for (Download download : downloads.values()) {
+            synchronized (download) {
+                closeChannel(download);
+            }
+        }
+        downloads.clear();
+    }
+
+    private void sendRequest(byte[] hash, long offset, int priority) {
+        try {
+            MessageWriter message = new MessageWriter(TableProtocol.REQUEST);
+            message.out.write(hash);
+            message.out.writeLong(offset);
+            message.out.writeByte(priority);
+            sender.accept(message.toFrame());
+        } catch (IOException e) {
+            // Writing into memory doesn't fail
+            throw new IllegalStateException(e);
+        }
+    }
+}
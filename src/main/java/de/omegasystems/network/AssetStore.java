@@ -0,0 +1,250 @@
+package de.omegasystems.network;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import de.omegasystems.network.TableProtocol.MessageWriter;
+import de.omegasystems.persistence.SceneFile;
+
+/**
+ * The files a {@link TableServer} offers to its clients, identified by the
+ * SHA-256 hash of their content.<br>
+ * <br>
+ * Files are hashed on a background thread when they are first published, then
+ * an announcement is broadcast so clients can request what they don't have
+ * cached yet. Maps larger than {@link #PREVIEW_SIZE} get a preview as well: the
+ * map decoded at the finest level of detail that has at most that many pixels,
+ * which is small enough to arrive long before the full resolution map.
+ */
+class AssetStore {
+
+    // The longer side of map previews is at most this many pixels
+    static final int PREVIEW_SIZE = 1024;
+    static final String PREVIEW_EXTENSION = ".jpg";
+    private static final String MAP_KEY = "";
+
+    /**
+     * A file offered to clients, either on disk or, for previews, in memory.
+     */
+    record Asset(byte[] hash, long length, File file, byte[] content) {
+
+        FileChannel open() throws IOException {
+            return file == null ? null : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+
+        /**
+         * Fills the target with the bytes starting at the offset.
+         *
+         * @param channel the channel returned by {@link #open()}
+         */
+        void read(FileChannel channel, long offset, ByteBuffer target) throws IOException {
+            if (content != null) {
+                target.put(content, (int) offset, Math.min(target.remaining(), content.length - (int) offset));
+                return;
+            }
+            if (channel.size() != length)
+                throw new IOException("'" + file.getAbsolutePath() + "' changed since it was published");
+            while (target.hasRemaining() && offset < length) {
+                int read = channel.read(target, offset);
+                if (read < 0)
+                    break;
+                offset += read;
+            }
+        }
+    }
+
+    private final Consumer<ByteBuffer> broadcaster;
+    private final Map<String, Asset> assets = new ConcurrentHashMap<>();
+    // The latest announcement per published path, the map under MAP_KEY
+    private final Map<String, ByteBuffer> announcements = new ConcurrentHashMap<>();
+
+    // Only touched on the EDT
+    private final Set<File> publishedPictures = new HashSet<>();
+    private volatile File mapFile;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Asset Hasher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param broadcaster sends announcements to all clients, called from a
+     *                    background thread
+     */
+    AssetStore(Consumer<ByteBuffer> broadcaster) {
+        this.broadcaster = broadcaster;
+    }
+
+    /**
+     * Offers the picture to the clients, once. Has to be called on the EDT.
+     */
+    void publishPicture(File picture) {
+        if (picture == null || !publishedPictures.add(picture))
+            return;
+
+        worker.execute(() -> {
+            try {
+                Asset asset = add(picture);
+                MessageWriter message = new MessageWriter(TableProtocol.ASSET);
+                message.out.writeByte(TableProtocol.ASSET_PICTURE);
+                writeAsset(message, asset, getExtension(picture));
+                TableProtocol.writeString(message.out, picture.getPath());
+                announce(picture.getPath(), message.toFrame());
+            } catch (IOException e) {
+                System.err.println("[AssetStore] Couldn't publish the picture '" + picture.getAbsolutePath() + "'");
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Offers the map to the clients, replacing the previous one. Has to be called
+     * on the EDT.
+     */
+    void publishMap(File map) {
+        if (map == null || map.equals(mapFile))
+            return;
+        mapFile = map;
+
+        worker.execute(() -> {
+            // Already replaced by the next one
+            if (!map.equals(mapFile))
+                return;
+            try {
+                Asset asset = add(map);
+                MessageWriter message = new MessageWriter(TableProtocol.ASSET);
+                message.out.writeByte(TableProtocol.ASSET_MAP);
+                writeAsset(message, asset, getExtension(map));
+                writePreview(message, map);
+                announce(MAP_KEY, message.toFrame());
+            } catch (IOException e) {
+                System.err.println("[AssetStore] Couldn't publish the map '" + map.getAbsolutePath() + "'");
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void writeAsset(MessageWriter message, Asset asset, String extension) throws IOException {
+        message.out.write(asset.hash());
+        message.out.writeLong(asset.length());
+        TableProtocol.writeString(message.out, extension);
+    }
+
+    /**
+     * Reads the map at the finest level of detail with at most
+     * {@link #PREVIEW_SIZE} pixels on its longer side. Subsampling while reading
+     * means the full map is never decoded.
+     */
+    private void writePreview(MessageWriter message, File map) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(map)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext())
+                throw new IOException("No image reader found for '" + map.getAbsolutePath() + "'");
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                message.out.writeInt(width);
+                message.out.writeInt(height);
+
+                int subsampling = 1;
+                while (Math.max(width, height) / subsampling > PREVIEW_SIZE)
+                    subsampling *= 2;
+                if (subsampling == 1) {
+                    // Small maps are sent right away
+                    message.out.writeBoolean(false);
+                    return;
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+
+                // JPEG has no alpha, which a preview doesn't need anyway
+                BufferedImage preview = new BufferedImage(decoded.getWidth(), decoded.getHeight(),
+                        BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = preview.createGraphics();
+                g.drawImage(decoded, 0, 0, Color.WHITE, null);
+                g.dispose();
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ImageIO.write(preview, "jpg", bytes);
+                byte[] content = bytes.toByteArray();
+                Asset asset = add(content);
+                message.out.writeBoolean(true);
+                message.out.write(asset.hash());
+                message.out.writeLong(asset.length());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private Asset add(File file) throws IOException {
+        Asset asset = new Asset(SceneFile.hash(file), file.length(), file, null);
+        assets.put(HexFormat.of().formatHex(asset.hash()), asset);
+        return asset;
+    }
+
+    private Asset add(byte[] content) {
+        Asset asset = new Asset(SceneFile.hash(content), content.length, null, content);
+        assets.put(HexFormat.of().formatHex(asset.hash()), asset);
+        return asset;
+    }
+
+    private void announce(String key, ByteBuffer frame) {
+        announcements.put(key, frame);
+        broadcaster.accept(frame);
+    }
+
+    private static String getExtension(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot).toLowerCase() : "";
+    }
+
+    /**
+     * @return The asset with the given hash or null if it was never published
+     */
+    Asset get(byte[] hash) {
+        return assets.get(HexFormat.of().formatHex(hash));
+    }
+
+    /**
+     * @return The announcements of everything published so far, for clients that
+     *         just joined
+     */
+    Collection<ByteBuffer> getAnnouncements() {
+        return new ArrayList<>(announcements.values());
+    }
+
+    void close() {
+        worker.shutdownNow();
+    }
+}
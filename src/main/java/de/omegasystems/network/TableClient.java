@@ -0,0 +1,569 @@
+package de.omegasystems.network;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import de.omegasystems.core.MapTileSource;
+import de.omegasystems.core.Token;
+import de.omegasystems.core.TokenHandler;
+import de.omegasystems.dataobjects.FogOfWar;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.dataobjects.TokenData;
+import de.omegasystems.persistence.SceneFile;
+import de.omegasystems.renderer.map.PreviewTileSource;
+import de.omegasystems.renderer.map.StreamingTileSource;
+import de.omegasystems.utility.ImageLoader;
+
+/**
+ * Mirrors the tokens, grid settings, walls and fog of war of a
+ * {@link TableServer} into the local token handler and scene. Once connected,
+ * the server replaces all local tokens with its own and keeps them up to
+ * date.<br>
+ * <br>
+ * Frames are received on a background thread and applied on the EDT. All frames
+ * that arrived together are applied as one batch, so a burst of changes only
+ * causes a single repaint.<br>
+ * <br>
+ * The map and token pictures are downloaded through an {@link AssetDownloader}
+ * into the blob directory of {@link SceneFile}, so anything downloaded or
+ * extracted from a scene before is not downloaded again. A new map shows up as
+ * a preview first, with its full size, and gets replaced by the real map once
+ * that arrived. Pictures of tokens inside the viewport are downloaded before
+ * all other pictures, the placeholder is shown until they are complete.
+ */
+public class TableClient {
+
+    private final InetSocketAddress address;
+    private final MenubarAttributeHolder settings;
+    private final TokenHandler tokenHandler;
+
+    // Re-checks which pictures are visible, in milliseconds
+    private static final int PRIORITY_INTERVAL = 500;
+
+    private record PictureAsset(byte[] hash, String extension, long length) {
+    }
+
+    private record MapAsset(byte[] hash, String extension, long length, Dimension size, byte[] previewHash,
+            long previewLength) {
+    }
+
+    // Only touched on the EDT
+    private final Map<Integer, Token> tokens = new HashMap<>();
+    // The pictures the server offers by their path on the server
+    private final Map<String, PictureAsset> pictures = new HashMap<>();
+    // The picture path on the server per token, for tokens that have one
+    private final Map<Token, String> picturePaths = new HashMap<>();
+    private MapAsset map;
+    private boolean isMapShown = false;
+    private BiConsumer<MapTileSource, File> onMap;
+    private List<Line2D.Double> walls = List.of();
+    private Consumer<List<Line2D.Double>> onWalls;
+    // Null while the server shows no fog, only valid once received
+    private FogOfWar fog;
+    private boolean isFogReceived = false;
+    private Consumer<FogOfWar> onFog;
+    private Supplier<Rectangle> viewport;
+    private final Timer priorityTimer = new Timer(PRIORITY_INTERVAL, e -> updatePriorities());
+
+    private final AssetDownloader downloads;
+    private final Queue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+
+    private SocketChannel channel;
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean isRunning = false;
+    private volatile boolean isClosed = false;
+    private Runnable onDisconnect;
+
+    /**
+     * @param address      the address of the server
+     * @param settings     the attributes to apply the grid and token settings to
+     * @param tokenHandler the handler to mirror the tokens into
+     */
+    public TableClient(InetSocketAddress address, MenubarAttributeHolder settings, TokenHandler tokenHandler) {
+        if (address == null || settings == null || tokenHandler == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Address, settings and token handler are required");
+        this.address = address;
+        this.settings = settings;
+        this.tokenHandler = tokenHandler;
+        this.downloads = new AssetDownloader(SceneFile.getBlobDirectory(), this::send, this::onDownloaded);
+    }
+
+    /**
+     * Connects to the server, blocking until the connection is established or
+     * failed.
+     */
+    public void connect() throws IOException {
+        channel = SocketChannel.open(address);
+        // Closed while still connecting
+        if (isClosed) {
+            channel.close();
+            return;
+        }
+        channel.socket().setTcpNoDelay(true);
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+
+        isRunning = true;
+        thread = new Thread(this::run, "Table client");
+        thread.setDaemon(true);
+        thread.start();
+        SwingUtilities.invokeLater(priorityTimer::start);
+    }
+
+    public void close() {
+        isClosed = true;
+        priorityTimer.stop();
+        if (!isRunning)
+            return;
+        isRunning = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param onDisconnect called on the EDT once the server closed the connection
+     */
+    public void setOnDisconnect(Runnable onDisconnect) {
+        this.onDisconnect = onDisconnect;
+    }
+
+    /**
+     * @param onMap called on the EDT with every map the server shows, the file is
+     *              null while only the preview is available
+     */
+    public void setOnMap(BiConsumer<MapTileSource, File> onMap) {
+        this.onMap = onMap;
+    }
+
+    /**
+     * @param onWalls called on the EDT with all walls of the server whenever they
+     *                changed and after every new map
+     */
+    public void setOnWalls(Consumer<List<Line2D.Double>> onWalls) {
+        this.onWalls = onWalls;
+    }
+
+    /**
+     * @param onFog called on the EDT with the fog of the server whenever it
+     *              changed and after every new map. It is null while the
+     *              server shows no fog, in which case players see everything
+     */
+    public void setOnFog(Consumer<FogOfWar> onFog) {
+        this.onFog = onFog;
+    }
+
+    /**
+     * @param viewport supplies the area in world space that is currently visible,
+     *                 called on the EDT
+     */
+    public void setViewport(Supplier<Rectangle> viewport) {
+        this.viewport = viewport;
+    }
+
+    public boolean isConnected() {
+        return isRunning;
+    }
+
+    /**
+     * Sends a frame to the server, from any thread.
+     */
+    private void send(ByteBuffer frame) {
+        outbox.add(frame);
+        if (selector != null)
+            selector.wakeup();
+    }
+
+    private void run() {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        boolean wasClosedByServer = false;
+        try {
+            while (isRunning) {
+                selector.select();
+                selector.selectedKeys().clear();
+
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    wasClosedByServer = true;
+                    break;
+                }
+                write();
+
+                buffer.flip();
+                List<ByteBuffer> frames = new ArrayList<>();
+                while (buffer.remaining() >= Integer.BYTES) {
+                    int length = buffer.getInt(buffer.position());
+                    if (length <= 0 || length > TableProtocol.MAX_FRAME_LENGTH)
+                        throw new IOException("Invalid frame length " + length);
+                    if (buffer.remaining() < Integer.BYTES + length)
+                        break;
+
+                    buffer.position(buffer.position() + Integer.BYTES);
+                    // Chunks go straight to disk, only the rest needs the EDT
+                    if (buffer.get(buffer.position()) == TableProtocol.CHUNK) {
+                        ByteBuffer chunk = buffer.slice(buffer.position() + 1, length - 1);
+                        buffer.position(buffer.position() + length);
+                        downloads.onChunk(chunk);
+                        continue;
+                    }
+                    byte[] frame = new byte[length];
+                    buffer.get(frame);
+                    frames.add(ByteBuffer.wrap(frame));
+                }
+                buffer.compact();
+                // Make room for frames larger than the buffer, like a big full state
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+
+                if (!frames.isEmpty())
+                    SwingUtilities.invokeLater(() -> applyFrames(frames));
+            }
+        } catch (IOException | BufferUnderflowException e) {
+            System.err.println("[TableClient] Lost the connection to '" + address + "'");
+            e.printStackTrace();
+            wasClosedByServer = true;
+        } finally {
+            isRunning = false;
+            downloads.close();
+            SwingUtilities.invokeLater(priorityTimer::stop);
+            try {
+                channel.close();
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (wasClosedByServer && onDisconnect != null)
+            SwingUtilities.invokeLater(onDisconnect);
+    }
+
+    private void write() throws IOException {
+        ByteBuffer head;
+        while ((head = outbox.peek()) != null) {
+            channel.write(head);
+            if (head.hasRemaining())
+                break;
+            outbox.poll();
+        }
+        // Only ask to be woken up for writing while the socket is full
+        channel.keyFor(selector).interestOps(outbox.isEmpty() ? SelectionKey.OP_READ
+                : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    // Runs on the EDT
+
+    private void applyFrames(List<ByteBuffer> frames) {
+        tokenHandler.beginBatch();
+        try {
+            for (ByteBuffer frame : frames)
+                applyFrame(frame);
+        } catch (IOException | BufferUnderflowException e) {
+            System.err.println("[TableClient] Received an invalid message from '" + address + "'");
+            e.printStackTrace();
+        } finally {
+            tokenHandler.commitBatch();
+        }
+    }
+
+    private void applyFrame(ByteBuffer in) throws IOException {
+        byte type = in.get();
+        switch (type) {
+            case TableProtocol.FULL_STATE -> {
+                TableProtocol.readSettings(in, settings);
+                for (Token token : tokenHandler.getAllTokens())
+                    tokenHandler.removeToken(token);
+                tokens.clear();
+                picturePaths.clear();
+                int count = TableProtocol.readVarInt(in);
+                for (int i = 0; i < count; i++)
+                    readToken(in);
+                showWalls(TableProtocol.readWalls(in));
+                showFog(TableProtocol.readFog(in));
+            }
+            case TableProtocol.TOKEN_ADDED -> readToken(in);
+            case TableProtocol.TOKEN_REMOVED -> {
+                Token token = tokens.remove(TableProtocol.readVarInt(in));
+                if (token != null) {
+                    picturePaths.remove(token);
+                    tokenHandler.removeToken(token);
+                }
+            }
+            case TableProtocol.TOKENS_MOVED -> {
+                int count = TableProtocol.readVarInt(in);
+                for (int i = 0; i < count; i++) {
+                    Token token = tokens.get(TableProtocol.readVarInt(in));
+                    Point2D.Double position = new Point2D.Double(in.getFloat(), in.getFloat());
+                    if (token != null)
+                        token.setPosition(position);
+                }
+            }
+            case TableProtocol.TOKEN_EDITED -> {
+                Token token = tokens.get(TableProtocol.readVarInt(in));
+                // Read the fields even for unknown tokens, they are simply dropped then
+                TokenData data = token != null ? token.createDataObject() : new TokenData();
+                String picturePath = TableProtocol.readFields(in, data);
+                if (token != null) {
+                    if (picturePath != null)
+                        data.getPictureFile().setValue(resolvePicture(token, picturePath));
+                    token.updateAllValues(data);
+                }
+            }
+            case TableProtocol.SETTINGS -> TableProtocol.readSettings(in, settings);
+            case TableProtocol.ASSET -> readAsset(in);
+            case TableProtocol.WALLS -> showWalls(TableProtocol.readWalls(in));
+            case TableProtocol.FOG -> showFog(TableProtocol.readFog(in));
+            default -> throw new IOException("Unknown message type " + type);
+        }
+    }
+
+    private void readToken(ByteBuffer in) throws IOException {
+        int handle = TableProtocol.readVarInt(in);
+        UUID id = new UUID(in.getLong(), in.getLong());
+        Point2D.Double position = new Point2D.Double(in.getFloat(), in.getFloat());
+        TokenData data = new TokenData();
+        String picturePath = TableProtocol.readFields(in, data);
+
+        // The server may announce a token again, the newer one wins
+        Token previous = tokens.remove(handle);
+        if (previous != null) {
+            picturePaths.remove(previous);
+            tokenHandler.removeToken(previous);
+        }
+
+        Token token = new Token(id, data, tokenHandler);
+        token.setPosition(position);
+        File picture = picturePath == null ? null : resolvePicture(token, picturePath);
+        if (picture != null)
+            token.updateAllValues(withPicture(token, picture));
+        tokens.put(handle, token);
+        tokenHandler.addToken(token);
+    }
+
+    private static TokenData withPicture(Token token, File picture) {
+        TokenData data = token.createDataObject();
+        data.getPictureFile().setValue(picture);
+        return data;
+    }
+
+    /**
+     * Finds the local file for the picture path of a token on the server,
+     * starting the download if it isn't cached yet. The token gets the picture
+     * once the download completed.
+     * 
+     * @return The local file or null if there is none yet
+     */
+    private File resolvePicture(Token token, String path) {
+        if (path.isEmpty()) {
+            picturePaths.remove(token);
+            return null;
+        }
+        picturePaths.put(token, path);
+        return findPicture(path);
+    }
+
+    private File findPicture(String path) {
+        PictureAsset asset = pictures.get(path);
+        if (asset == null) {
+            // Not announced yet, both sides might share the file though
+            File local = new File(path);
+            return local.isFile() ? local : null;
+        }
+        return downloads.request(asset.hash(), asset.extension(), asset.length(),
+                AssetDownloader.PRIORITY_BACKGROUND);
+    }
+
+    private void readAsset(ByteBuffer in) throws IOException {
+        byte kind = in.get();
+        byte[] hash = TableProtocol.readHash(in);
+        long length = in.getLong();
+        String extension = TableProtocol.readString(in);
+
+        if (kind == TableProtocol.ASSET_PICTURE) {
+            String path = TableProtocol.readString(in);
+            pictures.put(path, new PictureAsset(hash, extension, length));
+            updatePictures(path);
+            updatePriorities();
+        } else if (kind == TableProtocol.ASSET_MAP) {
+            Dimension size = new Dimension(in.getInt(), in.getInt());
+            boolean hasPreview = in.get() != 0;
+            byte[] previewHash = hasPreview ? TableProtocol.readHash(in) : null;
+            long previewLength = hasPreview ? in.getLong() : 0;
+            showMap(new MapAsset(hash, extension, length, size, previewHash, previewLength));
+        } else {
+            throw new IOException("Unknown asset kind " + kind);
+        }
+    }
+
+    /**
+     * Gives all tokens with the picture at the path on the server the local file,
+     * if it is available.
+     */
+    private void updatePictures(String path) {
+        File picture = null;
+        boolean isSearched = false;
+        for (Map.Entry<Token, String> entry : picturePaths.entrySet()) {
+            if (!entry.getValue().equals(path))
+                continue;
+            if (!isSearched) {
+                picture = findPicture(path);
+                isSearched = true;
+            }
+            if (picture != null && !picture.equals(entry.getKey().getPictureFile()))
+                entry.getKey().updateAllValues(withPicture(entry.getKey(), picture));
+        }
+    }
+
+    private void showMap(MapAsset asset) {
+        if (map != null) {
+            if (Arrays.equals(map.hash(), asset.hash()))
+                return;
+            downloads.cancel(map.hash());
+            if (map.previewHash() != null)
+                downloads.cancel(map.previewHash());
+        }
+        map = asset;
+        isMapShown = false;
+
+        File file = downloads.request(asset.hash(), asset.extension(), asset.length(), AssetDownloader.PRIORITY_MAP);
+        if (file != null) {
+            showMap(file);
+            return;
+        }
+        if (asset.previewHash() == null)
+            return;
+        File preview = downloads.request(asset.previewHash(), AssetStore.PREVIEW_EXTENSION, asset.previewLength(),
+                AssetDownloader.PRIORITY_MAP_PREVIEW);
+        if (preview != null)
+            showPreview(asset, preview);
+    }
+
+    private void showMap(File file) {
+        try {
+            MapTileSource source = new StreamingTileSource(file);
+            isMapShown = true;
+            showMap(source, file);
+        } catch (IOException e) {
+            System.err.println("[TableClient] Couldn't open the map '" + file.getAbsolutePath() + "'");
+            e.printStackTrace();
+        }
+    }
+
+    private void showPreview(MapAsset asset, File preview) {
+        ImageLoader.loadAsync(preview).whenComplete((image, e) -> SwingUtilities.invokeLater(() -> {
+            if (e != null) {
+                System.err.println("[TableClient] Couldn't load the map preview '" + preview.getAbsolutePath() + "'");
+                e.printStackTrace();
+                return;
+            }
+            // The full map may have been faster
+            if (map == asset && !isMapShown)
+                showMap(new PreviewTileSource(image, asset.size()), null);
+        }));
+    }
+
+    private void showMap(MapTileSource source, File file) {
+        if (onMap == null)
+            return;
+        onMap.accept(source, file);
+        // A map of another size starts without walls and with a new fog
+        showWalls(walls);
+        if (isFogReceived)
+            showFog(fog);
+    }
+
+    private void showWalls(List<Line2D.Double> walls) {
+        this.walls = walls;
+        if (onWalls != null)
+            onWalls.accept(walls);
+    }
+
+    private void showFog(FogOfWar fog) {
+        this.fog = fog;
+        isFogReceived = true;
+        if (onFog != null)
+            onFog.accept(fog);
+    }
+
+    private void onDownloaded(byte[] hash, File file) {
+        if (map != null && Arrays.equals(hash, map.hash()))
+            showMap(file);
+        else if (map != null && Arrays.equals(hash, map.previewHash()) && !isMapShown)
+            showPreview(map, file);
+
+        tokenHandler.beginBatch();
+        try {
+            for (Map.Entry<String, PictureAsset> picture : pictures.entrySet())
+                if (Arrays.equals(hash, picture.getValue().hash()))
+                    updatePictures(picture.getKey());
+        } finally {
+            tokenHandler.commitBatch();
+        }
+    }
+
+    /**
+     * Moves the pictures of the tokens in the viewport to the front of the
+     * downloads.
+     */
+    private void updatePriorities() {
+        Set<String> visiblePaths = new HashSet<>();
+        if (viewport != null) {
+            for (Token token : tokenHandler.getTokensInArea(viewport.get())) {
+                String path = picturePaths.get(token);
+                if (path != null)
+                    visiblePaths.add(path);
+            }
+        }
+
+        Set<String> visibleHashes = new HashSet<>();
+        for (String path : visiblePaths) {
+            PictureAsset asset = pictures.get(path);
+            if (asset != null)
+                visibleHashes.add(HexFormat.of().formatHex(asset.hash()));
+        }
+        for (PictureAsset asset : pictures.values()) {
+            if (downloads.isDownloading(asset.hash()))
+                downloads.setPriority(asset.hash(),
+                        visibleHashes.contains(HexFormat.of().formatHex(asset.hash()))
+                                ? AssetDownloader.PRIORITY_VISIBLE
+                                : AssetDownloader.PRIORITY_BACKGROUND);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package de.omegasystems.network;
+
+import java.awt.geom.Line2D;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import de.omegasystems.core.Token;
+import de.omegasystems.core.TokenChange.Field;
+import de.omegasystems.dataobjects.FogOfWar;
+import de.omegasystems.dataobjects.Friendlieness;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.dataobjects.TokenData;
+import de.omegasystems.dataobjects.TokenSize;
+import de.omegasystems.persistence.SceneFile;
+
+/**
+ * The binary messages exchanged between a {@link TableServer} and its
+ * {@link TableClient}s.<br>
+ * <br>
+ * Every message is a frame of its length (int) followed by a type byte and the
+ * payload. Tokens are referred to by a small number the server hands out per
+ * session instead of their UUID, so a moved token costs a few bytes:
+ * <ul>
+ * <li>FULL_STATE: settings, token count, every token, the walls, the fog</li>
+ * <li>TOKEN_ADDED: a token</li>
+ * <li>TOKEN_REMOVED: handle</li>
+ * <li>TOKENS_MOVED: count, then handle, x and y (floats) per token</li>
+ * <li>TOKEN_EDITED: handle, bit mask of the changed fields, the changed
+ * fields</li>
+ * <li>SETTINGS: grid enabled, grid scale, thickness, offset x and y, token size
+ * and outline thickness</li>
+ * <li>ASSET: kind, hash, length and extension of a file the server offers. For
+ * pictures followed by the path tokens refer to it by, for maps by the width and
+ * height and whether there is a preview, then its hash and length</li>
+ * <li>CHUNK: hash, offset (long), the bytes up to the end of the frame</li>
+ * <li>WALLS: count, then start and end (floats) of every wall</li>
+ * <li>FOG: whether there is fog at all. If so the fog as written into scene
+ * files, see {@link SceneFile#writeFog}</li>
+ * </ul>
+ * Clients only send REQUEST: hash, offset (long) and priority of a file they
+ * want the chunks of, starting at the offset. A negative offset only changes
+ * the priority, a negative priority cancels the transfer.<br>
+ * <br>
+ * A token is its handle, UUID, position and all fields. Handles and counts are
+ * written as variable length integers. Files are identified by the SHA-256 hash
+ * of their content.
+ */
+abstract class TableProtocol {
+
+    static final byte FULL_STATE = 1;
+    static final byte TOKEN_ADDED = 2;
+    static final byte TOKEN_REMOVED = 3;
+    static final byte TOKENS_MOVED = 4;
+    static final byte TOKEN_EDITED = 5;
+    static final byte SETTINGS = 6;
+    static final byte ASSET = 7;
+    static final byte CHUNK = 8;
+    static final byte WALLS = 9;
+    static final byte FOG = 10;
+    static final byte REQUEST = 16;
+
+    // The kinds of assets
+    static final byte ASSET_PICTURE = 0;
+    static final byte ASSET_MAP = 1;
+
+    static final int HASH_LENGTH = 32;
+    // Small enough to not hold back token changes behind a chunk for long
+    static final int CHUNK_SIZE = 32 * 1024;
+
+    // Frames larger than this can only come from a broken stream
+    static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    // The fields sent for edits, in the order they are written
+    static final Set<Field> SYNCED_FIELDS = EnumSet.of(Field.NAME, Field.DESCRIPTION, Field.SIZE,
+            Field.INITIATIVE, Field.MOVEMENT, Field.FRIEND_STATUS, Field.PICTURE, Field.VISION);
+
+    /**
+     * Collects a single message and turns it into a frame.
+     */
+    static class MessageWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        MessageWriter(byte type) throws IOException {
+            // Room for the length, filled in once the message is complete
+            out.writeInt(0);
+            out.writeByte(type);
+        }
+
+        /**
+         * @return The complete frame, ready to be sent to any number of clients
+         */
+        ByteBuffer toFrame() {
+            ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+            frame.putInt(0, frame.capacity() - Integer.BYTES);
+            return frame.asReadOnlyBuffer();
+        }
+    }
+
+    static void writeSettings(DataOutputStream out, MenubarAttributeHolder settings) throws IOException {
+        out.writeBoolean(settings.VIEW_GRID_ENABLED.getValue());
+        out.writeDouble(settings.VIEW_GRID_SCALE.getValue());
+        out.writeDouble(settings.VIEW_GRID_THICKNESS.getValue());
+        out.writeDouble(settings.VIEW_GRID_OFFSET_X.getValue());
+        out.writeDouble(settings.VIEW_GRID_OFFSET_Y.getValue());
+        out.writeDouble(settings.TOKEN_SIZE.getValue());
+        out.writeDouble(settings.TOKEN_OUTLINE_THICKNESS.getValue());
+    }
+
+    static void readSettings(ByteBuffer in, MenubarAttributeHolder settings) {
+        settings.VIEW_GRID_ENABLED.setValue(in.get() != 0);
+        settings.VIEW_GRID_SCALE.setValue(in.getDouble());
+        settings.VIEW_GRID_THICKNESS.setValue(in.getDouble());
+        settings.VIEW_GRID_OFFSET_X.setValue(in.getDouble());
+        settings.VIEW_GRID_OFFSET_Y.setValue(in.getDouble());
+        settings.TOKEN_SIZE.setValue(in.getDouble());
+        settings.TOKEN_OUTLINE_THICKNESS.setValue(in.getDouble());
+    }
+
+    static void writeToken(DataOutputStream out, int handle, Token token) throws IOException {
+        writeVarInt(out, handle);
+        out.writeLong(token.getUUId().getMostSignificantBits());
+        out.writeLong(token.getUUId().getLeastSignificantBits());
+        out.writeFloat((float) token.getPosition().x);
+        out.writeFloat((float) token.getPosition().y);
+        writeFields(out, token, SYNCED_FIELDS);
+    }
+
+    static void writeFields(DataOutputStream out, Token token, Set<Field> fields) throws IOException {
+        int mask = 0;
+        for (Field field : fields)
+            mask |= 1 << field.ordinal();
+        writeVarInt(out, mask);
+
+        if (fields.contains(Field.NAME))
+            writeString(out, token.getName());
+        if (fields.contains(Field.DESCRIPTION))
+            writeString(out, token.getDescription());
+        if (fields.contains(Field.SIZE))
+            out.writeByte(token.getSize().ordinal());
+        if (fields.contains(Field.INITIATIVE))
+            out.writeInt(token.getInitiative());
+        if (fields.contains(Field.MOVEMENT))
+            writeString(out, token.getMovement());
+        if (fields.contains(Field.FRIEND_STATUS))
+            out.writeByte(token.getFriendStatus().ordinal());
+        if (fields.contains(Field.PICTURE))
+            writeString(out, token.getPictureFile() == null ? "" : token.getPictureFile().getPath());
+        if (fields.contains(Field.VISION))
+            out.writeDouble(token.getVisionRadius());
+    }
+
+    /**
+     * Reads the fields written by {@link #writeFields} into the data object,
+     * leaving the fields that weren't sent untouched. The picture is left
+     * untouched as well, as the path only means something on the server.
+     * 
+     * @return The path of the picture on the server, "" if the token has none or
+     *         null if it wasn't sent
+     */
+    static String readFields(ByteBuffer in, TokenData data) throws IOException {
+        int mask = readVarInt(in);
+
+        if (hasField(mask, Field.NAME))
+            data.getName().setValue(readString(in));
+        if (hasField(mask, Field.DESCRIPTION))
+            data.getDescription().setValue(readString(in));
+        if (hasField(mask, Field.SIZE))
+            data.getSize().setValue(readEnum(in, TokenSize.values()));
+        if (hasField(mask, Field.INITIATIVE))
+            data.getInitiative().setValue(in.getInt());
+        if (hasField(mask, Field.MOVEMENT))
+            data.getMovement().setValue(readString(in));
+        if (hasField(mask, Field.FRIEND_STATUS))
+            data.getFriendStatus().setValue(readEnum(in, Friendlieness.values()));
+        String picturePath = hasField(mask, Field.PICTURE) ? readString(in) : null;
+        if (hasField(mask, Field.VISION))
+            data.getVisionRadius().setValue(in.getDouble());
+        return picturePath;
+    }
+
+    static void writeWalls(DataOutputStream out, List<Line2D.Double> walls) throws IOException {
+        writeVarInt(out, walls.size());
+        for (Line2D.Double wall : walls) {
+            out.writeFloat((float) wall.x1);
+            out.writeFloat((float) wall.y1);
+            out.writeFloat((float) wall.x2);
+            out.writeFloat((float) wall.y2);
+        }
+    }
+
+    static List<Line2D.Double> readWalls(ByteBuffer in) throws IOException {
+        int count = readVarInt(in);
+        // Every wall takes 16 bytes, a larger count can only come from a broken frame
+        if (count < 0 || count > in.remaining() / 16)
+            throw new IOException("Invalid wall count " + count);
+        List<Line2D.Double> walls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            walls.add(new Line2D.Double(in.getFloat(), in.getFloat(), in.getFloat(), in.getFloat()));
+        return walls;
+    }
+
+    /**
+     * @param fog the fog the players see, null if they see everything
+     */
+    static void writeFog(DataOutputStream out, FogOfWar fog) throws IOException {
+        out.writeBoolean(fog != null);
+        // The same encoding as in scene files, so the fog is only read and checked in one place
+        if (fog != null)
+            SceneFile.writeFog(out, fog);
+    }
+
+    /**
+     * @return The fog written by {@link #writeFog}, null if there is none
+     */
+    static FogOfWar readFog(ByteBuffer in) throws IOException {
+        if (in.get() == 0)
+            return null;
+        return SceneFile.readFog(in);
+    }
+
+    private static boolean hasField(int mask, Field field) {
+        return (mask & (1 << field.ordinal())) != 0;
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Variable length integer is too long");
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.remaining())
+            throw new IOException("Invalid string length " + length);
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static byte[] readHash(ByteBuffer in) {
+        byte[] hash = new byte[HASH_LENGTH];
+        in.get(hash);
+        return hash;
+    }
+
+    static <T extends Enum<T>> T readEnum(ByteBuffer in, T[] values) throws IOException {
+        int ordinal = in.get();
+        if (ordinal < 0 || ordinal >= values.length)
+            throw new IOException("Unknown " + values.getClass().getComponentType().getSimpleName() + " " + ordinal);
+        return values[ordinal];
+    }
+}
@@ -0,0 +1,711 @@
+package de.omegasystems.network;
+
+import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.swing.SwingUtilities;
+
+import de.omegasystems.core.Token;
+import de.omegasystems.core.TokenChange;
+import de.omegasystems.core.TokenChange.Field;
+import de.omegasystems.core.TokenHandler;
+import de.omegasystems.dataobjects.FogOfWar;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.dataobjects.Walls;
+import de.omegasystems.network.TableProtocol.MessageWriter;
+import de.omegasystems.utility.AbstractAttributeHolder.Property;
+import de.omegasystems.utility.Observer;
+
+/**
+ * Shares the tokens, grid settings, walls and fog of war of this table with {@link TableClient}s
+ * on the network, for example the laptops of the players.<br>
+ * <br>
+ * Changes come in through the change listener of the token handler, so they
+ * are already merged per pass of the EDT. Every change is encoded once on the
+ * EDT and the same bytes are handed to all clients. Moves are collected and
+ * sent together at most every {@link #MOVE_INTERVAL} milliseconds, only with
+ * the latest position of each token, so dragging costs the same no matter how
+ * many mouse events arrive. The fog is sent as a whole, at most once per pass
+ * of the EDT. While it is disabled the players see everything, so no fog is
+ * sent at all. All socket work happens on a single background thread with
+ * non-blocking channels. Clients that can't keep up get their backlog dropped
+ * and receive the full state again instead.<br>
+ * <br>
+ * The map and the token pictures are offered through an {@link AssetStore}.
+ * Clients request the files they don't have cached, each with a priority, and
+ * receive them in chunks. Chunks are only queued while a client has little else
+ * to receive, always from the transfer with the most urgent priority, so token
+ * changes never wait behind a whole file and a client asking for what it
+ * currently looks at gets that first.
+ */
+public class TableServer {
+
+    public static final int DEFAULT_PORT = 47800;
+    // Moves are sent at most this often, in milliseconds
+    public static final long MOVE_INTERVAL = 33;
+    // A client with this many unsent bytes gets the full state instead
+    private static final int MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+    // Chunks are only queued while a client has less than this many unsent bytes
+    private static final int TRANSFER_WINDOW = 4 * TableProtocol.CHUNK_SIZE;
+    // Clients only send requests, which are tiny
+    private static final int MAX_REQUEST_LENGTH = 1024;
+
+    /**
+     * A frame waiting to be sent, either to one client or to all of them.
+     */
+    private record Outgoing(Client target, ByteBuffer frame) {
+    }
+
+    /**
+     * A file a client requested, sent from the offset onwards.
+     */
+    private static class Transfer {
+        final AssetStore.Asset asset;
+        FileChannel channel;
+        long offset;
+        int priority;
+
+        Transfer(AssetStore.Asset asset) {
+            this.asset = asset;
+        }
+    }
+
+    private static class Client {
+        final SocketChannel channel;
+        final Queue<ByteBuffer> queue = new ArrayDeque<>();
+        int queuedBytes = 0;
+        // Changes are useless to a client until it got the full state
+        boolean isAwaitingState = true;
+        final ByteBuffer input = ByteBuffer.allocate(MAX_REQUEST_LENGTH);
+        final List<Transfer> transfers = new ArrayList<>();
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final int port;
+    private final MenubarAttributeHolder settings;
+    private final TokenHandler tokenHandler;
+
+    // Only touched on the EDT
+    private final Map<Token, Integer> handles = new HashMap<>();
+    private int nextHandle = 0;
+    private Observer<List<TokenChange>> tokenListener = this::onTokensChanged;
+    private Observer<Boolean> toggleObserver = value -> broadcastSettings();
+    private Observer<Double> valueObserver = value -> broadcastSettings();
+    private Observer<Rectangle2D> wallObserver = area -> broadcastWalls();
+    private Walls walls;
+    private Observer<Rectangle> fogObserver = cells -> scheduleFog();
+    private Observer<Boolean> fogToggleObserver = value -> scheduleFog();
+    private FogOfWar fog;
+    private boolean isFogScheduled = false;
+    private final AssetStore assets = new AssetStore(frame -> enqueue(null, frame));
+
+    // Handed from the EDT to the network thread
+    private final Queue<Outgoing> outbox = new ConcurrentLinkedQueue<>();
+    private final Map<Integer, float[]> pendingMoves = new LinkedHashMap<>();
+
+    // Only touched on the network thread
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private final List<Client> clients = new ArrayList<>();
+    private long lastMoveFlush = 0;
+    private Thread thread;
+    private volatile boolean isRunning = false;
+    private volatile int clientCount = 0;
+    private volatile long sentBytes = 0;
+
+    /**
+     * @param port         the port to listen on, 0 picks a free one
+     * @param settings     the attributes holding grid and token settings
+     * @param tokenHandler the handler holding the shared tokens
+     */
+    public TableServer(int port, MenubarAttributeHolder settings, TokenHandler tokenHandler) {
+        if (settings == null || tokenHandler == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Settings and token handler are required");
+        this.port = port;
+        this.settings = settings;
+        this.tokenHandler = tokenHandler;
+    }
+
+    /**
+     * Starts listening for clients. Has to be called on the EDT.
+     */
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        tokenHandler.addChangeListener(tokenListener);
+        for (Token token : tokenHandler.getAllTokens())
+            assets.publishPicture(token.getPictureFile());
+        settings.VIEW_GRID_ENABLED.addObserver(toggleObserver);
+        settings.VIEW_FOG_ENABLED.addObserver(fogToggleObserver);
+        for (Property<Double> property : settings.getValueSettings())
+            property.addObserver(valueObserver);
+
+        isRunning = true;
+        thread = new Thread(this::run, "Table server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Disconnects all clients and stops listening. Has to be called on the EDT.
+     */
+    public void close() {
+        if (!isRunning)
+            return;
+        isRunning = false;
+        tokenHandler.removeChangeListener(tokenListener);
+        settings.VIEW_GRID_ENABLED.removeObserver(toggleObserver);
+        settings.VIEW_FOG_ENABLED.removeObserver(fogToggleObserver);
+        for (Property<Double> property : settings.getValueSettings())
+            property.removeObserver(valueObserver);
+        if (walls != null)
+            walls.removeObserver(wallObserver);
+        if (fog != null)
+            fog.removeObserver(fogObserver);
+        assets.close();
+
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Offers the map to the clients, they switch to it once it is published. Has
+     * to be called on the EDT.
+     * 
+     * @param mapFile the map of the active scene, null keeps the previous one
+     */
+    public void setMapFile(File mapFile) {
+        assets.publishMap(mapFile);
+    }
+
+    /**
+     * Shares the given walls instead of the previous ones. Has to be called on the
+     * EDT.
+     * 
+     * @param walls the walls of the active scene
+     */
+    public void setWalls(Walls walls) {
+        if (walls == this.walls)
+            return;
+        if (this.walls != null)
+            this.walls.removeObserver(wallObserver);
+        this.walls = walls;
+        if (walls != null)
+            walls.addObserver(wallObserver);
+        broadcastWalls();
+    }
+
+    /**
+     * Shares the given fog of war instead of the previous one. Has to be called on
+     * the EDT.
+     * 
+     * @param fog the fog of the active scene
+     */
+    public void setFog(FogOfWar fog) {
+        if (fog == this.fog)
+            return;
+        if (this.fog != null)
+            this.fog.removeObserver(fogObserver);
+        this.fog = fog;
+        if (fog != null)
+            fog.addObserver(fogObserver);
+        scheduleFog();
+    }
+
+    // Runs on the EDT
+
+    private void onTokensChanged(List<TokenChange> changes) {
+        for (int i = 0; i < changes.size(); i++) {
+            TokenChange change = changes.get(i);
+            Token token = change.token();
+            if (token == null) {
+                // Could be anything, simply send everything again
+                if (change.affects(TableProtocol.SYNCED_FIELDS)) {
+                    for (Token t : tokenHandler.getAllTokens())
+                        assets.publishPicture(t.getPictureFile());
+                    enqueue(null, encodeFullState());
+                }
+                continue;
+            }
+
+            switch (change.type()) {
+                case ADDED -> {
+                    assets.publishPicture(token.getPictureFile());
+                    enqueue(null, encodeAdded(token));
+                }
+                case REMOVED -> {
+                    Integer handle = handles.remove(token);
+                    if (handle == null)
+                        continue;
+                    synchronized (pendingMoves) {
+                        pendingMoves.remove(handle);
+                    }
+                    enqueue(null, encodeRemoved(handle));
+                }
+                case CHANGED -> {
+                    Integer handle = handles.get(token);
+                    if (handle == null)
+                        continue;
+                    if (change.fields().contains(Field.POSITION)) {
+                        synchronized (pendingMoves) {
+                            pendingMoves.put(handle,
+                                    new float[] { (float) token.getPosition().x, (float) token.getPosition().y });
+                        }
+                    }
+                    if (change.fields().contains(Field.PICTURE))
+                        assets.publishPicture(token.getPictureFile());
+                    Set<Field> editedFields = EnumSet.copyOf(TableProtocol.SYNCED_FIELDS);
+                    editedFields.retainAll(change.fields());
+                    if (!editedFields.isEmpty())
+                        enqueue(null, encodeEdited(handle, token, editedFields));
+                }
+            }
+        }
+    }
+
+    private void broadcastSettings() {
+        try {
+            MessageWriter message = new MessageWriter(TableProtocol.SETTINGS);
+            TableProtocol.writeSettings(message.out, settings);
+            enqueue(null, message.toFrame());
+        } catch (IOException e) {
+            System.err.println("[TableServer] Couldn't encode the settings");
+            e.printStackTrace();
+        }
+    }
+
+    private void broadcastWalls() {
+        try {
+            MessageWriter message = new MessageWriter(TableProtocol.WALLS);
+            TableProtocol.writeWalls(message.out, getWalls());
+            enqueue(null, message.toFrame());
+        } catch (IOException e) {
+            System.err.println("[TableServer] Couldn't encode the walls");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends the fog once the current pass of the EDT is done, a grid change alone
+     * changes it several times.
+     */
+    private void scheduleFog() {
+        if (isFogScheduled)
+            return;
+        isFogScheduled = true;
+        SwingUtilities.invokeLater(() -> {
+            isFogScheduled = false;
+            if (!isRunning)
+                return;
+            try {
+                MessageWriter message = new MessageWriter(TableProtocol.FOG);
+                TableProtocol.writeFog(message.out, getSharedFog());
+                enqueue(null, message.toFrame());
+            } catch (IOException e) {
+                System.err.println("[TableServer] Couldn't encode the fog");
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * @return The fog the players see, null while they see everything
+     */
+    private FogOfWar getSharedFog() {
+        return settings.VIEW_FOG_ENABLED.getValue() ? fog : null;
+    }
+
+    private List<Line2D.Double> getWalls() {
+        return walls == null ? List.of() : walls.getAll();
+    }
+
+    private int getHandle(Token token) {
+        return handles.computeIfAbsent(token, t -> nextHandle++);
+    }
+
+    private ByteBuffer encodeFullState() {
+        try {
+            List<Token> tokens = tokenHandler.getAllTokens();
+            MessageWriter message = new MessageWriter(TableProtocol.FULL_STATE);
+            TableProtocol.writeSettings(message.out, settings);
+            TableProtocol.writeVarInt(message.out, tokens.size());
+            for (Token token : tokens)
+                TableProtocol.writeToken(message.out, getHandle(token), token);
+            TableProtocol.writeWalls(message.out, getWalls());
+            TableProtocol.writeFog(message.out, getSharedFog());
+            return message.toFrame();
+        } catch (IOException e) {
+            // Writing into memory doesn't fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ByteBuffer encodeAdded(Token token) {
+        try {
+            MessageWriter message = new MessageWriter(TableProtocol.TOKEN_ADDED);
+            TableProtocol.writeToken(message.out, getHandle(token), token);
+            return message.toFrame();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ByteBuffer encodeRemoved(int handle) {
+        try {
+            MessageWriter message = new MessageWriter(TableProtocol.TOKEN_REMOVED);
+            TableProtocol.writeVarInt(message.out, handle);
+            return message.toFrame();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ByteBuffer encodeEdited(int handle, Token token, Set<Field> fields) {
+        try {
+            MessageWriter message = new MessageWriter(TableProtocol.TOKEN_EDITED);
+            TableProtocol.writeVarInt(message.out, handle);
+            TableProtocol.writeFields(message.out, token, fields);
+            return message.toFrame();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void enqueue(Client target, ByteBuffer frame) {
+        outbox.add(new Outgoing(target, frame));
+        if (selector != null)
+            selector.wakeup();
+    }
+
+    private void requestFullState(Client client) {
+        SwingUtilities.invokeLater(() -> {
+            if (isRunning)
+                enqueue(client, encodeFullState());
+        });
+    }
+
+    // Runs on the network thread
+
+    private void run() {
+        try {
+            while (isRunning) {
+                selector.select(MOVE_INTERVAL);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept();
+                    else if (key.isReadable())
+                        readRequests((Client) key.attachment());
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastMoveFlush >= MOVE_INTERVAL) {
+                    lastMoveFlush = now;
+                    flushMoves();
+                }
+                distributeOutbox();
+                for (Client client : new ArrayList<>(clients)) {
+                    queueChunks(client);
+                    write(client);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[TableServer] The server stopped unexpectedly");
+            e.printStackTrace();
+        } finally {
+            for (Client client : new ArrayList<>(clients))
+                disconnect(client);
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        Client client = new Client(channel);
+        channel.register(selector, SelectionKey.OP_READ, client);
+        clients.add(client);
+        clientCount = clients.size();
+        requestFullState(client);
+    }
+
+    private void readRequests(Client client) {
+        try {
+            if (client.channel.read(client.input) < 0) {
+                disconnect(client);
+                return;
+            }
+
+            ByteBuffer input = client.input;
+            input.flip();
+            while (input.remaining() >= Integer.BYTES) {
+                int length = input.getInt(input.position());
+                if (length <= 0 || length > MAX_REQUEST_LENGTH - Integer.BYTES)
+                    throw new IOException("Invalid frame length " + length);
+                if (input.remaining() < Integer.BYTES + length)
+                    break;
+
+                ByteBuffer frame = input.slice(input.position() + Integer.BYTES, length);
+                input.position(input.position() + Integer.BYTES + length);
+                if (frame.get() != TableProtocol.REQUEST)
+                    throw new IOException("Clients may only send requests");
+                request(client, TableProtocol.readHash(frame), frame.getLong(), frame.get());
+            }
+            input.compact();
+        } catch (IOException | BufferUnderflowException e) {
+            System.err.println("[TableServer] Received an invalid message from a client");
+            e.printStackTrace();
+            disconnect(client);
+        }
+    }
+
+    private void request(Client client, byte[] hash, long offset, int priority) {
+        Transfer transfer = null;
+        for (Transfer t : client.transfers)
+            if (Arrays.equals(t.asset.hash(), hash))
+                transfer = t;
+
+        if (priority < 0) {
+            if (transfer != null)
+                finish(client, transfer);
+            return;
+        }
+        if (transfer == null) {
+            // Priority updates may arrive after the transfer finished
+            AssetStore.Asset asset = assets.get(hash);
+            if (asset == null || offset < 0)
+                return;
+            transfer = new Transfer(asset);
+            client.transfers.add(transfer);
+        }
+        if (offset >= 0)
+            transfer.offset = Math.min(offset, transfer.asset.length());
+        transfer.priority = priority;
+    }
+
+    /**
+     * Tops up the queue of the client with chunks of its most urgent transfer,
+     * as long as it doesn't have much to receive already.
+     */
+    private void queueChunks(Client client) {
+        while (client.queuedBytes < TRANSFER_WINDOW && !client.transfers.isEmpty()) {
+            Transfer transfer = client.transfers.get(0);
+            for (Transfer t : client.transfers)
+                if (t.priority < transfer.priority)
+                    transfer = t;
+
+            long remaining = transfer.asset.length() - transfer.offset;
+            if (remaining <= 0) {
+                finish(client, transfer);
+                continue;
+            }
+
+            int length = (int) Math.min(TableProtocol.CHUNK_SIZE, remaining);
+            ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + 1 + TableProtocol.HASH_LENGTH + Long.BYTES + length);
+            frame.putInt(frame.capacity() - Integer.BYTES);
+            frame.put(TableProtocol.CHUNK);
+            frame.put(transfer.asset.hash());
+            frame.putLong(transfer.offset);
+            try {
+                if (transfer.channel == null)
+                    transfer.channel = transfer.asset.open();
+                transfer.asset.read(transfer.channel, transfer.offset, frame);
+            } catch (IOException e) {
+                System.err.println("[TableServer] Couldn't read '" + transfer.asset.file() + "' for a client");
+                e.printStackTrace();
+                finish(client, transfer);
+                continue;
+            }
+            if (frame.hasRemaining()) {
+                System.err.println("[TableServer] '" + transfer.asset.file() + "' ended early");
+                finish(client, transfer);
+                continue;
+            }
+
+            frame.flip();
+            transfer.offset += length;
+            client.queue.add(frame);
+            client.queuedBytes += frame.remaining();
+        }
+    }
+
+    private void finish(Client client, Transfer transfer) {
+        client.transfers.remove(transfer);
+        if (transfer.channel == null)
+            return;
+        try {
+            transfer.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void flushMoves() {
+        Map<Integer, float[]> moves;
+        synchronized (pendingMoves) {
+            if (pendingMoves.isEmpty())
+                return;
+            moves = new LinkedHashMap<>(pendingMoves);
+            pendingMoves.clear();
+        }
+
+        try {
+            MessageWriter message = new MessageWriter(TableProtocol.TOKENS_MOVED);
+            TableProtocol.writeVarInt(message.out, moves.size());
+            for (Map.Entry<Integer, float[]> move : moves.entrySet()) {
+                TableProtocol.writeVarInt(message.out, move.getKey());
+                message.out.writeFloat(move.getValue()[0]);
+                message.out.writeFloat(move.getValue()[1]);
+            }
+            outbox.add(new Outgoing(null, message.toFrame()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void distributeOutbox() {
+        Outgoing outgoing;
+        while ((outgoing = outbox.poll()) != null) {
+            if (outgoing.target() != null) {
+                // Everything queued before is part of the full state
+                Client client = outgoing.target();
+                if (!clients.contains(client))
+                    continue;
+                client.isAwaitingState = false;
+                queue(client, outgoing.frame());
+                // Announcements sent while the client was waiting were skipped
+                for (ByteBuffer announcement : assets.getAnnouncements())
+                    queue(client, announcement);
+                continue;
+            }
+
+            for (int i = 0; i < clients.size(); i++) {
+                Client client = clients.get(i);
+                if (!client.isAwaitingState)
+                    queue(client, outgoing.frame());
+            }
+        }
+    }
+
+    private void queue(Client client, ByteBuffer frame) {
+        // Every client needs its own position in the shared bytes
+        ByteBuffer view = frame.duplicate();
+        client.queue.add(view);
+        client.queuedBytes += view.remaining();
+        if (client.queuedBytes <= MAX_QUEUED_BYTES)
+            return;
+
+        // Too far behind, the full state is smaller than all these changes. Only a
+        // frame that was partially sent already has to be finished
+        ByteBuffer head = client.queue.peek();
+        client.queue.clear();
+        client.queuedBytes = 0;
+        if (head != null && head.position() > 0) {
+            client.queue.add(head);
+            client.queuedBytes = head.remaining();
+        }
+        client.isAwaitingState = true;
+        requestFullState(client);
+    }
+
+    private void write(Client client) {
+        try {
+            ByteBuffer head;
+            while ((head = client.queue.peek()) != null) {
+                int written = client.channel.write(head);
+                sentBytes += written;
+                client.queuedBytes -= written;
+                if (head.hasRemaining())
+                    break;
+                client.queue.poll();
+            }
+            // Only ask to be woken up for writing while the socket is full or there are
+            // more chunks to queue
+            SelectionKey key = client.channel.keyFor(selector);
+            if (key != null && key.isValid())
+                key.interestOps(client.queue.isEmpty() && client.transfers.isEmpty() ? SelectionKey.OP_READ
+                        : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            disconnect(client);
+        }
+    }
+
+    private void disconnect(Client client) {
+        for (Transfer transfer : new ArrayList<>(client.transfers))
+            finish(client, transfer);
+        clients.remove(client);
+        clientCount = clients.size();
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return The port the server listens on, useful if it was started with 0
+     */
+    public int getPort() {
+        return serverChannel == null ? port : serverChannel.socket().getLocalPort();
+    }
+
+    public int getClientCount() {
+        return clientCount;
+    }
+
+    /**
+     * @return How many bytes were sent to all clients together
+     */
+    public long getSentBytes() {
+        return sentBytes;
+    }
+}
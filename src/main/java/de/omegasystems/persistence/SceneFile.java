@@ -0,0 +1,527 @@
+package de.omegasystems.persistence;
+
+import java.awt.Dimension;
+import java.awt.Shape;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import de.omegasystems.dataobjects.FogOfWar;
+import de.omegasystems.dataobjects.Friendlieness;
+import de.omegasystems.dataobjects.SceneData;
+import de.omegasystems.dataobjects.TokenData;
+import de.omegasystems.dataobjects.TokenSize;
+
+/**
+ * Reads and writes scenes in a compact, versioned binary format.<br>
+ * <br>
+ * A scene file starts with a fixed header and a table of the embedded images,
+ * followed by the metadata (settings, tokens, walls and fog) and the raw bytes
+ * of the embedded map and token images, if any. Images are stored once per
+ * content, no matter how many tokens use them, and are never decoded while
+ * saving or loading: on load they are only copied into a content addressed
+ * directory, from where they are decoded in the background like any other
+ * image. Only the header and the metadata are read into memory, embedded images
+ * are copied straight from file to file, so loading a scene costs little more
+ * than reading its tokens.
+ */
+public abstract class SceneFile {
+
+    public static final String FILE_EXTENSION = "ttrpg";
+    public static final int FORMAT_VERSION = 3;
+    // The first version with the vision radius of tokens and the walls
+    private static final int WALLS_VERSION = 2;
+    // The first version with the fog of war
+    private static final int FOG_VERSION = 3;
+
+    private static final byte[] MAGIC = "TTRPGSCN".getBytes(StandardCharsets.US_ASCII);
+    // Magic, version, number of embedded images and length of the metadata
+    private static final int HEADER_SIZE = MAGIC.length + 4 + 4 + 4;
+    private static final int HASH_SIZE = 32;
+    private static final int BLOB_ENTRY_SIZE = HASH_SIZE + 8;
+    private static final int NO_BLOB = -1;
+    // The number of points per segment type of a path iterator
+    private static final int[] SEGMENT_POINTS = { 1, 1, 2, 3, 0 };
+
+    private static Path blobDirectory = Path.of(System.getProperty("user.home"), ".ttrpg-manager", "blobs");
+
+    // An image to embed, identified by the hash of its content
+    private record Blob(File file, byte[] hash, long length) {
+    }
+
+    private record BlobLocation(byte[] hash, long offset, long length) {
+    }
+
+    /**
+     * Writes the scene to the given file. The file is replaced atomically, so a
+     * failed save never leaves a broken scene behind.
+     *
+     * @param scene       the scene to save
+     * @param file        the file to write
+     * @param embedImages whether to store the map and token images inside the
+     *                    file, instead of only their paths
+     * @throws IOException if the file cannot be written or an image to embed
+     *                     cannot be read
+     */
+    public static void write(SceneData scene, File file, boolean embedImages) throws IOException {
+        List<Blob> blobs = new ArrayList<>();
+        Map<String, Integer> blobIndexByPath = new HashMap<>();
+        Map<String, Integer> blobIndexByHash = new HashMap<>();
+
+        ByteArrayOutputStream metadataBytes = new ByteArrayOutputStream(4096);
+        DataOutputStream metadata = new DataOutputStream(metadataBytes);
+
+        writeFileReference(metadata, scene.getMapFile(), embedImages, blobs, blobIndexByPath, blobIndexByHash);
+
+        metadata.writeBoolean(scene.isGridEnabled());
+        metadata.writeDouble(scene.getGridScale());
+        metadata.writeDouble(scene.getGridThickness());
+        metadata.writeDouble(scene.getGridOffsetX());
+        metadata.writeDouble(scene.getGridOffsetY());
+        metadata.writeDouble(scene.getTokenSize());
+        metadata.writeDouble(scene.getTokenOutlineThickness());
+
+        metadata.writeInt(scene.getTokens().size());
+        for (SceneData.TokenEntry token : scene.getTokens()) {
+            TokenData data = token.data();
+            metadata.writeLong(token.id().getMostSignificantBits());
+            metadata.writeLong(token.id().getLeastSignificantBits());
+            metadata.writeDouble(token.position().x);
+            metadata.writeDouble(token.position().y);
+            writeString(metadata, data.getName().getValue());
+            writeString(metadata, data.getDescription().getValue());
+            writeString(metadata, data.getMovement().getValue());
+            metadata.writeInt(data.getInitiative().getValue());
+            // Ordinals keep tokens small, changing the enums requires a new version
+            metadata.writeByte(data.getSize().getValue().ordinal());
+            metadata.writeByte(data.getFriendStatus().getValue().ordinal());
+            writeFileReference(metadata, data.getPictureFile().getValue(), embedImages, blobs, blobIndexByPath,
+                    blobIndexByHash);
+            metadata.writeDouble(data.getVisionRadius().getValue());
+        }
+
+        metadata.writeInt(scene.getWalls().size());
+        for (Line2D.Double wall : scene.getWalls()) {
+            metadata.writeDouble(wall.x1);
+            metadata.writeDouble(wall.y1);
+            metadata.writeDouble(wall.x2);
+            metadata.writeDouble(wall.y2);
+        }
+
+        metadata.writeBoolean(scene.getFog() != null);
+        if (scene.getFog() != null)
+            writeFog(metadata, scene.getFog());
+
+        metadata.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + blobs.size() * BLOB_ENTRY_SIZE);
+        header.put(MAGIC).putInt(FORMAT_VERSION).putInt(blobs.size()).putInt(metadataBytes.size());
+        for (Blob blob : blobs)
+            header.put(blob.hash()).putLong(blob.length());
+        header.flip();
+
+        Path target = file.toPath().toAbsolutePath();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            writeFully(channel, ByteBuffer.wrap(metadataBytes.toByteArray()));
+            for (Blob blob : blobs)
+                transferFully(blob, channel);
+            channel.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        moveAtomically(temporary, target);
+    }
+
+    /**
+     * Reads a scene. Embedded images are copied into the blob directory (unless
+     * they are there already) and the scene points to those copies, unless the
+     * original files still exist.
+     *
+     * @throws IOException if the file cannot be read, is no scene file or was
+     *                     written by a newer version
+     */
+    public static SceneData read(File file) throws IOException {
+        // Not memory mapped, a mapping would keep the file locked on Windows until it
+        // gets garbage collected
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(channel, file);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | NegativeArraySizeException | ArithmeticException e) {
+            throw new IOException("The scene file '" + file.getAbsolutePath() + "' is incomplete or corrupted", e);
+        }
+    }
+
+    private static SceneData read(FileChannel channel, File file) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer header = readFully(channel, 0, HEADER_SIZE, file);
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("'" + file.getAbsolutePath() + "' is not a scene file");
+        int version = header.getInt();
+        if (version > FORMAT_VERSION)
+            throw new IOException("The scene file '" + file.getAbsolutePath() + "' was written by a newer version ("
+                    + version + ")");
+        int blobCount = header.getInt();
+        int metadataLength = header.getInt();
+        long tableLength = (long) blobCount * BLOB_ENTRY_SIZE + metadataLength;
+        if (blobCount < 0 || metadataLength < 0 || HEADER_SIZE + tableLength > fileSize)
+            throw new IOException("The scene file '" + file.getAbsolutePath() + "' is incomplete");
+
+        // The blob table and the metadata, the images themselves stay on disk
+        ByteBuffer buffer = readFully(channel, HEADER_SIZE, Math.toIntExact(tableLength), file);
+        List<BlobLocation> blobs = new ArrayList<>(blobCount);
+        long blobOffset = HEADER_SIZE + tableLength;
+        for (int i = 0; i < blobCount; i++) {
+            byte[] hash = new byte[HASH_SIZE];
+            buffer.get(hash);
+            long length = buffer.getLong();
+            if (length < 0)
+                throw new IOException("The scene file '" + file.getAbsolutePath() + "' is corrupted");
+            blobs.add(new BlobLocation(hash, blobOffset, length));
+            blobOffset += length;
+        }
+        if (blobOffset > fileSize)
+            throw new IOException("The scene file '" + file.getAbsolutePath() + "' is incomplete");
+
+        ByteBuffer metadata = buffer.slice(buffer.position(), metadataLength);
+
+        SceneData scene = new SceneData();
+        scene.setMapFile(readFileReference(metadata, channel, blobs));
+
+        scene.setGridEnabled(metadata.get() != 0);
+        scene.setGridScale(metadata.getDouble());
+        scene.setGridThickness(metadata.getDouble());
+        scene.setGridOffsetX(metadata.getDouble());
+        scene.setGridOffsetY(metadata.getDouble());
+        scene.setTokenSize(metadata.getDouble());
+        scene.setTokenOutlineThickness(metadata.getDouble());
+
+        int tokenCount = metadata.getInt();
+        for (int i = 0; i < tokenCount; i++) {
+            UUID id = new UUID(metadata.getLong(), metadata.getLong());
+            Point2D.Double position = new Point2D.Double(metadata.getDouble(), metadata.getDouble());
+
+            TokenData data = new TokenData();
+            data.getName().setValue(readString(metadata));
+            data.getDescription().setValue(readString(metadata));
+            data.getMovement().setValue(readString(metadata));
+            data.getInitiative().setValue(metadata.getInt());
+            data.getSize().setValue(readEnum(metadata, TokenSize.values()));
+            data.getFriendStatus().setValue(readEnum(metadata, Friendlieness.values()));
+            data.getPictureFile().setValue(readFileReference(metadata, channel, blobs));
+            if (version >= WALLS_VERSION)
+                data.getVisionRadius().setValue(metadata.getDouble());
+
+            scene.getTokens().add(new SceneData.TokenEntry(id, data, position));
+        }
+
+        // Older scenes simply have no walls
+        int wallCount = version >= WALLS_VERSION ? metadata.getInt() : 0;
+        for (int i = 0; i < wallCount; i++)
+            scene.getWalls().add(new Line2D.Double(metadata.getDouble(), metadata.getDouble(), metadata.getDouble(),
+                    metadata.getDouble()));
+
+        if (version >= FOG_VERSION && metadata.get() != 0)
+            scene.setFog(readFog(metadata));
+        return scene;
+    }
+
+    private static void writeFileReference(DataOutputStream out, File file, boolean embed, List<Blob> blobs,
+            Map<String, Integer> blobIndexByPath, Map<String, Integer> blobIndexByHash) throws IOException {
+        writeString(out, file == null ? "" : file.getAbsolutePath());
+        if (file == null || !embed || !file.isFile()) {
+            out.writeInt(NO_BLOB);
+            return;
+        }
+
+        // Many tokens usually share a handful of images, only hash each file once
+        String path = file.getCanonicalPath();
+        Integer index = blobIndexByPath.get(path);
+        if (index == null) {
+            byte[] hash = hash(file);
+            index = blobIndexByHash.get(HexFormat.of().formatHex(hash));
+            if (index == null) {
+                index = blobs.size();
+                blobs.add(new Blob(file, hash, file.length()));
+                blobIndexByHash.put(HexFormat.of().formatHex(hash), index);
+            }
+            blobIndexByPath.put(path, index);
+        }
+        out.writeInt(index);
+    }
+
+    private static File readFileReference(ByteBuffer metadata, FileChannel channel, List<BlobLocation> blobs)
+            throws IOException {
+        String path = readString(metadata);
+        int blobIndex = metadata.getInt();
+        File original = path.isEmpty() ? null : new File(path);
+        if (blobIndex == NO_BLOB)
+            return original;
+        if (blobIndex < 0 || blobIndex >= blobs.size())
+            throw new IOException("The scene file references a missing image");
+
+        BlobLocation blob = blobs.get(blobIndex);
+        // The original is still around on the machine that saved the scene
+        if (original != null && original.isFile() && original.length() == blob.length())
+            return original;
+        return extractBlob(channel, blob, path);
+    }
+
+    /**
+     * Copies an embedded image into the blob directory, named after its content so
+     * that loading the same scene again (or another one using the same images)
+     * doesn't copy anything.
+     */
+    private static File extractBlob(FileChannel source, BlobLocation blob, String originalPath) throws IOException {
+        String extension = "";
+        int dot = originalPath.lastIndexOf('.');
+        if (dot > Math.max(originalPath.lastIndexOf('/'), originalPath.lastIndexOf('\\')))
+            extension = originalPath.substring(dot);
+
+        Files.createDirectories(blobDirectory);
+        Path target = blobDirectory.resolve(HexFormat.of().formatHex(blob.hash()) + extension);
+        if (Files.isRegularFile(target) && Files.size(target) == blob.length())
+            return target.toFile();
+
+        Path temporary = Files.createTempFile(blobDirectory, "blob", ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            transferFully(source, blob.offset(), blob.length(), channel);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw new IOException("Couldn't extract an embedded image", e);
+        }
+        moveAtomically(temporary, target);
+        return target.toFile();
+    }
+
+    /**
+     * @return A new digest calculating the hash files are identified by
+     */
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return The SHA-256 hash of the content, like {@link #hash(File)} for a file
+     */
+    public static byte[] hash(byte[] content) {
+        return newSha256().digest(content);
+    }
+
+    /**
+     * @return The SHA-256 hash of the file content, which is what embedded images
+     *         and streamed assets are identified by
+     */
+    public static byte[] hash(File file) throws IOException {
+        MessageDigest digest = newSha256();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(64 * 1024);
+            while (channel.read(chunk) >= 0) {
+                chunk.flip();
+                digest.update(chunk);
+                chunk.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    private static void transferFully(Blob blob, FileChannel target) throws IOException {
+        try (FileChannel source = FileChannel.open(blob.file().toPath(), StandardOpenOption.READ)) {
+            if (source.size() != blob.length())
+                throw new IOException("'" + blob.file().getAbsolutePath() + "' changed while saving");
+
+            transferFully(source, 0, blob.length(), target);
+        }
+    }
+
+    private static void transferFully(FileChannel source, long offset, long length, FileChannel target)
+            throws IOException {
+        long transferred = 0;
+        while (transferred < length) {
+            long count = source.transferTo(offset + transferred, length - transferred, target);
+            // transferTo returns 0 at the end of the source instead of failing
+            if (count <= 0 && offset + transferred >= source.size())
+                throw new IOException("Unexpected end of file");
+            transferred += count;
+        }
+    }
+
+    /**
+     * Reads a part of the file into a heap buffer, ready to be read from.
+     */
+    private static ByteBuffer readFully(FileChannel channel, long position, int length, File file)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("The scene file '" + file.getAbsolutePath() + "' is incomplete");
+        }
+        return buffer.flip();
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes the map size, the grid, the revealed cells and the revealed shapes
+     * of the fog. Also used for the fog in autosave journals and the messages of
+     * a shared table, so all of them read it the same way.
+     */
+    public static void writeFog(DataOutputStream out, FogOfWar fog) throws IOException {
+        out.writeInt(fog.getMapSize().width);
+        out.writeInt(fog.getMapSize().height);
+        out.writeDouble(fog.getCellSize());
+        out.writeDouble(fog.getOriginX());
+        out.writeDouble(fog.getOriginY());
+        byte[] cells = fog.getRevealedCells().toByteArray();
+        out.writeInt(cells.length);
+        out.write(cells);
+        writeShape(out, fog.getRevealedShapes());
+    }
+
+    /**
+     * Reads a fog written by {@link #writeFog(DataOutputStream, FogOfWar)}.
+     * 
+     * @throws IOException if the data doesn't describe a valid fog
+     */
+    public static FogOfWar readFog(ByteBuffer buffer) throws IOException {
+        Dimension mapSize = new Dimension(buffer.getInt(), buffer.getInt());
+        double cellSize = buffer.getDouble();
+        if (mapSize.width <= 0 || mapSize.height <= 0 || !(cellSize > 0))
+            throw new IOException("Invalid fog of " + mapSize.width + "x" + mapSize.height + " with cells of "
+                    + cellSize);
+        // The origin is an offset of the same grid
+        FogOfWar fog = new FogOfWar(mapSize, cellSize, buffer.getDouble(), buffer.getDouble());
+        int cellLength = buffer.getInt();
+        if (cellLength < 0 || cellLength > buffer.remaining())
+            throw new IOException("Invalid length of the revealed cells " + cellLength);
+        byte[] cells = new byte[cellLength];
+        buffer.get(cells);
+        fog.setRevealedCells(BitSet.valueOf(cells));
+        fog.reveal(readShape(buffer));
+        return fog;
+    }
+
+    private static void writeShape(DataOutputStream out, Shape shape) throws IOException {
+        int segmentCount = 0;
+        for (PathIterator segments = shape.getPathIterator(null); !segments.isDone(); segments.next())
+            segmentCount++;
+
+        PathIterator segments = shape.getPathIterator(null);
+        out.writeByte(segments.getWindingRule());
+        out.writeInt(segmentCount);
+        double[] coordinates = new double[6];
+        for (; !segments.isDone(); segments.next()) {
+            int type = segments.currentSegment(coordinates);
+            out.writeByte(type);
+            for (int i = 0; i < SEGMENT_POINTS[type] * 2; i++)
+                out.writeDouble(coordinates[i]);
+        }
+    }
+
+    private static Path2D.Double readShape(ByteBuffer buffer) throws IOException {
+        int windingRule = buffer.get();
+        if (windingRule != PathIterator.WIND_EVEN_ODD && windingRule != PathIterator.WIND_NON_ZERO)
+            throw new IOException("Unknown winding rule " + windingRule);
+        Path2D.Double shape = new Path2D.Double(windingRule);
+        int segmentCount = buffer.getInt();
+        // Every segment takes at least its type
+        if (segmentCount < 0 || segmentCount > buffer.remaining())
+            throw new IOException("Invalid path segment count " + segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            int type = buffer.get();
+            // Every path has to start with a move
+            if (i == 0 && type != PathIterator.SEG_MOVETO)
+                throw new IOException("A path starts with segment " + type);
+            switch (type) {
+                case PathIterator.SEG_MOVETO -> shape.moveTo(buffer.getDouble(), buffer.getDouble());
+                case PathIterator.SEG_LINETO -> shape.lineTo(buffer.getDouble(), buffer.getDouble());
+                case PathIterator.SEG_QUADTO -> shape.quadTo(buffer.getDouble(), buffer.getDouble(),
+                        buffer.getDouble(), buffer.getDouble());
+                case PathIterator.SEG_CUBICTO -> shape.curveTo(buffer.getDouble(), buffer.getDouble(),
+                        buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+                case PathIterator.SEG_CLOSE -> shape.closePath();
+                default -> throw new IOException("Unknown path segment " + type);
+            }
+        }
+        return shape;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static <T extends Enum<T>> T readEnum(ByteBuffer buffer, T[] values) throws IOException {
+        int ordinal = buffer.get();
+        if (ordinal < 0 || ordinal >= values.length)
+            throw new IOException("Unknown " + values.getClass().getComponentType().getSimpleName() + " " + ordinal);
+        return values[ordinal];
+    }
+
+    /**
+     * @return The directory embedded images get copied to when loading scenes
+     */
+    public static Path getBlobDirectory() {
+        return blobDirectory;
+    }
+
+    public static void setBlobDirectory(Path directory) {
+        if (directory == null)
+            throw new IllegalArgumentException("[" + SceneFile.class.getCanonicalName()
+                    + "] The blob directory must not be null");
+        blobDirectory = directory;
+    }
+
+}
@@ -0,0 +1,763 @@
+package de.omegasystems.persistence;
+
+import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.swing.SwingUtilities;
+
+import de.omegasystems.core.Token;
+import de.omegasystems.core.TokenChange;
+import de.omegasystems.core.TokenHandler;
+import de.omegasystems.dataobjects.FogOfWar;
+import de.omegasystems.dataobjects.Friendlieness;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.dataobjects.SceneData;
+import de.omegasystems.dataobjects.TokenData;
+import de.omegasystems.dataobjects.TokenSize;
+import de.omegasystems.dataobjects.Walls;
+import de.omegasystems.utility.AbstractAttributeHolder.Property;
+import de.omegasystems.utility.Observer;
+
+/**
+ * Continuously saves the scene into an append-only journal, so that it can be
+ * restored after a crash or after closing the app by accident.<br>
+ * <br>
+ * The autosave consists of a full snapshot in the {@link SceneFile} format and
+ * a journal of small records for every change since that snapshot (tokens
+ * added, removed, moved or edited, walls added or removed, the fog and changed
+ * settings). Changes are collected
+ * on the EDT by comparing the tokens the token handler reported as changed
+ * against their last recorded state, which only happens once per event queue
+ * pass no matter how many changes were reported. Repeated moves of the same
+ * token are merged until the next flush, just like changes of the fog, which is
+ * recorded as a whole.
+ * Encoding and writing happens on a background thread once per
+ * {@link #FLUSH_INTERVAL}, so dragging a token costs a comparison per frame and
+ * never any disk access on the EDT.<br>
+ * <br>
+ * Once the journal gets too long (or old), a new snapshot replaces it.
+ * Snapshot and journal share a generation number in their file names, and a
+ * snapshot is only ever written atomically, so the newest snapshot together
+ * with its journal is always a consistent state.
+ */
+public class SceneJournal {
+
+    public static final long FLUSH_INTERVAL = 1000;
+    // Snapshot once the journal gets this long, or this old
+    private static final long COMPACTION_BYTES = 512 * 1024;
+    private static final long COMPACTION_INTERVAL = 10 * 60 * 1000;
+    private static final long SNAPSHOT_RETRY_INTERVAL = 30 * 1000;
+
+    private static final byte[] MAGIC = "TTRPGJNL".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT_VERSION = 3;
+    // The first version that records the vision radius of tokens
+    private static final int VISION_VERSION = 2;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String JOURNAL_PREFIX = "journal-";
+
+    private static final byte SETTINGS_CHANGED = 1;
+    private static final byte TOKEN_ADDED = 2;
+    private static final byte TOKEN_REMOVED = 3;
+    private static final byte TOKEN_MOVED = 4;
+    private static final byte TOKEN_EDITED = 5;
+    private static final byte WALL_ADDED = 6;
+    private static final byte WALL_REMOVED = 7;
+    private static final byte FOG_CHANGED = 8;
+
+    // Drawing related changes like the selection or loaded images aren't recorded
+    private static final Set<TokenChange.Field> RECORDED_FIELDS = EnumSet.complementOf(
+            EnumSet.of(TokenChange.Field.SELECTION, TokenChange.Field.IMAGE));
+
+    // Everything recorded about a token, compared against the token to find changes
+    private record TokenState(double x, double y, String name, String description, String movement,
+            int initiative, TokenSize size, Friendlieness friendStatus, File pictureFile, double visionRadius) {
+
+        static TokenState of(Token token) {
+            Point2D.Double position = token.getPosition();
+            return new TokenState(position.x, position.y, token.getName(), token.getDescription(),
+                    token.getMovement(), token.getInitiative(), token.getSize(), token.getFriendStatus(),
+                    token.getPictureFile(), token.getVisionRadius());
+        }
+
+        boolean isAt(Point2D.Double position) {
+            return x == position.x && y == position.y;
+        }
+
+        boolean hasSameValues(Token token) {
+            return Objects.equals(name, token.getName()) && Objects.equals(description, token.getDescription())
+                    && Objects.equals(movement, token.getMovement()) && initiative == token.getInitiative()
+                    && size == token.getSize() && friendStatus == token.getFriendStatus()
+                    && Objects.equals(pictureFile, token.getPictureFile()) && visionRadius == token.getVisionRadius();
+        }
+    }
+
+    private record Settings(boolean isGridEnabled, double gridScale, double gridThickness, double gridOffsetX,
+            double gridOffsetY, double tokenSize, double tokenOutlineThickness) {
+    }
+
+    // A single change, the token is null for settings, walls and the fog
+    private record Change(byte type, UUID token, TokenState state, Settings settings, Line2D.Double wall,
+            FogOfWar fog) {
+    }
+
+    private final Path directory;
+    private final MenubarAttributeHolder settings;
+    private final TokenHandler tokenHandler;
+    private final Supplier<File> mapFile;
+    private final Supplier<Walls> walls;
+    private final Supplier<FogOfWar> fog;
+
+    // Only touched on the EDT
+    private final Map<UUID, TokenState> recordedTokens = new HashMap<>();
+    private Observer<List<TokenChange>> tokenListener = this::collectChanges;
+    private Observer<Boolean> toggleObserver = value -> recordSettings();
+    private Observer<Double> valueObserver = value -> recordSettings();
+    private Observer<Rectangle2D> wallObserver = area -> collectWallChanges();
+    private Walls observedWalls;
+    // Walls have no identity besides the object, which Walls keeps until removed
+    private final Set<Line2D.Double> recordedWalls = Collections.newSetFromMap(new IdentityHashMap<>());
+    private Observer<Rectangle> fogObserver = cells -> recordFog();
+    private FogOfWar observedFog;
+    private boolean isClosed = false;
+
+    // Guarded by lock, handed from the EDT to the background thread
+    private final Object lock = new Object();
+    private List<Change> pendingChanges = new ArrayList<>();
+    // Where the last move or edit of a token is in the pending changes, to merge them
+    private Map<UUID, Integer> pendingTokenChanges = new HashMap<>();
+    // Where the last fog change is in the pending changes, -1 if there is none
+    private int pendingFogChange = -1;
+    private SceneData pendingSnapshot;
+    private boolean isSnapshotRequested = false;
+
+    // Only touched on the background thread
+    private long generation = 0;
+    private FileChannel journal;
+    private long journalBytes = 0;
+    private long lastSnapshotTime = 0;
+    private final CRC32 checksum = new CRC32();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Autosave");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param directory    where to keep snapshots and journals, it gets created
+     *                     if it doesn't exist
+     * @param settings     the attributes holding grid and token settings
+     * @param tokenHandler the handler holding the tokens
+     * @param mapFile      provides the file of the current map for snapshots
+     * @param walls        provides the walls of the current map, which are
+     *                     looked up again with every snapshot
+     * @param fog          provides the fog of war of the current map, which is
+     *                     looked up again with every snapshot
+     */
+    public SceneJournal(Path directory, MenubarAttributeHolder settings, TokenHandler tokenHandler,
+            Supplier<File> mapFile, Supplier<Walls> walls, Supplier<FogOfWar> fog) {
+        if (directory == null || settings == null || tokenHandler == null || mapFile == null || walls == null
+                || fog == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Directory, settings, token handler, map file, walls and fog are required");
+        this.directory = directory;
+        this.settings = settings;
+        this.tokenHandler = tokenHandler;
+        this.mapFile = mapFile;
+        this.walls = walls;
+        this.fog = fog;
+        // Continue counting, so the new snapshot replaces the ones already there
+        this.generation = Math.max(0, findNewestGeneration(directory));
+    }
+
+    /**
+     * Starts recording changes, beginning with a snapshot of the current scene.
+     * Has to be called on the EDT.
+     */
+    public void start() {
+        tokenHandler.addChangeListener(tokenListener);
+        settings.VIEW_GRID_ENABLED.addObserver(toggleObserver);
+        for (Property<Double> property : settings.getValueSettings())
+            property.addObserver(valueObserver);
+
+        snapshot();
+        executor.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replaces the journal with a new snapshot of the current scene, for example
+     * after loading a different scene. Has to be called on the EDT, also whenever
+     * the walls or the fog are replaced by other ones.
+     */
+    public void snapshot() {
+        if (isClosed)
+            return;
+        collectChanges();
+        observeWalls(walls.get());
+        observeFog(fog.get());
+        SceneData scene = SceneData.capture(mapFile.get(), settings, tokenHandler, observedWalls, observedFog);
+        // Everything pending is part of the snapshot now
+        synchronized (lock) {
+            pendingChanges = new ArrayList<>();
+            pendingTokenChanges.clear();
+            pendingFogChange = -1;
+            pendingSnapshot = scene;
+            isSnapshotRequested = false;
+        }
+        executor.execute(this::flush);
+    }
+
+    /**
+     * Writes the remaining changes and stops recording. Has to be called on the
+     * EDT, it waits for the last write to finish.
+     */
+    public void close() {
+        if (isClosed)
+            return;
+        isClosed = true;
+        tokenHandler.removeChangeListener(tokenListener);
+        settings.VIEW_GRID_ENABLED.removeObserver(toggleObserver);
+        for (Property<Double> property : settings.getValueSettings())
+            property.removeObserver(valueObserver);
+        observeWalls(null);
+        observeFog(null);
+
+        collectChanges();
+        executor.execute(this::flush);
+        executor.execute(this::closeJournal);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS))
+                System.err.println("[SceneJournal] Timed out while writing the last changes");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Only compares the tokens that were reported as changed. Removals go first,
+     * so a token replaced by a new one with the same id (like when loading a
+     * scene) ends up recorded as the new one.
+     */
+    private void collectChanges(List<TokenChange> changes) {
+        for (int i = 0; i < changes.size(); i++) {
+            TokenChange change = changes.get(i);
+            if (!change.affects(RECORDED_FIELDS))
+                continue;
+            if (change.token() == null) {
+                // Could be anything, compare all of them
+                collectChanges();
+                return;
+            }
+            if (change.type() == TokenChange.Type.REMOVED)
+                collectChange(change.token());
+        }
+
+        for (int i = 0; i < changes.size(); i++) {
+            TokenChange change = changes.get(i);
+            if (change.type() != TokenChange.Type.REMOVED && change.affects(RECORDED_FIELDS))
+                collectChange(change.token());
+        }
+    }
+
+    /**
+     * Compares a single token against its last recorded state and queues a
+     * change if they differ.
+     */
+    private void collectChange(Token token) {
+        UUID id = token.getUUId();
+        TokenState recorded = recordedTokens.get(id);
+        if (!tokenHandler.hasToken(token)) {
+            if (recorded != null) {
+                recordedTokens.remove(id);
+                queue(new Change(TOKEN_REMOVED, id, null, null, null, null));
+            }
+            return;
+        }
+
+        if (recorded != null && recorded.isAt(token.getPosition()) && recorded.hasSameValues(token))
+            return;
+
+        TokenState state = TokenState.of(token);
+        recordedTokens.put(id, state);
+        if (recorded == null)
+            queue(new Change(TOKEN_ADDED, id, state, null, null, null));
+        else if (recorded.hasSameValues(token))
+            queue(new Change(TOKEN_MOVED, id, state, null, null, null));
+        else
+            queue(new Change(TOKEN_EDITED, id, state, null, null, null));
+    }
+
+    /**
+     * Compares all tokens against their last recorded state and queues a change
+     * for every difference.
+     */
+    private void collectChanges() {
+        List<Token> tokens = tokenHandler.getAllTokens();
+        Set<UUID> removedTokens = new HashSet<>(recordedTokens.keySet());
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            removedTokens.remove(token.getUUId());
+            collectChange(token);
+        }
+
+        for (UUID id : removedTokens) {
+            recordedTokens.remove(id);
+            queue(new Change(TOKEN_REMOVED, id, null, null, null, null));
+        }
+    }
+
+    /**
+     * Follows the given walls instead of the previous ones, taking their current
+     * state as recorded.
+     */
+    private void observeWalls(Walls walls) {
+        if (walls != observedWalls) {
+            if (observedWalls != null)
+                observedWalls.removeObserver(wallObserver);
+            if (walls != null)
+                walls.addObserver(wallObserver);
+            observedWalls = walls;
+        }
+        recordedWalls.clear();
+        if (walls != null)
+            recordedWalls.addAll(walls.getAll());
+    }
+
+    /**
+     * Compares the walls against the recorded ones and queues a change for every
+     * wall added or removed since.
+     */
+    private void collectWallChanges() {
+        Set<Line2D.Double> removedWalls = Collections.newSetFromMap(new IdentityHashMap<>());
+        removedWalls.addAll(recordedWalls);
+        for (Line2D.Double wall : observedWalls.getAll()) {
+            if (!removedWalls.remove(wall)) {
+                recordedWalls.add(wall);
+                queue(new Change(WALL_ADDED, null, null, null, wall, null));
+            }
+        }
+
+        for (Line2D.Double wall : removedWalls) {
+            recordedWalls.remove(wall);
+            queue(new Change(WALL_REMOVED, null, null, null, wall, null));
+        }
+    }
+
+    private void observeFog(FogOfWar fog) {
+        if (fog == observedFog)
+            return;
+        if (observedFog != null)
+            observedFog.removeObserver(fogObserver);
+        if (fog != null)
+            fog.addObserver(fogObserver);
+        observedFog = fog;
+    }
+
+    private void recordFog() {
+        queue(new Change(FOG_CHANGED, null, null, null, null, new FogOfWar(observedFog)));
+    }
+
+    private void recordSettings() {
+        queue(new Change(SETTINGS_CHANGED, null, null, new Settings(settings.VIEW_GRID_ENABLED.getValue(),
+                settings.VIEW_GRID_SCALE.getValue(), settings.VIEW_GRID_THICKNESS.getValue(),
+                settings.VIEW_GRID_OFFSET_X.getValue(), settings.VIEW_GRID_OFFSET_Y.getValue(),
+                settings.TOKEN_SIZE.getValue(), settings.TOKEN_OUTLINE_THICKNESS.getValue()), null, null));
+    }
+
+    private void queue(Change change) {
+        synchronized (lock) {
+            // Only the latest position (or values) of a token matter until the next
+            // flush, as long as nothing else happened to it in between
+            if (change.token() != null) {
+                Integer index = pendingTokenChanges.get(change.token());
+                if (index != null && pendingChanges.get(index).type() == change.type()
+                        && (change.type() == TOKEN_MOVED || change.type() == TOKEN_EDITED)) {
+                    pendingChanges.set(index, change);
+                    return;
+                }
+                pendingTokenChanges.put(change.token(), pendingChanges.size());
+            }
+            // Every fog change holds the whole fog
+            if (change.type() == FOG_CHANGED) {
+                if (pendingFogChange >= 0) {
+                    pendingChanges.set(pendingFogChange, change);
+                    return;
+                }
+                pendingFogChange = pendingChanges.size();
+            }
+            pendingChanges.add(change);
+        }
+    }
+
+    /**
+     * Writes a pending snapshot and all pending changes. Runs on the background
+     * thread only.
+     */
+    private void flush() {
+        SceneData snapshot;
+        List<Change> changes;
+        synchronized (lock) {
+            snapshot = pendingSnapshot;
+            pendingSnapshot = null;
+            changes = pendingChanges;
+            pendingChanges = new ArrayList<>();
+            pendingTokenChanges.clear();
+            pendingFogChange = -1;
+        }
+
+        try {
+            if (snapshot != null)
+                writeSnapshot(snapshot);
+            if (!changes.isEmpty() && journal != null)
+                appendChanges(changes);
+        } catch (IOException e) {
+            System.err.println("[SceneJournal] Couldn't write the autosave to '" + directory + "'");
+            e.printStackTrace();
+        }
+
+        long timeSinceSnapshot = System.currentTimeMillis() - lastSnapshotTime;
+        boolean needsSnapshot;
+        if (journal == null)
+            // The last snapshot failed, try again every now and then
+            needsSnapshot = timeSinceSnapshot > SNAPSHOT_RETRY_INTERVAL;
+        else
+            needsSnapshot = journalBytes > COMPACTION_BYTES
+                    || (journalBytes > MAGIC.length + 4 && timeSinceSnapshot > COMPACTION_INTERVAL);
+        if (needsSnapshot) {
+            synchronized (lock) {
+                if (isSnapshotRequested)
+                    return;
+                isSnapshotRequested = true;
+            }
+            // Only the EDT may look at the tokens
+            SwingUtilities.invokeLater(this::snapshot);
+        }
+    }
+
+    private void writeSnapshot(SceneData snapshot) throws IOException {
+        lastSnapshotTime = System.currentTimeMillis();
+        Files.createDirectories(directory);
+        long nextGeneration = generation + 1;
+        SceneFile.write(snapshot, directory.resolve(SNAPSHOT_PREFIX + nextGeneration + "." + SceneFile.FILE_EXTENSION)
+                .toFile(), false);
+
+        closeJournal();
+        generation = nextGeneration;
+        journal = FileChannel.open(directory.resolve(JOURNAL_PREFIX + generation), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 4);
+        header.put(MAGIC).putInt(FORMAT_VERSION).flip();
+        SceneFile.writeFully(journal, header);
+        journalBytes = header.limit();
+
+        deleteOlderGenerations();
+    }
+
+    private void appendChanges(List<Change> changes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(changes.size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(256);
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+
+        for (Change change : changes) {
+            payloadBytes.reset();
+            writeChange(payload, change);
+            payload.flush();
+
+            // Length and checksum let recovery detect a record torn by a crash
+            checksum.reset();
+            checksum.update(payloadBytes.toByteArray());
+            out.writeInt(payloadBytes.size());
+            out.writeInt((int) checksum.getValue());
+            payloadBytes.writeTo(out);
+        }
+        out.flush();
+
+        SceneFile.writeFully(journal, ByteBuffer.wrap(bytes.toByteArray()));
+        journal.force(false);
+        journalBytes += bytes.size();
+    }
+
+    private static void writeChange(DataOutputStream out, Change change) throws IOException {
+        out.writeByte(change.type());
+        if (change.type() == SETTINGS_CHANGED) {
+            Settings settings = change.settings();
+            out.writeBoolean(settings.isGridEnabled());
+            out.writeDouble(settings.gridScale());
+            out.writeDouble(settings.gridThickness());
+            out.writeDouble(settings.gridOffsetX());
+            out.writeDouble(settings.gridOffsetY());
+            out.writeDouble(settings.tokenSize());
+            out.writeDouble(settings.tokenOutlineThickness());
+            return;
+        }
+        if (change.type() == WALL_ADDED || change.type() == WALL_REMOVED) {
+            Line2D.Double wall = change.wall();
+            out.writeDouble(wall.x1);
+            out.writeDouble(wall.y1);
+            out.writeDouble(wall.x2);
+            out.writeDouble(wall.y2);
+            return;
+        }
+        if (change.type() == FOG_CHANGED) {
+            SceneFile.writeFog(out, change.fog());
+            return;
+        }
+
+        out.writeLong(change.token().getMostSignificantBits());
+        out.writeLong(change.token().getLeastSignificantBits());
+        if (change.type() == TOKEN_REMOVED)
+            return;
+
+        TokenState state = change.state();
+        out.writeDouble(state.x());
+        out.writeDouble(state.y());
+        if (change.type() == TOKEN_MOVED)
+            return;
+
+        SceneFile.writeString(out, state.name());
+        SceneFile.writeString(out, state.description());
+        SceneFile.writeString(out, state.movement());
+        out.writeInt(state.initiative());
+        out.writeByte(state.size().ordinal());
+        out.writeByte(state.friendStatus().ordinal());
+        SceneFile.writeString(out, state.pictureFile() == null ? "" : state.pictureFile().getAbsolutePath());
+        out.writeDouble(state.visionRadius());
+    }
+
+    private void closeJournal() {
+        if (journal == null)
+            return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        journal = null;
+    }
+
+    private void deleteOlderGenerations() {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Iterator<Path> iterator = files.iterator(); iterator.hasNext();) {
+                Path file = iterator.next();
+                long fileGeneration = getGeneration(file);
+                if (fileGeneration >= 0 && fileGeneration < generation)
+                    Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            System.err.println("[SceneJournal] Couldn't delete old autosaves in '" + directory + "'");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return The generation of an autosave file or -1 if it's none
+     */
+    private static long getGeneration(Path file) {
+        String name = file.getFileName().toString();
+        String number;
+        if (name.startsWith(SNAPSHOT_PREFIX) && name.endsWith("." + SceneFile.FILE_EXTENSION))
+            number = name.substring(SNAPSHOT_PREFIX.length(), name.length() - SceneFile.FILE_EXTENSION.length() - 1);
+        else if (name.startsWith(JOURNAL_PREFIX))
+            number = name.substring(JOURNAL_PREFIX.length());
+        else
+            return -1;
+
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Restores the autosaved scene in the given directory: the newest snapshot
+     * with all changes from its journal applied. A record torn by a crash ends
+     * the journal, everything before it is restored.
+     *
+     * @return The restored scene or null if there is no autosave
+     * @throws IOException if the snapshot cannot be read
+     */
+    public static SceneData recover(Path directory) throws IOException {
+        long newestGeneration = findNewestGeneration(directory);
+        if (newestGeneration < 0)
+            return null;
+
+        SceneData scene = SceneFile.read(directory
+                .resolve(SNAPSHOT_PREFIX + newestGeneration + "." + SceneFile.FILE_EXTENSION).toFile());
+        Path journalFile = directory.resolve(JOURNAL_PREFIX + newestGeneration);
+        if (Files.isRegularFile(journalFile))
+            replay(ByteBuffer.wrap(Files.readAllBytes(journalFile)), scene);
+        return scene;
+    }
+
+    /**
+     * @return The generation of the newest snapshot or -1 if there is none
+     */
+    private static long findNewestGeneration(Path directory) {
+        if (!Files.isDirectory(directory))
+            return -1;
+
+        long newestGeneration = -1;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Iterator<Path> iterator = files.iterator(); iterator.hasNext();) {
+                Path file = iterator.next();
+                if (file.getFileName().toString().startsWith(SNAPSHOT_PREFIX))
+                    newestGeneration = Math.max(newestGeneration, getGeneration(file));
+            }
+        } catch (IOException e) {
+            System.err.println("[SceneJournal] Couldn't look for autosaves in '" + directory + "'");
+            e.printStackTrace();
+        }
+        return newestGeneration;
+    }
+
+    private static void replay(ByteBuffer journal, SceneData scene) {
+        byte[] magic = new byte[MAGIC.length];
+        if (journal.remaining() < MAGIC.length + 4)
+            return;
+        journal.get(magic);
+        int version = journal.getInt();
+        if (!Arrays.equals(magic, MAGIC) || version > FORMAT_VERSION) {
+            System.err.println("[SceneJournal] Ignoring a journal of an unknown format");
+            return;
+        }
+
+        Map<UUID, SceneData.TokenEntry> tokens = new HashMap<>();
+        for (SceneData.TokenEntry entry : scene.getTokens())
+            tokens.put(entry.id(), entry);
+
+        CRC32 checksum = new CRC32();
+        while (journal.remaining() >= 8) {
+            int length = journal.getInt();
+            int expectedChecksum = journal.getInt();
+            if (length <= 0 || length > journal.remaining())
+                break;
+
+            ByteBuffer record = journal.slice(journal.position(), length);
+            checksum.reset();
+            checksum.update(record.duplicate());
+            if ((int) checksum.getValue() != expectedChecksum)
+                break;
+            journal.position(journal.position() + length);
+
+            try {
+                applyChange(record, version, scene, tokens);
+            } catch (BufferUnderflowException | NegativeArraySizeException | IllegalArgumentException
+                    | IOException e) {
+                System.err.println("[SceneJournal] Stopped replaying at a broken record");
+                e.printStackTrace();
+                break;
+            }
+        }
+    }
+
+    private static void applyChange(ByteBuffer record, int version, SceneData scene,
+            Map<UUID, SceneData.TokenEntry> tokens) throws IOException {
+        byte type = record.get();
+        if (type == SETTINGS_CHANGED) {
+            scene.setGridEnabled(record.get() != 0);
+            scene.setGridScale(record.getDouble());
+            scene.setGridThickness(record.getDouble());
+            scene.setGridOffsetX(record.getDouble());
+            scene.setGridOffsetY(record.getDouble());
+            scene.setTokenSize(record.getDouble());
+            scene.setTokenOutlineThickness(record.getDouble());
+            return;
+        }
+        if (type == WALL_ADDED || type == WALL_REMOVED) {
+            Line2D.Double wall = new Line2D.Double(record.getDouble(), record.getDouble(), record.getDouble(),
+                    record.getDouble());
+            if (type == WALL_ADDED) {
+                scene.getWalls().add(wall);
+                return;
+            }
+            for (Iterator<Line2D.Double> iterator = scene.getWalls().iterator(); iterator.hasNext();) {
+                Line2D.Double w = iterator.next();
+                if (w.x1 == wall.x1 && w.y1 == wall.y1 && w.x2 == wall.x2 && w.y2 == wall.y2) {
+                    iterator.remove();
+                    return;
+                }
+            }
+            return;
+        }
+        if (type == FOG_CHANGED) {
+            scene.setFog(SceneFile.readFog(record));
+            return;
+        }
+
+        UUID id = new UUID(record.getLong(), record.getLong());
+        SceneData.TokenEntry entry = tokens.get(id);
+        switch (type) {
+            case TOKEN_REMOVED -> {
+                if (entry != null)
+                    scene.getTokens().remove(entry);
+                tokens.remove(id);
+            }
+            case TOKEN_MOVED -> {
+                double x = record.getDouble();
+                double y = record.getDouble();
+                if (entry != null)
+                    entry.position().setLocation(x, y);
+            }
+            case TOKEN_ADDED, TOKEN_EDITED -> {
+                Point2D.Double position = new Point2D.Double(record.getDouble(), record.getDouble());
+                if (entry == null) {
+                    entry = new SceneData.TokenEntry(id, new TokenData(), position);
+                    scene.getTokens().add(entry);
+                    tokens.put(id, entry);
+                } else {
+                    entry.position().setLocation(position);
+                }
+
+                TokenData data = entry.data();
+                data.getName().setValue(SceneFile.readString(record));
+                data.getDescription().setValue(SceneFile.readString(record));
+                data.getMovement().setValue(SceneFile.readString(record));
+                data.getInitiative().setValue(record.getInt());
+                data.getSize().setValue(SceneFile.readEnum(record, TokenSize.values()));
+                data.getFriendStatus().setValue(SceneFile.readEnum(record, Friendlieness.values()));
+                String picturePath = SceneFile.readString(record);
+                data.getPictureFile().setValue(picturePath.isEmpty() ? null : new File(picturePath));
+                if (version >= VISION_VERSION)
+                    data.getVisionRadius().setValue(record.getDouble());
+            }
+            default -> throw new IOException("Unknown journal record " + type);
+        }
+    }
+
+}
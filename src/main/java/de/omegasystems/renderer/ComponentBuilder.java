@@ -32,6 +32,7 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 
 import de.omegasystems.utility.AbstractAttributeHolder;
 import de.omegasystems.utility.AbstractAttributeHolder.Property;
+import de.omegasystems.utility.ImageLoader;
 
 public abstract class ComponentBuilder {
 
@@ -169,6 +170,44 @@ public abstract class ComponentBuilder {
         return item;
     }
 
+    /**
+     * Creates a text field for a number. Text that isn't a number leaves the
+     * value at the last valid one.
+     */
+    public static JTextField createNumberField(int coulums, AbstractAttributeHolder.Property<Double> coupledValue) {
+
+        JTextField item = new JTextField(String.valueOf(coupledValue.getValue()), coulums);
+        item.setEditable(true);
+
+        item.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                parse();
+            }
+
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                parse();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                parse();
+            }
+
+            private void parse() {
+                try {
+                    double value = Double.parseDouble(item.getText().trim());
+                    if (Double.isFinite(value))
+                        coupledValue.setValue(value);
+                } catch (NumberFormatException e) {
+                    // Keep the last valid value while typing
+                }
+            }
+        });
+        return item;
+    }
+
     public static JTextArea createEditorPane(AbstractAttributeHolder.Property<String> coupledValue) {
 
         JTextArea item = new JTextArea(coupledValue.getValue());
@@ -256,7 +295,7 @@ public abstract class ComponentBuilder {
 
         private static Image loadFileOrPlaceholderImage(File filePath, Image backupImage) {
             try {
-                return ImageIO.read(filePath);
+                return ImageLoader.load(filePath);
             } catch (Exception e) {
                 return backupImage;
             }
@@ -278,11 +317,8 @@ public abstract class ComponentBuilder {
                 File selectedFile = fileChooser.getSelectedFile();
                 if (selectedFile != null && selectedFile.exists()) {
                     lastPath = selectedFile;
-                    try {
-                        ImageIO.read(selectedFile);
+                    if (ImageLoader.isReadableImage(selectedFile))
                         return selectedFile;
-                    } catch (Exception e) {
-                    }
                 }
             }
 
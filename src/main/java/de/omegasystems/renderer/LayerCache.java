@@ -0,0 +1,246 @@
+package de.omegasystems.renderer;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.VolatileImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.JComponent;
+
+import de.omegasystems.utility.ImageUtil;
+
+/**
+ * Keeps the output of layers that rarely change in offscreen tiles, rendered at
+ * the current zoom level. As long as the zoom stays the same, panning only
+ * blits the tiles at their new position instead of drawing the layers again.<br>
+ * <br>
+ * Tiles are VolatileImages, so they live in video memory where the pipeline
+ * supports it. Without a display they fall back to plain images.
+ */
+public class LayerCache {
+
+    public static final int TILE_SIZE = 256;
+
+    // Restoring lost VolatileImage contents may fail again right away, but not forever
+    private static final int MAX_RESTORE_ATTEMPTS = 3;
+
+    /**
+     * Draws the cached layers. The graphics object is already transformed into
+     * world space.
+     */
+    public interface LayerPainter {
+        public void paint(Graphics2D g, Rectangle visibleWorldArea);
+    }
+
+    private static class Tile {
+        private Image image;
+        private boolean isValid = false;
+    }
+
+    private final JComponent owner;
+    private final LayerPainter painter;
+
+    private int maxTileCount = 64;
+    private final Map<Long, Tile> tiles = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Tile> eldest) {
+            if (size() <= maxTileCount)
+                return false;
+            if (eldest.getValue().image != null)
+                eldest.getValue().image.flush();
+            return true;
+        }
+    };
+
+    private double scale = Double.NaN;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    /**
+     * @param owner   the component the tiles get drawn onto, its colors and font
+     *                are used as defaults when rendering tiles
+     * @param painter draws the content of the cached layers
+     */
+    public LayerCache(JComponent owner, LayerPainter painter) {
+        if (owner == null || painter == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Owner and painter are required");
+        this.owner = owner;
+        this.painter = painter;
+    }
+
+    /**
+     * Blits the tiles covering the given screen area, rendering the ones that are
+     * missing or outdated first.
+     *
+     * @param g          the graphics object in screen space
+     * @param screenArea the part of the screen to cover
+     * @param scale      the current zoom level
+     * @param offsetX    the horizontal screen position of the world origin
+     * @param offsetY    the vertical screen position of the world origin
+     * @param layerSize  the size of the cached layers in world space
+     */
+    public void draw(Graphics2D g, Rectangle screenArea, double scale, int offsetX, int offsetY,
+            Dimension layerSize) {
+        if (scale != this.scale) {
+            invalidate();
+            this.scale = scale;
+        }
+
+        // Keep enough tiles around to cover the screen about twice
+        int columnsOnScreen = owner.getWidth() / TILE_SIZE + 2;
+        int rowsOnScreen = owner.getHeight() / TILE_SIZE + 2;
+        maxTileCount = Math.max(16, columnsOnScreen * rowsOnScreen * 2);
+
+        int lastLayerColumn = (int) Math.ceil(layerSize.getWidth() * scale) / TILE_SIZE;
+        int lastLayerRow = (int) Math.ceil(layerSize.getHeight() * scale) / TILE_SIZE;
+
+        int firstColumn = Math.max(0, Math.floorDiv(screenArea.x - offsetX, TILE_SIZE));
+        int firstRow = Math.max(0, Math.floorDiv(screenArea.y - offsetY, TILE_SIZE));
+        int lastColumn = Math.min(lastLayerColumn,
+                Math.floorDiv(screenArea.x + screenArea.width - 1 - offsetX, TILE_SIZE));
+        int lastRow = Math.min(lastLayerRow, Math.floorDiv(screenArea.y + screenArea.height - 1 - offsetY, TILE_SIZE));
+
+        for (int column = firstColumn; column <= lastColumn; column++)
+            for (int row = firstRow; row <= lastRow; row++)
+                drawTile(g, column, row, column * TILE_SIZE + offsetX, row * TILE_SIZE + offsetY);
+    }
+
+    private void drawTile(Graphics2D g, int column, int row, int x, int y) {
+        long key = getTileKey(column, row);
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            tile = new Tile();
+            tiles.put(key, tile);
+        }
+
+        GraphicsConfiguration config = owner.getGraphicsConfiguration();
+        for (int attempt = 0; attempt < MAX_RESTORE_ATTEMPTS; attempt++) {
+            if (tile.image instanceof VolatileImage volatileImage) {
+                int status = config == null ? VolatileImage.IMAGE_INCOMPATIBLE : volatileImage.validate(config);
+                if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                    volatileImage.flush();
+                    tile.image = null;
+                } else if (status == VolatileImage.IMAGE_RESTORED) {
+                    tile.isValid = false;
+                }
+            }
+
+            if (tile.image == null) {
+                tile.image = createTileImage(config);
+                tile.isValid = false;
+            }
+
+            if (tile.isValid) {
+                hitCount++;
+            } else {
+                missCount++;
+                renderTile(tile, column, row);
+            }
+
+            g.drawImage(tile.image, x, y, null);
+            if (!(tile.image instanceof VolatileImage volatileImage) || !volatileImage.contentsLost())
+                return;
+            tile.isValid = false;
+        }
+    }
+
+    private Image createTileImage(GraphicsConfiguration config) {
+        if (config != null)
+            return config.createCompatibleVolatileImage(TILE_SIZE, TILE_SIZE, Transparency.OPAQUE);
+        return ImageUtil.createCompatibleImage(TILE_SIZE, TILE_SIZE, Transparency.OPAQUE);
+    }
+
+    private void renderTile(Tile tile, int column, int row) {
+        Graphics2D g = (Graphics2D) tile.image.getGraphics();
+        g.setColor(owner.getBackground());
+        g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+
+        // Mimic the defaults swing sets up for painting the owner
+        g.setColor(owner.getForeground());
+        g.setFont(owner.getFont());
+        g.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+        g.scale(scale, scale);
+
+        int worldX = (int) Math.floor(column * TILE_SIZE / scale);
+        int worldY = (int) Math.floor(row * TILE_SIZE / scale);
+        int worldSize = (int) Math.ceil(TILE_SIZE / scale) + 1;
+        painter.paint(g, new Rectangle(worldX, worldY, worldSize, worldSize));
+
+        g.dispose();
+        tile.isValid = true;
+    }
+
+    /**
+     * Marks every tile as outdated, they get rendered again once they are needed.
+     */
+    public void invalidate() {
+        tiles.values().forEach(tile -> tile.isValid = false);
+    }
+
+    /**
+     * Marks the tiles overlapping the given world area as outdated.
+     */
+    public void invalidate(Rectangle2D worldArea) {
+        if (Double.isNaN(scale))
+            return;
+
+        // One pixel of padding covers rounding and anti aliasing at the edges
+        int firstColumn = Math.floorDiv((int) Math.floor(worldArea.getMinX() * scale) - 1, TILE_SIZE);
+        int firstRow = Math.floorDiv((int) Math.floor(worldArea.getMinY() * scale) - 1, TILE_SIZE);
+        int lastColumn = Math.floorDiv((int) Math.ceil(worldArea.getMaxX() * scale) + 1, TILE_SIZE);
+        int lastRow = Math.floorDiv((int) Math.ceil(worldArea.getMaxY() * scale) + 1, TILE_SIZE);
+
+        for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+            int column = (int) (entry.getKey() >> 32);
+            int row = (int) (long) entry.getKey();
+            if (column >= firstColumn && column <= lastColumn && row >= firstRow && row <= lastRow)
+                entry.getValue().isValid = false;
+        }
+    }
+
+    /**
+     * Releases all tiles, including the video memory they occupy.
+     */
+    public void clear() {
+        Iterator<Tile> iterator = tiles.values().iterator();
+        while (iterator.hasNext()) {
+            Image image = iterator.next().image;
+            if (image != null)
+                image.flush();
+            iterator.remove();
+        }
+        scale = Double.NaN;
+    }
+
+    public int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * @return How often a tile could be blitted without rendering it first
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return How often a tile had to be rendered before blitting it
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    private static long getTileKey(int column, int row) {
+        return ((long) column << 32) | (row & 0xFFFFFFFFL);
+    }
+
+}
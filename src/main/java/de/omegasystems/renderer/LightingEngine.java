@@ -0,0 +1,247 @@
+package de.omegasystems.renderer;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import de.omegasystems.core.Token;
+import de.omegasystems.core.TokenChange;
+import de.omegasystems.core.TokenChange.Field;
+import de.omegasystems.core.TokenHandler;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.dataobjects.Walls;
+import de.omegasystems.utility.Observer;
+import de.omegasystems.utility.Observerhandler;
+import de.omegasystems.utility.VisibilityPolygon;
+
+/**
+ * Keeps track of the area every token with a vision radius sees, blocked by
+ * the walls of the map.<br>
+ * <br>
+ * Only what changed is computed again: tokens that moved, resized or got
+ * another radius, and the tokens close to a wall that was added or removed.
+ * Dragging a token through a dungeon therefore computes a single visibility
+ * polygon per frame, no matter how many other tokens see. When many tokens
+ * change at once (loading a scene, changing the walls of a room full of
+ * tokens), they are computed in parallel on the common fork/join pool.<br>
+ * <br>
+ * Observers get the area in world space whose lighting changed. Everything
+ * happens on the EDT, which waits for the parallel computations.
+ */
+public class LightingEngine implements Observer<List<TokenChange>> {
+
+    // The changes that move or resize what a token sees
+    private static final Set<Field> LIGHT_FIELDS = EnumSet.of(Field.POSITION, Field.SIZE, Field.VISION);
+    // Below this many tokens splitting up costs more than it saves
+    private static final int SEQUENTIAL_THRESHOLD = 2;
+
+    /**
+     * The area a token sees, in world space.
+     */
+    public record Light(Token token, double x, double y, double radius, Path2D.Float area, Rectangle2D bounds) {
+    }
+
+    // A light to compute, filled in by the worker
+    private static class Job {
+        final Token token;
+        final double x;
+        final double y;
+        final double radius;
+        Light result;
+
+        Job(Token token, double x, double y, double radius) {
+            this.token = token;
+            this.x = x;
+            this.y = y;
+            this.radius = radius;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class ComputeTask extends RecursiveAction {
+        private final List<Job> jobs;
+        private final int from;
+        private final int to;
+
+        ComputeTask(List<Job> jobs, int from, int to) {
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++)
+                    computeLight(jobs.get(i));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ComputeTask(jobs, from, middle), new ComputeTask(jobs, middle, to));
+        }
+    }
+
+    private final TokenHandler tokenHandler;
+    private final MenubarAttributeHolder settings;
+    private Walls walls;
+    private final Map<Token, Light> lights = new HashMap<>();
+    private final Observerhandler<Rectangle2D> observers = new Observerhandler<>();
+    private final Observer<Rectangle2D> wallObserver = this::onWallsChanged;
+
+    public LightingEngine(TokenHandler tokenHandler, MenubarAttributeHolder settings) {
+        if (tokenHandler == null || settings == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Token handler and settings are required");
+        this.tokenHandler = tokenHandler;
+        this.settings = settings;
+
+        tokenHandler.addChangeListener(this);
+        // Radii are in grid cells
+        settings.VIEW_GRID_SCALE.addObserver(val -> notifyChange(recompute(tokenHandler.getAllTokens(), false)));
+    }
+
+    /**
+     * Uses other walls, for example the ones of the scene that was swapped to.
+     */
+    public void setWalls(Walls walls) {
+        if (this.walls == walls)
+            return;
+        if (this.walls != null)
+            this.walls.removeObserver(wallObserver);
+        this.walls = walls;
+        if (walls != null)
+            walls.addObserver(wallObserver);
+        notifyChange(recompute(tokenHandler.getAllTokens(), true));
+    }
+
+    public Walls getWalls() {
+        return walls;
+    }
+
+    @Override
+    public void update(List<TokenChange> changes) {
+        Set<Token> changed = new LinkedHashSet<>();
+        for (int i = 0; i < changes.size(); i++) {
+            TokenChange change = changes.get(i);
+            if (!change.affects(LIGHT_FIELDS))
+                continue;
+            if (change.token() == null) {
+                // The token size setting changed, which moves the center of every token
+                changed.addAll(tokenHandler.getAllTokens());
+                changed.addAll(lights.keySet());
+            } else {
+                changed.add(change.token());
+            }
+        }
+        if (!changed.isEmpty())
+            notifyChange(recompute(changed, false));
+    }
+
+    private void onWallsChanged(Rectangle2D area) {
+        // Walls along an axis have no area
+        Rectangle2D changedArea = new Rectangle2D.Double(area.getX() - 1, area.getY() - 1, area.getWidth() + 2,
+                area.getHeight() + 2);
+        List<Token> affected = new ArrayList<>();
+        for (Light light : lights.values()) {
+            if (light.bounds().intersects(changedArea))
+                affected.add(light.token());
+        }
+        // The walls themselves changed as well, for views showing them
+        notifyChange(union(recompute(affected, true), changedArea));
+    }
+
+    /**
+     * Computes the lights of the tokens again, skipping those that didn't move
+     * unless forced to.
+     *
+     * @return The area whose lighting changed or null if nothing changed
+     */
+    private Rectangle2D recompute(Collection<Token> tokens, boolean isForced) {
+        double cellSize = settings.VIEW_GRID_SCALE.getValue();
+        List<Job> jobs = new ArrayList<>();
+        Rectangle2D changedArea = null;
+
+        for (Token token : tokens) {
+            Light light = lights.get(token);
+            double radius = token.getVisionRadius() * cellSize;
+            if (!tokenHandler.hasToken(token) || !(radius > 0)) {
+                if (light != null) {
+                    lights.remove(token);
+                    changedArea = union(changedArea, light.bounds());
+                }
+                continue;
+            }
+
+            double size = tokenHandler.calculateImageSizeFor(token);
+            double x = token.getPosition().x + size / 2;
+            double y = token.getPosition().y + size / 2;
+            if (!isForced && light != null && light.x() == x && light.y() == y && light.radius() == radius)
+                continue;
+            jobs.add(new Job(token, x, y, radius));
+        }
+
+        if (jobs.size() <= SEQUENTIAL_THRESHOLD)
+            jobs.forEach(this::computeLight);
+        else
+            ForkJoinPool.commonPool().invoke(new ComputeTask(jobs, 0, jobs.size()));
+
+        for (Job job : jobs) {
+            Light previous = lights.put(job.token, job.result);
+            if (previous != null)
+                changedArea = union(changedArea, previous.bounds());
+            changedArea = union(changedArea, job.result.bounds());
+        }
+        return changedArea;
+    }
+
+    private void notifyChange(Rectangle2D changedArea) {
+        if (changedArea != null)
+            observers.notifyObservers(changedArea);
+    }
+
+    /**
+     * Runs on any thread of the pool, only reading the walls.
+     */
+    private void computeLight(Job job) {
+        Rectangle2D bounds = new Rectangle2D.Double(job.x - job.radius, job.y - job.radius, 2 * job.radius,
+                2 * job.radius);
+        List<Line2D.Double> nearbyWalls = new ArrayList<>();
+        if (walls != null)
+            walls.getWallsIn(bounds, nearbyWalls);
+        Path2D.Float area = VisibilityPolygon.compute(job.x, job.y, job.radius, nearbyWalls);
+        job.result = new Light(job.token, job.x, job.y, job.radius, area, bounds);
+    }
+
+    private static Rectangle2D union(Rectangle2D area, Rectangle2D other) {
+        if (area == null)
+            return (Rectangle2D) other.clone();
+        area.add(other);
+        return area;
+    }
+
+    /**
+     * @return The lights of all tokens that see, which must not be modified
+     */
+    public Collection<Light> getLights() {
+        return Collections.unmodifiableCollection(lights.values());
+    }
+
+    public void addObserver(Observer<Rectangle2D> obs) {
+        observers.addObserver(obs);
+    }
+
+    public void removeObserver(Observer<Rectangle2D> obs) {
+        observers.removeObserver(obs);
+    }
+}
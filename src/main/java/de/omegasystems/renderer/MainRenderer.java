@@ -3,18 +3,26 @@ package de.omegasystems.renderer;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.SwingUtilities;
 
+import de.omegasystems.core.FrameScheduler;
+import de.omegasystems.core.RenderLayer;
 import de.omegasystems.core.Renderer;
 import de.omegasystems.core.RenderingComponent;
 import de.omegasystems.core.SizeDefiningRenderingComponent;
+import de.omegasystems.core.ViewportRenderingComponent;
 import de.omegasystems.core.WorldTranslationHandler;
 import de.omegasystems.utility.Observer;
 
@@ -24,9 +32,28 @@ public class MainRenderer extends JLabel implements Observer<WorldTranslationHan
     private List<RenderingComponent> uiComponents = new ArrayList<>();
 
     private WorldTranslationHandler translationHandler;
+    private FrameScheduler frameScheduler = new SwingFrameScheduler();
 
     private Dimension drawingArea = new Dimension();
 
+    // Damage tracking, all invalidated world areas of one frame get merged here
+    private Rectangle2D pendingDirtyRegion;
+    private boolean isFullRedrawPending = false;
+    private boolean isFlushScheduled = false;
+    // Screen areas of ui components showing live values, updated with every flush
+    private Map<RenderingComponent, Rectangle> liveScreenAreas = new HashMap<>();
+
+    // Static layers are kept in offscreen tiles, so panning only needs to blit them
+    private LayerCache staticLayerCache = new LayerCache(this, this::drawStaticLayers);
+    private boolean isLayerCachingEnabled = true;
+    private double lastPaintedScale = Double.NaN;
+
+    // Optionally frames skip waiting for the repaint manager and get painted right away
+    private boolean isImmediateRenderingEnabled = false;
+    private boolean wasLastFramePaintedImmediately = false;
+
+    private RenderStatistics statistics = new RenderStatistics();
+
     public MainRenderer() {
         super();
 
@@ -36,28 +63,184 @@ public class MainRenderer extends JLabel implements Observer<WorldTranslationHan
 
     @Override
     public void paint(Graphics g) {
+        long frameStart = System.nanoTime();
 
         Graphics2D g2d = (Graphics2D) g;
-
-        // Transform the graphics object for world space coordinates
         AffineTransform oldForm = g2d.getTransform();
+        double scale = translationHandler.getScale();
+        // Already whole pixels, which keeps cached and live layers aligned
         Point2D.Double offset = translationHandler.getOffset();
-        g2d.translate(offset.x, offset.y);
-        g2d.scale(translationHandler.getScale(), translationHandler.getScale());
+        int offsetX = (int) offset.x;
+        int offsetY = (int) offset.y;
+
+        Rectangle visibleUIArea = new Rectangle(getScreenSize());
+        Rectangle clip = g2d.getClipBounds();
+        if (clip != null)
+            visibleUIArea = visibleUIArea.intersection(clip);
+
+        // Caching only pays off once the zoom settled, and the cached tiles would be
+        // blurry if the graphics object is scaled on its own (HiDPI screens)
+        boolean useLayerCache = isLayerCachingEnabled && scale == lastPaintedScale
+                && (oldForm.getType() & ~AffineTransform.TYPE_TRANSLATION) == 0;
+        lastPaintedScale = scale;
+        if (useLayerCache)
+            staticLayerCache.draw(g2d, visibleUIArea, scale, offsetX, offsetY, drawingArea);
+
+        // Transform the graphics object for world space coordinates
+        g2d.translate(offsetX, offsetY);
+        g2d.scale(scale, scale);
+
+        // Everything outside of the screen or the repainted area can be skipped
+        Rectangle visibleWorldArea = translationHandler.getVisibleWorldArea(getScreenSize());
+        clip = g2d.getClipBounds();
+        if (clip != null)
+            visibleWorldArea = visibleWorldArea.intersection(clip);
 
-        worldComponents.forEach(callback -> callback.draw(g2d, drawingArea));
+        for (RenderingComponent component : worldComponents) {
+            if (!useLayerCache || component.getRenderLayer() != RenderLayer.STATIC)
+                drawComponent(component, g2d, visibleWorldArea);
+        }
         // Reset the transform for ui elements
         g2d.setTransform(oldForm);
-        uiComponents.forEach(callback -> callback.draw(g2d, drawingArea));
 
+        final Rectangle uiArea = visibleUIArea;
+        uiComponents.forEach(callback -> drawComponent(callback, g2d, uiArea));
+
+        statistics.recordFrame(System.nanoTime() - frameStart);
+    }
+
+    private void drawStaticLayers(Graphics2D g, Rectangle visibleWorldArea) {
+        for (RenderingComponent component : worldComponents) {
+            if (component.getRenderLayer() == RenderLayer.STATIC)
+                drawComponent(component, g, visibleWorldArea);
+        }
+    }
+
+    private void drawComponent(RenderingComponent component, Graphics2D g, Rectangle visibleArea) {
+        long start = System.nanoTime();
+        if (component instanceof ViewportRenderingComponent vc)
+            vc.draw(g, drawingArea, visibleArea);
+        else
+            component.draw(g, drawingArea);
+        statistics.recordComponentDraw(component, System.nanoTime() - start);
     }
 
     @Override
     public void scheduleRedraw() {
-        repaint();
-        revalidate();
-        if (getParent() != null)
-            getParent().repaint();
+        statistics.recordRedrawRequest();
+        isFullRedrawPending = true;
+        scheduleFlush();
+    }
+
+    @Override
+    public void scheduleRedraw(Rectangle2D worldArea) {
+        if (worldArea == null || worldArea.isEmpty())
+            return;
+
+        statistics.recordRedrawRequest();
+        if (pendingDirtyRegion == null)
+            pendingDirtyRegion = worldArea.getBounds2D();
+        else
+            pendingDirtyRegion.add(worldArea);
+        scheduleFlush();
+    }
+
+    @Override
+    public void scheduleRedraw(RenderingComponent source) {
+        // The component may have changed its size as well, like a new map
+        if (source instanceof SizeDefiningRenderingComponent)
+            recalculateDrawingArea();
+        else if (source != null && source.getRenderLayer() == RenderLayer.STATIC)
+            staticLayerCache.invalidate();
+        scheduleRedraw();
+    }
+
+    @Override
+    public void scheduleRedraw(RenderingComponent source, Rectangle2D worldArea) {
+        if (worldArea == null || worldArea.isEmpty())
+            return;
+
+        if (source != null && source.getRenderLayer() == RenderLayer.STATIC)
+            staticLayerCache.invalidate(worldArea);
+        scheduleRedraw(worldArea);
+    }
+
+    /**
+     * Makes sure that the collected dirty regions get handed to swing exactly once
+     * per event queue pass, no matter how many components reported changes.
+     */
+    private void scheduleFlush() {
+        if (isFlushScheduled)
+            return;
+        isFlushScheduled = true;
+        SwingUtilities.invokeLater(this::flushDirtyRegions);
+    }
+
+    private void flushDirtyRegions() {
+        isFlushScheduled = false;
+
+        statistics.recordFlush();
+        if (isFullRedrawPending) {
+            present(null);
+        } else if (pendingDirtyRegion != null) {
+            Rectangle screenArea = getScreenAreaFromWorldSpace(pendingDirtyRegion);
+            present(screenArea);
+            for (Rectangle liveArea : liveScreenAreas.values()) {
+                if (!screenArea.contains(liveArea))
+                    presentLiveArea(liveArea);
+            }
+        }
+
+        isFullRedrawPending = false;
+        pendingDirtyRegion = null;
+    }
+
+    /**
+     * Brings the given screen area up to date, either right away or by handing it
+     * to swing.
+     * 
+     * @param screenArea the area to update or null for the whole screen
+     */
+    private void present(Rectangle screenArea) {
+        wasLastFramePaintedImmediately = isImmediateRenderingEnabled && isShowing();
+        if (wasLastFramePaintedImmediately) {
+            // Swing still double buffers, this only skips waiting for the repaint manager
+            paintImmediately(screenArea == null ? getVisibleRect() : screenArea);
+            Toolkit.getDefaultToolkit().sync();
+            return;
+        }
+
+        if (screenArea == null)
+            repaint();
+        else
+            repaint(screenArea);
+    }
+
+    /**
+     * Paints the area of a component showing live values on its own. The repaint
+     * manager would merge it with the other dirty area into their bounding box,
+     * which covers the whole screen if that area is far away.
+     */
+    private void presentLiveArea(Rectangle screenArea) {
+        if (isShowing())
+            paintImmediately(screenArea);
+        else
+            repaint(screenArea);
+    }
+
+    /**
+     * Converts an area in world space into the (slightly padded) screen area that
+     * needs to be repainted to fully cover it.
+     */
+    private Rectangle getScreenAreaFromWorldSpace(Rectangle2D worldArea) {
+        double scale = translationHandler.getScale();
+        Point2D.Double offset = translationHandler.getOffset();
+
+        int minX = (int) Math.floor(worldArea.getMinX() * scale + offset.x) - 1;
+        int minY = (int) Math.floor(worldArea.getMinY() * scale + offset.y) - 1;
+        int maxX = (int) Math.ceil(worldArea.getMaxX() * scale + offset.x) + 1;
+        int maxY = (int) Math.ceil(worldArea.getMaxY() * scale + offset.y) + 1;
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
     }
 
     @Override
@@ -85,19 +268,31 @@ public class MainRenderer extends JLabel implements Observer<WorldTranslationHan
         return translationHandler;
     }
 
+    @Override
+    public FrameScheduler getFrameScheduler() {
+        return frameScheduler;
+    }
+
     @Override
     public void addWorldRenderComponent(RenderingComponent onDraw) {
         if (onDraw == null || worldComponents.contains(onDraw) || uiComponents.contains(onDraw))
             return;
-        worldComponents.add(onDraw);
+        // Keep the components sorted by layer, in the order they were added otherwise
+        int index = worldComponents.size();
+        while (index > 0 && worldComponents.get(index - 1).getRenderLayer().compareTo(onDraw.getRenderLayer()) > 0)
+            index--;
+        worldComponents.add(index, onDraw);
+        statistics.addComponent(onDraw);
         onDraw.setRenderer(this);
         recalculateDrawingArea();
     }
 
     @Override
     public void removeWorldRenderComponent(RenderingComponent onDraw) {
-        if (worldComponents.remove(onDraw))
+        if (worldComponents.remove(onDraw)) {
+            statistics.removeComponent(onDraw);
             recalculateDrawingArea();
+        }
     }
 
     @Override
@@ -105,14 +300,18 @@ public class MainRenderer extends JLabel implements Observer<WorldTranslationHan
         if (onDraw == null || worldComponents.contains(onDraw) || uiComponents.contains(onDraw))
             return;
         uiComponents.add(onDraw);
+        statistics.addComponent(onDraw);
         onDraw.setRenderer(this);
         recalculateDrawingArea();
     }
 
     @Override
     public void removeUIRenderComponent(RenderingComponent onDraw) {
-        if (uiComponents.remove(onDraw))
+        if (uiComponents.remove(onDraw)) {
+            liveScreenAreas.remove(onDraw);
+            statistics.removeComponent(onDraw);
             recalculateDrawingArea();
+        }
     }
 
     @Override
@@ -126,6 +325,7 @@ public class MainRenderer extends JLabel implements Observer<WorldTranslationHan
     }
 
     private void recalculateDrawingArea() {
+        staticLayerCache.clear();
         drawingArea = new Dimension();
         worldComponents.forEach(component -> {
             if (!(component instanceof SizeDefiningRenderingComponent sc))
@@ -136,6 +336,75 @@ public class MainRenderer extends JLabel implements Observer<WorldTranslationHan
             drawingArea = new Dimension((int) Math.max(drawingArea.getWidth(), compDrawSize.getWidth()),
                     (int) Math.max(drawingArea.getHeight(), compDrawSize.getHeight()));
         });
+        revalidate();
+    }
+
+    /**
+     * Enables or disables keeping static layers in offscreen buffers. Without it,
+     * every layer gets drawn again on every repaint.
+     */
+    public void setLayerCachingEnabled(boolean isEnabled) {
+        if (isLayerCachingEnabled == isEnabled)
+            return;
+
+        isLayerCachingEnabled = isEnabled;
+        if (!isEnabled)
+            staticLayerCache.clear();
+        scheduleRedraw();
+    }
+
+    public boolean isLayerCachingEnabled() {
+        return isLayerCachingEnabled;
+    }
+
+    /**
+     * Enables or disables painting the changed areas synchronously with every
+     * flush, instead of handing them to swings repaint manager, which merges
+     * them and paints them whenever it gets to it. Frames still go through the
+     * regular double buffer of swing.
+     */
+    public void setImmediateRenderingEnabled(boolean isEnabled) {
+        if (isImmediateRenderingEnabled == isEnabled)
+            return;
+
+        isImmediateRenderingEnabled = isEnabled;
+        scheduleRedraw();
+    }
+
+    /**
+     * Makes every flush repaint the given screen area as a whole, for ui
+     * components showing values that change with every frame. Otherwise they
+     * would only be updated where something else changed, mixing old and new
+     * values.
+     * 
+     * @param source     the component showing the values
+     * @param screenArea the area it covers or null to stop updating it
+     */
+    public void setLiveScreenArea(RenderingComponent source, Rectangle screenArea) {
+        if (screenArea == null)
+            liveScreenAreas.remove(source);
+        else
+            liveScreenAreas.put(source, new Rectangle(screenArea));
+    }
+
+    public boolean isImmediateRenderingEnabled() {
+        return isImmediateRenderingEnabled;
+    }
+
+    /**
+     * @return Whether the last flush painted right away, false if it was handed
+     *         to swings repaint manager
+     */
+    public boolean wasLastFramePaintedImmediately() {
+        return wasLastFramePaintedImmediately;
+    }
+
+    public RenderStatistics getStatistics() {
+        return statistics;
+    }
+
+    public LayerCache getStaticLayerCache() {
+        return staticLayerCache;
     }
 
     public <T> T getComponentImplementing(Class<T> interfaceClass) {
@@ -20,6 +20,11 @@ public class MenubarComponent extends JMenuBar {
         MAP.add(createTextActionTrigger("Save", null, dataHolder.MAP_SAVE));
         MAP.add(createTextActionTrigger("Swap", null, dataHolder.MAP_SWAP));
 
+        var TABLE = new JMenu("Table");
+        TABLE.add(createTextActionTrigger("Host", null, dataHolder.TABLE_HOST));
+        TABLE.add(createTextActionTrigger("Join", null, dataHolder.TABLE_JOIN));
+        TABLE.add(createTextActionTrigger("Leave", null, dataHolder.TABLE_LEAVE));
+
         var TOKEN = new JMenu("Token");
         TOKEN.add(createTextActionTrigger("Create", null, dataHolder.TOKEN_CREATE));
         TOKEN.add(createTextActionTrigger("Edit", null, dataHolder.TOKEN_EDIT));
@@ -41,12 +46,28 @@ public class MenubarComponent extends JMenuBar {
         GRID_SUBMENU.add(createTextActionTrigger("Change Y Offset", null,
                 dataHolder.VIEW_GRID_OPEN_OFFSET_Y_DIALOG));
 
+        var FOG_SUBMENU = new JMenu("Fog of War");
+        FOG_SUBMENU.add(createCheckbox("Enable Fog", null, dataHolder.VIEW_FOG_ENABLED));
+        FOG_SUBMENU.add(createTextActionTrigger("Reveal All", null, dataHolder.VIEW_FOG_REVEAL_ALL));
+        FOG_SUBMENU.add(createTextActionTrigger("Hide All", null, dataHolder.VIEW_FOG_HIDE_ALL));
+
+        var LIGHTING_SUBMENU = new JMenu("Lighting");
+        LIGHTING_SUBMENU.add(createCheckbox("Enable Lighting", null, dataHolder.VIEW_LIGHTING_ENABLED));
+        LIGHTING_SUBMENU.add(createCheckbox("Edit Walls", null, dataHolder.VIEW_WALLS_EDITING));
+        LIGHTING_SUBMENU.add(createTextActionTrigger("Remove All Walls", null, dataHolder.VIEW_WALLS_CLEAR));
+
         var VIEW = new JMenu("View");
         VIEW.add(GRID_SUBMENU);
+        VIEW.add(FOG_SUBMENU);
+        VIEW.add(LIGHTING_SUBMENU);
+        VIEW.addSeparator();
+        VIEW.add(createCheckbox("Immediate Rendering", null, dataHolder.VIEW_IMMEDIATE_RENDERING));
+        VIEW.add(createCheckbox("Player Window", null, dataHolder.VIEW_PLAYER_WINDOW));
 
         add(MAP);
         add(TOKEN);
         add(VIEW);
+        add(TABLE);
     }
 
     public static JCheckBoxMenuItem createCheckbox(String name, Icon icon,
@@ -0,0 +1,317 @@
+package de.omegasystems.renderer;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.event.ComponentListener;
+import java.awt.event.KeyListener;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.awt.event.MouseWheelListener;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JFrame;
+import javax.swing.TransferHandler;
+
+import de.omegasystems.core.Animation;
+import de.omegasystems.core.FrameScheduler;
+import de.omegasystems.core.Renderer;
+import de.omegasystems.core.RenderingComponent;
+import de.omegasystems.core.SizeDefiningRenderingComponent;
+import de.omegasystems.core.TokenHandler;
+import de.omegasystems.core.ViewportRenderingComponent;
+import de.omegasystems.utility.ImageUtil;
+
+/**
+ * Renders the same components as the {@link MainRenderer} into images instead
+ * of onto the screen. It doesn't need a window or a display, so it also works
+ * with java.awt.headless=true, for example to export the map or to render
+ * thumbnails on a server.<br>
+ * <br>
+ * Frames are only drawn when asked for, so redraw requests are ignored and
+ * animations never advance. Components that read the settings of the running
+ * app have to be given their settings directly instead, see the constructor of
+ * GridComponent and TokenRendererComponent#bindSettings. Maps should be given
+ * as a decoded image, streamed maps only show the tiles that are loaded already.
+ */
+public class OffscreenRenderer implements Renderer {
+
+    /**
+     * Offscreen frames are single snapshots, there is nothing to animate.
+     */
+    private static class StillFrameScheduler implements FrameScheduler {
+
+        @Override
+        public void requestFrames(Animation animation) {
+        }
+
+        @Override
+        public void cancel(Animation animation) {
+        }
+
+        @Override
+        public boolean isRunning(Animation animation) {
+            return false;
+        }
+    }
+
+    private List<RenderingComponent> worldComponents = new ArrayList<>();
+    private List<RenderingComponent> uiComponents = new ArrayList<>();
+
+    private TranslationHandler translationHandler;
+    private FrameScheduler frameScheduler = new StillFrameScheduler();
+
+    private Dimension drawingArea = new Dimension();
+    private Dimension size;
+
+    private Color background = Color.BLACK;
+    private Color foreground = Color.BLACK;
+    private Font font = new Font(Font.DIALOG, Font.PLAIN, 12);
+
+    /**
+     * @param width  the width of the rendered images
+     * @param height the height of the rendered images
+     */
+    public OffscreenRenderer(int width, int height) {
+        setSize(width, height);
+        translationHandler = new TranslationHandler(this);
+    }
+
+    /**
+     * Renders the current view into a new image of the size of this renderer.
+     */
+    public BufferedImage render() {
+        BufferedImage image = ImageUtil.createCompatibleImage(size.width, size.height, Transparency.OPAQUE);
+        render(image);
+        return image;
+    }
+
+    /**
+     * Renders the current view into the given image, starting at its top left
+     * corner.
+     */
+    public void render(BufferedImage target) {
+        // A snapshot has to show the actual token images, not the placeholders
+        for (RenderingComponent component : worldComponents) {
+            if (component instanceof TokenHandler tokenHandler)
+                tokenHandler.getAllTokens().forEach(token -> token.awaitImage());
+        }
+
+        Graphics2D g = target.createGraphics();
+        g.setClip(0, 0, size.width, size.height);
+        g.setColor(background);
+        g.fillRect(0, 0, size.width, size.height);
+        // Nothing is shown live, so quality matters more than speed here
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.setColor(foreground);
+        g.setFont(font);
+
+        var oldForm = g.getTransform();
+        double scale = translationHandler.getScale();
+        Point2D.Double offset = translationHandler.getOffset();
+        g.translate(offset.x, offset.y);
+        g.scale(scale, scale);
+
+        Rectangle visibleWorldArea = translationHandler.getVisibleWorldArea(size);
+        for (RenderingComponent component : worldComponents)
+            drawComponent(component, g, visibleWorldArea);
+
+        g.setTransform(oldForm);
+        Rectangle visibleUIArea = new Rectangle(size);
+        for (RenderingComponent component : uiComponents)
+            drawComponent(component, g, visibleUIArea);
+
+        g.dispose();
+    }
+
+    /**
+     * Renders the given part of the world into a new image, scaled to fit and
+     * centered. The view of this renderer is changed accordingly.
+     *
+     * @param worldArea the area to render in world space coordinates
+     * @param width     the width of the image
+     * @param height    the height of the image
+     */
+    public BufferedImage renderWorldArea(Rectangle2D worldArea, int width, int height) {
+        if (worldArea == null || worldArea.isEmpty())
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] The world area to render must not be empty");
+
+        setSize(width, height);
+        double scale = Math.min(width / worldArea.getWidth(), height / worldArea.getHeight());
+        double offsetX = (width - worldArea.getWidth() * scale) / 2 - worldArea.getX() * scale;
+        double offsetY = (height - worldArea.getHeight() * scale) / 2 - worldArea.getY() * scale;
+        translationHandler.setView(scale, offsetX, offsetY);
+        return render();
+    }
+
+    private void drawComponent(RenderingComponent component, Graphics2D g, Rectangle visibleArea) {
+        if (component instanceof ViewportRenderingComponent vc)
+            vc.draw(g, drawingArea, visibleArea);
+        else
+            component.draw(g, drawingArea);
+    }
+
+    public void setSize(int width, int height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] The size must be positive, but was " + width + "x" + height);
+        this.size = new Dimension(width, height);
+    }
+
+    public void setBackground(Color background) {
+        this.background = background;
+    }
+
+    public void setForeground(Color foreground) {
+        this.foreground = foreground;
+    }
+
+    public void setFont(Font font) {
+        this.font = font;
+    }
+
+    @Override
+    public void addWorldRenderComponent(RenderingComponent onDraw) {
+        if (onDraw == null || worldComponents.contains(onDraw) || uiComponents.contains(onDraw))
+            return;
+        // Keep the components sorted by layer, in the order they were added otherwise
+        int index = worldComponents.size();
+        while (index > 0 && worldComponents.get(index - 1).getRenderLayer().compareTo(onDraw.getRenderLayer()) > 0)
+            index--;
+        worldComponents.add(index, onDraw);
+        onDraw.setRenderer(this);
+        recalculateDrawingArea();
+    }
+
+    @Override
+    public void removeWorldRenderComponent(RenderingComponent onDraw) {
+        if (worldComponents.remove(onDraw))
+            recalculateDrawingArea();
+    }
+
+    @Override
+    public void addUIRenderComponent(RenderingComponent onDraw) {
+        if (onDraw == null || worldComponents.contains(onDraw) || uiComponents.contains(onDraw))
+            return;
+        uiComponents.add(onDraw);
+        onDraw.setRenderer(this);
+    }
+
+    @Override
+    public void removeUIRenderComponent(RenderingComponent onDraw) {
+        uiComponents.remove(onDraw);
+    }
+
+    private void recalculateDrawingArea() {
+        drawingArea = new Dimension();
+        worldComponents.forEach(component -> {
+            if (!(component instanceof SizeDefiningRenderingComponent sc))
+                return;
+
+            var compDrawSize = sc.getDrawingSize();
+
+            drawingArea = new Dimension((int) Math.max(drawingArea.getWidth(), compDrawSize.getWidth()),
+                    (int) Math.max(drawingArea.getHeight(), compDrawSize.getHeight()));
+        });
+    }
+
+    // There is no input without a screen, so listeners are never called
+
+    @Override
+    public void addMouseListener(MouseListener l) {
+    }
+
+    @Override
+    public void addKeyListener(KeyListener l) {
+    }
+
+    @Override
+    public void addMouseMotionListener(MouseMotionListener l) {
+    }
+
+    @Override
+    public void addMouseWheelListener(MouseWheelListener l) {
+    }
+
+    @Override
+    public void addComponentListener(ComponentListener l) {
+    }
+
+    @Override
+    public void setTransferHandler(TransferHandler handler) {
+    }
+
+    // Frames are only rendered on demand, changes simply show up in the next one
+
+    @Override
+    public void scheduleRedraw() {
+    }
+
+    @Override
+    public void scheduleRedraw(Rectangle2D worldArea) {
+    }
+
+    @Override
+    public void scheduleRedraw(RenderingComponent source) {
+        if (source instanceof SizeDefiningRenderingComponent)
+            recalculateDrawingArea();
+    }
+
+    @Override
+    public void scheduleRedraw(RenderingComponent source, Rectangle2D worldArea) {
+    }
+
+    /**
+     * @return Always null, offscreen rendering has no window
+     */
+    @Override
+    public JFrame getFrame() {
+        return null;
+    }
+
+    @Override
+    public Dimension getDrawingDimensions() {
+        return drawingArea;
+    }
+
+    @Override
+    public Dimension getScreenSize() {
+        return new Dimension(size);
+    }
+
+    @Override
+    public TranslationHandler getTranslationhandler() {
+        return translationHandler;
+    }
+
+    @Override
+    public FrameScheduler getFrameScheduler() {
+        return frameScheduler;
+    }
+
+    @Override
+    public <T> T getComponentImplementing(Class<T> interfaceClass) {
+        for (RenderingComponent component : worldComponents) {
+            if (interfaceClass.isInstance(component)) {
+                return interfaceClass.cast(component);
+            }
+        }
+        for (RenderingComponent component : uiComponents) {
+            if (interfaceClass.isInstance(component)) {
+                return interfaceClass.cast(component);
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,131 @@
+package de.omegasystems.renderer;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.event.WindowListener;
+
+import javax.swing.JFrame;
+
+import de.omegasystems.core.MapTileSource;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.renderer.components.FogOfWarComponent;
+import de.omegasystems.renderer.components.GridComponent;
+import de.omegasystems.renderer.components.ImageComponent;
+import de.omegasystems.renderer.components.LightingComponent;
+import de.omegasystems.renderer.components.PlayerTokenComponent;
+import de.omegasystems.renderer.components.TokenRendererComponent;
+
+/**
+ * A second window showing the scene to the players, for example on a TV. It
+ * can be zoomed and panned independently of the main window, but shows
+ * nothing only meant for the game master: no tooltips, no selection, no debug
+ * information, nothing hidden by the fog of war and nothing no token sees.<br>
+ * <br>
+ * Both windows render the same model. The map tile source (with its decoded
+ * tiles), the grid settings and the tokens (with their images, layouts and
+ * sprites) and what the tokens see exist only once, only the view state like
+ * the zoom and the layer cache is kept per window. Each window has its own
+ * renderer, so both repaint just the areas that changed in their own view.<br>
+ * <br>
+ * The window is meant to be created once and then shown and hidden, hiding it
+ * keeps everything set up for the next time.
+ */
+public class PlayerView {
+
+    private final JFrame frame;
+    private final MainRenderer renderer;
+    private final ImageComponent mapComponent;
+    private final PlayerTokenComponent tokenComponent;
+    private final FogOfWarComponent fogComponent;
+
+    /**
+     * @param map          the map to show initially, usually the one of the
+     *                     active scene
+     * @param settings     the attributes holding grid and token settings
+     * @param tokenHandler the token handler of the main window
+     * @param lighting     the lighting engine of the main window
+     */
+    public PlayerView(MapTileSource map, MenubarAttributeHolder settings, TokenRendererComponent tokenHandler,
+            LightingEngine lighting) {
+        if (map == null || settings == null || tokenHandler == null || lighting == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Map, settings, token handler and lighting engine are required");
+
+        frame = new JFrame("TTRPG Map Manager - Players");
+        frame.setBackground(Color.WHITE);
+        frame.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+
+        renderer = new MainRenderer();
+        frame.add(renderer);
+
+        mapComponent = new ImageComponent(map);
+        renderer.addWorldRenderComponent(mapComponent);
+        renderer.addWorldRenderComponent(new GridComponent(settings));
+        tokenComponent = new PlayerTokenComponent(tokenHandler);
+        renderer.addWorldRenderComponent(tokenComponent);
+        renderer.addWorldRenderComponent(new LightingComponent(settings, lighting, false));
+        fogComponent = new FogOfWarComponent(settings, false);
+        renderer.addWorldRenderComponent(fogComponent);
+
+        placeOnSecondaryScreen();
+    }
+
+    /**
+     * Covers the second screen if there is one, so it can be put on the TV right
+     * away. Otherwise it opens as a normal window next to the main one.
+     */
+    private void placeOnSecondaryScreen() {
+        GraphicsDevice[] screens = GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices();
+        GraphicsDevice primary = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
+        for (GraphicsDevice screen : screens) {
+            if (screen == primary)
+                continue;
+            frame.setBounds(screen.getDefaultConfiguration().getBounds());
+            return;
+        }
+
+        frame.setPreferredSize(new Dimension(800, 600));
+        frame.pack();
+        frame.setLocationByPlatform(true);
+    }
+
+    public void setVisible(boolean isVisible) {
+        if (frame.isVisible() == isVisible)
+            return;
+        frame.setVisible(isVisible);
+        if (isVisible)
+            renderer.scheduleRedraw();
+    }
+
+    public boolean isVisible() {
+        return frame.isVisible();
+    }
+
+    public void addWindowListener(WindowListener l) {
+        frame.addWindowListener(l);
+    }
+
+    public MainRenderer getRenderer() {
+        return renderer;
+    }
+
+    /**
+     * @return The map component of this window, to let it follow scene changes
+     */
+    public ImageComponent getMapComponent() {
+        return mapComponent;
+    }
+
+    public PlayerTokenComponent getTokenComponent() {
+        return tokenComponent;
+    }
+
+    /**
+     * @return The fog component of this window, to let it follow scene changes
+     */
+    public FogOfWarComponent getFogComponent() {
+        return fogComponent;
+    }
+}
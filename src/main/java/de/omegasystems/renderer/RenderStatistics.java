@@ -0,0 +1,144 @@
+package de.omegasystems.renderer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.omegasystems.core.RenderingComponent;
+import de.omegasystems.utility.RollingTimings;
+
+/**
+ * Collects timings and counters of the renderer, like how long frames and the
+ * single components take to draw and how many redraws are requested compared
+ * to the frames actually painted.<br>
+ * <br>
+ * Recording doesn't allocate, so the statistics can stay enabled during real
+ * sessions. Everything is meant to be used from the EDT only.
+ */
+public class RenderStatistics {
+
+    public static final int SAMPLE_COUNT = 240;
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    public static class ComponentTimings {
+        private final String name;
+        private final RollingTimings timings = new RollingTimings(SAMPLE_COUNT);
+
+        private ComponentTimings(RenderingComponent component) {
+            this.name = component.getClass().getSimpleName();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public RollingTimings getTimings() {
+            return timings;
+        }
+    }
+
+    private final RollingTimings frameTimes = new RollingTimings(SAMPLE_COUNT);
+    private final Map<RenderingComponent, ComponentTimings> componentTimings = new IdentityHashMap<>();
+    private final List<ComponentTimings> orderedComponentTimings = new ArrayList<>();
+    private final List<ComponentTimings> componentTimingsView = Collections
+            .unmodifiableList(orderedComponentTimings);
+
+    // Counters of the running second and the results of the last complete one
+    private long windowStart = System.nanoTime();
+    private int paints = 0;
+    private int redrawRequests = 0;
+    private int flushes = 0;
+    private int paintsPerSecond = 0;
+    private int redrawRequestsPerSecond = 0;
+    private int flushesPerSecond = 0;
+
+    public void addComponent(RenderingComponent component) {
+        if (componentTimings.containsKey(component))
+            return;
+
+        ComponentTimings timings = new ComponentTimings(component);
+        componentTimings.put(component, timings);
+        orderedComponentTimings.add(timings);
+    }
+
+    public void removeComponent(RenderingComponent component) {
+        ComponentTimings timings = componentTimings.remove(component);
+        if (timings != null)
+            orderedComponentTimings.remove(timings);
+    }
+
+    public void recordFrame(long nanos) {
+        frameTimes.record(nanos);
+        paints++;
+        updateWindow(System.nanoTime());
+    }
+
+    public void recordComponentDraw(RenderingComponent component, long nanos) {
+        ComponentTimings timings = componentTimings.get(component);
+        if (timings != null)
+            timings.timings.record(nanos);
+    }
+
+    /**
+     * Counts a call to one of the scheduleRedraw methods.
+     */
+    public void recordRedrawRequest() {
+        redrawRequests++;
+        updateWindow(System.nanoTime());
+    }
+
+    /**
+     * Counts the coalesced redraw requests actually handed on to be painted.
+     */
+    public void recordFlush() {
+        flushes++;
+        updateWindow(System.nanoTime());
+    }
+
+    private void updateWindow(long now) {
+        long elapsed = now - windowStart;
+        if (elapsed < NANOS_PER_SECOND)
+            return;
+
+        // Windows without any events in between count as empty seconds
+        boolean isLastSecond = elapsed < 2 * NANOS_PER_SECOND;
+        paintsPerSecond = isLastSecond ? paints : 0;
+        redrawRequestsPerSecond = isLastSecond ? redrawRequests : 0;
+        flushesPerSecond = isLastSecond ? flushes : 0;
+        paints = 0;
+        redrawRequests = 0;
+        flushes = 0;
+        windowStart = now;
+    }
+
+    public RollingTimings getFrameTimes() {
+        return frameTimes;
+    }
+
+    /**
+     * @return The timings of all world and ui components, in the order they were
+     *         added
+     */
+    public List<ComponentTimings> getComponentTimings() {
+        return componentTimingsView;
+    }
+
+    public int getPaintsPerSecond() {
+        updateWindow(System.nanoTime());
+        return paintsPerSecond;
+    }
+
+    public int getRedrawRequestsPerSecond() {
+        updateWindow(System.nanoTime());
+        return redrawRequestsPerSecond;
+    }
+
+    public int getFlushesPerSecond() {
+        updateWindow(System.nanoTime());
+        return flushesPerSecond;
+    }
+
+}
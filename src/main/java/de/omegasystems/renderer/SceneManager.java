@@ -0,0 +1,334 @@
+package de.omegasystems.renderer;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.omegasystems.core.MapTileSource;
+import de.omegasystems.core.Renderer;
+import de.omegasystems.core.Token;
+import de.omegasystems.core.TokenHandler;
+import de.omegasystems.core.WorldTranslationHandler;
+import de.omegasystems.dataobjects.FogOfWar;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.dataobjects.SceneData;
+import de.omegasystems.dataobjects.Walls;
+import de.omegasystems.renderer.components.FogOfWarComponent;
+import de.omegasystems.renderer.components.ImageComponent;
+
+/**
+ * Keeps several scenes (map, tokens, grid settings, fog of war, walls and view)
+ * open at the same time and switches the renderer between them.<br>
+ * <br>
+ * Inactive scenes keep their map source and their token objects, including the
+ * decoded token images, so switching back to them doesn't load anything.
+ * Opening a scene starts decoding the map tiles it will show first in the
+ * background. Swapping exchanges map, settings and tokens within a single call
+ * on the EDT, so the next frame already shows the complete new scene.
+ */
+public class SceneManager {
+
+    public static class Scene {
+        private String name;
+        private MapTileSource map;
+        private File mapFile;
+        private SceneData settings;
+        private List<Token> tokens = new ArrayList<>();
+        private FogOfWar fog;
+        private Walls walls = new Walls();
+
+        // The view to restore, NaN until the scene was shown once
+        private double scale = Double.NaN;
+        private double offsetX;
+        private double offsetY;
+
+        private Scene(String name, MapTileSource map, File mapFile) {
+            this.name = name;
+            this.map = map;
+            this.mapFile = mapFile;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public MapTileSource getMap() {
+            return map;
+        }
+
+        public FogOfWar getFog() {
+            return fog;
+        }
+
+        public Walls getWalls() {
+            return walls;
+        }
+
+        /**
+         * @return The file the map was loaded from or null if it wasn't loaded from
+         *         a file
+         */
+        public File getMapFile() {
+            return mapFile;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final Renderer renderer;
+    private final ImageComponent mapComponent;
+    private final TokenHandler tokenHandler;
+    private final MenubarAttributeHolder settings;
+
+    private final List<Scene> scenes = new ArrayList<>();
+    private Scene activeScene;
+    // Components of other views showing the map of the active scene
+    private final List<ImageComponent> mapViews = new ArrayList<>();
+    private final List<FogOfWarComponent> fogViews = new ArrayList<>();
+    private LightingEngine lightingEngine;
+    // Settings change one by one while swapping, the fog only follows the result
+    private boolean isSwapping = false;
+
+    /**
+     * Takes over the scene currently shown by the given components as the active
+     * one.
+     *
+     * @param name    the name of the current scene
+     * @param mapFile the file of the current map or null
+     */
+    public SceneManager(Renderer renderer, ImageComponent mapComponent, TokenHandler tokenHandler,
+            MenubarAttributeHolder settings, String name, File mapFile) {
+        if (renderer == null || mapComponent == null || tokenHandler == null || settings == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Renderer, map component, token handler and settings are required");
+        this.renderer = renderer;
+        this.mapComponent = mapComponent;
+        this.tokenHandler = tokenHandler;
+        this.settings = settings;
+
+        activeScene = new Scene(name, mapComponent.getTileSource(), mapFile);
+        activeScene.fog = createFog(activeScene.map);
+        scenes.add(activeScene);
+
+        settings.VIEW_GRID_SCALE.addObserver(val -> updateFogGrid());
+        settings.VIEW_GRID_OFFSET_X.addObserver(val -> updateFogGrid());
+        settings.VIEW_GRID_OFFSET_Y.addObserver(val -> updateFogGrid());
+    }
+
+    private FogOfWar createFog(MapTileSource map) {
+        return new FogOfWar(map.getSize(), settings.VIEW_GRID_SCALE.getValue(),
+                settings.VIEW_GRID_OFFSET_X.getValue(), settings.VIEW_GRID_OFFSET_Y.getValue());
+    }
+
+    /**
+     * Keeps the fog cells of the active scene aligned with the grid.
+     */
+    private void updateFogGrid() {
+        if (isSwapping)
+            return;
+        activeScene.fog.setGrid(settings.VIEW_GRID_SCALE.getValue(), settings.VIEW_GRID_OFFSET_X.getValue(),
+                settings.VIEW_GRID_OFFSET_Y.getValue());
+    }
+
+    /**
+     * Opens a scene in the background without showing it. Its map tiles and
+     * token images start loading right away.
+     *
+     * @param name  the name to show for the scene
+     * @param map   the map of the scene
+     * @param scene the settings, tokens, walls and fog of the scene, or null to
+     *              start empty with the settings of the active scene
+     */
+    public Scene openScene(String name, MapTileSource map, File mapFile, SceneData scene) {
+        if (map == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Map was null while opening the scene '" + name + "'");
+
+        Scene opened = new Scene(name, map, mapFile);
+        if (scene != null) {
+            opened.settings = scene;
+            opened.tokens.addAll(scene.createTokens(tokenHandler));
+            opened.walls.setAll(scene.getWalls());
+        } else {
+            opened.settings = SceneData.captureSettings(mapFile, settings);
+        }
+        // On the grid of the scene, so showing it doesn't move the revealed cells
+        opened.fog = new FogOfWar(map.getSize(), opened.settings.getGridScale(), opened.settings.getGridOffsetX(),
+                opened.settings.getGridOffsetY());
+        if (scene != null)
+            scene.applyFog(opened.fog);
+        scenes.add(opened);
+        preload(opened);
+        return opened;
+    }
+
+    /**
+     * Shows the given scene instead of the active one. Has to be called on the
+     * EDT.
+     */
+    public void swapTo(Scene scene) {
+        if (scene == null || scene == activeScene || !scenes.contains(scene))
+            return;
+
+        // Park the active scene exactly as it is
+        Scene previous = activeScene;
+        previous.settings = SceneData.captureSettings(previous.mapFile, settings);
+        previous.tokens = tokenHandler.getAllTokens();
+        WorldTranslationHandler view = renderer.getTranslationhandler();
+        previous.scale = view.getScale();
+        previous.offsetX = view.getOffset().x;
+        previous.offsetY = view.getOffset().y;
+
+        tokenHandler.beginBatch();
+        isSwapping = true;
+        try {
+            for (Token token : previous.tokens)
+                tokenHandler.removeToken(token);
+
+            activeScene = scene;
+            showMap(scene.map);
+            showFog(scene.fog);
+            showWalls(scene.walls);
+            scene.settings.applySettings(settings);
+            for (Token token : scene.tokens)
+                tokenHandler.addToken(token);
+        } finally {
+            isSwapping = false;
+            tokenHandler.commitBatch();
+        }
+        updateFogGrid();
+        // The handler owns the tokens while the scene is active
+        scene.tokens = new ArrayList<>();
+
+        if (view instanceof TranslationHandler translationHandler) {
+            if (Double.isNaN(scene.scale))
+                translationHandler.setView(view.getScale(), 0, 0);
+            else
+                translationHandler.setView(scene.scale, scene.offsetX, scene.offsetY);
+        }
+
+        // Keep the parked scene warm, in case the next swap goes back
+        preload(previous);
+    }
+
+    /**
+     * Replaces the map of the active scene, for example after loading a scene
+     * file into it. The previous map is released.
+     */
+    public void setActiveMap(MapTileSource map, File mapFile) {
+        MapTileSource previous = activeScene.map;
+        activeScene.map = map;
+        activeScene.mapFile = mapFile;
+        showMap(map);
+        // Revealed cells and walls can't be carried over to a map of another size
+        if (!map.getSize().equals(previous.getSize())) {
+            activeScene.fog = createFog(map);
+            showFog(activeScene.fog);
+            // Cleared rather than replaced, so everyone following them keeps doing so
+            activeScene.walls.clear();
+        }
+        if (previous != map)
+            previous.dispose();
+    }
+
+    private void showMap(MapTileSource map) {
+        mapComponent.setTileSource(map);
+        for (ImageComponent mapView : mapViews)
+            mapView.setTileSource(map);
+    }
+
+    /**
+     * Lets another map component follow the map of the active scene, for example
+     * the one of the player view. Both share the same tile source and with it the
+     * decoded tiles.
+     */
+    public void addMapView(ImageComponent mapView) {
+        if (mapView == null || mapViews.contains(mapView))
+            return;
+        mapViews.add(mapView);
+        mapView.setTileSource(activeScene.map);
+    }
+
+    public void removeMapView(ImageComponent mapView) {
+        mapViews.remove(mapView);
+    }
+
+    private void showFog(FogOfWar fog) {
+        for (FogOfWarComponent fogView : fogViews)
+            fogView.setFog(fog);
+    }
+
+    /**
+     * Lets a fog component follow the fog of war of the active scene. Every view
+     * shows the same fog, each with its own mask.
+     */
+    public void addFogView(FogOfWarComponent fogView) {
+        if (fogView == null || fogViews.contains(fogView))
+            return;
+        fogViews.add(fogView);
+        fogView.setFog(activeScene.fog);
+    }
+
+    public void removeFogView(FogOfWarComponent fogView) {
+        fogViews.remove(fogView);
+    }
+
+    private void showWalls(Walls walls) {
+        if (lightingEngine != null)
+            lightingEngine.setWalls(walls);
+    }
+
+    /**
+     * Lets the lighting engine follow the walls of the active scene.
+     */
+    public void setLightingEngine(LightingEngine lightingEngine) {
+        this.lightingEngine = lightingEngine;
+        showWalls(activeScene.walls);
+    }
+
+    /**
+     * Closes an inactive scene and releases its map. The active scene cannot be
+     * closed.
+     */
+    public void closeScene(Scene scene) {
+        if (scene == null || scene == activeScene || !scenes.remove(scene))
+            return;
+        scene.map.dispose();
+        scene.tokens.clear();
+    }
+
+    /**
+     * Starts decoding the tiles the scene will show first when swapped to: the
+     * coarsest level of the whole map and the part covered by its last view.
+     */
+    private void preload(Scene scene) {
+        MapTileSource map = scene.map;
+        Dimension mapSize = map.getSize();
+        map.preload(map.getLevelCount() - 1, new Rectangle(mapSize));
+
+        // Scenes shown for the first time start at the top left with the current zoom
+        double scale = Double.isNaN(scene.scale) ? renderer.getTranslationhandler().getScale() : scene.scale;
+        Point2D.Double offset = Double.isNaN(scene.scale) ? new Point2D.Double()
+                : new Point2D.Double(scene.offsetX, scene.offsetY);
+        Dimension screenSize = renderer.getScreenSize();
+        Rectangle visibleArea = new Rectangle((int) Math.floor(-offset.x / scale), (int) Math.floor(-offset.y / scale),
+                (int) Math.ceil(screenSize.width / scale) + 1, (int) Math.ceil(screenSize.height / scale) + 1);
+        map.preload(map.selectLevel(scale), visibleArea);
+    }
+
+    public Scene getActiveScene() {
+        return activeScene;
+    }
+
+    public List<Scene> getScenes() {
+        return Collections.unmodifiableList(scenes);
+    }
+
+}
@@ -0,0 +1,126 @@
+package de.omegasystems.renderer;
+
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import de.omegasystems.utility.ImageUtil;
+import de.omegasystems.utility.LruCache;
+
+/**
+ * Caches images pre-scaled to the size they actually cover on screen, so that
+ * large images don't have to be scaled down again on every frame.<br>
+ * <br>
+ * Requested sizes are rounded up to buckets growing by roughly 19% each, which
+ * keeps the amount of sprites created during a zoom low while the remaining
+ * scaling at draw time stays small. Sprites are stored in the native format of
+ * the screen, which lets Java2D keep them in video memory.<br>
+ * <br>
+ * Sprites don't keep their source image alive. Once a source is gone, its
+ * sprites are never requested again and get evicted like any other unused
+ * entry.
+ */
+public class SpriteCache {
+
+    private static final double BUCKET_GROWTH = Math.pow(2, 0.25);
+    private static final int MIN_SPRITE_SIZE = 8;
+
+    // Identifies a source image without referencing it
+    private static class SourceHandle {
+    }
+
+    private record SpriteKey(SourceHandle source, int bucket) {
+    }
+
+    private final LruCache<SpriteKey, BufferedImage> cache;
+    // Images compare by identity, guarded by itself
+    private final Map<Image, SourceHandle> handles = new WeakHashMap<>();
+
+    public SpriteCache(long maxBytes) {
+        cache = new LruCache<>(maxBytes, img -> (long) img.getWidth() * img.getHeight() * 4);
+    }
+
+    /**
+     * Returns the given image scaled so that its larger side is at least
+     * <code>pixelSize</code> pixels.
+     *
+     * @param source    the full resolution image
+     * @param pixelSize the size in screen pixels the image will be drawn at
+     * @return A cached sprite or the source itself if it isn't larger than the
+     *         requested size anyway
+     */
+    public Image getSprite(Image source, double pixelSize) {
+        int sourceSize = Math.max(source.getWidth(null), source.getHeight(null));
+        int bucket = getBucket(pixelSize);
+        int bucketSize = getBucketSize(bucket);
+        if (sourceSize <= 0 || bucketSize >= sourceSize)
+            return source;
+
+        SourceHandle handle = getHandle(source);
+        SpriteKey key = new SpriteKey(handle, bucket);
+        BufferedImage sprite = cache.get(key);
+        if (sprite == null) {
+            sprite = createSprite(source, handle, bucket, bucketSize);
+            cache.put(key, sprite);
+        }
+        return sprite;
+    }
+
+    private SourceHandle getHandle(Image source) {
+        synchronized (handles) {
+            return handles.computeIfAbsent(source, img -> new SourceHandle());
+        }
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public LruCache<?, BufferedImage> getCache() {
+        return cache;
+    }
+
+    private BufferedImage createSprite(Image source, SourceHandle handle, int bucket, int bucketSize) {
+        // Scaling down a slightly larger sprite is both cheap and good looking. This
+        // is the common case while zooming out
+        for (int larger = bucket + 1; larger <= bucket + 4; larger++) {
+            BufferedImage largerSprite = cache.get(new SpriteKey(handle, larger));
+            if (largerSprite != null)
+                return scale(largerSprite, bucketSize);
+        }
+
+        // Otherwise halve the image until it is close to the target, a single big
+        // bilinear step would skip most of the source pixels and alias badly
+        Image current = source;
+        int currentSize = Math.max(source.getWidth(null), source.getHeight(null));
+        while (currentSize / 2 >= bucketSize) {
+            current = scale(current, currentSize / 2);
+            currentSize /= 2;
+        }
+        return scale(current, bucketSize);
+    }
+
+    private BufferedImage scale(Image image, int targetSize) {
+        int width = image.getWidth(null);
+        int height = image.getHeight(null);
+        double factor = (double) targetSize / Math.max(width, height);
+        int scaledWidth = Math.max(1, (int) Math.round(width * factor));
+        int scaledHeight = Math.max(1, (int) Math.round(height * factor));
+
+        int transparency = image instanceof BufferedImage bi ? bi.getTransparency() : Transparency.TRANSLUCENT;
+        return ImageUtil.copyScaled(image, 0, 0, width, height, scaledWidth, scaledHeight, transparency);
+    }
+
+    private static int getBucket(double pixelSize) {
+        double size = Math.max(pixelSize, MIN_SPRITE_SIZE);
+        // The small epsilon keeps exact bucket sizes from slipping into the next bucket
+        return (int) Math.ceil(Math.log(size / MIN_SPRITE_SIZE) / Math.log(BUCKET_GROWTH) - 1e-9);
+    }
+
+    private static int getBucketSize(int bucket) {
+        return (int) Math.ceil(MIN_SPRITE_SIZE * Math.pow(BUCKET_GROWTH, bucket));
+    }
+
+}
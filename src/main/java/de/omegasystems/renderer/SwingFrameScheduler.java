@@ -0,0 +1,68 @@
+package de.omegasystems.renderer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.Timer;
+
+import de.omegasystems.core.Animation;
+import de.omegasystems.core.FrameScheduler;
+
+/**
+ * A {@link FrameScheduler} backed by a single swing timer, meaning all
+ * animations get advanced on the EDT. The timer gets stopped as soon as the
+ * last animation finished.
+ */
+public class SwingFrameScheduler implements FrameScheduler {
+
+    public static final int FRAME_INTERVAL = 16; // Interval in milliseconds
+
+    private List<Animation> animations = new ArrayList<>();
+    private Timer frameTimer;
+    private long lastFrameTime;
+
+    public SwingFrameScheduler() {
+        frameTimer = new Timer(FRAME_INTERVAL, e -> tick());
+        frameTimer.setRepeats(true);
+    }
+
+    @Override
+    public void requestFrames(Animation animation) {
+        if (animation == null || animations.contains(animation))
+            return;
+
+        animations.add(animation);
+        if (!frameTimer.isRunning()) {
+            lastFrameTime = System.nanoTime() - FRAME_INTERVAL * 1_000_000L;
+            frameTimer.start();
+        }
+    }
+
+    @Override
+    public void cancel(Animation animation) {
+        animations.remove(animation);
+        if (animations.isEmpty())
+            frameTimer.stop();
+    }
+
+    @Override
+    public boolean isRunning(Animation animation) {
+        return animations.contains(animation);
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        double deltaMillis = (now - lastFrameTime) / 1_000_000.0;
+        lastFrameTime = now;
+
+        // Iterate over a copy, animations may start or cancel others while running
+        for (Animation animation : new ArrayList<>(animations)) {
+            if (animations.contains(animation) && !animation.animate(deltaMillis))
+                animations.remove(animation);
+        }
+
+        if (animations.isEmpty())
+            frameTimer.stop();
+    }
+
+}
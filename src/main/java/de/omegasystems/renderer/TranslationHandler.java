@@ -9,20 +9,28 @@ import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.geom.Point2D;
 
-import javax.swing.Timer;
-
+import de.omegasystems.core.Animation;
 import de.omegasystems.core.Renderer;
 import de.omegasystems.core.WorldTranslationHandler;
 
 public class TranslationHandler implements WorldTranslationHandler {
 
+    // Once the transform is closer than this to its target, the animation stops
+    private static final double SCALE_EPSILON = 0.0001;
+    private static final double OFFSET_EPSILON = 0.1;
+    // The fraction of the remaining distance covered within one 16ms frame
+    private static final double SMOOTHING = 0.1;
+
     private Renderer renderer;
     private double scale = 1.0;
     private double targetScale = 1.0;
     private Point2D.Double offset = new Point2D.Double(0, 0);
+    // The offset rounded to whole pixels, which is what gets drawn. Keeps cached
+    // and live layers aligned and hit-testing in line with what is shown
+    private Point2D.Double roundedOffset = new Point2D.Double(0, 0);
     private Point2D.Double targetOffset = new Point2D.Double(0, 0);
     private Point lastDragPoint;
-    private Timer animationTimer;
+    private Animation transitionAnimation = this::update;
 
     // Sensitivity control variables
     public double scrollSensitivity = 10.0;
@@ -97,20 +105,30 @@ public class TranslationHandler implements WorldTranslationHandler {
 
             @Override
             public void componentResized(ComponentEvent e) {
-                update();
+                renderer.scheduleRedraw();
             }
         });
-
-        animationTimer = new Timer(16, e -> update());
-        animationTimer.start();
     }
 
-    public void update() {
-        // Interpolate scale and offsets
-        scale = lerp(scale, targetScale, 0.1);
-        offset.x = lerp(offset.x, targetOffset.x, 0.1);
-        offset.y = lerp(offset.y, targetOffset.y, 0.1);
+    private boolean update(double deltaMillis) {
+        // Interpolate scale and offsets, independent of the actual frame rate
+        double t = 1 - Math.pow(1 - SMOOTHING, deltaMillis / SwingFrameScheduler.FRAME_INTERVAL);
+        scale = lerp(scale, targetScale, t);
+        offset.x = lerp(offset.x, targetOffset.x, t);
+        offset.y = lerp(offset.y, targetOffset.y, t);
+
+        boolean hasConverged = Math.abs(scale - targetScale) < SCALE_EPSILON
+                && Math.abs(offset.x - targetOffset.x) < OFFSET_EPSILON
+                && Math.abs(offset.y - targetOffset.y) < OFFSET_EPSILON;
+        if (hasConverged) {
+            scale = targetScale;
+            offset.x = targetOffset.x;
+            offset.y = targetOffset.y;
+        }
+        roundOffset();
+
         renderer.scheduleRedraw();
+        return !hasConverged;
     }
 
     private double clampScale(double newScale) {
@@ -149,6 +167,27 @@ public class TranslationHandler implements WorldTranslationHandler {
         } else if (targetOffset.y < viewHeight - imageHeight) {
             targetOffset.y = viewHeight - imageHeight;
         }
+
+        // Every change of the targets ends up here, so start moving towards them
+        renderer.getFrameScheduler().requestFrames(transitionAnimation);
+    }
+
+    /**
+     * Jumps to the given zoom and offset right away, without animating towards
+     * them or clamping them to the map.
+     */
+    public void setView(double scale, double offsetX, double offsetY) {
+        renderer.getFrameScheduler().cancel(transitionAnimation);
+        this.scale = scale;
+        this.targetScale = scale;
+        offset.setLocation(offsetX, offsetY);
+        targetOffset.setLocation(offsetX, offsetY);
+        roundOffset();
+        renderer.scheduleRedraw();
+    }
+
+    private void roundOffset() {
+        roundedOffset.setLocation(Math.round(offset.x), Math.round(offset.y));
     }
 
     private double lerp(double start, double end, double t) {
@@ -162,13 +201,13 @@ public class TranslationHandler implements WorldTranslationHandler {
 
     @Override
     public Point2D.Double getOffset() {
-        return offset;
+        return roundedOffset;
     }
 
     @Override
     public Point getWorldCoordinateFormUISpace(Point uiPoint) {
-        double worldX = (uiPoint.getX() - offset.x) / scale;
-        double worldY = (uiPoint.getY() - offset.y) / scale;
+        double worldX = (uiPoint.getX() - roundedOffset.x) / scale;
+        double worldY = (uiPoint.getY() - roundedOffset.y) / scale;
         return new Point((int) worldX, (int) worldY);
     }
 }
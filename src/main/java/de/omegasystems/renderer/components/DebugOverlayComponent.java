@@ -3,31 +3,188 @@ package de.omegasystems.renderer.components;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
 
 import de.omegasystems.core.Renderer;
 import de.omegasystems.core.RenderingComponent;
+import de.omegasystems.renderer.LayerCache;
+import de.omegasystems.renderer.MainRenderer;
+import de.omegasystems.renderer.RenderStatistics;
+import de.omegasystems.utility.ImageLoader;
+import de.omegasystems.utility.LruCache;
+import de.omegasystems.utility.RollingTimings;
 
+/**
+ * Shows frame timings, redraw rates and cache statistics of the renderer in the
+ * top left corner.<br>
+ * <br>
+ * The text is assembled in reused buffers and drawn as characters, so within
+ * the main window the overlay itself doesn't allocate anything per frame and
+ * can stay enabled during real sessions. Its area is repainted with every flush of the
+ * renderer, so it neither goes stale nor mixes the values of several frames.
+ */
 public class DebugOverlayComponent implements RenderingComponent {
+
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    // Opaque on purpose, translucent fills allocate on the software pipelines
+    private static final Color BACKGROUND = new Color(24, 24, 24);
+    private static final int PADDING = 6;
+
     private Renderer renderer;
+    private RenderStatistics statistics;
+
+    private final List<StringBuilder> lines = new ArrayList<>();
+    private int lineCount = 0;
+    private char[] characters = new char[128];
+    private final Rectangle bounds = new Rectangle();
 
     @Override
     public void draw(Graphics2D g, Dimension size) {
-        if (renderer != null) {
-            Dimension drawingDimensions = renderer.getDrawingDimensions();
+        if (renderer == null)
+            return;
+
+        lineCount = 0;
+        // The size given is the drawing area, asking the renderer would copy it
+        nextLine().append("Drawing Dimensions: ").append(size.width).append('x').append(size.height);
+        StringBuilder screenLine = nextLine().append("Screen Size: ");
+        if (renderer instanceof MainRenderer mainRenderer) {
+            screenLine.append(mainRenderer.getWidth()).append('x').append(mainRenderer.getHeight());
+        } else {
             Dimension screenSize = renderer.getScreenSize();
+            screenLine.append(screenSize.width).append('x').append(screenSize.height);
+        }
+
+        if (statistics != null)
+            appendStatistics();
+
+        g.setFont(FONT);
+        FontMetrics metrics = g.getFontMetrics();
+        int lineHeight = metrics.getHeight();
+        int width = 0;
+        for (int i = 0; i < lineCount; i++)
+            width = Math.max(width, metrics.charsWidth(toCharacters(lines.get(i)), 0, lines.get(i).length()));
+
+        updateBounds(10 - PADDING, 10 - PADDING, width + PADDING * 2, lineHeight * lineCount + PADDING * 2);
+        g.setColor(BACKGROUND);
+        g.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < lineCount; i++) {
+            StringBuilder line = lines.get(i);
+            g.drawChars(toCharacters(line), 0, line.length(), 10, 10 + metrics.getAscent() + i * lineHeight);
+        }
+    }
+
+    private void updateBounds(int x, int y, int width, int height) {
+        if (bounds.x == x && bounds.y == y && bounds.width == width && bounds.height == height)
+            return;
+        // Includes the old area, which has to be cleared when the overlay shrinks
+        Rectangle liveArea = new Rectangle(x, y, width, height);
+        if (!bounds.isEmpty())
+            liveArea.add(bounds);
+        if (renderer instanceof MainRenderer mainRenderer)
+            mainRenderer.setLiveScreenArea(this, liveArea);
+        bounds.setBounds(x, y, width, height);
+    }
+
+    private void appendStatistics() {
+        RollingTimings frameTimes = statistics.getFrameTimes();
+        frameTimes.snapshot();
+        StringBuilder line = nextLine().append("Frame ms   last ");
+        appendMillis(line, frameTimes.getLastSample());
+        appendPercentiles(line, frameTimes);
 
-            // Set the font
-            g.setFont(new Font("Arial", Font.PLAIN, 12));
+        nextLine().append("Paints/s ").append(statistics.getPaintsPerSecond())
+                .append("  Requests/s ").append(statistics.getRedrawRequestsPerSecond())
+                .append("  Flushes/s ").append(statistics.getFlushesPerSecond());
+
+        var componentTimings = statistics.getComponentTimings();
+        for (int i = 0; i < componentTimings.size(); i++) {
+            RenderStatistics.ComponentTimings timings = componentTimings.get(i);
+            timings.getTimings().snapshot();
+            line = nextLine().append("  ").append(timings.getName());
+            appendPercentiles(line, timings.getTimings());
+        }
+
+        TokenRendererComponent tokenRenderer = renderer.getComponentImplementing(TokenRendererComponent.class);
+        if (tokenRenderer != null) {
+            int drawn = tokenRenderer.getDrawnTokenCount();
+            nextLine().append("Tokens drawn ").append(drawn).append("  culled ")
+                    .append(tokenRenderer.getTokenCount() - drawn);
+        }
 
-            g.setColor(Color.WHITE);
-            g.drawString("Drawing Dimensions: " + drawingDimensions.width + "x" + drawingDimensions.height, 10, 20);
-            g.drawString("Screen Size: " + screenSize.width + "x" + screenSize.height, 10, 40);
+        line = nextLine().append("Cache hits images ");
+        appendHitRate(line, ImageLoader.getCache());
+        if (tokenRenderer != null) {
+            line.append("  sprites ");
+            appendHitRate(line, tokenRenderer.getSpriteCache().getCache());
         }
+
+        if (renderer instanceof MainRenderer mainRenderer) {
+            LayerCache layerCache = mainRenderer.getStaticLayerCache();
+            line = nextLine().append("Static layer tiles ").append(layerCache.getTileCount()).append("  hits ");
+            appendHitRate(line, layerCache.getHitCount(), layerCache.getMissCount());
+            line.append(mainRenderer.isLayerCachingEnabled() ? "" : " (disabled)");
+
+            nextLine().append("Painting ").append(
+                    mainRenderer.wasLastFramePaintedImmediately() ? "immediately" : "via repaint manager");
+        }
+    }
+
+    private void appendPercentiles(StringBuilder line, RollingTimings timings) {
+        line.append("  p50 ");
+        appendMillis(line, timings.getPercentile(50));
+        line.append("  p95 ");
+        appendMillis(line, timings.getPercentile(95));
+        line.append("  p99 ");
+        appendMillis(line, timings.getPercentile(99));
+    }
+
+    // Formatting by hand, String.format would allocate on every frame
+    private void appendMillis(StringBuilder line, long nanos) {
+        long hundredths = nanos / 10_000;
+        line.append(hundredths / 100).append('.');
+        if (hundredths % 100 < 10)
+            line.append('0');
+        line.append(hundredths % 100);
+    }
+
+    private void appendHitRate(StringBuilder line, LruCache<?, ?> cache) {
+        appendHitRate(line, cache.getHitCount(), cache.getMissCount());
+    }
+
+    private void appendHitRate(StringBuilder line, long hits, long misses) {
+        if (hits + misses == 0) {
+            line.append('-');
+            return;
+        }
+        line.append(hits * 100 / (hits + misses)).append('%');
+    }
+
+    private StringBuilder nextLine() {
+        if (lineCount == lines.size())
+            lines.add(new StringBuilder(64));
+
+        StringBuilder line = lines.get(lineCount++);
+        line.setLength(0);
+        return line;
+    }
+
+    private char[] toCharacters(StringBuilder line) {
+        if (characters.length < line.length())
+            characters = new char[line.length() * 2];
+        line.getChars(0, line.length(), characters, 0);
+        return characters;
     }
 
     @Override
     public void setRenderer(Renderer renderer) {
         this.renderer = renderer;
+        if (renderer instanceof MainRenderer mainRenderer)
+            statistics = mainRenderer.getStatistics();
     }
-}
\ No newline at end of file
+}
@@ -9,7 +9,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
-import javax.imageio.ImageIO;
 import javax.swing.TransferHandler;
 
 import de.omegasystems.core.Renderer;
@@ -17,6 +16,7 @@ import de.omegasystems.core.RenderingComponent;
 import de.omegasystems.core.Token;
 import de.omegasystems.core.TokenHandler;
 import de.omegasystems.dataobjects.TokenData;
+import de.omegasystems.utility.ImageLoader;
 
 public class DragHandlingComponent implements RenderingComponent {
 
@@ -26,6 +26,15 @@ public class DragHandlingComponent implements RenderingComponent {
     }
 
     private Renderer renderer;
+    private boolean isLocked = false;
+
+    /**
+     * Stops dropped images from creating tokens, for example while the tokens
+     * are mirrored from a table shared by someone else.
+     */
+    public void setLocked(boolean isLocked) {
+        this.isLocked = isLocked;
+    }
 
     @Override
     public void setRenderer(Renderer renderer) {
@@ -34,7 +43,7 @@ public class DragHandlingComponent implements RenderingComponent {
         renderer.setTransferHandler(new TransferHandler() {
             @Override
             public boolean canImport(TransferHandler.TransferSupport support) {
-                return support.isDataFlavorSupported(DataFlavor.javaFileListFlavor);
+                return !isLocked && support.isDataFlavorSupported(DataFlavor.javaFileListFlavor);
             }
 
             @SuppressWarnings("unchecked")
@@ -51,14 +60,11 @@ public class DragHandlingComponent implements RenderingComponent {
                         if (!file.isFile())
                             continue;
 
-                        try {
-                            ImageIO.read(file);
-
+                        // Only check the header here, the token decodes the image in the background
+                        if (ImageLoader.isReadableImage(file))
                             handleImageImport(file);
-                        } catch (IOException e) {
+                        else
                             System.err.println("Failed to read image file: " + file.getName());
-                            e.printStackTrace();
-                        }
                     }
                     return true;
                 } catch (UnsupportedFlavorException | IOException e) {
@@ -0,0 +1,334 @@
+package de.omegasystems.renderer.components;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+
+import javax.swing.SwingUtilities;
+
+import de.omegasystems.core.RenderLayer;
+import de.omegasystems.core.Renderer;
+import de.omegasystems.core.ViewportRenderingComponent;
+import de.omegasystems.dataobjects.FogOfWar;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.utility.Observer;
+
+/**
+ * Covers everything of the map the players aren't allowed to see yet, see
+ * {@link FogOfWar}.<br>
+ * <br>
+ * The fog is drawn from a mask with a few pixels per grid cell and a single
+ * byte per pixel, a map of 400x400 cells takes 2.5 MB this way. The mask is
+ * only redrawn in the cells that changed.<br>
+ * <br>
+ * The game master sees through the fog and edits it with the right mouse
+ * button: dragging reveals all cells touched by the box, holding shift hides
+ * them instead. Holding control reveals (or with shift hides) a freehand shape.
+ * At a table shared by someone else the fog is locked, see
+ * {@link #setLocked(boolean)}.
+ */
+public class FogOfWarComponent extends MouseAdapter implements ViewportRenderingComponent, Observer<Rectangle> {
+
+    // Mask pixels per cell, which is how exact freehand shapes are shown
+    private static final int PIXELS_PER_CELL = 4;
+    private static final Color FOG_COLOR = new Color(24, 24, 32);
+    private static final Color REVEALED_COLOR = new Color(255, 255, 255, 0);
+    private static final int GAME_MASTER_FOG_ALPHA = 140;
+
+    private final MenubarAttributeHolder settings;
+    private final boolean isEditable;
+    private boolean isLocked = false;
+    private IndexColorModel colorModel;
+    private Renderer renderer;
+    private FogOfWar fog;
+    private boolean isEnabled;
+
+    private BufferedImage mask;
+    // The grid the mask was created for
+    private double maskCellSize;
+    private double maskOriginX;
+    private double maskOriginY;
+
+    private Point boxStart;
+    private Point boxEnd;
+    private Path2D.Double lasso;
+    private boolean isHiding;
+
+    /**
+     * @param settings   the attributes holding whether fog is shown
+     * @param isEditable whether this view belongs to the game master, who sees
+     *                   through the fog and can edit it
+     */
+    public FogOfWarComponent(MenubarAttributeHolder settings, boolean isEditable) {
+        if (settings == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Settings were null during initialization");
+        this.settings = settings;
+        this.isEditable = isEditable;
+        colorModel = createColorModel();
+    }
+
+    private IndexColorModel createColorModel() {
+        // Index 0 is fog, index 1 is revealed
+        byte fogAlpha = (byte) (isEditable && !isLocked ? GAME_MASTER_FOG_ALPHA : 255);
+        return new IndexColorModel(8, 2,
+                new byte[] { (byte) FOG_COLOR.getRed(), (byte) REVEALED_COLOR.getRed() },
+                new byte[] { (byte) FOG_COLOR.getGreen(), (byte) REVEALED_COLOR.getGreen() },
+                new byte[] { (byte) FOG_COLOR.getBlue(), (byte) REVEALED_COLOR.getBlue() },
+                new byte[] { fogAlpha, 0 });
+    }
+
+    /**
+     * Locks the fog for a player at a table shared by someone else: it is shown
+     * even while disabled, can't be seen through and can't be edited.
+     */
+    public void setLocked(boolean isLocked) {
+        if (this.isLocked == isLocked)
+            return;
+        this.isLocked = isLocked;
+        colorModel = createColorModel();
+        mask = null;
+        lasso = null;
+        boxStart = null;
+        boxEnd = null;
+        if (renderer != null)
+            renderer.scheduleRedraw();
+    }
+
+    private boolean isShown() {
+        return isEnabled || isLocked;
+    }
+
+    @Override
+    public void setRenderer(Renderer renderer) {
+        this.renderer = renderer;
+        settings.VIEW_FOG_ENABLED.addObserver(val -> {
+            isEnabled = val;
+            renderer.scheduleRedraw();
+        });
+        isEnabled = settings.VIEW_FOG_ENABLED.getValue();
+
+        if (isEditable) {
+            renderer.addMouseListener(this);
+            renderer.addMouseMotionListener(this);
+        }
+    }
+
+    /**
+     * Shows another fog, for example the one of the scene that was swapped to.
+     */
+    public void setFog(FogOfWar fog) {
+        if (this.fog == fog)
+            return;
+        if (this.fog != null)
+            this.fog.removeObserver(this);
+        this.fog = fog;
+        mask = null;
+        if (fog != null)
+            fog.addObserver(this);
+        if (renderer != null)
+            renderer.scheduleRedraw();
+    }
+
+    public FogOfWar getFog() {
+        return fog;
+    }
+
+    @Override
+    public RenderLayer getRenderLayer() {
+        // Has to cover the tokens
+        return RenderLayer.DYNAMIC;
+    }
+
+    @Override
+    public void update(Rectangle cells) {
+        if (mask != null && isMaskAligned())
+            updateMask(cells);
+        if (renderer != null && isShown())
+            renderer.scheduleRedraw(fog.getCellBounds(cells));
+    }
+
+    private boolean isMaskAligned() {
+        return fog.getCellSize() == maskCellSize && fog.getOriginX() == maskOriginX
+                && fog.getOriginY() == maskOriginY;
+    }
+
+    @Override
+    public void draw(Graphics2D g, Dimension size, Rectangle visibleArea) {
+        if (!isShown() || fog == null)
+            return;
+        if (mask == null || !isMaskAligned())
+            createMask();
+
+        Rectangle area = visibleArea.intersection(new Rectangle(size));
+        double pixelSize = fog.getCellSize() / PIXELS_PER_CELL;
+        int sx1 = Math.max(0, (int) Math.floor((area.x - maskOriginX) / pixelSize));
+        int sy1 = Math.max(0, (int) Math.floor((area.y - maskOriginY) / pixelSize));
+        int sx2 = Math.min(mask.getWidth(), (int) Math.ceil((area.getMaxX() - maskOriginX) / pixelSize));
+        int sy2 = Math.min(mask.getHeight(), (int) Math.ceil((area.getMaxY() - maskOriginY) / pixelSize));
+        if (sx1 < sx2 && sy1 < sy2) {
+            // Cells have hard edges, and interpolating the mask is many times slower
+            Object interpolation = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            // Every mask pixel always lands on the same world pixels, so partial repaints
+            // line up with each other
+            g.drawImage(mask, toWorld(sx1, maskOriginX, pixelSize), toWorld(sy1, maskOriginY, pixelSize),
+                    toWorld(sx2, maskOriginX, pixelSize), toWorld(sy2, maskOriginY, pixelSize), sx1, sy1, sx2, sy2,
+                    null);
+            if (interpolation != null)
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+        }
+
+        drawEditPreview(g);
+    }
+
+    private static int toWorld(int maskPixel, double origin, double pixelSize) {
+        return (int) Math.round(origin + maskPixel * pixelSize);
+    }
+
+    private void createMask() {
+        mask = new BufferedImage(fog.getColumns() * PIXELS_PER_CELL, fog.getRows() * PIXELS_PER_CELL,
+                BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+        maskCellSize = fog.getCellSize();
+        maskOriginX = fog.getOriginX();
+        maskOriginY = fog.getOriginY();
+        updateMask(new Rectangle(fog.getColumns(), fog.getRows()));
+    }
+
+    /**
+     * Redraws the mask within the given cells from the fog.
+     */
+    private void updateMask(Rectangle cells) {
+        Graphics2D g = mask.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.clipRect(cells.x * PIXELS_PER_CELL, cells.y * PIXELS_PER_CELL, cells.width * PIXELS_PER_CELL,
+                    cells.height * PIXELS_PER_CELL);
+            g.setColor(FOG_COLOR);
+            g.fillRect(cells.x * PIXELS_PER_CELL, cells.y * PIXELS_PER_CELL, cells.width * PIXELS_PER_CELL,
+                    cells.height * PIXELS_PER_CELL);
+
+            // Fill whole runs of revealed cells at once, revealing a room is a handful of
+            // rectangles this way
+            g.setColor(REVEALED_COLOR);
+            int end = cells.x + cells.width;
+            for (int row = cells.y; row < cells.y + cells.height; row++) {
+                int column = fog.nextRevealedColumn(row, cells.x);
+                while (column < end) {
+                    int hidden = Math.min(end, fog.nextHiddenColumn(row, column));
+                    g.fillRect(column * PIXELS_PER_CELL, row * PIXELS_PER_CELL,
+                            (hidden - column) * PIXELS_PER_CELL, PIXELS_PER_CELL);
+                    column = hidden < end ? fog.nextRevealedColumn(row, hidden) : end;
+                }
+            }
+
+            if (fog.hasRevealedShapes()) {
+                double pixelsPerWorldUnit = PIXELS_PER_CELL / fog.getCellSize();
+                g.scale(pixelsPerWorldUnit, pixelsPerWorldUnit);
+                g.translate(-fog.getOriginX(), -fog.getOriginY());
+                g.fill(fog.getRevealedShapes());
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private void drawEditPreview(Graphics2D g) {
+        if (boxStart == null && lasso == null)
+            return;
+        g.setColor(isHiding ? Color.RED : Color.WHITE);
+        g.setStroke(new BasicStroke((float) (2 / renderer.getTranslationhandler().getScale())));
+        if (lasso != null)
+            g.draw(lasso);
+        else
+            g.draw(getBox());
+    }
+
+    private Rectangle getBox() {
+        Rectangle box = new Rectangle(boxStart);
+        box.add(boxEnd);
+        return box;
+    }
+
+    /**
+     * @return The area of the edit preview, including its outline
+     */
+    private Rectangle2D getPreviewBounds() {
+        Rectangle2D bounds = lasso != null ? lasso.getBounds2D() : getBox();
+        double margin = 2 / renderer.getTranslationhandler().getScale();
+        return new Rectangle2D.Double(bounds.getX() - margin, bounds.getY() - margin,
+                bounds.getWidth() + 2 * margin, bounds.getHeight() + 2 * margin);
+    }
+
+    // Editing
+
+    @Override
+    public void mousePressed(MouseEvent e) {
+        // The right mouse button draws walls while they are edited
+        if (e.getButton() != MouseEvent.BUTTON3 || !isEnabled || isLocked || fog == null
+                || settings.VIEW_WALLS_EDITING.getValue())
+            return;
+
+        Point worldPoint = renderer.getTranslationhandler().getWorldCoordinateFormUISpace(e.getPoint());
+        isHiding = e.isShiftDown();
+        if (e.isControlDown()) {
+            lasso = new Path2D.Double();
+            lasso.moveTo(worldPoint.x, worldPoint.y);
+        } else {
+            boxStart = worldPoint;
+            boxEnd = worldPoint;
+        }
+    }
+
+    @Override
+    public void mouseDragged(MouseEvent e) {
+        if (!SwingUtilities.isRightMouseButton(e) || (boxStart == null && lasso == null))
+            return;
+
+        renderer.scheduleRedraw(getPreviewBounds());
+        Point worldPoint = renderer.getTranslationhandler().getWorldCoordinateFormUISpace(e.getPoint());
+        if (lasso != null)
+            lasso.lineTo(worldPoint.x, worldPoint.y);
+        else
+            boxEnd = worldPoint;
+        renderer.scheduleRedraw(getPreviewBounds());
+    }
+
+    @Override
+    public void mouseReleased(MouseEvent e) {
+        if (e.getButton() != MouseEvent.BUTTON3 || (boxStart == null && lasso == null))
+            return;
+
+        renderer.scheduleRedraw(getPreviewBounds());
+        if (lasso != null) {
+            lasso.closePath();
+            if (isHiding)
+                fog.hide(lasso);
+            else
+                fog.reveal(lasso);
+        } else {
+            fog.setRevealed(getBox(), !isHiding);
+        }
+        lasso = null;
+        boxStart = null;
+        boxEnd = null;
+    }
+
+    /**
+     * @return The bytes held by the mask, for comparison with a full size overlay
+     */
+    public long getMaskBytes() {
+        return mask == null ? 0 : (long) mask.getWidth() * mask.getHeight();
+    }
+}
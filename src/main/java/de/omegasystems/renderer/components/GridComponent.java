@@ -1,16 +1,19 @@
 package de.omegasystems.renderer.components;
 
-import java.awt.BasicStroke;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
 
 import de.omegasystems.App;
+import de.omegasystems.core.RenderLayer;
 import de.omegasystems.core.Renderer;
-import de.omegasystems.core.RenderingComponent;
+import de.omegasystems.core.ViewportRenderingComponent;
 import de.omegasystems.core.WorldGrid;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
 
-public class GridComponent implements RenderingComponent, WorldGrid {
+public class GridComponent implements ViewportRenderingComponent, WorldGrid {
 
     double gridScale = 64.0;
     double gridThickness = 2;
@@ -19,63 +22,130 @@ public class GridComponent implements RenderingComponent, WorldGrid {
     boolean isGridEnabled = false;
 
     private Renderer renderer;
+    private final MenubarAttributeHolder settings;
+
+    private double[] columnLines;
+    private double[] rowLines;
+    private Dimension gridLinesSize;
+    private final Rectangle2D.Double lineArea = new Rectangle2D.Double();
+
+    public GridComponent() {
+        this(App.getInstance().getToolbarAttributes());
+    }
+
+    /**
+     * @param settings the attributes holding the grid settings, which don't have
+     *                 to be the ones of the running app (for example when
+     *                 rendering headless)
+     */
+    public GridComponent(MenubarAttributeHolder settings) {
+        if (settings == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Settings were null during initialization");
+        this.settings = settings;
+    }
 
     @Override
     public void setRenderer(Renderer renderer) {
         this.renderer = renderer;
 
-        var GRID_ENABLED = App.getInstance().getToolbarAttributes().VIEW_GRID_ENABLED;
+        var GRID_ENABLED = settings.VIEW_GRID_ENABLED;
         GRID_ENABLED.addObserver(val -> {
             this.isGridEnabled = val;
-            renderer.scheduleRedraw();
+            renderer.scheduleRedraw(this);
         });
         this.isGridEnabled = GRID_ENABLED.getValue();
 
-        var GRID_SCALE = App.getInstance().getToolbarAttributes().VIEW_GRID_SCALE;
+        var GRID_SCALE = settings.VIEW_GRID_SCALE;
         GRID_SCALE.addObserver(val -> {
             this.gridScale = val;
-            renderer.scheduleRedraw();
+            columnLines = null;
+            renderer.scheduleRedraw(this);
         });
         this.gridScale = GRID_SCALE.getValue();
 
-        var GRID_THICKNESS = App.getInstance().getToolbarAttributes().VIEW_GRID_THICKNESS;
+        var GRID_THICKNESS = settings.VIEW_GRID_THICKNESS;
         GRID_THICKNESS.addObserver(val -> {
             this.gridThickness = val;
-            renderer.scheduleRedraw();
+            renderer.scheduleRedraw(this);
         });
         this.gridThickness = GRID_THICKNESS.getValue();
 
-        var GRID_OFFSET_X = App.getInstance().getToolbarAttributes().VIEW_GRID_OFFSET_X;
+        var GRID_OFFSET_X = settings.VIEW_GRID_OFFSET_X;
         GRID_OFFSET_X.addObserver(val -> {
             this.gridOffsetX = val;
-            renderer.scheduleRedraw();
+            columnLines = null;
+            renderer.scheduleRedraw(this);
         });
         this.gridOffsetX = GRID_OFFSET_X.getValue();
 
-        var GRID_OFFSET_Y = App.getInstance().getToolbarAttributes().VIEW_GRID_OFFSET_Y;
+        var GRID_OFFSET_Y = settings.VIEW_GRID_OFFSET_Y;
         GRID_OFFSET_Y.addObserver(val -> {
             this.gridOffsetY = val;
-            renderer.scheduleRedraw();
+            columnLines = null;
+            renderer.scheduleRedraw(this);
         });
         this.gridOffsetY = GRID_OFFSET_Y.getValue();
     }
 
     @Override
-    public void draw(Graphics2D g, Dimension size) {
+    public void draw(Graphics2D g, Dimension size, Rectangle visibleArea) {
         if (!isGridEnabled)
             return;
-        g.setStroke(new BasicStroke((float) (gridThickness)));
+        if (columnLines == null || !size.equals(gridLinesSize))
+            updateGridLines(size);
+
+        // Only draw the lines crossing the visible area, and only the visible part of
+        // them. Thick lines reach into the visible area from slightly outside
+        int margin = (int) Math.ceil(gridThickness);
+        int minX = Math.max(0, visibleArea.x - margin);
+        int minY = Math.max(0, visibleArea.y - margin);
+        int maxX = (int) Math.min(size.getWidth(), visibleArea.getMaxX() + margin);
+        int maxY = (int) Math.min(size.getHeight(), visibleArea.getMaxY() + margin);
+        if (minX > maxX || minY > maxY)
+            return;
+
+        // Lines never get thinner than a single screen pixel, otherwise they would
+        // vanish when zoomed out far enough
+        double thickness = Math.max(gridThickness, 1 / renderer.getTranslationhandler().getScale());
+        double halfThickness = thickness / 2;
 
-        for (int x = 0; x <= size.getWidth() / gridScale; x++) {
-            int xPos = (int) (x * gridScale + gridOffsetX);
-            g.drawLine(xPos, 0, xPos, (int) (size.getHeight()));
+        int firstColumn = Math.max(0, (int) Math.floor((minX - gridOffsetX) / gridScale));
+        int lastColumn = Math.min(columnLines.length - 1, (int) Math.ceil((maxX - gridOffsetX) / gridScale));
+        for (int x = firstColumn; x <= lastColumn; x++) {
+            lineArea.setRect(columnLines[x] - halfThickness, minY, thickness, maxY - minY);
+            g.fill(lineArea);
         }
-        for (int y = 0; y <= size.getHeight() / gridScale; y++) {
-            int posY = (int) (y * gridScale + gridOffsetY);
-            g.drawLine(0, posY, (int) (size.getWidth()), posY);
+
+        int firstRow = Math.max(0, (int) Math.floor((minY - gridOffsetY) / gridScale));
+        int lastRow = Math.min(rowLines.length - 1, (int) Math.ceil((maxY - gridOffsetY) / gridScale));
+        for (int y = firstRow; y <= lastRow; y++) {
+            lineArea.setRect(minX, rowLines[y] - halfThickness, maxX - minX, thickness);
+            g.fill(lineArea);
         }
     }
 
+    /**
+     * Calculates the positions of all grid lines. This only happens once per
+     * grid configuration, drawing then just fills the visible lines as rectangles.
+     */
+    private void updateGridLines(Dimension size) {
+        columnLines = new double[(int) (size.getWidth() / gridScale) + 1];
+        for (int x = 0; x < columnLines.length; x++)
+            columnLines[x] = (int) (x * gridScale + gridOffsetX);
+
+        rowLines = new double[(int) (size.getHeight() / gridScale) + 1];
+        for (int y = 0; y < rowLines.length; y++)
+            rowLines[y] = (int) (y * gridScale + gridOffsetY);
+
+        gridLinesSize = new Dimension(size);
+    }
+
+    @Override
+    public RenderLayer getRenderLayer() {
+        return RenderLayer.STATIC;
+    }
+
     @Override
     public Point getContainingCellOrigin(Point pos) {
         int cellX = (int) ((pos.x - gridOffsetX) / gridScale) * (int) gridScale + (int) gridOffsetX;
@@ -3,26 +3,108 @@ package de.omegasystems.renderer.components;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Rectangle;
 
+import de.omegasystems.core.MapTileSource;
+import de.omegasystems.core.RenderLayer;
 import de.omegasystems.core.Renderer;
 import de.omegasystems.core.SizeDefiningRenderingComponent;
+import de.omegasystems.core.ViewportRenderingComponent;
+import de.omegasystems.renderer.map.TilePyramid;
+import de.omegasystems.utility.Observer;
 
-public class ImageComponent implements SizeDefiningRenderingComponent {
+public class ImageComponent implements SizeDefiningRenderingComponent, ViewportRenderingComponent {
 
-    private Image image;
+    private MapTileSource tileSource;
     private Renderer renderer;
+    private Observer<Rectangle> tileObserver = area -> {
+        if (renderer != null)
+            renderer.scheduleRedraw(this, area);
+    };
 
     public ImageComponent(Image image) {
         if (image == null)
             throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
                     + "] Image was null during initialization");
 
-        this.image = image;
+        this.tileSource = new TilePyramid(image);
+        tileSource.addTileObserver(tileObserver);
+    }
+
+    public ImageComponent(MapTileSource tileSource) {
+        if (tileSource == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Tile source was null during initialization");
+
+        this.tileSource = tileSource;
+        tileSource.addTileObserver(tileObserver);
     }
 
     @Override
-    public void draw(Graphics2D g, Dimension size) {
-        g.drawImage(image, 0, 0, null);
+    public void draw(Graphics2D g, Dimension size, Rectangle visibleArea) {
+        visibleArea = visibleArea.intersection(new Rectangle(getDrawingSize()));
+        if (visibleArea.isEmpty())
+            return;
+
+        int level = tileSource.selectLevel(renderer.getTranslationhandler().getScale());
+        int tileWorldSize = tileSource.getTileSize() << level;
+        Dimension mapSize = tileSource.getSize();
+
+        int firstColumn = Math.max(0, visibleArea.x / tileWorldSize);
+        int firstRow = Math.max(0, visibleArea.y / tileWorldSize);
+        int lastColumn = Math.min((mapSize.width - 1) / tileWorldSize,
+                (visibleArea.x + visibleArea.width - 1) / tileWorldSize);
+        int lastRow = Math.min((mapSize.height - 1) / tileWorldSize,
+                (visibleArea.y + visibleArea.height - 1) / tileWorldSize);
+
+        for (int column = firstColumn; column <= lastColumn; column++) {
+            for (int row = firstRow; row <= lastRow; row++) {
+                // Edge tiles are smaller, so always stretch them to the end of the map
+                int x = column * tileWorldSize;
+                int y = row * tileWorldSize;
+                int width = Math.min(tileWorldSize, mapSize.width - x);
+                int height = Math.min(tileWorldSize, mapSize.height - y);
+
+                Image tile = tileSource.getTile(level, column, row);
+                if (tile != null)
+                    g.drawImage(tile, x, y, width, height, null);
+                else
+                    drawFallbackTile(g, level, column, row, x, y, width, height);
+            }
+        }
+    }
+
+    /**
+     * Fills the area of a tile that isn't loaded yet with the matching part of
+     * the next available tile of a lower level of detail.
+     */
+    private void drawFallbackTile(Graphics2D g, int level, int column, int row, int x, int y, int width,
+            int height) {
+        int tileSize = tileSource.getTileSize();
+        int coarsestLevel = tileSource.getLevelCount() - 1;
+
+        for (int parentLevel = level + 1; parentLevel <= coarsestLevel; parentLevel++) {
+            int levelDifference = parentLevel - level;
+            int parentColumn = column >> levelDifference;
+            int parentRow = row >> levelDifference;
+
+            // Only the coarsest level may trigger loading, everything else would just
+            // flood the loader with tiles that are not needed for long
+            Image parent = parentLevel == coarsestLevel
+                    ? tileSource.getTile(parentLevel, parentColumn, parentRow)
+                    : tileSource.getCachedTile(parentLevel, parentColumn, parentRow);
+            if (parent == null)
+                continue;
+
+            int parentWorldSize = tileSize << parentLevel;
+            double pixelsPerWorldUnit = 1.0 / (1 << parentLevel);
+            int sx = (int) ((x - parentColumn * parentWorldSize) * pixelsPerWorldUnit);
+            int sy = (int) ((y - parentRow * parentWorldSize) * pixelsPerWorldUnit);
+            int sWidth = Math.max(1, (int) Math.ceil(width * pixelsPerWorldUnit));
+            int sHeight = Math.max(1, (int) Math.ceil(height * pixelsPerWorldUnit));
+            g.drawImage(parent, x, y, x + width, y + height, sx, sy, sx + sWidth, sy + sHeight, null);
+            return;
+        }
     }
 
     @Override
@@ -30,22 +112,40 @@ public class ImageComponent implements SizeDefiningRenderingComponent {
         this.renderer = renderer;
     }
 
+    @Override
+    public RenderLayer getRenderLayer() {
+        return RenderLayer.STATIC;
+    }
+
     @Override
     public Dimension getDrawingSize() {
-        if (image == null)
+        if (tileSource == null)
             return new Dimension();
 
-        return new Dimension(image.getWidth(null), image.getHeight(null));
+        return tileSource.getSize();
     }
 
     public void setImage(Image image) {
         if (image == null)
             return;
 
-        this.image = image;
+        setTileSource(new TilePyramid(image));
+    }
+
+    public void setTileSource(MapTileSource tileSource) {
+        if (tileSource == null)
+            return;
+
+        this.tileSource.removeTileObserver(tileObserver);
+        this.tileSource = tileSource;
+        tileSource.addTileObserver(tileObserver);
 
         if (renderer != null)
-            renderer.scheduleRedraw();
+            renderer.scheduleRedraw(this);
+    }
+
+    public MapTileSource getTileSource() {
+        return tileSource;
     }
 
 }
@@ -0,0 +1,296 @@
+package de.omegasystems.renderer.components;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import de.omegasystems.core.RenderLayer;
+import de.omegasystems.core.Renderer;
+import de.omegasystems.core.ViewportRenderingComponent;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.dataobjects.Walls;
+import de.omegasystems.renderer.LightingEngine;
+import de.omegasystems.renderer.LightingEngine.Light;
+import de.omegasystems.utility.Observer;
+
+/**
+ * Darkens everything no token sees, see {@link LightingEngine}. Covers the
+ * tokens as well, so players don't see what waits in the dark.<br>
+ * <br>
+ * The lit areas of all tokens are combined in a mask covering the visible part
+ * of the map at screen resolution, with a single byte per pixel. Filling the
+ * areas into it unions them without any geometry, and the mask is only filled
+ * again when a light changed or the view moved.<br>
+ * <br>
+ * The game master sees the darkness translucent. While editing walls, the walls
+ * are shown and the right mouse button draws a wall from where it was pressed
+ * to where it was released, connecting to nearby wall ends. Holding shift
+ * removes the wall under the mouse instead.
+ */
+public class LightingComponent extends MouseAdapter implements ViewportRenderingComponent, Observer<Rectangle2D> {
+
+    private static final Color DARKNESS_COLOR = new Color(0, 0, 0);
+    private static final Color LIT_COLOR = new Color(255, 255, 255, 0);
+    private static final int GAME_MASTER_DARKNESS_ALPHA = 110;
+    private static final Color WALL_COLOR = new Color(255, 140, 0);
+    // In screen pixels
+    private static final float WALL_THICKNESS = 3;
+    private static final double SNAP_DISTANCE = 8;
+
+    private final MenubarAttributeHolder settings;
+    private final LightingEngine engine;
+    private final boolean isEditable;
+    private boolean isLocked = false;
+    private IndexColorModel colorModel;
+    private Renderer renderer;
+    private boolean isEnabled;
+
+    private BufferedImage mask;
+    private boolean isMaskValid = false;
+    // The part of the world and the scale the mask was filled for
+    private Rectangle maskArea;
+    private double maskScale;
+
+    private Point2D wallStart;
+    private Point2D wallEnd;
+
+    /**
+     * @param settings   the attributes holding whether lighting is shown
+     * @param engine     the engine computing what the tokens see, usually shared
+     *                   by all views
+     * @param isEditable whether this view belongs to the game master, who sees
+     *                   through the darkness and can edit the walls
+     */
+    public LightingComponent(MenubarAttributeHolder settings, LightingEngine engine, boolean isEditable) {
+        if (settings == null || engine == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Settings and engine are required");
+        this.settings = settings;
+        this.engine = engine;
+        this.isEditable = isEditable;
+        colorModel = createColorModel();
+    }
+
+    private IndexColorModel createColorModel() {
+        // Index 0 is darkness, index 1 is lit
+        byte darknessAlpha = (byte) (isEditable && !isLocked ? GAME_MASTER_DARKNESS_ALPHA : 255);
+        return new IndexColorModel(8, 2,
+                new byte[] { (byte) DARKNESS_COLOR.getRed(), (byte) LIT_COLOR.getRed() },
+                new byte[] { (byte) DARKNESS_COLOR.getGreen(), (byte) LIT_COLOR.getGreen() },
+                new byte[] { (byte) DARKNESS_COLOR.getBlue(), (byte) LIT_COLOR.getBlue() },
+                new byte[] { darknessAlpha, 0 });
+    }
+
+    /**
+     * Locks the walls for a player at a table shared by someone else: the
+     * darkness can't be seen through and the walls can't be edited.
+     */
+    public void setLocked(boolean isLocked) {
+        if (this.isLocked == isLocked)
+            return;
+        this.isLocked = isLocked;
+        colorModel = createColorModel();
+        mask = null;
+        isMaskValid = false;
+        wallStart = null;
+        wallEnd = null;
+        if (renderer != null)
+            renderer.scheduleRedraw();
+    }
+
+    @Override
+    public void setRenderer(Renderer renderer) {
+        this.renderer = renderer;
+        settings.VIEW_LIGHTING_ENABLED.addObserver(val -> {
+            isEnabled = val;
+            renderer.scheduleRedraw();
+        });
+        isEnabled = settings.VIEW_LIGHTING_ENABLED.getValue();
+        engine.addObserver(this);
+
+        if (isEditable) {
+            settings.VIEW_WALLS_EDITING.addObserver(val -> renderer.scheduleRedraw());
+            renderer.addMouseListener(this);
+            renderer.addMouseMotionListener(this);
+        }
+    }
+
+    @Override
+    public RenderLayer getRenderLayer() {
+        // Has to cover the tokens
+        return RenderLayer.DYNAMIC;
+    }
+
+    @Override
+    public void update(Rectangle2D changedArea) {
+        isMaskValid = false;
+        if (renderer == null || !(isEnabled || isEditingWalls()))
+            return;
+        // Includes the outline of walls that were removed
+        double margin = WALL_THICKNESS / renderer.getTranslationhandler().getScale();
+        renderer.scheduleRedraw(new Rectangle2D.Double(changedArea.getX() - margin, changedArea.getY() - margin,
+                changedArea.getWidth() + 2 * margin, changedArea.getHeight() + 2 * margin));
+    }
+
+    private boolean isEditingWalls() {
+        return isEditable && !isLocked && settings.VIEW_WALLS_EDITING.getValue();
+    }
+
+    @Override
+    public void draw(Graphics2D g, Dimension size, Rectangle visibleArea) {
+        if (isEnabled)
+            drawDarkness(g, size);
+        if (isEditingWalls())
+            drawWalls(g, visibleArea);
+    }
+
+    private void drawDarkness(Graphics2D g, Dimension size) {
+        // The whole screen, not only the repainted part, so the mask survives partial
+        // repaints
+        Rectangle area = renderer.getTranslationhandler().getVisibleWorldArea(renderer.getScreenSize())
+                .intersection(new Rectangle(size));
+        if (area.isEmpty())
+            return;
+        double scale = renderer.getTranslationhandler().getScale();
+        if (!isMaskValid || !area.equals(maskArea) || scale != maskScale)
+            fillMask(area, scale);
+
+        Object interpolation = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        AffineTransform toWorld = AffineTransform.getTranslateInstance(maskArea.x, maskArea.y);
+        toWorld.scale((double) maskArea.width / mask.getWidth(), (double) maskArea.height / mask.getHeight());
+        g.drawImage(mask, toWorld, null);
+        if (interpolation != null)
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+    }
+
+    /**
+     * Fills the lit areas of all tokens into the mask for the given part of the
+     * world.
+     */
+    private void fillMask(Rectangle area, double scale) {
+        int width = Math.max(1, (int) Math.ceil(area.width * scale));
+        int height = Math.max(1, (int) Math.ceil(area.height * scale));
+        if (mask == null || mask.getWidth() != width || mask.getHeight() != height)
+            mask = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+        maskArea = area;
+        maskScale = scale;
+        isMaskValid = true;
+
+        Graphics2D g = mask.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.setColor(DARKNESS_COLOR);
+            g.fillRect(0, 0, width, height);
+
+            g.scale((double) width / area.width, (double) height / area.height);
+            g.translate(-area.x, -area.y);
+            g.setColor(LIT_COLOR);
+            for (Light light : engine.getLights()) {
+                if (light.bounds().intersects(area))
+                    g.fill(light.area());
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private void drawWalls(Graphics2D g, Rectangle visibleArea) {
+        Walls walls = engine.getWalls();
+        if (walls == null)
+            return;
+
+        List<Line2D.Double> visibleWalls = new ArrayList<>();
+        walls.getWallsIn(visibleArea, visibleWalls);
+        g.setColor(WALL_COLOR);
+        g.setStroke(new BasicStroke((float) (WALL_THICKNESS / renderer.getTranslationhandler().getScale()),
+                BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        for (Line2D.Double wall : visibleWalls)
+            g.draw(wall);
+        if (wallStart != null)
+            g.draw(new Line2D.Double(wallStart, wallEnd));
+    }
+
+    /**
+     * @return The area of the wall being drawn, including its outline
+     */
+    private Rectangle2D getPreviewBounds() {
+        Rectangle2D bounds = new Line2D.Double(wallStart, wallEnd).getBounds2D();
+        double margin = WALL_THICKNESS / renderer.getTranslationhandler().getScale();
+        return new Rectangle2D.Double(bounds.getX() - margin, bounds.getY() - margin,
+                bounds.getWidth() + 2 * margin, bounds.getHeight() + 2 * margin);
+    }
+
+    // Editing
+
+    private Point2D toWorld(MouseEvent e) {
+        Point worldPoint = renderer.getTranslationhandler().getWorldCoordinateFormUISpace(e.getPoint());
+        Point2D end = engine.getWalls().getEndpointNear(worldPoint,
+                SNAP_DISTANCE / renderer.getTranslationhandler().getScale());
+        return end != null ? (Point2D) end.clone() : worldPoint;
+    }
+
+    @Override
+    public void mousePressed(MouseEvent e) {
+        if (e.getButton() != MouseEvent.BUTTON3 || !isEditingWalls() || engine.getWalls() == null)
+            return;
+
+        if (e.isShiftDown()) {
+            Point worldPoint = renderer.getTranslationhandler().getWorldCoordinateFormUISpace(e.getPoint());
+            Line2D.Double wall = engine.getWalls().getWallNear(worldPoint,
+                    SNAP_DISTANCE / renderer.getTranslationhandler().getScale());
+            if (wall != null)
+                engine.getWalls().remove(wall);
+            return;
+        }
+        wallStart = toWorld(e);
+        wallEnd = wallStart;
+    }
+
+    @Override
+    public void mouseDragged(MouseEvent e) {
+        if (!SwingUtilities.isRightMouseButton(e) || wallStart == null)
+            return;
+
+        renderer.scheduleRedraw(getPreviewBounds());
+        wallEnd = toWorld(e);
+        renderer.scheduleRedraw(getPreviewBounds());
+    }
+
+    @Override
+    public void mouseReleased(MouseEvent e) {
+        if (e.getButton() != MouseEvent.BUTTON3 || wallStart == null)
+            return;
+
+        renderer.scheduleRedraw(getPreviewBounds());
+        Walls walls = engine.getWalls();
+        if (walls != null && isEditingWalls())
+            walls.add(wallStart, toWorld(e));
+        wallStart = null;
+        wallEnd = null;
+    }
+
+    /**
+     * @return The bytes held by the mask
+     */
+    public long getMaskBytes() {
+        return mask == null ? 0 : (long) mask.getWidth() * mask.getHeight();
+    }
+}
@@ -0,0 +1,76 @@
+package de.omegasystems.renderer.components;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.List;
+
+import de.omegasystems.core.RenderLayer;
+import de.omegasystems.core.Renderer;
+import de.omegasystems.core.TokenChange;
+import de.omegasystems.core.ViewportRenderingComponent;
+import de.omegasystems.renderer.components.TokenRendererComponent.TokenView;
+import de.omegasystems.utility.Observer;
+
+/**
+ * Shows the tokens of a {@link TokenRendererComponent} in another renderer,
+ * without any way to interact with them and without the selection.<br>
+ * Token layouts, images and sprites come from the token handler, only what
+ * this view drew where is kept here. Changes arrive through the change
+ * listener of the handler, so this view only repaints the tokens that changed.
+ */
+public class PlayerTokenComponent implements ViewportRenderingComponent, Observer<List<TokenChange>> {
+
+    private final TokenRendererComponent tokenHandler;
+    private final TokenView view = new TokenView(false);
+    private Renderer renderer;
+
+    public PlayerTokenComponent(TokenRendererComponent tokenHandler) {
+        if (tokenHandler == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Tokenhandler was null during initialization");
+        this.tokenHandler = tokenHandler;
+    }
+
+    @Override
+    public void setRenderer(Renderer renderer) {
+        this.renderer = renderer;
+        tokenHandler.addChangeListener(this);
+    }
+
+    @Override
+    public RenderLayer getRenderLayer() {
+        return RenderLayer.SEMI_STATIC;
+    }
+
+    @Override
+    public void draw(Graphics2D g, Dimension size, Rectangle visibleArea) {
+        tokenHandler.drawTokens(g, visibleArea, view);
+    }
+
+    @Override
+    public void update(List<TokenChange> changes) {
+        for (int i = 0; i < changes.size(); i++) {
+            TokenChange change = changes.get(i);
+            if (change.token() == null) {
+                // Sizes or the drawing order changed, which may affect every token
+                renderer.scheduleRedraw();
+                continue;
+            }
+
+            if (change.type() == TokenChange.Type.REMOVED) {
+                renderer.scheduleRedraw(view.forget(change.token()));
+                continue;
+            }
+            renderer.scheduleRedraw(view.getDrawnBounds(change.token()));
+            renderer.scheduleRedraw(tokenHandler.getTokenBounds(change.token()));
+        }
+    }
+
+    /**
+     * @return How many tokens the last draw call actually drew
+     */
+    public int getDrawnTokenCount() {
+        return view.getDrawnTokenCount();
+    }
+}
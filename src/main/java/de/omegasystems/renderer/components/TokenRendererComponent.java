@@ -5,34 +5,150 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics2D;
+import java.awt.Image;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
 
 import de.omegasystems.App;
+import de.omegasystems.core.RenderLayer;
 import de.omegasystems.core.Renderer;
-import de.omegasystems.core.RenderingComponent;
 import de.omegasystems.core.Token;
+import de.omegasystems.core.TokenChange;
 import de.omegasystems.core.TokenHandler;
+import de.omegasystems.core.ViewportRenderingComponent;
 import de.omegasystems.core.WorldGrid;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.renderer.SpriteCache;
 import de.omegasystems.renderer.dialog.ChangeValueDialog.DoubleDialog;
 import de.omegasystems.renderer.dialog.TokenDialog;
+import de.omegasystems.utility.SpatialHashGrid;
+import de.omegasystems.utility.EventBus;
 import de.omegasystems.utility.Observer;
 import de.omegasystems.utility.Observerhandler;
 
-public class TokenRendererComponent extends MouseAdapter implements RenderingComponent, TokenHandler, KeyListener {
+public class TokenRendererComponent extends MouseAdapter
+        implements ViewportRenderingComponent, TokenHandler, KeyListener {
+
+    private static final Font NAME_FONT = new Font("Georgia", Font.BOLD, 20);
+    private static final FontRenderContext NAME_LAYOUT_CONTEXT = new FontRenderContext(null, true, true);
 
     private Observerhandler<TokenHandler> observerhandler = new Observerhandler<>();
+    // Plain observers are told about every delivery of the change bus
+    private EventBus<Token, TokenChange> changeBus = new EventBus<>(TokenChange::token, TokenChange::merge);
+    private Observer<List<TokenChange>> forwardToObservers = changes -> observerhandler.notifyObservers(this);
+
+    // Cells of twice the default token size, so most tokens only occupy a few
+    private static final int SPATIAL_INDEX_CELL_SIZE = 128;
+
+    /**
+     * Everything the draw loop needs for a single token that only changes when
+     * the token changes. Keeping it here means drawing a token that didn't change
+     * allocates nothing. It is shared by all views showing the tokens.
+     */
+    private static class TokenRenderState {
+        // Higher values get drawn later, meaning on top of lower ones
+        long drawOrder;
+        // The world space area the token covers right now
+        Rectangle2D bounds;
+
+        String layoutName;
+        GlyphVector nameGlyphs;
+        Rectangle2D nameBounds;
+    }
+
+    /**
+     * What a single view remembers about a token it drew.
+     */
+    private static class DrawnToken {
+        // The world space area the token covered the last time it was drawn
+        Rectangle2D bounds;
+
+        Image spriteSource;
+        double spritePixelSize;
+        Image sprite;
+    }
+
+    /**
+     * Everything one view of the tokens remembers about what it drew, so it can
+     * invalidate the right areas and doesn't have to look up its sprites for
+     * every frame. Views can have different zoom levels, so each has its own.
+     * This component keeps one for its own renderer, see
+     * {@link PlayerTokenComponent} for views in other renderers.
+     */
+    public static class TokenView {
+        private final Map<Token, DrawnToken> drawnTokens = new HashMap<>();
+        private final boolean isSelectionShown;
+        // Statistics of the last draw call
+        private int drawnTokenCount = 0;
+
+        /**
+         * @param isSelectionShown whether highlighted tokens are drawn with their
+         *                         highlight color
+         */
+        public TokenView(boolean isSelectionShown) {
+            this.isSelectionShown = isSelectionShown;
+        }
+
+        /**
+         * @return The area the token covered when this view drew it last, or null
+         *         if it didn't draw it yet
+         */
+        public Rectangle2D getDrawnBounds(Token token) {
+            DrawnToken drawn = drawnTokens.get(token);
+            return drawn == null ? null : drawn.bounds;
+        }
+
+        /**
+         * Forgets a removed token.
+         *
+         * @return The area the token covered when this view drew it last, or null
+         */
+        public Rectangle2D forget(Token token) {
+            DrawnToken drawn = drawnTokens.remove(token);
+            return drawn == null ? null : drawn.bounds;
+        }
+
+        /**
+         * @return How many tokens the last draw call actually drew, all others were
+         *         outside of the visible area
+         */
+        public int getDrawnTokenCount() {
+            return drawnTokenCount;
+        }
+    }
 
     private List<Token> tokens = new ArrayList<>();
+    private Map<Token, TokenRenderState> renderStates = new HashMap<>();
+    private long nextDrawOrder = 0;
+    private SpatialHashGrid<Token> spatialIndex = new SpatialHashGrid<>(SPATIAL_INDEX_CELL_SIZE);
+    private List<Token> hitCandidates = new ArrayList<>();
+    private Consumer<Token> collectHitCandidate = hitCandidates::add;
+    private SpriteCache spriteCache = new SpriteCache(64L * 1024 * 1024);
+    private TokenView view = new TokenView(true);
+
     private double highlightThickness = 1.0;
+    private BasicStroke outlineStroke = new BasicStroke((float) highlightThickness);
+    private BasicStroke selectionBoxStroke;
     private double tokenScale = 64.0;
 
     private boolean isSelectionBoxActive = false;
@@ -40,8 +156,9 @@ public class TokenRendererComponent extends MouseAdapter implements RenderingCom
     private Point selectionBoxEnd = new Point();
 
     private Token draggedToken;
-    private List<Token> highlightedTokens = new ArrayList<>();
+    private Set<Token> highlightedTokens = new LinkedHashSet<>();
     private Point dragOffset;
+    private boolean isLocked = false;
 
     private Renderer renderer;
 
@@ -54,88 +171,163 @@ public class TokenRendererComponent extends MouseAdapter implements RenderingCom
         renderer.addKeyListener(this);
     }
 
+    @Override
+    public RenderLayer getRenderLayer() {
+        return RenderLayer.SEMI_STATIC;
+    }
+
     public void registerUIBindings() {
         var toolbarAttributes = App.getInstance().getToolbarAttributes();
+        bindSettings(toolbarAttributes);
 
+        // Create The button action bindings
+        toolbarAttributes.TOKEN_CREATE
+                .addObserver(
+                        abs -> new TokenDialog(renderer.getFrame(), this));
+
+        toolbarAttributes.TOKEN_OPEN_SIZE_DIALOG.addObserver(
+                abs -> new DoubleDialog(renderer.getFrame(),
+                        toolbarAttributes.TOKEN_SIZE));
+
+        toolbarAttributes.TOKEN_OPEN_OUTLINE_THICKNESS_DIALOG.addObserver(
+                abs -> new DoubleDialog(renderer.getFrame(), toolbarAttributes.TOKEN_OUTLINE_THICKNESS));
+    }
+
+    /**
+     * Binds token size and outline thickness to the given attributes. Done by
+     * {@link #registerUIBindings()} for the running app, call this directly to
+     * render with other settings (for example when rendering headless).
+     */
+    public void bindSettings(MenubarAttributeHolder toolbarAttributes) {
         // Create the value bindings
         toolbarAttributes.TOKEN_OUTLINE_THICKNESS.addObserver(newVal -> {
             this.highlightThickness = newVal;
+            this.outlineStroke = new BasicStroke((float) (highlightThickness));
+            tokens.forEach(this::updateTokenBounds);
             notifyChange();
         });
         toolbarAttributes.TOKEN_SIZE.addObserver(newVal -> {
             this.tokenScale = newVal;
+            // All sprites and indexed bounds have the wrong size now
+            spriteCache.clear();
+            tokens.forEach(this::updateTokenBounds);
             notifyChange();
         });
 
         this.highlightThickness = toolbarAttributes.TOKEN_OUTLINE_THICKNESS.getValue();
+        this.outlineStroke = new BasicStroke((float) (highlightThickness));
         this.tokenScale = toolbarAttributes.TOKEN_SIZE.getValue();
+    }
 
-        // Create The button action bindings
-        toolbarAttributes.TOKEN_CREATE
-                .addObserver(
-                        abs -> new TokenDialog(renderer.getFrame(), this));
+    @Override
+    public void draw(Graphics2D g, Dimension drawingDimensions, Rectangle visibleArea) {
+        drawTokens(g, visibleArea, view);
 
-        toolbarAttributes.TOKEN_OPEN_SIZE_DIALOG.addObserver(
-                abs -> new DoubleDialog(renderer.getFrame(),
-                        toolbarAttributes.TOKEN_SIZE));
+        if (!isSelectionBoxActive)
+            return;
 
-        toolbarAttributes.TOKEN_OPEN_OUTLINE_THICKNESS_DIALOG.addObserver(
-                abs -> new DoubleDialog(renderer.getFrame(), toolbarAttributes.TOKEN_OUTLINE_THICKNESS));
-    }
+        // The stroke only depends on the zoom, so it rarely needs to be recreated
+        float selectionBoxThickness = (int) (1 / renderer.getTranslationhandler().getScale());
+        if (selectionBoxStroke == null || selectionBoxStroke.getLineWidth() != selectionBoxThickness)
+            selectionBoxStroke = new BasicStroke(selectionBoxThickness);
 
-    @Override
-    public void draw(Graphics2D g, Dimension drawingDimensions) {
+        g.setColor(Color.BLACK);
+        g.setStroke(selectionBoxStroke);
+
+        int x = Math.min(selectionBoxStart.x, selectionBoxEnd.x);
+        int y = Math.min(selectionBoxStart.y, selectionBoxEnd.y);
+        int width = Math.abs(selectionBoxEnd.x - selectionBoxStart.x);
+        int height = Math.abs(selectionBoxEnd.y - selectionBoxStart.y);
+        g.drawRect(x, y, width, height);
+    }
 
-        for (Token token : tokens) {
+    /**
+     * Draws all tokens inside the visible area in world space. Other renderers
+     * showing the same tokens call this with their own view, so layouts, decoded
+     * images and sprites are shared between all of them.
+     */
+    public void drawTokens(Graphics2D g, Rectangle visibleArea, TokenView view) {
+        // Includes the zoom as well as the scaling of high dpi screens
+        double pixelsPerWorldUnit = Math.abs(g.getTransform().getScaleX());
+
+        g.setStroke(outlineStroke);
+        g.setFont(NAME_FONT);
+        int outlineOffset = (int) (highlightThickness / 2);
+
+        view.drawnTokenCount = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            TokenRenderState state = renderStates.get(token);
+            if (!state.bounds.intersects(visibleArea))
+                continue;
+            view.drawnTokenCount++;
+            DrawnToken drawn = view.drawnTokens.computeIfAbsent(token, t -> new DrawnToken());
 
             int posX = (int) (token.getPosition().x);
             int posY = (int) (token.getPosition().y);
 
             int scaledImageSize = calculateImageSizeFor(token);
-            g.drawImage(token.getImage(), posX, posY, scaledImageSize, scaledImageSize, null);
+            g.drawImage(getSprite(token, drawn, scaledImageSize * pixelsPerWorldUnit), posX, posY,
+                    scaledImageSize, scaledImageSize, null);
 
-            g.setStroke(new BasicStroke((float) (highlightThickness)));
-            g.setColor(highlightedTokens.contains(token) ? token.getFriendStatus().getHighlight()
+            g.setColor(view.isSelectionShown && highlightedTokens.contains(token)
+                    ? token.getFriendStatus().getHighlight()
                     : token.getFriendStatus().getOutline());
 
-            int outlineOffset = (int) (highlightThickness / 2);
-
             g.drawRect(posX - outlineOffset, posY - outlineOffset, scaledImageSize + outlineOffset * 2,
                     scaledImageSize + outlineOffset * 2);
 
             // Draw the Tokens' name
-
-            g.setFont(new Font("Georgia", Font.BOLD, 20));
-            Font f = g.getFont();
-            Rectangle2D charBounds = f.getStringBounds(token.getName(), g.getFontRenderContext());
-
-            int stringPosX = (int) ((posX + scaledImageSize / 2.0) - (charBounds.getWidth() / 2.0));
-            int stringPosY = (int) (posY + scaledImageSize + (charBounds.getHeight() / 2.0));
+            int stringPosX = (int) ((posX + scaledImageSize / 2.0) - (state.nameBounds.getWidth() / 2.0));
+            int stringPosY = (int) (posY + scaledImageSize + (state.nameBounds.getHeight() / 2.0));
 
             g.setColor(Color.BLACK);
-            g.drawString(token.getName(), stringPosX, stringPosY);
+            g.drawGlyphVector(state.nameGlyphs, stringPosX, stringPosY);
 
+            drawn.bounds = state.bounds;
         }
+    }
 
-        if (!isSelectionBoxActive)
-            return;
+    /**
+     * Returns the sprite of the token for the given size, only asking the sprite
+     * cache if the image or size changed since the view drew it last.
+     */
+    private Image getSprite(Token token, DrawnToken drawn, double pixelSize) {
+        Image source = token.getImage();
+        if (drawn.sprite == null || drawn.spriteSource != source || drawn.spritePixelSize != pixelSize) {
+            drawn.sprite = spriteCache.getSprite(source, pixelSize);
+            drawn.spriteSource = source;
+            drawn.spritePixelSize = pixelSize;
+        }
+        return drawn.sprite;
+    }
 
-        g.setColor(Color.BLACK);
-        g.setStroke(new BasicStroke((int) (1 / renderer.getTranslationhandler().getScale())));
+    /**
+     * Locks the tokens against changes through the mouse and keyboard, for
+     * example while they are mirrored from a table shared by someone else.
+     * Tokens can still be selected.
+     */
+    public void setLocked(boolean isLocked) {
+        this.isLocked = isLocked;
+        if (isLocked)
+            draggedToken = null;
+    }
 
-        int x = Math.min(selectionBoxStart.x, selectionBoxEnd.x);
-        int y = Math.min(selectionBoxStart.y, selectionBoxEnd.y);
-        int width = Math.abs(selectionBoxEnd.x - selectionBoxStart.x);
-        int height = Math.abs(selectionBoxEnd.y - selectionBoxStart.y);
-        g.drawRect(x, y, width, height);
+    public boolean isLocked() {
+        return isLocked;
     }
 
     // Token dragging
     @Override
     public void mouseDragged(MouseEvent e) {
+        // The other buttons pan the view or edit the fog
+        if (!SwingUtilities.isLeftMouseButton(e))
+            return;
         if (draggedToken == null) {
+            invalidateSelectionBox();
             selectionBoxEnd = renderer.getTranslationhandler().getWorldCoordinateFormUISpace(e.getPoint());
             isSelectionBoxActive = true;
+            invalidateSelectionBox();
             return;
         }
 
@@ -165,7 +357,7 @@ public class TokenRendererComponent extends MouseAdapter implements RenderingCom
 
     @Override
     public void mouseClicked(MouseEvent e) {
-        if (e.getButton() != MouseEvent.BUTTON1 || e.getClickCount() != 2)
+        if (e.getButton() != MouseEvent.BUTTON1 || e.getClickCount() != 2 || isLocked)
             return;
 
         Token clickedToken = getTokenFromPosition(e);
@@ -182,7 +374,7 @@ public class TokenRendererComponent extends MouseAdapter implements RenderingCom
         if (token == null) {
             highlightedTokens.clear();
             selectionBoxStart = renderer.getTranslationhandler().getWorldCoordinateFormUISpace(e.getPoint());
-            notifyChange();
+            notifySelectionChange();
             return;
         }
 
@@ -197,6 +389,10 @@ public class TokenRendererComponent extends MouseAdapter implements RenderingCom
             highlightedTokens.clear();
         }
         highlightedTokens.add(token);
+        if (isLocked) {
+            notifySelectionChange();
+            return;
+        }
 
         draggedToken = token;
         dragOffset = new Point((int) (posX - clickedPos.getX()), (int) (posY - clickedPos.getY()));
@@ -205,7 +401,8 @@ public class TokenRendererComponent extends MouseAdapter implements RenderingCom
         // all the other Tokens)
         tokens.remove(token);
         tokens.add(token);
-        notifyChange();
+        renderStates.get(token).drawOrder = nextDrawOrder++;
+        notifySelectionChange();
     }
 
     @Override
@@ -227,56 +424,114 @@ public class TokenRendererComponent extends MouseAdapter implements RenderingCom
 
         List<Token> tokensInSelectionBox = getTokensInArea(selectionBox);
         highlightedTokens.clear();
-        for (Token token : tokensInSelectionBox) {
-            highlightedTokens.add(token);
-        }
+        highlightedTokens.addAll(tokensInSelectionBox);
         isSelectionBoxActive = false;
-
+        notifySelectionChange();
     }
 
     @Override
     public List<Token> getTokensInArea(Rectangle selectionBox) {
-        List<Token> tokensInSelectionBox = new ArrayList<>();
-        for (Token token : tokens) {
-            var tokenPos = token.getPosition();
-            int tokenSize = calculateImageSizeFor(token);
-
-            if (new Rectangle((int) tokenPos.x, (int) tokenPos.y, tokenSize, tokenSize)
-                    .intersects(selectionBox))
-                tokensInSelectionBox.add(token);
-        }
+        Set<Token> found = new HashSet<>();
+        spatialIndex.queryArea(selectionBox, found);
+
+        // Keep the result in drawing order, like the token list itself
+        List<Token> tokensInSelectionBox = new ArrayList<>(found);
+        tokensInSelectionBox.sort(Comparator.comparingLong(token -> renderStates.get(token).drawOrder));
         return tokensInSelectionBox;
     }
 
     @Override
     public Token getTokenFromPosition(MouseEvent e) {
         Point worldPoint = renderer.getTranslationhandler().getWorldCoordinateFormUISpace(e.getPoint());
-        // Reversed the list to make it consistent with clicking the drawn hierachy
-        // (last elements get drawn on top of others)
-        for (Token token : tokens) {
-            var tokenPos = token.getPosition();
-            // double scale = renderer.getScale();
-            int tokenSize = calculateImageSizeFor(token);
-
-            if (new Rectangle((int) tokenPos.x, (int) tokenPos.y, tokenSize, tokenSize)
-                    .contains(worldPoint))
-                return token;
+
+        hitCandidates.clear();
+        spatialIndex.queryPoint(worldPoint.x, worldPoint.y, collectHitCandidate);
+
+        // Return the token drawn last, as it is on top of all the others
+        Token topmost = null;
+        long topmostOrder = Long.MIN_VALUE;
+        for (int i = 0; i < hitCandidates.size(); i++) {
+            Token candidate = hitCandidates.get(i);
+            long order = renderStates.get(candidate).drawOrder;
+            if (order > topmostOrder) {
+                topmost = candidate;
+                topmostOrder = order;
+            }
         }
-        return null;
+        hitCandidates.clear();
+        return topmost;
+    }
+
+    /**
+     * Updates the spatial index as well as the cached name layout and drawing
+     * bounds of a token after it changed.
+     */
+    private void updateTokenBounds(Token token) {
+        int tokenSize = calculateImageSizeFor(token);
+        spatialIndex.put(token, new Rectangle((int) token.getPosition().x, (int) token.getPosition().y,
+                tokenSize, tokenSize));
+
+        TokenRenderState state = renderStates.get(token);
+        if (!token.getName().equals(state.layoutName)) {
+            state.layoutName = token.getName();
+            state.nameGlyphs = NAME_FONT.createGlyphVector(NAME_LAYOUT_CONTEXT, state.layoutName);
+            state.nameBounds = NAME_FONT.getStringBounds(state.layoutName, NAME_LAYOUT_CONTEXT);
+        }
+        state.bounds = calculateTokenBounds(token, state.nameBounds);
     }
 
     public int calculateImageSizeFor(Token token) {
         return (int) (tokenScale * token.getSize().getScale());
     }
 
+    /**
+     * Calculates the area in world space a token covers when drawn, including its
+     * outline and the name below it.
+     */
+    private Rectangle2D calculateTokenBounds(Token token, Rectangle2D charBounds) {
+        int posX = (int) (token.getPosition().x);
+        int posY = (int) (token.getPosition().y);
+        int scaledImageSize = calculateImageSizeFor(token);
+        int outlineOffset = (int) Math.ceil(highlightThickness);
+
+        Rectangle2D bounds = new Rectangle2D.Double(posX - outlineOffset, posY - outlineOffset,
+                scaledImageSize + outlineOffset * 2, scaledImageSize + outlineOffset * 2);
+
+        double stringPosX = (posX + scaledImageSize / 2.0) - (charBounds.getWidth() / 2.0);
+        double stringPosY = posY + scaledImageSize + (charBounds.getHeight() / 2.0);
+
+        // Pad the text a bit as the actual rendering context may use different hints
+        bounds.add(new Rectangle2D.Double(stringPosX + charBounds.getX() - 2, stringPosY + charBounds.getY() - 2,
+                charBounds.getWidth() + 4, charBounds.getHeight() + 4));
+        return bounds;
+    }
+
+    private void invalidateSelectionBox() {
+        if (!isSelectionBoxActive)
+            return;
+
+        double strokeWidth = Math.ceil(1 / renderer.getTranslationhandler().getScale()) + 1;
+        Rectangle2D box = new Rectangle2D.Double(
+                Math.min(selectionBoxStart.x, selectionBoxEnd.x) - strokeWidth,
+                Math.min(selectionBoxStart.y, selectionBoxEnd.y) - strokeWidth,
+                Math.abs(selectionBoxEnd.x - selectionBoxStart.x) + strokeWidth * 2,
+                Math.abs(selectionBoxEnd.y - selectionBoxStart.y) + strokeWidth * 2);
+        renderer.scheduleRedraw(box);
+    }
+
     @Override
     public void keyPressed(KeyEvent e) {
-        if (e.getKeyCode() != KeyEvent.VK_DELETE) {
+        if (e.getKeyCode() != KeyEvent.VK_DELETE || isLocked) {
             return;
         }
 
-        for (Token token : new ArrayList<>(highlightedTokens)) {
-            removeToken(token);
+        beginBatch();
+        try {
+            for (Token token : new ArrayList<>(highlightedTokens)) {
+                removeToken(token);
+            }
+        } finally {
+            commitBatch();
         }
 
     }
@@ -293,14 +548,19 @@ public class TokenRendererComponent extends MouseAdapter implements RenderingCom
 
     @Override
     public void addToken(Token t) {
-        if (t == null | tokens.contains(t))
+        if (t == null || hasToken(t))
             return;
         tokens.add(t);
-        notifyChange();
+        TokenRenderState state = new TokenRenderState();
+        state.drawOrder = nextDrawOrder++;
+        renderStates.put(t, state);
+        updateTokenBounds(t);
+        renderer.scheduleRedraw(state.bounds);
+        changeBus.post(TokenChange.added(t));
     }
 
     @Override
-    public java.util.List<Token> getAllTokens() {
+    public List<Token> getAllTokens() {
         return new ArrayList<>(tokens);
     }
 
@@ -310,28 +570,100 @@ public class TokenRendererComponent extends MouseAdapter implements RenderingCom
             return;
         if (!tokens.remove(t))
             return;
+        renderStates.remove(t);
+        spatialIndex.remove(t);
 
         if (t.equals(draggedToken))
             draggedToken = null;
         highlightedTokens.remove(t);
 
-        notifyChange();
+        renderer.scheduleRedraw(view.forget(t));
+        changeBus.post(TokenChange.removed(t));
     }
 
     @Override
     public boolean hasToken(Token t) {
-        return tokens.contains(t);
+        return renderStates.containsKey(t);
+    }
+
+    /**
+     * @return How many tokens the last draw call actually drew, all others were
+     *         outside of the visible area
+     */
+    public int getDrawnTokenCount() {
+        return view.getDrawnTokenCount();
+    }
+
+    /**
+     * @return The area in world space the token covers right now, or null if it
+     *         isn't part of the scene
+     */
+    public Rectangle2D getTokenBounds(Token t) {
+        TokenRenderState state = renderStates.get(t);
+        return state == null ? null : state.bounds;
+    }
+
+    public int getTokenCount() {
+        return tokens.size();
+    }
+
+    public SpriteCache getSpriteCache() {
+        return spriteCache;
     }
 
     @Override
     public void notifyChange() {
         renderer.scheduleRedraw();
-        notifyObservers(this);
+        changeBus.post(TokenChange.changed(null, EnumSet.allOf(TokenChange.Field.class)));
+    }
+
+    /**
+     * Highlighting or drawing order changed, which only matters for drawing.
+     */
+    private void notifySelectionChange() {
+        renderer.scheduleRedraw();
+        changeBus.post(TokenChange.changed(null, EnumSet.of(TokenChange.Field.SELECTION)));
+    }
+
+    @Override
+    public void notifyChange(Token t, Set<TokenChange.Field> fields) {
+        TokenRenderState state = renderStates.get(t);
+        // Tokens that aren't part of the scene (yet) don't concern anyone
+        if (state == null)
+            return;
+
+        // Invalidate where the token was last drawn as well as where it is now
+        renderer.scheduleRedraw(view.getDrawnBounds(t));
+        updateTokenBounds(t);
+        renderer.scheduleRedraw(state.bounds);
+        if (!fields.isEmpty())
+            changeBus.post(TokenChange.changed(t, fields));
+    }
+
+    @Override
+    public void addChangeListener(Observer<List<TokenChange>> listener) {
+        changeBus.addObserver(listener);
+    }
+
+    @Override
+    public void removeChangeListener(Observer<List<TokenChange>> listener) {
+        changeBus.removeObserver(listener);
+    }
+
+    @Override
+    public void beginBatch() {
+        changeBus.beginBatch();
+    }
+
+    @Override
+    public void commitBatch() {
+        changeBus.commitBatch();
     }
 
     @Override
     public void addObserver(Observer<TokenHandler> obs) {
         observerhandler.addObserver(obs);
+        changeBus.addObserver(forwardToObservers);
     }
 
     @Override
@@ -342,6 +674,8 @@ public class TokenRendererComponent extends MouseAdapter implements RenderingCom
     @Override
     public void removeObserver(Observer<TokenHandler> obs) {
         observerhandler.removeObserver(obs);
+        if (!observerhandler.hasObservers())
+            changeBus.removeObserver(forwardToObservers);
     }
 
     private int clamp(int value, int min, int max) {
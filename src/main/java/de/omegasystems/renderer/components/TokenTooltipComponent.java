@@ -5,19 +5,28 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.font.FontRenderContext;
 import java.awt.geom.Rectangle2D;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import javax.swing.Timer;
 
+import de.omegasystems.core.Animation;
+import de.omegasystems.core.RenderLayer;
 import de.omegasystems.core.Renderer;
 import de.omegasystems.core.RenderingComponent;
 import de.omegasystems.core.Token;
+import de.omegasystems.core.TokenChange;
+import de.omegasystems.core.TokenChange.Field;
 import de.omegasystems.core.TokenHandler;
 import de.omegasystems.utility.Observer;
 
-public class TokenTooltipComponent extends MouseAdapter implements RenderingComponent, Observer<TokenHandler> {
+public class TokenTooltipComponent extends MouseAdapter implements RenderingComponent, Observer<List<TokenChange>> {
 
     private Renderer renderer;
     private TokenHandler tokenHandler;
@@ -25,25 +34,26 @@ public class TokenTooltipComponent extends MouseAdapter implements RenderingComp
     private Token hoveredToken;
     private Token pendingToken;
     private Timer tooltipTimer;
-    private Timer fadeInTimer;
+    private Animation fadeInAnimation = this::updateOpacity;
     private float opacity;
+    private Rectangle lastDrawnBounds;
 
     private static final int TOOLTIP_DELAY = 500; // Delay in milliseconds
     private static final int FADE_IN_DURATION = 100; // Duration in milliseconds
-    private static final int FADE_IN_INTERVAL = 20; // Interval in milliseconds
+    private static final FontRenderContext LAYOUT_CONTEXT = new FontRenderContext(null, true, true);
+    // Everything the tooltip shows or is placed by
+    private static final Set<Field> SHOWN_FIELDS = EnumSet.of(Field.POSITION, Field.NAME, Field.SIZE,
+            Field.MOVEMENT, Field.FRIEND_STATUS);
 
     public TokenTooltipComponent(TokenHandler th) {
         this.tokenHandler = th;
         if (tokenHandler == null)
             throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
                     + "] Tokenhandler was null during initialization");
-        tokenHandler.addObserver(this);
+        tokenHandler.addChangeListener(this);
 
         tooltipTimer = new Timer(TOOLTIP_DELAY, e -> startFadeIn());
         tooltipTimer.setRepeats(false);
-
-        fadeInTimer = new Timer(FADE_IN_INTERVAL, e -> updateOpacity());
-        fadeInTimer.setRepeats(true);
     }
 
     @Override
@@ -54,25 +64,37 @@ public class TokenTooltipComponent extends MouseAdapter implements RenderingComp
     }
 
     @Override
-    public void update(TokenHandler newVal) {
-        if (hoveredToken == null)
-            return;
-        if (tokenHandler.hasToken(hoveredToken))
-            return;
-
-        hoveredToken = null;
-        notifyChange();
+    public RenderLayer getRenderLayer() {
+        return RenderLayer.DYNAMIC;
     }
 
     @Override
-    public void draw(Graphics2D g, Dimension canvasSize) {
-        // Hovered Token Infobox drawing
+    public void update(List<TokenChange> changes) {
+        if (hoveredToken == null)
+            return;
 
-        // The second condition should never occur as removed tokens also get cleared
-        // from highlighting
-        if (hoveredToken == null || !tokenHandler.hasToken(hoveredToken))
+        for (int i = 0; i < changes.size(); i++) {
+            TokenChange change = changes.get(i);
+            if ((change.token() != null && change.token() != hoveredToken) || !change.affects(SHOWN_FIELDS))
+                continue;
+
+            if (change.type() == TokenChange.Type.REMOVED)
+                hoveredToken = null;
+            // Otherwise the hovered token was edited or moved, so its tooltip changes
+            notifyChange();
             return;
+        }
+    }
 
+    /**
+     * Holds the measurements needed to draw the tooltip of a token, so that the
+     * covered area can be calculated without actually drawing it.
+     */
+    private record TooltipLayout(Font font, Rectangle bounds, int hPadding, int vPadding, int distanceBetweenLines,
+            int titleHeight, int friendlienessHeight, int movementHeight) {
+    }
+
+    private TooltipLayout calculateLayout(Token token, FontRenderContext frc, Dimension canvasSize) {
         double scale = 1 / renderer.getTranslationhandler().getScale();
 
         int distanceBetweenLines = (int) (3 * scale);
@@ -81,23 +103,22 @@ public class TokenTooltipComponent extends MouseAdapter implements RenderingComp
 
         int hTokenDistance = (int) (10 * scale);
 
-        g.setFont(new Font("Georgia", Font.BOLD, (int) (15 * scale)));
-        Font f = g.getFont();
+        Font f = new Font("Georgia", Font.BOLD, (int) (15 * scale));
 
         // Calculate bounds of Textbox
         Dimension drawingDimensions = new Dimension();
 
-        Rectangle2D titleBounds = f.getStringBounds(hoveredToken.getName(), g.getFontRenderContext());
+        Rectangle2D titleBounds = f.getStringBounds(token.getName(), frc);
         drawingDimensions = new Dimension((int) Math.max(drawingDimensions.getWidth(), titleBounds.getWidth()),
                 (int) (drawingDimensions.getHeight() + distanceBetweenLines + titleBounds.getHeight()));
         int titleHeight = (int) titleBounds.getHeight();
 
-        titleBounds = f.getStringBounds(hoveredToken.getFriendStatus().toString(), g.getFontRenderContext());
+        titleBounds = f.getStringBounds(token.getFriendStatus().toString(), frc);
         drawingDimensions = new Dimension((int) Math.max(drawingDimensions.getWidth(), titleBounds.getWidth()),
                 (int) (drawingDimensions.getHeight() + distanceBetweenLines + titleBounds.getHeight()));
         int friendlienessHeight = (int) titleBounds.getHeight();
 
-        titleBounds = f.getStringBounds(hoveredToken.getMovement(), g.getFontRenderContext());
+        titleBounds = f.getStringBounds(token.getMovement(), frc);
         drawingDimensions = new Dimension((int) Math.max(drawingDimensions.getWidth(), titleBounds.getWidth()),
                 (int) (drawingDimensions.getHeight() + distanceBetweenLines + titleBounds.getHeight()));
         int movementHeight = (int) titleBounds.getHeight();
@@ -107,9 +128,9 @@ public class TokenTooltipComponent extends MouseAdapter implements RenderingComp
 
         // Now that we have the bounds of the Strings, we can check to wich side of the
         // Token we can draw it
-        int posX = (int) (hoveredToken.getPosition().x);
-        int posY = (int) (hoveredToken.getPosition().y);
-        int imageSize = tokenHandler.calculateImageSizeFor(hoveredToken);
+        int posX = (int) (token.getPosition().x);
+        int posY = (int) (token.getPosition().y);
+        int imageSize = tokenHandler.calculateImageSizeFor(token);
 
         int drawingPosX = posX + imageSize + hTokenDistance;
         int drawingPosY = posY;
@@ -120,19 +141,38 @@ public class TokenTooltipComponent extends MouseAdapter implements RenderingComp
         if (drawingPosY + drawingDimensions.getHeight() > canvasSize.getHeight())
             drawingPosY = (int) (canvasSize.getHeight() - drawingDimensions.getHeight());
 
+        return new TooltipLayout(f,
+                new Rectangle(drawingPosX, drawingPosY, drawingDimensions.width, drawingDimensions.height),
+                hPadding, vPadding, distanceBetweenLines, titleHeight, friendlienessHeight, movementHeight);
+    }
+
+    @Override
+    public void draw(Graphics2D g, Dimension canvasSize) {
+        // Hovered Token Infobox drawing
+
+        // The second condition should never occur as removed tokens also get cleared
+        // from highlighting
+        if (hoveredToken == null || !tokenHandler.hasToken(hoveredToken))
+            return;
+
+        TooltipLayout layout = calculateLayout(hoveredToken, g.getFontRenderContext(), canvasSize);
+        Rectangle bounds = layout.bounds();
+        lastDrawnBounds = bounds;
+
         // Draw the actual Thing
+        g.setFont(layout.font());
         g.setColor(new Color(192, 192, 192, (int) (opacity * 255)));
         g.setStroke(new BasicStroke((float) (2.0 * renderer.getTranslationhandler().getScale())));
-        g.fillRect(drawingPosX, drawingPosY, (int) drawingDimensions.getWidth(), (int) drawingDimensions.getHeight());
+        g.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
         g.setColor(new Color(0, 0, 0, (int) (opacity * 255)));
 
-        int curPosX = drawingPosX + hPadding;
-        int curPosY = drawingPosY + vPadding + titleHeight;
+        int curPosX = bounds.x + layout.hPadding();
+        int curPosY = bounds.y + layout.vPadding() + layout.titleHeight();
 
         g.drawString(hoveredToken.getName(), curPosX, curPosY);
-        curPosY += distanceBetweenLines + friendlienessHeight;
+        curPosY += layout.distanceBetweenLines() + layout.friendlienessHeight();
         g.drawString(hoveredToken.getFriendStatus().toString(), curPosX, curPosY);
-        curPosY += distanceBetweenLines + movementHeight;
+        curPosY += layout.distanceBetweenLines() + layout.movementHeight();
         g.drawString(hoveredToken.getMovement(), curPosX, curPosY);
     }
 
@@ -143,7 +183,7 @@ public class TokenTooltipComponent extends MouseAdapter implements RenderingComp
 
         hoveredToken = null;
         tooltipTimer.stop();
-        fadeInTimer.stop();
+        renderer.getFrameScheduler().cancel(fadeInAnimation);
         opacity = 0;
         notifyChange();
     }
@@ -158,7 +198,7 @@ public class TokenTooltipComponent extends MouseAdapter implements RenderingComp
         if (newToken == null) {
             hoveredToken = null;
             tooltipTimer.stop();
-            fadeInTimer.stop();
+            renderer.getFrameScheduler().cancel(fadeInAnimation);
             opacity = 0;
             notifyChange();
         } else {
@@ -169,19 +209,36 @@ public class TokenTooltipComponent extends MouseAdapter implements RenderingComp
     private void startFadeIn() {
         opacity = 0;
         hoveredToken = pendingToken;
-        fadeInTimer.restart();
+        renderer.getFrameScheduler().requestFrames(fadeInAnimation);
     }
 
-    private void updateOpacity() {
-        opacity += (float) FADE_IN_INTERVAL / FADE_IN_DURATION;
-        if (opacity >= 1) {
+    private boolean updateOpacity(double deltaMillis) {
+        opacity += (float) (deltaMillis / FADE_IN_DURATION);
+        if (opacity >= 1)
             opacity = 1;
-            fadeInTimer.stop();
-        }
+
         notifyChange();
+        return opacity < 1;
     }
 
+    /**
+     * Invalidates the area the tooltip was last drawn at and the area it will be
+     * drawn at next.
+     */
     private void notifyChange() {
-        renderer.scheduleRedraw();
+        if (lastDrawnBounds != null) {
+            renderer.scheduleRedraw(padded(lastDrawnBounds));
+            lastDrawnBounds = null;
+        }
+
+        if (hoveredToken == null || !tokenHandler.hasToken(hoveredToken))
+            return;
+
+        var layout = calculateLayout(hoveredToken, LAYOUT_CONTEXT, renderer.getDrawingDimensions());
+        renderer.scheduleRedraw(padded(layout.bounds()));
+    }
+
+    private static Rectangle padded(Rectangle r) {
+        return new Rectangle(r.x - 2, r.y - 2, r.width + 4, r.height + 4);
     }
 }
@@ -76,6 +76,7 @@ public class TokenDialog extends JDialog {
         var friendlienessChooser = ComponentBuilder.createEnumRadioButtons(data.getFriendStatus(), Friendlieness.class);
         var sizeChooser = ComponentBuilder.createEnumSlider("Size: ", data.getSize(), TokenSize.class);
         var movementEditor = ComponentBuilder.createTextField(12, data.getMovement());
+        var visionEditor = ComponentBuilder.createNumberField(4, data.getVisionRadius());
 
         var sendButton = ComponentBuilder.createCallbackButton(token != null ? "Save Changes" : "Create Token", () -> {
             if (token != null)
@@ -101,6 +102,8 @@ public class TokenDialog extends JDialog {
         friendlienessChooser.forEach(btn -> topRightPanel.add(btn));
         topRightPanel.add(Box.createVerticalStrut(20));
         topRightPanel.add(movementEditor);
+        topRightPanel.add(new Label("Vision radius (cells, 0 for none):", Label.LEFT));
+        topRightPanel.add(visionEditor);
 
         topPanel.add(topLeftPanel);
         topPanel.add(topRightPanel);
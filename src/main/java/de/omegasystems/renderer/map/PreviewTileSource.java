@@ -0,0 +1,120 @@
+package de.omegasystems.renderer.map;
+
+import java.awt.Dimension;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.omegasystems.core.MapTileSource;
+import de.omegasystems.utility.ImageUtil;
+
+/**
+ * A {@link MapTileSource} that stands in for a map of the given size while only
+ * a low resolution copy of it is available, for example while the real map is
+ * still being downloaded.<br>
+ * <br>
+ * The world has the size of the real map, so tokens and the grid are already at
+ * their correct place. Only the coarse levels of detail the preview has enough
+ * pixels for have tiles, the finer ones are left empty and get drawn from the
+ * coarse ones.
+ */
+public class PreviewTileSource implements MapTileSource {
+
+    private record TileKey(int level, int column, int row) {
+    }
+
+    private final int tileSize;
+    private final Dimension size;
+    private final int levelCount;
+    private final int finestLevel;
+
+    private final Image preview;
+    private final int previewWidth;
+    private final int previewHeight;
+    private final Map<TileKey, Image> tiles = new HashMap<>();
+
+    /**
+     * @param preview the whole map at a lower resolution
+     * @param size    the size of the full resolution map
+     */
+    public PreviewTileSource(Image preview, Dimension size) {
+        this(preview, size, StreamingTileSource.DEFAULT_TILE_SIZE);
+    }
+
+    public PreviewTileSource(Image preview, Dimension size, int tileSize) {
+        if (preview == null || preview.getWidth(null) <= 0 || preview.getHeight(null) <= 0 || size == null
+                || size.width <= 0 || size.height <= 0)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Preview was null or empty during initialization");
+
+        this.preview = preview;
+        this.previewWidth = preview.getWidth(null);
+        this.previewHeight = preview.getHeight(null);
+        this.tileSize = tileSize;
+        this.size = new Dimension(size);
+
+        int levels = 1;
+        while ((size.width >> (levels - 1)) > tileSize || (size.height >> (levels - 1)) > tileSize)
+            levels++;
+        levelCount = levels;
+
+        // The first level that doesn't need more pixels than the preview has
+        int level = 0;
+        while (level < levelCount - 1 && ((size.width >> level) > previewWidth
+                || (size.height >> level) > previewHeight))
+            level++;
+        finestLevel = level;
+    }
+
+    @Override
+    public Dimension getSize() {
+        return (Dimension) size.clone();
+    }
+
+    @Override
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    @Override
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    @Override
+    public Image getTile(int level, int column, int row) {
+        if (level < finestLevel || level >= levelCount || column < 0 || row < 0)
+            return null;
+        int levelTileSize = tileSize << level;
+        if (column * levelTileSize >= size.width || row * levelTileSize >= size.height)
+            return null;
+
+        // Cutting is cheap, but drawing the same tile every frame shouldn't scale again
+        return tiles.computeIfAbsent(new TileKey(level, column, row), this::cutTile);
+    }
+
+    private Image cutTile(TileKey key) {
+        int levelTileSize = tileSize << key.level();
+        int worldX = key.column() * levelTileSize;
+        int worldY = key.row() * levelTileSize;
+        int worldWidth = Math.min(levelTileSize, size.width - worldX);
+        int worldHeight = Math.min(levelTileSize, size.height - worldY);
+
+        double scaleX = (double) previewWidth / size.width;
+        double scaleY = (double) previewHeight / size.height;
+        int sx = (int) (worldX * scaleX);
+        int sy = (int) (worldY * scaleY);
+        int sWidth = Math.max(1, Math.min(previewWidth - sx, (int) Math.ceil(worldWidth * scaleX)));
+        int sHeight = Math.max(1, Math.min(previewHeight - sy, (int) Math.ceil(worldHeight * scaleY)));
+
+        int width = Math.max(1, (worldWidth + (1 << key.level()) - 1) >> key.level());
+        int height = Math.max(1, (worldHeight + (1 << key.level()) - 1) >> key.level());
+        return ImageUtil.copyScaled(preview, sx, sy, sWidth, sHeight, width, height, Transparency.OPAQUE);
+    }
+
+    @Override
+    public void dispose() {
+        tiles.clear();
+    }
+}
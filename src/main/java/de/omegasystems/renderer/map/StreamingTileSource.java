@@ -0,0 +1,371 @@
+package de.omegasystems.renderer.map;
+
+import java.awt.Dimension;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.SwingUtilities;
+
+import de.omegasystems.core.MapTileSource;
+import de.omegasystems.utility.ImageUtil;
+import de.omegasystems.utility.LruCache;
+import de.omegasystems.utility.Observer;
+import de.omegasystems.utility.Observerhandler;
+
+/**
+ * A {@link MapTileSource} that never decodes the whole map at once.<br>
+ * <br>
+ * Only the header of the image is read on creation. Tiles get decoded on a
+ * background thread when they are first requested, using source regions and
+ * subsampling so that only the requested part of the map at the requested
+ * resolution ends up in memory. Decoded tiles are kept in a size bounded cache
+ * shared by all sources, which means memory usage depends on the screen size
+ * and neither on the map size nor on the number of open maps.<br>
+ * <br>
+ * Requests that weren't repeated for a while are dropped before decoding, as
+ * views request the tiles they show on every paint. Otherwise panning quickly
+ * over a large map would queue up every tile on the way.
+ */
+public class StreamingTileSource implements MapTileSource {
+
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    // How long a requested tile stays pending without being requested again
+    private static final long STALE_REQUEST_NANOS = 500_000_000L;
+    // Marks preloaded tiles, which stay pending until they are decoded
+    private static final long PRELOADED = Long.MIN_VALUE;
+    // Neighbouring tiles of a row are decoded with a single read, up to this many
+    private static final int MAX_BATCH_TILES = 4;
+
+    private record TileKey(StreamingTileSource source, int level, int column, int row) {
+    }
+
+    // Shared by all sources, so that opening more scenes doesn't multiply the
+    // memory taken by tiles. Tiles of the scene being shown win by being used
+    private static final LruCache<TileKey, BufferedImage> cache = new LruCache<>(calculateDefaultCacheSize(),
+            img -> (long) img.getWidth() * img.getHeight() * 4);
+
+    private final int tileSize;
+    private final Dimension size;
+    private final int levelCount;
+
+    private final ImageInputStream inputStream;
+    private final ImageReader reader;
+
+    private final Observerhandler<Rectangle> tileObservers = new Observerhandler<>();
+
+    // The time each tile was last requested at, guarded by itself
+    private final LinkedHashMap<TileKey, Long> pendingTiles = new LinkedHashMap<>();
+    private boolean isDecodeScheduled = false;
+    private boolean isDisposed = false;
+    private final ExecutorService decoder = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Map Tile Decoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param input Anything {@link ImageIO#createImageInputStream(Object)}
+     *              accepts, usually a File or an InputStream
+     * @throws IOException If the input cannot be read or is no supported image
+     */
+    public StreamingTileSource(Object input) throws IOException {
+        this(input, DEFAULT_TILE_SIZE);
+    }
+
+    public StreamingTileSource(Object input, int tileSize) throws IOException {
+        this.tileSize = tileSize;
+
+        inputStream = ImageIO.createImageInputStream(input);
+        if (inputStream == null)
+            throw new IOException("Couldn't open an image stream for '" + input + "'");
+
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+        if (!readers.hasNext()) {
+            inputStream.close();
+            throw new IOException("No image reader found for '" + input + "'");
+        }
+
+        reader = readers.next();
+        reader.setInput(inputStream, false, true);
+        size = new Dimension(reader.getWidth(0), reader.getHeight(0));
+
+        int levels = 1;
+        while ((size.width >> (levels - 1)) > tileSize || (size.height >> (levels - 1)) > tileSize)
+            levels++;
+        levelCount = levels;
+
+        // Request the coarsest level right away so that there is something to show
+        request(new TileKey(this, levelCount - 1, 0, 0), PRELOADED);
+    }
+
+    /**
+     * Budgets enough memory for a couple of screens worth of tiles, as tiles of
+     * neighbouring levels, around the viewport and of the scenes opened next to
+     * the shown one should stay cached as well.
+     */
+    private static long calculateDefaultCacheSize() {
+        GraphicsConfiguration config = ImageUtil.getDefaultConfiguration();
+        Rectangle screen = config != null ? config.getBounds() : new Rectangle(1920, 1080);
+        return Math.max(64L * 1024 * 1024, (long) screen.width * screen.height * 4 * 8);
+    }
+
+    @Override
+    public Dimension getSize() {
+        return (Dimension) size.clone();
+    }
+
+    @Override
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    @Override
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    @Override
+    public Image getTile(int level, int column, int row) {
+        if (!isValidTile(level, column, row))
+            return null;
+
+        TileKey key = new TileKey(this, level, column, row);
+        Image tile = cache.get(key);
+        if (tile != null)
+            return tile;
+
+        request(key, System.nanoTime());
+        return null;
+    }
+
+    /**
+     * Same as the default, but the tiles stay pending until they are decoded,
+     * even if no view requests them again.
+     */
+    @Override
+    public void preload(int level, Rectangle worldArea) {
+        if (level < 0 || level >= levelCount)
+            return;
+        int tileWorldSize = tileSize << level;
+        Rectangle area = worldArea.intersection(new Rectangle(size));
+        if (area.isEmpty())
+            return;
+
+        for (int column = area.x / tileWorldSize; column <= (area.x + area.width - 1) / tileWorldSize; column++) {
+            for (int row = area.y / tileWorldSize; row <= (area.y + area.height - 1) / tileWorldSize; row++) {
+                TileKey key = new TileKey(this, level, column, row);
+                if (!cache.contains(key))
+                    request(key, PRELOADED);
+            }
+        }
+    }
+
+    private void request(TileKey key, long requestTime) {
+        synchronized (pendingTiles) {
+            if (isDisposed)
+                return;
+
+            // Re-adding moves the tile to the end, so recently requested tiles win
+            Long previous = pendingTiles.remove(key);
+            pendingTiles.put(key, previous != null && previous == PRELOADED ? PRELOADED : requestTime);
+            if (!isDecodeScheduled) {
+                isDecodeScheduled = true;
+                decoder.execute(this::decodePendingTiles);
+            }
+        }
+    }
+
+    @Override
+    public Image getCachedTile(int level, int column, int row) {
+        if (!isValidTile(level, column, row))
+            return null;
+        return cache.get(new TileKey(this, level, column, row));
+    }
+
+    private boolean isValidTile(int level, int column, int row) {
+        if (level < 0 || level >= levelCount || column < 0 || row < 0)
+            return false;
+        int levelTileSize = tileSize << level;
+        return column * levelTileSize < size.width && row * levelTileSize < size.height;
+    }
+
+    /**
+     * Decodes the most recently requested tile together with the pending tiles
+     * next to it in the same row, with a single read of their region. Tiles that
+     * weren't requested again in time are dropped first.
+     */
+    private void decodePendingTiles() {
+        List<TileKey> batch = new ArrayList<>();
+        List<TileKey> dropped = new ArrayList<>();
+        synchronized (pendingTiles) {
+            long now = System.nanoTime();
+            pendingTiles.entrySet().removeIf(entry -> {
+                // Tiles might have been decoded by an earlier batch in the meantime
+                if (cache.contains(entry.getKey()))
+                    return true;
+                long requestTime = entry.getValue();
+                if (requestTime == PRELOADED || now - requestTime <= STALE_REQUEST_NANOS)
+                    return false;
+                dropped.add(entry.getKey());
+                return true;
+            });
+
+            TileKey newest = null;
+            for (TileKey key : pendingTiles.keySet())
+                newest = key;
+
+            if (newest != null)
+                collectBatch(newest, batch);
+        }
+
+        // Views still showing a dropped tile request it again when repainting its area
+        for (TileKey key : dropped)
+            notifyTileObservers(key);
+
+        try {
+            if (!batch.isEmpty())
+                decodeBatch(batch);
+        } catch (Exception e) {
+            System.err.println("[StreamingTileSource] An error occured while decoding map tiles " + batch);
+            e.printStackTrace();
+        }
+
+        synchronized (pendingTiles) {
+            if (pendingTiles.isEmpty())
+                isDecodeScheduled = false;
+            else
+                decoder.execute(this::decodePendingTiles);
+        }
+    }
+
+    /**
+     * Removes the tile and the pending tiles directly left and right of it from
+     * the pending ones and adds them to the batch, at most
+     * {@link #MAX_BATCH_TILES}. Only a single row is read at once, so the
+     * region decoded never exceeds that many tiles.
+     */
+    private void collectBatch(TileKey tile, List<TileKey> batch) {
+        pendingTiles.remove(tile);
+        batch.add(tile);
+        int left = tile.column() - 1;
+        int right = tile.column() + 1;
+        while (batch.size() < MAX_BATCH_TILES) {
+            TileKey leftKey = new TileKey(this, tile.level(), left, tile.row());
+            TileKey rightKey = new TileKey(this, tile.level(), right, tile.row());
+            if (pendingTiles.remove(leftKey) != null) {
+                batch.add(leftKey);
+                left--;
+            } else if (pendingTiles.remove(rightKey) != null) {
+                batch.add(rightKey);
+                right++;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void decodeBatch(List<TileKey> batch) throws IOException {
+        // All tiles of a batch are next to each other in the same row
+        int level = batch.get(0).level();
+        int row = batch.get(0).row();
+        int minColumn = Integer.MAX_VALUE, maxColumn = 0;
+        for (TileKey key : batch) {
+            minColumn = Math.min(minColumn, key.column());
+            maxColumn = Math.max(maxColumn, key.column());
+        }
+
+        int subsampling = 1 << level;
+        int levelTileSize = tileSize << level;
+        Rectangle sourceRegion = new Rectangle(minColumn * levelTileSize, row * levelTileSize, 0, 0);
+        sourceRegion.width = Math.min((maxColumn + 1) * levelTileSize, size.width) - sourceRegion.x;
+        sourceRegion.height = Math.min((row + 1) * levelTileSize, size.height) - sourceRegion.y;
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(sourceRegion);
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        BufferedImage decoded = reader.read(0, param);
+        synchronized (pendingTiles) {
+            // The cache is shared, tiles of a disposed source would only waste it
+            if (isDisposed)
+                return;
+        }
+        int transparency = decoded.getColorModel().getTransparency();
+
+        for (TileKey key : batch) {
+            int x = (key.column() - minColumn) * tileSize;
+            int width = Math.min(tileSize, decoded.getWidth() - x);
+            int height = Math.min(tileSize, decoded.getHeight());
+            if (width <= 0 || height <= 0)
+                continue;
+
+            // Copy the tile, so it doesn't keep the whole decoded region alive
+            BufferedImage tile = ImageUtil.copyScaled(decoded, x, 0, width, height, width, height,
+                    transparency == Transparency.OPAQUE ? Transparency.OPAQUE : Transparency.TRANSLUCENT);
+            cache.put(key, tile);
+            notifyTileObservers(key);
+        }
+    }
+
+    private void notifyTileObservers(TileKey key) {
+        int levelTileSize = tileSize << key.level();
+        Rectangle worldArea = new Rectangle(key.column() * levelTileSize, key.row() * levelTileSize,
+                levelTileSize, levelTileSize);
+        SwingUtilities.invokeLater(() -> tileObservers.notifyObservers(worldArea));
+    }
+
+    @Override
+    public void addTileObserver(Observer<Rectangle> obs) {
+        tileObservers.addObserver(obs);
+    }
+
+    @Override
+    public void removeTileObserver(Observer<Rectangle> obs) {
+        tileObservers.removeObserver(obs);
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (pendingTiles) {
+            if (isDisposed)
+                return;
+            isDisposed = true;
+            pendingTiles.clear();
+
+            // Close the reader on the decoder thread, so that a running read can finish
+            decoder.execute(() -> {
+                reader.dispose();
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            decoder.shutdown();
+        }
+        cache.removeIf(key -> key.source() == this);
+    }
+
+    /**
+     * @return The cache holding the decoded tiles of all sources, mainly useful
+     *         for statistics
+     */
+    public static LruCache<?, BufferedImage> getCache() {
+        return cache;
+    }
+
+}
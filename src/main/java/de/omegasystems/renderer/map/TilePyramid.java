@@ -0,0 +1,106 @@
+package de.omegasystems.renderer.map;
+
+import java.awt.Dimension;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.omegasystems.core.MapTileSource;
+import de.omegasystems.utility.ImageUtil;
+
+/**
+ * A {@link MapTileSource} that splits an already loaded image into tiles and
+ * precalculates all lower levels of detail.<br>
+ * The whole pyramid takes roughly 4/3 of the memory of the source image, the
+ * source itself isn't referenced afterwards.
+ */
+public class TilePyramid implements MapTileSource {
+
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    private final int tileSize;
+    private final int transparency;
+    private final Dimension size;
+    // levels.get(level)[column][row]
+    private List<Image[][]> levels = new ArrayList<>();
+
+    public TilePyramid(Image source) {
+        this(source, DEFAULT_TILE_SIZE);
+    }
+
+    public TilePyramid(Image source, int tileSize) {
+        if (source == null || source.getWidth(null) <= 0 || source.getHeight(null) <= 0)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Image was null or empty during initialization");
+
+        this.tileSize = tileSize;
+        this.size = new Dimension(source.getWidth(null), source.getHeight(null));
+        this.transparency = source instanceof BufferedImage bi ? bi.getTransparency() : Transparency.TRANSLUCENT;
+
+        Image levelImage = source;
+        int levelWidth = size.width;
+        int levelHeight = size.height;
+        while (true) {
+            levels.add(cutIntoTiles(levelImage, levelWidth, levelHeight));
+            if (levelWidth <= tileSize && levelHeight <= tileSize)
+                break;
+
+            // Every level is created from the previous one, which is a lot cheaper than
+            // scaling the full resolution image down again and again
+            int nextWidth = Math.max(1, (levelWidth + 1) / 2);
+            int nextHeight = Math.max(1, (levelHeight + 1) / 2);
+            levelImage = ImageUtil.copyScaled(levelImage, 0, 0, levelWidth, levelHeight, nextWidth, nextHeight,
+                    transparency);
+            levelWidth = nextWidth;
+            levelHeight = nextHeight;
+        }
+    }
+
+    private Image[][] cutIntoTiles(Image levelImage, int levelWidth, int levelHeight) {
+        int columns = (levelWidth + tileSize - 1) / tileSize;
+        int rows = (levelHeight + tileSize - 1) / tileSize;
+
+        Image[][] tiles = new Image[columns][rows];
+        for (int column = 0; column < columns; column++) {
+            for (int row = 0; row < rows; row++) {
+                int x = column * tileSize;
+                int y = row * tileSize;
+                int width = Math.min(tileSize, levelWidth - x);
+                int height = Math.min(tileSize, levelHeight - y);
+                BufferedImage tile = ImageUtil.copyScaled(levelImage, x, y, width, height, width, height,
+                        transparency);
+                tiles[column][row] = tile;
+            }
+        }
+        return tiles;
+    }
+
+    @Override
+    public Dimension getSize() {
+        return (Dimension) size.clone();
+    }
+
+    @Override
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    @Override
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    @Override
+    public Image getTile(int level, int column, int row) {
+        if (level < 0 || level >= levels.size())
+            return null;
+
+        Image[][] tiles = levels.get(level);
+        if (column < 0 || column >= tiles.length || row < 0 || row >= tiles[column].length)
+            return null;
+        return tiles[column][row];
+    }
+
+}
@@ -0,0 +1,117 @@
+package de.omegasystems.utility;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Delivers events to observers in batches instead of one at a time.<br>
+ * Events posted during one pass of the EDT are collected and handed to the
+ * observers together once the pass is done. Events with the same key are
+ * merged on the way, so a token dragged across the screen only reaches the
+ * observers once per frame. Between {@link #beginBatch()} and
+ * {@link #commitBatch()} nothing is delivered at all, which turns bulk changes
+ * into a single batch.<br>
+ * <br>
+ * Events have to be posted on the EDT, observers are called on it as well.
+ *
+ * @param <K> the key identifying events that can be merged
+ * @param <E> the type of the events
+ */
+public class EventBus<K, E> {
+
+    private final Function<E, K> keyFunction;
+    private final BinaryOperator<E> merger;
+    private final Observerhandler<List<E>> observerhandler = new Observerhandler<>();
+
+    // Keeps the order in which the keys changed first
+    private Map<K, E> pending = new LinkedHashMap<>();
+    private int batchDepth = 0;
+    private boolean isDispatchScheduled = false;
+
+    /**
+     * @param keyFunction calculates the key of an event, null is a valid key
+     * @param merger      merges an earlier with a later event of the same key,
+     *                    returning null drops both
+     */
+    public EventBus(Function<E, K> keyFunction, BinaryOperator<E> merger) {
+        if (keyFunction == null || merger == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Key function and merger are required");
+        this.keyFunction = keyFunction;
+        this.merger = merger;
+    }
+
+    public void post(E event) {
+        // Nobody would receive it anyway
+        if (!observerhandler.hasObservers())
+            return;
+
+        K key = keyFunction.apply(event);
+        E earlier = pending.get(key);
+        if (earlier == null) {
+            pending.put(key, event);
+        } else {
+            E merged = merger.apply(earlier, event);
+            if (merged == null)
+                pending.remove(key);
+            else
+                pending.put(key, merged);
+        }
+        scheduleDispatch();
+    }
+
+    /**
+     * Holds back all events until the matching {@link #commitBatch()}. Batches
+     * can be nested, only the outermost commit releases the events.
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    public void commitBatch() {
+        if (batchDepth == 0)
+            throw new IllegalStateException("[" + this.getClass().getCanonicalName()
+                    + "] Committed a batch that was never begun");
+        batchDepth--;
+        scheduleDispatch();
+    }
+
+    public boolean isInBatch() {
+        return batchDepth > 0;
+    }
+
+    private void scheduleDispatch() {
+        if (batchDepth > 0 || isDispatchScheduled || pending.isEmpty())
+            return;
+        isDispatchScheduled = true;
+        SwingUtilities.invokeLater(this::dispatch);
+    }
+
+    private void dispatch() {
+        isDispatchScheduled = false;
+        // A batch begun after this was scheduled keeps holding the events back
+        if (batchDepth > 0 || pending.isEmpty())
+            return;
+
+        // Observers may post new events, those go into the next dispatch
+        List<E> events = Collections.unmodifiableList(new ArrayList<>(pending.values()));
+        pending = new LinkedHashMap<>();
+        observerhandler.notifyObservers(events);
+    }
+
+    public void addObserver(Observer<List<E>> obs) {
+        observerhandler.addObserver(obs);
+    }
+
+    public void removeObserver(Observer<List<E>> obs) {
+        observerhandler.removeObserver(obs);
+    }
+
+}
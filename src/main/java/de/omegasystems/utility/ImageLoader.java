@@ -0,0 +1,145 @@
+package de.omegasystems.utility;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Loads images on a small pool of background threads, so that decoding never
+ * blocks the EDT.<br>
+ * <br>
+ * Decoded images are shared: they are cached by their canonical path and
+ * modification time, so any number of tokens using the same file only hold
+ * (and decode) the image once. Concurrent requests for the same file wait for a
+ * single decode as well.
+ */
+public abstract class ImageLoader {
+
+    // Images are identified by their file and invalidated when it gets modified
+    private record ImageKey(String canonicalPath, long lastModified, long length) {
+    }
+
+    private static final long MAX_CACHE_BYTES = 256L * 1024 * 1024;
+
+    private static final LruCache<ImageKey, Image> cache = new LruCache<>(MAX_CACHE_BYTES,
+            ImageLoader::estimateByteSize);
+    private static final Map<ImageKey, CompletableFuture<Image>> pendingLoads = new ConcurrentHashMap<>();
+
+    private static final int THREAD_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT, r -> {
+        Thread thread = new Thread(r, "Image Loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Decodes the given file on a background thread.<br>
+     * Note that the returned future completes on that background thread, use
+     * something like SwingUtilities.invokeLater to get back onto the EDT.
+     *
+     * @param file the image file to load
+     * @return A future completing with the decoded image, or exceptionally if the
+     *         file couldn't be read
+     */
+    public static CompletableFuture<Image> loadAsync(File file) {
+        ImageKey key;
+        try {
+            key = createKey(file);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        Image cached = cache.get(key);
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+
+        // The future is only started once it is registered, and removing it again
+        // must not happen within a map operation, as it might complete right away
+        CompletableFuture<Image> load = new CompletableFuture<>();
+        CompletableFuture<Image> pending = pendingLoads.putIfAbsent(key, load);
+        if (pending != null)
+            return pending;
+
+        load.whenComplete((image, e) -> pendingLoads.remove(key, load));
+        executor.execute(() -> {
+            try {
+                load.complete(decode(file, key));
+            } catch (Exception e) {
+                load.completeExceptionally(e);
+            }
+        });
+        return load;
+    }
+
+    /**
+     * Returns the cached image of the given file or decodes it on the calling
+     * thread.
+     *
+     * @throws IOException if the file cannot be read or isn't a supported image
+     */
+    public static Image load(File file) throws IOException {
+        ImageKey key = createKey(file);
+        Image cached = cache.get(key);
+        if (cached != null)
+            return cached;
+
+        return decode(file, key);
+    }
+
+    private static Image decode(File file, ImageKey key) throws IOException {
+        Image image = ImageIO.read(file);
+        if (image == null)
+            throw new IOException("No image reader found for '" + file.getAbsolutePath() + "'");
+
+        cache.put(key, image);
+        return image;
+    }
+
+    private static ImageKey createKey(File file) throws IOException {
+        if (file == null)
+            throw new IOException("No file given");
+        if (!file.isFile())
+            throw new IOException("'" + file.getAbsolutePath() + "' is not a file");
+
+        return new ImageKey(file.getCanonicalPath(), file.lastModified(), file.length());
+    }
+
+    private static long estimateByteSize(Image image) {
+        if (image instanceof BufferedImage bi)
+            return (long) bi.getWidth() * bi.getHeight() * Math.max(1, bi.getColorModel().getPixelSize() / 8);
+        return (long) Math.max(1, image.getWidth(null)) * Math.max(1, image.getHeight(null)) * 4;
+    }
+
+    /**
+     * @return The cache holding all decoded images, mainly useful for statistics
+     */
+    public static LruCache<?, Image> getCache() {
+        return cache;
+    }
+
+    /**
+     * Checks whether there is an image reader for the given file by only looking
+     * at its header, which is a lot cheaper than actually decoding it.
+     */
+    public static boolean isReadableImage(File file) {
+        if (file == null || !file.isFile())
+            return false;
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            return stream != null && ImageIO.getImageReaders(stream).hasNext();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+}
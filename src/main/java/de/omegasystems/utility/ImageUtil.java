@@ -0,0 +1,55 @@
+package de.omegasystems.utility;
+
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+public abstract class ImageUtil {
+
+    /**
+     * Creates an image in the native format of the default screen, so that
+     * drawing it doesn't require any conversion. Falls back to a plain
+     * BufferedImage when running without a display.
+     * 
+     * @param width        the width of the new image
+     * @param height       the height of the new image
+     * @param transparency one of the constants in {@link Transparency}
+     * @return A new, empty image
+     */
+    public static BufferedImage createCompatibleImage(int width, int height, int transparency) {
+        GraphicsConfiguration config = getDefaultConfiguration();
+        if (config != null)
+            return config.createCompatibleImage(width, height, transparency);
+
+        return new BufferedImage(width, height,
+                transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * @return The configuration of the default screen or null if there is none
+     */
+    public static GraphicsConfiguration getDefaultConfiguration() {
+        if (GraphicsEnvironment.isHeadless())
+            return null;
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+    }
+
+    /**
+     * Copies a part of the given image into a new compatible image, scaling it to
+     * the requested size.
+     */
+    public static BufferedImage copyScaled(Image source, int sx, int sy, int sWidth, int sHeight, int width,
+            int height, int transparency) {
+        BufferedImage result = createCompatibleImage(Math.max(width, 1), Math.max(height, 1), transparency);
+        var g = result.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(source, 0, 0, width, height, sx, sy, sx + sWidth, sy + sHeight, null);
+        g.dispose();
+        return result;
+    }
+
+}
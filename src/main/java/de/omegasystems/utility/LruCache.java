@@ -0,0 +1,123 @@
+package de.omegasystems.utility;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * A thread safe cache that evicts the least recently used entries once the
+ * total weight of all entries exceeds a limit.<br>
+ * The weight of an entry is calculated once when it is added, for images this
+ * is usually the amount of bytes they occupy.
+ */
+public class LruCache<K, V> {
+
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<K, Long> weights = new HashMap<>();
+    private final ToLongFunction<V> weigher;
+    private long maxWeight;
+    private long currentWeight = 0;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    public LruCache(long maxWeight, ToLongFunction<V> weigher) {
+        if (weigher == null)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Weigher was null during initialization");
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value != null)
+            hitCount++;
+        else
+            missCount++;
+        return value;
+    }
+
+    public synchronized boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    public synchronized void put(K key, V value) {
+        if (key == null || value == null)
+            return;
+
+        remove(key);
+        long weight = weigher.applyAsLong(value);
+        entries.put(key, value);
+        weights.put(key, weight);
+        currentWeight += weight;
+        evict();
+    }
+
+    public synchronized V remove(K key) {
+        V value = entries.remove(key);
+        Long weight = weights.remove(key);
+        if (weight != null)
+            currentWeight -= weight;
+        return value;
+    }
+
+    /**
+     * Removes all entries whose key matches the filter.
+     */
+    public synchronized void removeIf(Predicate<? super K> filter) {
+        Iterator<K> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            K key = iterator.next();
+            if (filter.test(key)) {
+                iterator.remove();
+                currentWeight -= weights.remove(key);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weights.clear();
+        currentWeight = 0;
+    }
+
+    public synchronized void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    private void evict() {
+        // Iteration order of an access ordered map starts with the eldest entry
+        Iterator<K> iterator = entries.keySet().iterator();
+        while (currentWeight > maxWeight && iterator.hasNext()) {
+            K eldest = iterator.next();
+            iterator.remove();
+            currentWeight -= weights.remove(eldest);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return currentWeight;
+    }
+
+    public synchronized long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+}
@@ -0,0 +1,73 @@
+package de.omegasystems.utility;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the last few durations in a ring buffer and calculates percentiles over
+ * them. Neither recording nor calculating allocates anything, so this is cheap
+ * enough to run on every frame.
+ */
+public class RollingTimings {
+
+    private final long[] samples;
+    private final long[] sorted;
+    private int nextIndex = 0;
+    private int sampleCount = 0;
+    private int sortedCount = 0;
+    private long lastSample = 0;
+
+    public RollingTimings(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Capacity must be positive");
+        samples = new long[capacity];
+        sorted = new long[capacity];
+    }
+
+    public void record(long nanos) {
+        samples[nextIndex] = nanos;
+        nextIndex = (nextIndex + 1) % samples.length;
+        sampleCount = Math.min(sampleCount + 1, samples.length);
+        lastSample = nanos;
+    }
+
+    /**
+     * Sorts a copy of the current samples, which is what
+     * {@link #getPercentile(double)} reads from. Call this once before reading
+     * multiple percentiles.
+     */
+    public void snapshot() {
+        System.arraycopy(samples, 0, sorted, 0, sampleCount);
+        sortedCount = sampleCount;
+        Arrays.sort(sorted, 0, sortedCount);
+    }
+
+    /**
+     * @param percentile a value between 0 and 100
+     * @return The given percentile of the samples of the last
+     *         {@link #snapshot()} in nanoseconds, 0 without samples
+     */
+    public long getPercentile(double percentile) {
+        if (sortedCount == 0)
+            return 0;
+
+        int index = (int) Math.ceil(percentile / 100.0 * sortedCount) - 1;
+        return sorted[Math.max(0, Math.min(sortedCount - 1, index))];
+    }
+
+    public long getLastSample() {
+        return lastSample;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public void clear() {
+        nextIndex = 0;
+        sampleCount = 0;
+        sortedCount = 0;
+        lastSample = 0;
+    }
+
+}
@@ -0,0 +1,132 @@
+package de.omegasystems.utility;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A spatial index splitting the world into uniform square cells. Every element
+ * is registered in all cells its bounds overlap, which makes point and area
+ * queries only look at the elements close to them instead of all elements.
+ */
+public class SpatialHashGrid<T> {
+
+    private final int cellSize;
+    private final Map<Long, List<T>> cells = new HashMap<>();
+    private final Map<T, Rectangle> bounds = new HashMap<>();
+
+    public SpatialHashGrid(int cellSize) {
+        if (cellSize <= 0)
+            throw new IllegalArgumentException("[" + this.getClass().getCanonicalName()
+                    + "] Cell size must be positive");
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Adds the element or moves it to its new bounds if it is already present.
+     */
+    public void put(T element, Rectangle elementBounds) {
+        Rectangle oldBounds = bounds.get(element);
+        if (oldBounds != null) {
+            if (oldBounds.equals(elementBounds))
+                return;
+            forEachCell(oldBounds, cell -> removeFromCell(cell, element));
+            oldBounds.setBounds(elementBounds);
+        } else {
+            oldBounds = new Rectangle(elementBounds);
+            bounds.put(element, oldBounds);
+        }
+
+        forEachCell(elementBounds, cell -> cells.computeIfAbsent(cell, c -> new ArrayList<>(4)).add(element));
+    }
+
+    public void remove(T element) {
+        Rectangle oldBounds = bounds.remove(element);
+        if (oldBounds != null)
+            forEachCell(oldBounds, cell -> removeFromCell(cell, element));
+    }
+
+    public void clear() {
+        cells.clear();
+        bounds.clear();
+    }
+
+    public boolean contains(T element) {
+        return bounds.containsKey(element);
+    }
+
+    /**
+     * Returns the bounds an element is registered with. The returned rectangle
+     * must not be modified.
+     */
+    public Rectangle getBounds(T element) {
+        return bounds.get(element);
+    }
+
+    /**
+     * Calls the consumer for every element whose bounds contain the given point.
+     */
+    public void queryPoint(int x, int y, Consumer<T> consumer) {
+        List<T> cell = cells.get(getCellKey(Math.floorDiv(x, cellSize), Math.floorDiv(y, cellSize)));
+        if (cell == null)
+            return;
+
+        for (int i = 0; i < cell.size(); i++) {
+            T element = cell.get(i);
+            if (bounds.get(element).contains(x, y))
+                consumer.accept(element);
+        }
+    }
+
+    /**
+     * Adds every element whose bounds intersect the given area to the result.
+     * Use a set as result, elements spanning multiple cells are found more than
+     * once otherwise.
+     */
+    public void queryArea(Rectangle area, Collection<T> result) {
+        forEachCell(area, key -> {
+            List<T> cell = cells.get(key);
+            if (cell == null)
+                return;
+
+            for (int i = 0; i < cell.size(); i++) {
+                T element = cell.get(i);
+                if (bounds.get(element).intersects(area))
+                    result.add(element);
+            }
+        });
+    }
+
+    private void removeFromCell(long key, T element) {
+        List<T> cell = cells.get(key);
+        if (cell == null)
+            return;
+        cell.remove(element);
+        if (cell.isEmpty())
+            cells.remove(key);
+    }
+
+    private interface CellConsumer {
+        void accept(long cellKey);
+    }
+
+    private void forEachCell(Rectangle area, CellConsumer consumer) {
+        int minX = Math.floorDiv(area.x, cellSize);
+        int minY = Math.floorDiv(area.y, cellSize);
+        int maxX = Math.floorDiv(area.x + Math.max(area.width, 1) - 1, cellSize);
+        int maxY = Math.floorDiv(area.y + Math.max(area.height, 1) - 1, cellSize);
+
+        for (int x = minX; x <= maxX; x++)
+            for (int y = minY; y <= maxY; y++)
+                consumer.accept(getCellKey(x, y));
+    }
+
+    private static long getCellKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+}
@@ -0,0 +1,187 @@
+package de.omegasystems.utility;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the area visible from a point within a radius, given walls that
+ * block the view.<br>
+ * <br>
+ * Rays are cast from the point towards every wall end (and slightly past both
+ * sides of it, to see around corners), towards every point where a wall leaves
+ * the radius and at regular steps around the circle. Connecting the closest
+ * hits in the order of their angles gives the visible area. To not test every
+ * ray against every wall, walls are sorted into buckets by the angles they
+ * cover as seen from the point, so a ray only tests the walls of its bucket.
+ */
+public abstract class VisibilityPolygon {
+
+    // Rays along the edge of the circle, enough for it to look round
+    private static final int CIRCLE_STEPS = 96;
+    private static final int BUCKET_COUNT = 256;
+    private static final double BUCKET_ANGLE = 2 * Math.PI / BUCKET_COUNT;
+    // How far the rays next to a wall end pass it
+    private static final double CORNER_ANGLE = 1e-4;
+
+    /**
+     * @param x      the horizontal position of the viewer
+     * @param y      the vertical position of the viewer
+     * @param radius how far the viewer sees
+     * @param walls  the walls, at least all within the radius. Walls further away
+     *               are skipped
+     * @return The visible area
+     */
+    public static Path2D.Float compute(double x, double y, double radius, List<Line2D.Double> walls) {
+        // Work relative to the viewer, with only the walls that can block anything
+        int wallCount = 0;
+        double[] wallCoordinates = new double[walls.size() * 4];
+        double radiusSq = radius * radius;
+        for (int i = 0; i < walls.size(); i++) {
+            Line2D.Double wall = walls.get(i);
+            if (wall.ptSegDistSq(x, y) >= radiusSq)
+                continue;
+            int offset = wallCount++ * 4;
+            wallCoordinates[offset] = wall.x1 - x;
+            wallCoordinates[offset + 1] = wall.y1 - y;
+            wallCoordinates[offset + 2] = wall.x2 - x;
+            wallCoordinates[offset + 3] = wall.y2 - y;
+        }
+
+        int[][] buckets = sortIntoBuckets(wallCoordinates, wallCount);
+        double[] angles = collectRayAngles(wallCoordinates, wallCount, radius);
+
+        Path2D.Float polygon = new Path2D.Float(Path2D.WIND_NON_ZERO, angles.length + 1);
+        for (int i = 0; i < angles.length; i++) {
+            double dx = Math.cos(angles[i]);
+            double dy = Math.sin(angles[i]);
+            double distance = castRay(dx, dy, radius, wallCoordinates, buckets[getBucket(angles[i])]);
+            if (i == 0)
+                polygon.moveTo(x + dx * distance, y + dy * distance);
+            else
+                polygon.lineTo(x + dx * distance, y + dy * distance);
+        }
+        polygon.closePath();
+        return polygon;
+    }
+
+    /**
+     * @return Per bucket, the indices of all walls covering an angle within it
+     */
+    private static int[][] sortIntoBuckets(double[] walls, int wallCount) {
+        int[] firstBuckets = new int[wallCount];
+        int[] bucketSpans = new int[wallCount];
+        int[] sizes = new int[BUCKET_COUNT];
+        for (int i = 0; i < wallCount; i++) {
+            double x1 = walls[i * 4], y1 = walls[i * 4 + 1], x2 = walls[i * 4 + 2], y2 = walls[i * 4 + 3];
+            double from = Math.atan2(y1, x1);
+            double span = normalize(Math.atan2(y2, x2) - from);
+            if (span < 0) {
+                from += span;
+                span = -span;
+            }
+            // A wall running through the viewer covers everything
+            double cross = x1 * y2 - y1 * x2;
+            if (Math.abs(cross) < 1e-9 * (1 + Math.abs(x1) + Math.abs(y1)))
+                span = 2 * Math.PI;
+
+            firstBuckets[i] = getBucket(from);
+            bucketSpans[i] = Math.min(BUCKET_COUNT, (int) Math.floor((from + span + Math.PI) / BUCKET_ANGLE)
+                    - (int) Math.floor((from + Math.PI) / BUCKET_ANGLE) + 1);
+            for (int b = 0; b < bucketSpans[i]; b++)
+                sizes[(firstBuckets[i] + b) % BUCKET_COUNT]++;
+        }
+
+        int[][] buckets = new int[BUCKET_COUNT][];
+        for (int b = 0; b < BUCKET_COUNT; b++)
+            buckets[b] = new int[sizes[b]];
+        Arrays.fill(sizes, 0);
+        for (int i = 0; i < wallCount; i++) {
+            for (int b = 0; b < bucketSpans[i]; b++) {
+                int bucket = (firstBuckets[i] + b) % BUCKET_COUNT;
+                buckets[bucket][sizes[bucket]++] = i;
+            }
+        }
+        return buckets;
+    }
+
+    private static double[] collectRayAngles(double[] walls, int wallCount, double radius) {
+        double[] angles = new double[CIRCLE_STEPS + wallCount * 12];
+        int count = 0;
+        for (int i = 0; i < CIRCLE_STEPS; i++)
+            angles[count++] = -Math.PI + i * 2 * Math.PI / CIRCLE_STEPS;
+
+        double radiusSq = radius * radius;
+        for (int i = 0; i < wallCount; i++) {
+            double x1 = walls[i * 4], y1 = walls[i * 4 + 1], x2 = walls[i * 4 + 2], y2 = walls[i * 4 + 3];
+            if (x1 * x1 + y1 * y1 < radiusSq)
+                count = addCorner(angles, count, Math.atan2(y1, x1));
+            if (x2 * x2 + y2 * y2 < radiusSq)
+                count = addCorner(angles, count, Math.atan2(y2, x2));
+
+            // Where the wall crosses the circle, solving |p1 + t * (p2 - p1)| = radius
+            double dx = x2 - x1, dy = y2 - y1;
+            double a = dx * dx + dy * dy;
+            double b = 2 * (x1 * dx + y1 * dy);
+            double c = x1 * x1 + y1 * y1 - radiusSq;
+            double discriminant = b * b - 4 * a * c;
+            if (discriminant < 0)
+                continue;
+            double root = Math.sqrt(discriminant);
+            for (double t : new double[] { (-b - root) / (2 * a), (-b + root) / (2 * a) }) {
+                if (t > 0 && t < 1)
+                    count = addCorner(angles, count, Math.atan2(y1 + t * dy, x1 + t * dx));
+            }
+        }
+
+        angles = Arrays.copyOf(angles, count);
+        Arrays.sort(angles);
+        return angles;
+    }
+
+    private static int addCorner(double[] angles, int count, double angle) {
+        angles[count++] = normalize(angle - CORNER_ANGLE);
+        angles[count++] = angle;
+        angles[count++] = normalize(angle + CORNER_ANGLE);
+        return count;
+    }
+
+    /**
+     * @return The distance to the closest wall in the direction, at most the
+     *         radius
+     */
+    private static double castRay(double dx, double dy, double radius, double[] walls, int[] candidates) {
+        double closest = radius;
+        for (int i = 0; i < candidates.length; i++) {
+            int offset = candidates[i] * 4;
+            double x1 = walls[offset], y1 = walls[offset + 1];
+            double ex = walls[offset + 2] - x1, ey = walls[offset + 3] - y1;
+
+            double denominator = dx * ey - dy * ex;
+            if (denominator == 0)
+                continue;
+            double distance = (x1 * ey - y1 * ex) / denominator;
+            double along = (x1 * dy - y1 * dx) / denominator;
+            if (distance >= 0 && distance < closest && along >= 0 && along <= 1)
+                closest = distance;
+        }
+        return closest;
+    }
+
+    private static int getBucket(double angle) {
+        int bucket = (int) Math.floor((angle + Math.PI) / BUCKET_ANGLE);
+        return Math.floorMod(bucket, BUCKET_COUNT);
+    }
+
+    /**
+     * @return The same angle between -PI and PI
+     */
+    private static double normalize(double angle) {
+        while (angle > Math.PI)
+            angle -= 2 * Math.PI;
+        while (angle <= -Math.PI)
+            angle += 2 * Math.PI;
+        return angle;
+    }
+}
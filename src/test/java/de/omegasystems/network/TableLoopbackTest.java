@@ -0,0 +1,241 @@
+package de.omegasystems.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.omegasystems.core.MapTileSource;
+import de.omegasystems.core.Token;
+import de.omegasystems.dataobjects.FogOfWar;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.dataobjects.TokenData;
+import de.omegasystems.dataobjects.TokenSize;
+import de.omegasystems.dataobjects.Walls;
+import de.omegasystems.renderer.OffscreenRenderer;
+import de.omegasystems.renderer.components.ImageComponent;
+import de.omegasystems.renderer.components.TokenRendererComponent;
+import de.omegasystems.renderer.map.TilePyramid;
+
+/**
+ * Shares a table over the loopback interface with a few headless clients and
+ * checks that every client ends up with the same scene as the host. The load
+ * of many clients is measured by the TableLoopbackHarness of the benchmarks.
+ */
+public class TableLoopbackTest {
+
+    private static final int CLIENT_COUNT = 3;
+    private static final int TOKEN_COUNT = 30;
+    private static final int MAP_SIZE = 1000;
+    private static final long CONVERGENCE_TIMEOUT_MILLIS = 5000;
+
+    // A table without a window, either the one of the host or of a client
+    private record Table(MenubarAttributeHolder settings, TokenRendererComponent tokens) {
+    }
+
+    private final MapTileSource map = new TilePyramid(new BufferedImage(MAP_SIZE, MAP_SIZE,
+            BufferedImage.TYPE_INT_RGB));
+    private Table host;
+    private TableServer server;
+    private final List<Table> clientTables = new ArrayList<>();
+    private final List<TableClient> clients = new ArrayList<>();
+    private final List<AtomicReference<List<Line2D.Double>>> clientWalls = new ArrayList<>();
+    private final List<AtomicReference<FogOfWar>> clientFogs = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        onEdt(() -> {
+            host = createTable();
+            for (int i = 0; i < TOKEN_COUNT; i++) {
+                TokenData data = new TokenData();
+                data.getName().setValue("Token " + i);
+                Token token = new Token(data, host.tokens());
+                host.tokens().addToken(token);
+                token.setPosition(new Point2D.Double(i * 10, i * 10));
+            }
+
+            // Port 0 picks any free port
+            server = new TableServer(0, host.settings(), host.tokens());
+            try {
+                server.start();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        InetSocketAddress address = new InetSocketAddress("localhost", server.getPort());
+        for (int i = 0; i < CLIENT_COUNT; i++) {
+            Table[] table = new Table[1];
+            onEdt(() -> table[0] = createTable());
+            TableClient client = new TableClient(address, table[0].settings(), table[0].tokens());
+            AtomicReference<List<Line2D.Double>> walls = new AtomicReference<>();
+            AtomicReference<FogOfWar> fog = new AtomicReference<>();
+            client.setOnWalls(walls::set);
+            client.setOnFog(fog::set);
+            client.connect();
+            clientTables.add(table[0]);
+            clients.add(client);
+            clientWalls.add(walls);
+            clientFogs.add(fog);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (TableClient client : clients)
+            client.close();
+        if (server != null)
+            onEdt(server::close);
+    }
+
+    @Test
+    public void clientsReceiveInitialState() throws Exception {
+        awaitConsistency();
+    }
+
+    @Test
+    public void clientsFollowMovesEditsAndRemovals() throws Exception {
+        awaitConsistency();
+
+        for (int i = 0; i < 60; i++) {
+            Point2D.Double position = new Point2D.Double(i * 7, i * 3);
+            onEdt(() -> host.tokens().getAllTokens().get(0).setPosition(position));
+        }
+        onEdt(() -> {
+            Token edited = host.tokens().getAllTokens().get(1);
+            TokenData data = edited.createDataObject();
+            data.getName().setValue("Edited");
+            data.getSize().setValue(TokenSize.Giant);
+            edited.updateAllValues(data);
+
+            host.tokens().beginBatch();
+            for (int i = 0; i < 10; i++)
+                host.tokens().removeToken(host.tokens().getAllTokens().get(2));
+            host.tokens().commitBatch();
+
+            TokenData added = new TokenData();
+            added.getName().setValue("Added");
+            Token token = new Token(added, host.tokens());
+            host.tokens().addToken(token);
+            token.setPosition(new Point2D.Double(500, 400));
+
+            host.settings().VIEW_GRID_SCALE.setValue(42.0);
+        });
+
+        awaitConsistency();
+    }
+
+    @Test
+    public void clientsReceiveWallsAndFog() throws Exception {
+        Walls walls = new Walls();
+        FogOfWar fog = new FogOfWar(new Dimension(MAP_SIZE, MAP_SIZE), 50, 0, 0);
+        onEdt(() -> {
+            walls.add(new Point2D.Double(0, 0), new Point2D.Double(100, 0));
+            walls.add(new Point2D.Double(100, 0), new Point2D.Double(100, 100));
+            fog.setRevealed(new Rectangle2D.Double(0, 0, 200, 150), true);
+            // Players only see the fog while it is enabled on the host
+            host.settings().VIEW_FOG_ENABLED.setValue(true);
+            server.setWalls(walls);
+            server.setFog(fog);
+        });
+        awaitWallsAndFog(walls, fog);
+
+        // Changes after sharing them are followed as well
+        onEdt(() -> {
+            walls.add(new Point2D.Double(300, 300), new Point2D.Double(400, 300));
+            fog.setRevealed(new Rectangle2D.Double(600, 600, 100, 100), true);
+        });
+        awaitWallsAndFog(walls, fog);
+    }
+
+    private Table createTable() {
+        OffscreenRenderer renderer = new OffscreenRenderer(100, 100);
+        // The map defines the size of the world, which token positions are clamped to
+        renderer.addWorldRenderComponent(new ImageComponent(map));
+        MenubarAttributeHolder settings = new MenubarAttributeHolder();
+        TokenRendererComponent tokens = new TokenRendererComponent();
+        tokens.bindSettings(settings);
+        renderer.addWorldRenderComponent(tokens);
+        return new Table(settings, tokens);
+    }
+
+    private void awaitConsistency() throws Exception {
+        long deadline = System.currentTimeMillis() + CONVERGENCE_TIMEOUT_MILLIS;
+        int mismatches;
+        while ((mismatches = countMismatches()) > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals("Clients and tokens differing from the host", 0, mismatches);
+    }
+
+    /**
+     * @return The number of clients and tokens that differ from the host
+     */
+    private int countMismatches() throws Exception {
+        int[] mismatches = { 0 };
+        onEdt(() -> {
+            Map<UUID, Token> hostTokens = new HashMap<>();
+            for (Token token : host.tokens().getAllTokens())
+                hostTokens.put(token.getUUId(), token);
+
+            for (Table client : clientTables) {
+                if (client.tokens().getTokenCount() != hostTokens.size()
+                        || !client.settings().VIEW_GRID_SCALE.getValue()
+                                .equals(host.settings().VIEW_GRID_SCALE.getValue()))
+                    mismatches[0]++;
+
+                for (Token token : client.tokens().getAllTokens()) {
+                    Token hostToken = hostTokens.get(token.getUUId());
+                    if (hostToken == null || !hostToken.getPosition().equals(token.getPosition())
+                            || !hostToken.getName().equals(token.getName())
+                            || hostToken.getSize() != token.getSize())
+                        mismatches[0]++;
+                }
+            }
+        });
+        return mismatches[0];
+    }
+
+    private void awaitWallsAndFog(Walls walls, FogOfWar fog) throws Exception {
+        long deadline = System.currentTimeMillis() + CONVERGENCE_TIMEOUT_MILLIS;
+        while (!hasWallsAndFog(walls, fog) && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertTrue("Clients didn't receive the walls and fog of the host", hasWallsAndFog(walls, fog));
+    }
+
+    private boolean hasWallsAndFog(Walls walls, FogOfWar fog) throws Exception {
+        boolean[] matches = { true };
+        onEdt(() -> {
+            for (int i = 0; i < CLIENT_COUNT; i++) {
+                List<Line2D.Double> received = clientWalls.get(i).get();
+                FogOfWar receivedFog = clientFogs.get(i).get();
+                if (received == null || received.size() != walls.size() || receivedFog == null
+                        || !receivedFog.getRevealedCells().equals(fog.getRevealedCells()))
+                    matches[0] = false;
+            }
+        });
+        return matches[0];
+    }
+
+    private static void onEdt(Runnable runnable) throws InterruptedException, InvocationTargetException {
+        SwingUtilities.invokeAndWait(runnable);
+    }
+
+}
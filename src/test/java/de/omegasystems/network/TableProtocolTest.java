@@ -0,0 +1,161 @@
+package de.omegasystems.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.awt.Dimension;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.omegasystems.core.TokenChange.Field;
+import de.omegasystems.dataobjects.FogOfWar;
+import de.omegasystems.dataobjects.TokenData;
+
+public class TableProtocolTest {
+
+    // Something a malformed frame could hold
+    private interface Read {
+        void from(ByteBuffer in) throws IOException;
+    }
+
+    @Test
+    public void roundTripsVarInts() throws IOException {
+        for (int value : new int[] { 0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, -1 }) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            TableProtocol.writeVarInt(new DataOutputStream(bytes), value);
+            ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+            assertEquals(value, TableProtocol.readVarInt(in));
+            assertEquals(0, in.remaining());
+        }
+    }
+
+    @Test
+    public void rejectsMalformedVarInts() {
+        // Every byte says another one follows
+        assertRejected(TableProtocol::readVarInt, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01);
+        // The frame ends in the middle
+        assertRejected(TableProtocol::readVarInt, 0x80, 0x80);
+        assertRejected(TableProtocol::readVarInt);
+    }
+
+    @Test
+    public void readsOnlySentFields() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        TableProtocol.writeVarInt(out, 1 << Field.NAME.ordinal() | 1 << Field.VISION.ordinal());
+        TableProtocol.writeString(out, "Goblin");
+        out.writeDouble(30);
+
+        TokenData data = new TokenData();
+        data.getDescription().setValue("Untouched");
+        assertNull(TableProtocol.readFields(ByteBuffer.wrap(bytes.toByteArray()), data));
+        assertEquals("Goblin", data.getName().getValue());
+        assertEquals(30.0, data.getVisionRadius().getValue(), 0);
+        assertEquals("Untouched", data.getDescription().getValue());
+    }
+
+    @Test
+    public void rejectsMalformedFields() {
+        Read readFields = in -> TableProtocol.readFields(in, new TokenData());
+        int name = 1 << Field.NAME.ordinal();
+        int size = 1 << Field.SIZE.ordinal();
+        int initiative = 1 << Field.INITIATIVE.ordinal();
+
+        // A name longer than the frame
+        assertRejected(readFields, name, 0x20, 'a', 'b');
+        // A name of negative length
+        assertRejected(readFields, name, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F);
+        // An unknown size
+        assertRejected(readFields, size, 0x7F);
+        // The initiative is cut off
+        assertRejected(readFields, initiative, 0, 0);
+    }
+
+    @Test
+    public void roundTripsWallsAndFog() throws IOException {
+        FogOfWar fog = new FogOfWar(new Dimension(400, 300), 25, 0, 0);
+        fog.setRevealed(new Rectangle2D.Double(0, 0, 100, 100), true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        TableProtocol.writeWalls(out, List.of(new Line2D.Double(1, 2, 3, 4)));
+        TableProtocol.writeFog(out, fog);
+        TableProtocol.writeFog(out, null);
+
+        ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+        assertEquals(1, TableProtocol.readWalls(in).size());
+        assertEquals(fog.getRevealedCells(), TableProtocol.readFog(in).getRevealedCells());
+        assertNull(TableProtocol.readFog(in));
+        assertEquals(0, in.remaining());
+    }
+
+    @Test
+    public void rejectsMalformedWalls() {
+        // More walls than the frame holds
+        assertRejected(TableProtocol::readWalls, 3, 0, 0, 0, 0);
+    }
+
+    @Test
+    public void rejectsMalformedFog() throws IOException {
+        FogOfWar fog = new FogOfWar(new Dimension(400, 300), 25, 0, 0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TableProtocol.writeFog(new DataOutputStream(bytes), fog);
+        byte[] valid = bytes.toByteArray();
+
+        // Only the flag that there is fog
+        assertRejected(TableProtocol::readFog, 1);
+        // Cut off within the revealed shapes
+        assertRejected(TableProtocol::readFog, copyOf(valid, valid.length - 2));
+
+        // A map without size
+        byte[] emptyMap = valid.clone();
+        ByteBuffer.wrap(emptyMap).putInt(1, 0);
+        assertRejected(TableProtocol::readFog, emptyMap);
+
+        // A negative length of the revealed cells
+        byte[] negativeCells = valid.clone();
+        ByteBuffer.wrap(negativeCells).putInt(1 + 8 + 3 * 8, -5);
+        assertRejected(TableProtocol::readFog, negativeCells);
+
+        // More path segments than the frame holds
+        byte[] manySegments = valid.clone();
+        int cellLength = fog.getRevealedCells().toByteArray().length;
+        ByteBuffer.wrap(manySegments).putInt(1 + 8 + 3 * 8 + 4 + cellLength + 1, 1_000_000);
+        assertRejected(TableProtocol::readFog, manySegments);
+    }
+
+    private static byte[] copyOf(byte[] bytes, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, 0, copy, 0, length);
+        return copy;
+    }
+
+    private static void assertRejected(Read read, int... bytes) {
+        byte[] frame = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++)
+            frame[i] = (byte) bytes[i];
+        assertRejected(read, frame);
+    }
+
+    /**
+     * Malformed frames have to end in the exceptions the client and server
+     * handle, anything else would take down their threads.
+     */
+    private static void assertRejected(Read read, byte[] frame) {
+        try {
+            read.from(ByteBuffer.wrap(frame));
+            fail("Read a malformed frame");
+        } catch (IOException | BufferUnderflowException e) {
+            // Expected
+        }
+    }
+
+}
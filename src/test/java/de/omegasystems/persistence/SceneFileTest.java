@@ -0,0 +1,336 @@
+package de.omegasystems.persistence;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Dimension;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.omegasystems.dataobjects.FogOfWar;
+import de.omegasystems.dataobjects.Friendlieness;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.dataobjects.SceneData;
+import de.omegasystems.dataobjects.TokenData;
+import de.omegasystems.dataobjects.TokenSize;
+
+public class SceneFileTest {
+
+    private static final byte[] MAGIC = "TTRPGSCN".getBytes(StandardCharsets.US_ASCII);
+    private static final int NO_BLOB = -1;
+
+    private Path directory;
+    private Path previousBlobDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("scene-test");
+        previousBlobDirectory = SceneFile.getBlobDirectory();
+        SceneFile.setBlobDirectory(directory.resolve("blobs"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        SceneFile.setBlobDirectory(previousBlobDirectory);
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                Files.delete(file);
+        }
+    }
+
+    @Test
+    public void roundTripsScene() throws IOException {
+        MenubarAttributeHolder settings = new MenubarAttributeHolder();
+        settings.VIEW_GRID_ENABLED.setValue(true);
+        settings.VIEW_GRID_SCALE.setValue(48.0);
+        settings.VIEW_GRID_OFFSET_X.setValue(3.5);
+        settings.TOKEN_OUTLINE_THICKNESS.setValue(2.0);
+        SceneData scene = SceneData.captureSettings(new File("map.png"), settings);
+
+        TokenData data = new TokenData();
+        data.getName().setValue("Goblin");
+        data.getDescription().setValue("Sneaky");
+        data.getMovement().setValue("30ft");
+        data.getInitiative().setValue(14);
+        data.getSize().setValue(TokenSize.Small);
+        data.getFriendStatus().setValue(Friendlieness.Enemy);
+        data.getVisionRadius().setValue(60.0);
+        UUID id = UUID.randomUUID();
+        scene.getTokens().add(new SceneData.TokenEntry(id, data, new Point2D.Double(12.5, -7)));
+        scene.getWalls().add(new Line2D.Double(0, 0, 100, 50));
+
+        FogOfWar fog = new FogOfWar(new Dimension(1000, 800), 37.5, 3.25, 7.5);
+        fog.setRevealed(new Rectangle2D.Double(100, 100, 200, 150), true);
+        fog.reveal(new Ellipse2D.Double(500, 500, 80, 60));
+        scene.setFog(fog);
+
+        SceneData read = writeAndRead(scene);
+        assertEquals(new File("map.png").getAbsoluteFile(), read.getMapFile());
+        assertTrue(read.isGridEnabled());
+        assertEquals(48.0, read.getGridScale(), 0);
+        assertEquals(3.5, read.getGridOffsetX(), 0);
+        assertEquals(2.0, read.getTokenOutlineThickness(), 0);
+
+        assertEquals(1, read.getTokens().size());
+        SceneData.TokenEntry token = read.getTokens().get(0);
+        assertEquals(id, token.id());
+        assertEquals(new Point2D.Double(12.5, -7), token.position());
+        assertEquals("Goblin", token.data().getName().getValue());
+        assertEquals("Sneaky", token.data().getDescription().getValue());
+        assertEquals("30ft", token.data().getMovement().getValue());
+        assertEquals(Integer.valueOf(14), token.data().getInitiative().getValue());
+        assertEquals(TokenSize.Small, token.data().getSize().getValue());
+        assertEquals(Friendlieness.Enemy, token.data().getFriendStatus().getValue());
+        assertEquals(60.0, token.data().getVisionRadius().getValue(), 0);
+
+        assertEquals(1, read.getWalls().size());
+        assertEquals(100, read.getWalls().get(0).x2, 0);
+        FogOfWar readFog = read.getFog();
+        assertEquals(fog.getMapSize(), readFog.getMapSize());
+        assertEquals(37.5, readFog.getCellSize(), 0);
+        assertEquals(fog.getOriginX(), readFog.getOriginX(), 0);
+        assertEquals(fog.getOriginY(), readFog.getOriginY(), 0);
+        assertEquals(fog.getRevealedCells(), readFog.getRevealedCells());
+        assertEquals(fog.getRevealedShapes().getBounds2D(), readFog.getRevealedShapes().getBounds2D());
+    }
+
+    @Test
+    public void roundTripsSceneWithoutFog() throws IOException {
+        SceneData scene = SceneData.captureSettings(null, new MenubarAttributeHolder());
+        SceneData read = writeAndRead(scene);
+        assertNull(read.getMapFile());
+        assertNull(read.getFog());
+        assertEquals(0, read.getTokens().size());
+    }
+
+    @Test
+    public void embedsImagesOncePerContent() throws IOException {
+        byte[] content = { 1, 2, 3, 4, 5, 6, 7, 8 };
+        Path picture = directory.resolve("picture.png");
+        Path copy = directory.resolve("copy.png");
+        Files.write(picture, content);
+        Files.write(copy, content);
+
+        SceneData scene = SceneData.captureSettings(null, new MenubarAttributeHolder());
+        for (Path file : new Path[] { picture, copy }) {
+            TokenData data = new TokenData();
+            data.getPictureFile().setValue(file.toFile());
+            scene.getTokens().add(new SceneData.TokenEntry(UUID.randomUUID(), data, new Point2D.Double()));
+        }
+        File sceneFile = directory.resolve("scene." + SceneFile.FILE_EXTENSION).toFile();
+        SceneFile.write(scene, sceneFile, true);
+        assertEquals(1, ByteBuffer.wrap(Files.readAllBytes(sceneFile.toPath())).getInt(MAGIC.length + 4));
+
+        // Without the originals the tokens point into the blob directory
+        Files.delete(picture);
+        Files.delete(copy);
+        SceneData read = SceneFile.read(sceneFile);
+        File extracted = read.getTokens().get(0).data().getPictureFile().getValue();
+        assertTrue(extracted.toPath().startsWith(SceneFile.getBlobDirectory()));
+        assertArrayEquals(content, Files.readAllBytes(extracted.toPath()));
+        assertEquals(extracted, read.getTokens().get(1).data().getPictureFile().getValue());
+    }
+
+    @Test
+    public void readsVersion1Scene() throws IOException {
+        UUID id = UUID.randomUUID();
+        SceneData read = SceneFile.read(writeOldScene(1, id));
+
+        assertEquals(32.0, read.getGridScale(), 0);
+        assertEquals(1, read.getTokens().size());
+        SceneData.TokenEntry token = read.getTokens().get(0);
+        assertEquals(id, token.id());
+        assertEquals("Old", token.data().getName().getValue());
+        assertEquals(new Point2D.Double(5, 6), token.position());
+        // Version 1 had neither vision, walls nor fog
+        assertEquals(new TokenData().getVisionRadius().getValue(), token.data().getVisionRadius().getValue());
+        assertEquals(0, read.getWalls().size());
+        assertNull(read.getFog());
+    }
+
+    @Test
+    public void readsVersion2Scene() throws IOException {
+        SceneData read = SceneFile.read(writeOldScene(2, UUID.randomUUID()));
+
+        assertEquals(90.0, read.getTokens().get(0).data().getVisionRadius().getValue(), 0);
+        assertEquals(1, read.getWalls().size());
+        Line2D.Double wall = read.getWalls().get(0);
+        assertEquals(new Point2D.Double(1, 2), wall.getP1());
+        assertEquals(new Point2D.Double(3, 4), wall.getP2());
+        assertNull(read.getFog());
+    }
+
+    @Test
+    public void rejectsTruncatedHeader() throws IOException {
+        File file = writeScene(SceneData.captureSettings(null, new MenubarAttributeHolder()));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, MAGIC.length + 6));
+        assertRejected(file);
+    }
+
+    @Test
+    public void rejectsTruncatedMetadata() throws IOException {
+        File file = writeScene(SceneData.captureSettings(null, new MenubarAttributeHolder()));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 10));
+        assertRejected(file);
+    }
+
+    @Test
+    public void rejectsOversizedMetadataLength() throws IOException {
+        File file = writeScene(SceneData.captureSettings(null, new MenubarAttributeHolder()));
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        bytes.putInt(MAGIC.length + 8, Integer.MAX_VALUE);
+        Files.write(file.toPath(), bytes.array());
+        assertRejected(file);
+    }
+
+    @Test
+    public void rejectsOversizedImageTable() throws IOException {
+        File file = writeScene(SceneData.captureSettings(null, new MenubarAttributeHolder()));
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        bytes.putInt(MAGIC.length + 4, 1_000_000);
+        Files.write(file.toPath(), bytes.array());
+        assertRejected(file);
+    }
+
+    @Test
+    public void rejectsOtherFilesAndNewerVersions() throws IOException {
+        File other = directory.resolve("other." + SceneFile.FILE_EXTENSION).toFile();
+        Files.write(other.toPath(), "Definitely not a scene file".getBytes(StandardCharsets.US_ASCII));
+        assertRejected(other);
+
+        File newer = writeScene(SceneData.captureSettings(null, new MenubarAttributeHolder()));
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(newer.toPath()));
+        bytes.putInt(MAGIC.length, SceneFile.FORMAT_VERSION + 1);
+        Files.write(newer.toPath(), bytes.array());
+        assertRejected(newer);
+    }
+
+    @Test
+    public void rejectsInvalidFog() throws IOException {
+        FogOfWar fog = new FogOfWar(new Dimension(100, 100), 10, 0, 0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SceneFile.writeFog(new DataOutputStream(bytes), fog);
+        byte[] valid = bytes.toByteArray();
+        assertEquals(fog.getMapSize(), SceneFile.readFog(ByteBuffer.wrap(valid)).getMapSize());
+
+        // A cell size of zero
+        ByteBuffer zeroCells = ByteBuffer.wrap(valid.clone());
+        zeroCells.putDouble(8, 0);
+        assertFogRejected(zeroCells);
+
+        // More revealed cells than there are bytes
+        ByteBuffer longCells = ByteBuffer.wrap(valid.clone());
+        longCells.putInt(8 + 3 * 8, Integer.MAX_VALUE);
+        assertFogRejected(longCells);
+
+        // An unknown winding rule of the revealed shapes
+        ByteBuffer winding = ByteBuffer.wrap(valid.clone());
+        winding.put(8 + 3 * 8 + 4 + fog.getRevealedCells().toByteArray().length, (byte) 7);
+        assertFogRejected(winding);
+    }
+
+    private SceneData writeAndRead(SceneData scene) throws IOException {
+        return SceneFile.read(writeScene(scene));
+    }
+
+    private File writeScene(SceneData scene) throws IOException {
+        File file = directory.resolve("scene." + SceneFile.FILE_EXTENSION).toFile();
+        SceneFile.write(scene, file, false);
+        return file;
+    }
+
+    private static void assertRejected(File file) {
+        try {
+            SceneFile.read(file);
+            fail("Read a broken scene file");
+        } catch (IOException e) {
+            assertNotNull(e.getMessage());
+        }
+    }
+
+    private static void assertFogRejected(ByteBuffer buffer) {
+        try {
+            SceneFile.readFog(buffer);
+            fail("Read a broken fog");
+        } catch (IOException e) {
+            assertNotNull(e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a scene the way the given version did: one token, and from version
+     * 2 on its vision radius and a wall.
+     */
+    private File writeOldScene(int version, UUID id) throws IOException {
+        ByteArrayOutputStream metadataBytes = new ByteArrayOutputStream();
+        DataOutputStream metadata = new DataOutputStream(metadataBytes);
+        SceneFile.writeString(metadata, "");
+        metadata.writeInt(NO_BLOB);
+        metadata.writeBoolean(false);
+        metadata.writeDouble(32);
+        metadata.writeDouble(2);
+        metadata.writeDouble(0);
+        metadata.writeDouble(0);
+        metadata.writeDouble(64);
+        metadata.writeDouble(4);
+
+        metadata.writeInt(1);
+        metadata.writeLong(id.getMostSignificantBits());
+        metadata.writeLong(id.getLeastSignificantBits());
+        metadata.writeDouble(5);
+        metadata.writeDouble(6);
+        SceneFile.writeString(metadata, "Old");
+        SceneFile.writeString(metadata, "");
+        SceneFile.writeString(metadata, "");
+        metadata.writeInt(3);
+        metadata.writeByte(TokenSize.Medium.ordinal());
+        metadata.writeByte(Friendlieness.Neutral.ordinal());
+        SceneFile.writeString(metadata, "");
+        metadata.writeInt(NO_BLOB);
+        if (version >= 2) {
+            metadata.writeDouble(90);
+            metadata.writeInt(1);
+            metadata.writeDouble(1);
+            metadata.writeDouble(2);
+            metadata.writeDouble(3);
+            metadata.writeDouble(4);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeInt(version);
+        out.writeInt(0);
+        out.writeInt(metadataBytes.size());
+        metadataBytes.writeTo(out);
+
+        File file = directory.resolve("old-" + version + "." + SceneFile.FILE_EXTENSION).toFile();
+        Files.write(file.toPath(), bytes.toByteArray());
+        return file;
+    }
+
+}
@@ -0,0 +1,343 @@
+package de.omegasystems.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.omegasystems.core.Token;
+import de.omegasystems.dataobjects.FogOfWar;
+import de.omegasystems.dataobjects.Friendlieness;
+import de.omegasystems.dataobjects.MenubarAttributeHolder;
+import de.omegasystems.dataobjects.SceneData;
+import de.omegasystems.dataobjects.TokenData;
+import de.omegasystems.dataobjects.TokenSize;
+import de.omegasystems.dataobjects.Walls;
+import de.omegasystems.renderer.OffscreenRenderer;
+import de.omegasystems.renderer.components.TokenRendererComponent;
+
+public class SceneJournalTest {
+
+    private static final byte[] MAGIC = "TTRPGJNL".getBytes(StandardCharsets.US_ASCII);
+    private static final byte TOKEN_ADDED = 2;
+    private static final byte TOKEN_MOVED = 4;
+
+    private Path directory;
+    private MenubarAttributeHolder settings;
+    private TokenRendererComponent tokens;
+    private Walls walls;
+    private FogOfWar fog;
+    private SceneJournal journal;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("journal-test");
+        onEdt(() -> {
+            settings = new MenubarAttributeHolder();
+            OffscreenRenderer renderer = new OffscreenRenderer(400, 300);
+            tokens = new TokenRendererComponent();
+            tokens.bindSettings(settings);
+            renderer.addWorldRenderComponent(tokens);
+            walls = new Walls();
+            fog = new FogOfWar(new Dimension(800, 600), 50, 0, 0);
+            journal = new SceneJournal(directory, settings, tokens, () -> null, () -> walls, () -> fog);
+            journal.start();
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        onEdt(() -> journal.close());
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                Files.delete(file);
+        }
+    }
+
+    @Test
+    public void recoversAllChanges() throws Exception {
+        Token[] added = new Token[2];
+        onEdt(() -> {
+            added[0] = addToken("Goblin", 10, 20);
+            added[1] = addToken("Orc", 30, 40);
+        });
+        onEdt(() -> {
+            added[0].setPosition(new Point2D.Double(15, 25));
+            TokenData data = added[1].createDataObject();
+            data.getName().setValue("Orc Chief");
+            data.getSize().setValue(TokenSize.Large);
+            data.getVisionRadius().setValue(120.0);
+            added[1].updateAllValues(data);
+            walls.add(new Point2D.Double(0, 0), new Point2D.Double(100, 0));
+            fog.setRevealed(new Rectangle2D.Double(0, 0, 200, 100), true);
+            settings.VIEW_GRID_SCALE.setValue(32.0);
+        });
+        onEdt(() -> tokens.removeToken(added[0]));
+        onEdt(() -> journal.close());
+
+        SceneData scene = SceneJournal.recover(directory);
+        assertNotNull(scene);
+        assertEquals(1, scene.getTokens().size());
+        SceneData.TokenEntry entry = scene.getTokens().get(0);
+        assertEquals(added[1].getUUId(), entry.id());
+        assertEquals("Orc Chief", entry.data().getName().getValue());
+        assertEquals(TokenSize.Large, entry.data().getSize().getValue());
+        assertEquals(120.0, entry.data().getVisionRadius().getValue(), 0);
+        assertEquals(new Point2D.Double(30, 40), entry.position());
+        assertEquals(1, scene.getWalls().size());
+        assertEquals(32.0, scene.getGridScale(), 0);
+        assertEquals(fog.getRevealedCells(), scene.getFog().getRevealedCells());
+    }
+
+    @Test
+    public void recoveryStopsAtTruncatedRecord() throws Exception {
+        recordTokenThenSettings();
+        Path journalFile = onlyJournal();
+        byte[] bytes = Files.readAllBytes(journalFile);
+        // Cut into the settings record, the last one
+        Files.write(journalFile, Arrays.copyOf(bytes, bytes.length - 3));
+
+        SceneData scene = SceneJournal.recover(directory);
+        assertEquals(1, scene.getTokens().size());
+        assertEquals(64.0, scene.getGridScale(), 0);
+    }
+
+    @Test
+    public void recoveryStopsAtCorruptedRecord() throws Exception {
+        recordTokenThenSettings();
+        Path journalFile = onlyJournal();
+        byte[] bytes = Files.readAllBytes(journalFile);
+        bytes[bytes.length - 1] ^= 0x55;
+        Files.write(journalFile, bytes);
+
+        SceneData scene = SceneJournal.recover(directory);
+        assertEquals(1, scene.getTokens().size());
+        assertEquals(64.0, scene.getGridScale(), 0);
+    }
+
+    @Test
+    public void mergesRepeatedMoves() throws Exception {
+        Token[] token = new Token[1];
+        onEdt(() -> token[0] = addToken("Goblin", 0, 0));
+        for (int i = 1; i <= 100; i++) {
+            double position = i;
+            onEdt(() -> token[0].setPosition(new Point2D.Double(position, position)));
+        }
+        onEdt(() -> journal.close());
+
+        // A flush may fall in between, but nowhere near one record per move
+        List<Byte> types = readRecordTypes(onlyJournal());
+        long moves = types.stream().filter(type -> type == TOKEN_MOVED).count();
+        assertTrue("Expected merged moves, got " + moves, moves <= 3);
+        assertEquals(new Point2D.Double(100, 100), SceneJournal.recover(directory).getTokens().get(0).position());
+    }
+
+    @Test
+    public void snapshotReplacesOlderGeneration() throws Exception {
+        Token[] added = new Token[2];
+        onEdt(() -> added[0] = addToken("Goblin", 10, 20));
+        onEdt(() -> journal.snapshot());
+        onEdt(() -> added[1] = addToken("Orc", 30, 40));
+        onEdt(() -> journal.close());
+
+        List<String> names = listFiles();
+        assertEquals(List.of("journal-2", "snapshot-2." + SceneFile.FILE_EXTENSION), names);
+        SceneData scene = SceneJournal.recover(directory);
+        assertEquals(2, scene.getTokens().size());
+
+        // A new journal continues counting, so its snapshot is the newest one
+        onEdt(() -> {
+            journal = new SceneJournal(directory, settings, tokens, () -> null, () -> walls, () -> fog);
+            journal.start();
+        });
+        onEdt(() -> journal.close());
+        assertEquals(List.of("journal-3", "snapshot-3." + SceneFile.FILE_EXTENSION), listFiles());
+    }
+
+    @Test
+    public void recoversNewestGenerationOnly() throws Exception {
+        onEdt(() -> addToken("Goblin", 10, 20));
+        onEdt(() -> journal.close());
+
+        // Leftovers of an older generation are never read
+        Files.write(directory.resolve("snapshot-0." + SceneFile.FILE_EXTENSION), new byte[] { 1, 2, 3 });
+        Files.write(directory.resolve("journal-0"), new byte[] { 4, 5, 6 });
+        SceneData scene = SceneJournal.recover(directory);
+        assertEquals(1, scene.getTokens().size());
+        assertEquals("Goblin", scene.getTokens().get(0).data().getName().getValue());
+    }
+
+    @Test
+    public void recoversNothingWithoutSnapshot() throws Exception {
+        Path empty = Files.createTempDirectory("journal-test-empty");
+        try {
+            assertNull(SceneJournal.recover(empty));
+        } finally {
+            Files.delete(empty);
+        }
+    }
+
+    @Test
+    public void readsVersion1Journal() throws Exception {
+        UUID id = UUID.randomUUID();
+        writeOldGeneration(1, tokenAdded(id, "Old", false));
+
+        SceneData scene = SceneJournal.recover(directory);
+        assertEquals(1, scene.getTokens().size());
+        SceneData.TokenEntry entry = scene.getTokens().get(0);
+        assertEquals(id, entry.id());
+        assertEquals("Old", entry.data().getName().getValue());
+        assertEquals(new Point2D.Double(5, 6), entry.position());
+        assertEquals(new TokenData().getVisionRadius().getValue(), entry.data().getVisionRadius().getValue());
+    }
+
+    @Test
+    public void readsVersion2Journal() throws Exception {
+        UUID id = UUID.randomUUID();
+        writeOldGeneration(2, tokenAdded(id, "Seer", true));
+
+        SceneData scene = SceneJournal.recover(directory);
+        assertEquals(1, scene.getTokens().size());
+        assertEquals(90.0, scene.getTokens().get(0).data().getVisionRadius().getValue(), 0);
+        assertNull(scene.getFog());
+    }
+
+    @Test
+    public void ignoresJournalOfUnknownVersion() throws Exception {
+        writeOldGeneration(99, tokenAdded(UUID.randomUUID(), "Future", true));
+        assertEquals(0, SceneJournal.recover(directory).getTokens().size());
+    }
+
+    private Token addToken(String name, double x, double y) {
+        TokenData data = new TokenData();
+        data.getName().setValue(name);
+        Token token = new Token(data, tokens);
+        tokens.addToken(token);
+        token.setPosition(new Point2D.Double(x, y));
+        return token;
+    }
+
+    /**
+     * Records a token, then a grid change in a later pass, so the grid change
+     * is the last record of the journal.
+     */
+    private void recordTokenThenSettings() throws Exception {
+        onEdt(() -> addToken("Goblin", 10, 20));
+        onEdt(() -> settings.VIEW_GRID_SCALE.setValue(32.0));
+        onEdt(() -> journal.close());
+        assertEquals(32.0, SceneJournal.recover(directory).getGridScale(), 0);
+    }
+
+    private Path onlyJournal() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> journals = files.filter(file -> file.getFileName().toString().startsWith("journal-"))
+                    .toList();
+            assertEquals(1, journals.size());
+            return journals.get(0);
+        }
+    }
+
+    private List<String> listFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private static List<Byte> readRecordTypes(Path journalFile) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(journalFile));
+        buffer.position(MAGIC.length + 4);
+        List<Byte> types = new ArrayList<>();
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            buffer.getInt();
+            types.add(buffer.get(buffer.position()));
+            buffer.position(buffer.position() + length);
+        }
+        return types;
+    }
+
+    /**
+     * Replaces the autosave with an empty snapshot of a later generation and a
+     * journal of the given version holding the given record.
+     */
+    private void writeOldGeneration(int version, byte[] record) throws Exception {
+        onEdt(() -> journal.close());
+        SceneData empty = SceneData.captureSettings(null, new MenubarAttributeHolder());
+        SceneFile.write(empty, directory.resolve("snapshot-10." + SceneFile.FILE_EXTENSION).toFile(), false);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeInt(version);
+        CRC32 checksum = new CRC32();
+        checksum.update(record);
+        out.writeInt(record.length);
+        out.writeInt((int) checksum.getValue());
+        out.write(record);
+        Files.write(directory.resolve("journal-10"), bytes.toByteArray());
+    }
+
+    /**
+     * @param withVision whether to write the vision radius, which version 1
+     *                   journals didn't have yet
+     */
+    private static byte[] tokenAdded(UUID id, String name, boolean withVision) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TOKEN_ADDED);
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+        out.writeDouble(5);
+        out.writeDouble(6);
+        SceneFile.writeString(out, name);
+        SceneFile.writeString(out, "");
+        SceneFile.writeString(out, "");
+        out.writeInt(3);
+        out.writeByte(TokenSize.Medium.ordinal());
+        out.writeByte(Friendlieness.Neutral.ordinal());
+        SceneFile.writeString(out, "");
+        if (withVision)
+            out.writeDouble(90);
+        return bytes.toByteArray();
+    }
+
+    private interface EdtTask {
+        void run() throws Exception;
+    }
+
+    private static void onEdt(EdtTask task) throws InterruptedException, InvocationTargetException {
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+}